@@ -0,0 +1,199 @@
+package uk.co.complex.lvs.cm;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * AuctionUncrossing is responsible for uncrossing the buy and sell queues of a product at the end
+ * of a call auction. All crossing orders are matched in bulk at a single equilibrium price.
+ *
+ * The equilibrium price is the price at which the most volume can be executed. If several prices
+ * execute the same volume, then the price with the smallest surplus (the unmatched volume at that
+ * price) is chosen. If there still are several prices, then the highest is chosen if there is a
+ * surplus on the buy side, the lowest if there is a surplus on the sell side, and the price in the
+ * middle otherwise.
+ */
+public class AuctionUncrossing {
+    /**
+     * Equilibrium is the result of an auction: the price at which it uncrosses, the volume which is
+     * executed at that price and the surplus which is left.
+     */
+    public static class Equilibrium {
+        private final float mPrice;
+        private final long mVolume;
+        private final long mSurplus;
+
+        Equilibrium(float price, long volume, long surplus) {
+            mPrice = price;
+            mVolume = volume;
+            mSurplus = surplus;
+        }
+
+        /**
+         * Returns the equilibrium price.
+         * @return the equilibrium price
+         */
+        public float getPrice() {
+            return mPrice;
+        }
+
+        /**
+         * Returns the volume which is executed at the equilibrium price.
+         * @return the executed volume
+         */
+        public long getVolume() {
+            return mVolume;
+        }
+
+        /**
+         * Returns the volume which cannot be executed at the equilibrium price on the side with
+         * the most volume.
+         * @return the surplus
+         */
+        public long getSurplus() {
+            return mSurplus;
+        }
+    }
+
+    /**
+     * Finds the equilibrium price of the given queues. The orders in each queue are first
+     * aggregated into price levels, after which all candidate prices are visited in a single pass.
+     * @param buyQueue the buy queue
+     * @param sellQueue the sell queue
+     * @return the equilibrium, or null if the queues do not cross
+     */
+    public static Equilibrium findEquilibrium(PriceTimePriorityQueue buyQueue,
+                                              PriceTimePriorityQueue sellQueue) {
+        if (buyQueue.isEmpty() || sellQueue.isEmpty() ||
+                buyQueue.first().getPrice() < sellQueue.first().getPrice()) {
+            return null;
+        }
+
+        // Buy levels from best (highest) to worst, sell levels from best (lowest) to worst
+        final float[] buyPrices = new float[buyQueue.size()];
+        final long[] buyVolumes = new long[buyQueue.size()];
+        final int buyLevels = aggregate(buyQueue, buyPrices, buyVolumes);
+        final float[] sellPrices = new float[sellQueue.size()];
+        final long[] sellVolumes = new long[sellQueue.size()];
+        final int sellLevels = aggregate(sellQueue, sellPrices, sellVolumes);
+
+        long totalBuy = 0;
+        for (int i = 0; i < buyLevels; i++) totalBuy += buyVolumes[i];
+
+        // Visit the candidate prices from low to high. At a price p, the executable buy volume is
+        // the volume of buy levels at or above p, the sell volume that of sell levels at or below p.
+        int bi = buyLevels - 1;
+        int si = 0;
+        long sellAtOrBelow = 0;
+        long buyBelow = 0;
+        long bestVolume = 0;
+        long bestSurplus = Long.MAX_VALUE;
+        float lowPrice = 0;
+        float highPrice = 0;
+        long lowImbalance = 0;
+        long highImbalance = 0;
+        while (bi >= 0 || si < sellLevels) {
+            final float price;
+            if (bi < 0) {
+                price = sellPrices[si];
+            } else if (si >= sellLevels) {
+                price = buyPrices[bi];
+            } else {
+                price = Math.min(buyPrices[bi], sellPrices[si]);
+            }
+
+            if (si < sellLevels && sellPrices[si] == price) sellAtOrBelow += sellVolumes[si++];
+            final long buyAtOrAbove = totalBuy - buyBelow;
+            final long volume = Math.min(buyAtOrAbove, sellAtOrBelow);
+            final long imbalance = buyAtOrAbove - sellAtOrBelow;
+            final long surplus = Math.abs(imbalance);
+
+            if (volume > bestVolume || (volume == bestVolume && surplus < bestSurplus)) {
+                bestVolume = volume;
+                bestSurplus = surplus;
+                lowPrice = price;
+                highPrice = price;
+                lowImbalance = imbalance;
+                highImbalance = imbalance;
+            } else if (volume == bestVolume && surplus == bestSurplus) {
+                highPrice = price;
+                highImbalance = imbalance;
+            }
+
+            if (bi >= 0 && buyPrices[bi] == price) buyBelow += buyVolumes[bi--];
+        }
+
+        if (bestVolume == 0) return null;
+
+        final float price;
+        if (highImbalance > 0) {
+            price = highPrice;
+        } else if (lowImbalance < 0) {
+            price = lowPrice;
+        } else {
+            price = (lowPrice + highPrice)/2;
+        }
+        return new Equilibrium(price, bestVolume, bestSurplus);
+    }
+
+    /**
+     * Aggregates the orders of a queue into price levels, in the order of the queue.
+     * @return the number of levels
+     */
+    private static int aggregate(PriceTimePriorityQueue queue, float[] prices, long[] volumes) {
+        int levels = 0;
+        for (Order o : queue) {
+            if (levels == 0 || prices[levels - 1] != o.getPrice()) {
+                prices[levels] = o.getPrice();
+                volumes[levels] = 0;
+                levels++;
+            }
+            volumes[levels - 1] += o.getRemainingAmount();
+        }
+        return levels;
+    }
+
+    /**
+     * Uncrosses the given queues: all orders which cross the equilibrium price are matched in bulk,
+     * in price-time priority, at the equilibrium price. Completed orders are removed from the queues.
+     * @param buyQueue the buy queue
+     * @param sellQueue the sell queue
+     * @param policy the matching policy of the product, which is notified of the traded orders
+     * @param time the execution time of the trades
+     * @return the records of all the trades made
+     */
+    public static List<Trade> uncross(PriceTimePriorityQueue buyQueue,
+                                      PriceTimePriorityQueue sellQueue, MatchingPolicy policy,
+                                      OffsetDateTime time) {
+        if (buyQueue.getSide() != Side.BUY || sellQueue.getSide() != Side.SELL) {
+            throw new IllegalArgumentException("The queues should be a buy and a sell queue");
+        }
+
+        final Equilibrium equilibrium = findEquilibrium(buyQueue, sellQueue);
+        final List<Trade> trades = new ArrayList<>();
+        if (equilibrium == null) return trades;
+
+        final float price = equilibrium.getPrice();
+        long remaining = equilibrium.getVolume();
+        while (remaining > 0) {
+            final Order buy = buyQueue.first();
+            final Order sell = sellQueue.first();
+            final int amount = (int) Math.min(remaining,
+                    Math.min(buy.getRemainingAmount(), sell.getRemainingAmount()));
+
+            MatchingAlgorithm.fillOutsidePolicy(buy, amount, buyQueue, policy);
+            MatchingAlgorithm.fillOutsidePolicy(sell, amount, sellQueue, policy);
+            trades.add(new Trade(buy.getProduct(), buy.getActor(), sell.getActor(), price, amount,
+                    time, buy.getId(), sell.getId()));
+
+            remaining -= amount;
+        }
+
+        return trades;
+    }
+}
@@ -1,7 +1,6 @@
 package uk.co.complex.lvs.cm;
 
 import uk.co.complex.lvs.cm.datamodel.Book;
-import uk.co.complex.lvs.cm.datamodel.Order;
 import uk.co.complex.lvs.cm.datamodel.Product;
 import uk.co.complex.lvs.cm.datamodel.Trade;
 
@@ -9,7 +8,8 @@ import uk.co.complex.lvs.cm.datamodel.Trade;
  * Created by Lex van der Stoep on 06/12/2017.
  *
  * BookPrinter is a trade listener which prints the entire buy queue, sell queue and the book
- * to System.out on each update.
+ * to System.out on each update. The queues are read from immutable snapshots, so the printer
+ * can also be used from a thread other than the one placing orders.
  */
 public class BookPrinter implements TradeListener {
     @Override
@@ -19,16 +19,16 @@ public class BookPrinter implements TradeListener {
         System.out.println("==============");
         System.out.println("Buy queue:");
         for (Product p: manager.getProducts()) {
-            final PriceTimePriorityQueue buyQueue = manager.getBuyQueue(p);
-            for (Order buyOrder : buyQueue) {
-                System.out.println(buyOrder);
+            final BookSnapshot snapshot = manager.getBookSnapshot(p);
+            for (BookSnapshot.Entry buyOrder : snapshot.getBids()) {
+                System.out.println(p.getName() + " " + buyOrder);
             }
         }
         System.out.println("Sell queue:");
         for (Product p: manager.getProducts()) {
-            final PriceTimePriorityQueue sellQueue = manager.getSellQueue(p);
-            for (Order sellOrder : sellQueue) {
-                System.out.println(sellOrder);
+            final BookSnapshot snapshot = manager.getBookSnapshot(p);
+            for (BookSnapshot.Entry sellOrder : snapshot.getAsks()) {
+                System.out.println(p.getName() + " " + sellOrder);
             }
         }
         System.out.println("Book:");
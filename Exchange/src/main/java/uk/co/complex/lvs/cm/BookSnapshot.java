@@ -0,0 +1,239 @@
+package uk.co.complex.lvs.cm;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+/**
+ * BookSnapshot is an immutable, versioned view of all the orders queued for a product, in
+ * price-time priority. The orders are copied into the snapshot, so later trades and cancellations
+ * do not change it, and it can be read from any thread without taking the lock of the market
+ * manager (see {@link MarketManager#getBookSnapshot(Product)}).
+ */
+public final class BookSnapshot {
+    private final Product mProduct;
+    private final long mVersion;
+    private final List<Entry> mBids;
+    private final List<Entry> mAsks;
+
+    BookSnapshot(Product product, long version, List<Entry> bids, List<Entry> asks) {
+        mProduct = product;
+        mVersion = version;
+        mBids = bids;
+        mAsks = asks;
+    }
+
+    /**
+     * Copies the orders of a queue into an unmodifiable list, best first.
+     */
+    static List<Entry> copy(PriceTimePriorityQueue queue) {
+        final List<Entry> entries = new ArrayList<>(queue.size());
+        for (Order o : queue) {
+            entries.add(new Entry(o));
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Returns the product.
+     * @return the product
+     */
+    public Product getProduct() {
+        return mProduct;
+    }
+
+    /**
+     * Returns the version of the queues of the product this snapshot was taken from. It matches
+     * the version of the {@link TopOfBook} of the same state.
+     * @return the version
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Returns the buy orders, best first.
+     * @return an unmodifiable list of the buy orders
+     */
+    public List<Entry> getBids() {
+        return mBids;
+    }
+
+    /**
+     * Returns the sell orders, best first.
+     * @return an unmodifiable list of the sell orders
+     */
+    public List<Entry> getAsks() {
+        return mAsks;
+    }
+
+    /**
+     * Returns the orders of one side, best first.
+     * @param side the side
+     * @return an unmodifiable list of the orders of that side
+     */
+    public List<Entry> getOrders(Side side) {
+        return (side == Side.BUY)? mBids : mAsks;
+    }
+
+    /**
+     * Aggregates the orders of one side into price levels, best first.
+     * @param side the side
+     * @return the price levels of that side
+     */
+    public List<Level> getLevels(Side side) {
+        final List<Level> levels = new ArrayList<>();
+        float price = Float.NaN;
+        int amount = 0;
+        int orders = 0;
+        for (Entry e : getOrders(side)) {
+            if (e.getPrice() != price) {
+                if (orders > 0) levels.add(new Level(price, amount, orders));
+                price = e.getPrice();
+                amount = 0;
+                orders = 0;
+            }
+            amount += e.getRemainingAmount();
+            orders++;
+        }
+        if (orders > 0) levels.add(new Level(price, amount, orders));
+        return levels;
+    }
+
+    /**
+     * Entry is a copy of an order as it was queued when the snapshot was taken.
+     */
+    public static final class Entry {
+        private final long mId;
+        private final Account mActor;
+        private final Side mSide;
+        private final float mPrice;
+        private final int mAmount;
+        private final int mRemainingAmount;
+        private final OffsetDateTime mTime;
+
+        private Entry(Order order) {
+            mId = order.getId();
+            mActor = order.getActor();
+            mSide = order.getSide();
+            mPrice = order.getPrice();
+            mAmount = order.getAmount();
+            mRemainingAmount = order.getRemainingAmount();
+            mTime = order.getTime();
+        }
+
+        /**
+         * Returns the identifier of the order.
+         * @return the order identifier
+         */
+        public long getId() {
+            return mId;
+        }
+
+        /**
+         * Returns the account which placed the order.
+         * @return the account
+         */
+        public Account getActor() {
+            return mActor;
+        }
+
+        /**
+         * Returns the side of the order.
+         * @return the side
+         */
+        public Side getSide() {
+            return mSide;
+        }
+
+        /**
+         * Returns the limit price of the order.
+         * @return the price
+         */
+        public float getPrice() {
+            return mPrice;
+        }
+
+        /**
+         * Returns the original amount of the order.
+         * @return the amount
+         */
+        public int getAmount() {
+            return mAmount;
+        }
+
+        /**
+         * Returns the amount of the order which was still queued.
+         * @return the remaining amount
+         */
+        public int getRemainingAmount() {
+            return mRemainingAmount;
+        }
+
+        /**
+         * Returns the time at which the order was placed.
+         * @return the time
+         */
+        public OffsetDateTime getTime() {
+            return mTime;
+        }
+
+        @Override
+        public String toString() {
+            return ((mSide == Side.BUY)? "Buy " : "Sell ") + "from " + mActor.getName() + ": (" +
+                    mRemainingAmount + "/" + mAmount + ")x" + String.format("%.2f", mPrice) +
+                    " @ " + mTime.format(DateTimeFormatter.ISO_LOCAL_TIME);
+        }
+    }
+
+    /**
+     * Level is the total remaining amount of the orders at one price.
+     */
+    public static final class Level {
+        private final float mPrice;
+        private final int mAmount;
+        private final int mOrders;
+
+        private Level(float price, int amount, int orders) {
+            mPrice = price;
+            mAmount = amount;
+            mOrders = orders;
+        }
+
+        /**
+         * Returns the price of the level.
+         * @return the price
+         */
+        public float getPrice() {
+            return mPrice;
+        }
+
+        /**
+         * Returns the total remaining amount at the level.
+         * @return the amount
+         */
+        public int getAmount() {
+            return mAmount;
+        }
+
+        /**
+         * Returns the number of orders at the level.
+         * @return the number of orders
+         */
+        public int getOrders() {
+            return mOrders;
+        }
+
+        @Override
+        public String toString() {
+            return mAmount + "x" + String.format("%.2f", mPrice) + " (" + mOrders + ")";
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package uk.co.complex.lvs.cm;
+
+import uk.co.complex.lvs.cm.datamodel.Product;
+
+/**
+ * BookView publishes the state of the queues of one product to readers on other threads. The
+ * market manager calls {@link #publish} under its lock after each change of the queues; readers
+ * only read the volatile references, so they never take the lock and always see a consistent,
+ * immutable state.
+ *
+ * The top of book is published on every change. Full-depth snapshots are only published once a
+ * reader has asked for them, as copying the queues costs time on the matching thread. A side
+ * which did not change shares its list of orders with the previous snapshot.
+ */
+final class BookView {
+    private long mVersion;
+    private volatile TopOfBook mTop;
+    private volatile BookSnapshot mSnapshot;
+
+    BookView(Product product) {
+        mTop = TopOfBook.empty(product);
+    }
+
+    /**
+     * Publishes the new state of the queues. Must be called under the lock of the market manager.
+     */
+    void publish(PriceTimePriorityQueue buyQueue, boolean buyChanged,
+                 PriceTimePriorityQueue sellQueue, boolean sellChanged) {
+        final long version = ++mVersion;
+        final BookSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            mSnapshot = new BookSnapshot(snapshot.getProduct(), version,
+                    buyChanged? BookSnapshot.copy(buyQueue) : snapshot.getBids(),
+                    sellChanged? BookSnapshot.copy(sellQueue) : snapshot.getAsks());
+        }
+        mTop = TopOfBook.next(mTop, version, buyQueue, buyChanged, sellQueue, sellChanged);
+    }
+
+    TopOfBook getTopOfBook() {
+        return mTop;
+    }
+
+    /**
+     * Returns the latest snapshot, or null if snapshots have not been enabled yet.
+     */
+    BookSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Starts publishing full-depth snapshots. Must be called under the lock of the market manager.
+     */
+    BookSnapshot enableSnapshots(PriceTimePriorityQueue buyQueue,
+                                 PriceTimePriorityQueue sellQueue) {
+        if (mSnapshot == null) {
+            mSnapshot = new BookSnapshot(mTop.getProduct(), mVersion,
+                    BookSnapshot.copy(buyQueue), BookSnapshot.copy(sellQueue));
+        }
+        return mSnapshot;
+    }
+}
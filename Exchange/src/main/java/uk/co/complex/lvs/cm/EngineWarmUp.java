@@ -0,0 +1,226 @@
+package uk.co.complex.lvs.cm;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+
+/**
+ * EngineWarmUp warms up the matching engine before a market opens. Right after the JVM starts,
+ * the hot paths (placing, matching, queueing, cancelling and amending orders, risk checks, the
+ * record book and the listeners) run in the interpreter or in lightly optimised code, so the first
+ * orders of the day would see latencies an order of magnitude worse than later ones.
+ *
+ * The warm-up runs rounds of random synthetic flow against a throwaway shadow market, with
+ * products and accounts of its own and listeners which do nothing, until the JIT compiler has had
+ * no work for a few rounds (or a maximum number of rounds has run). The shadow market is then
+ * discarded, so no state is left behind, except that the order identifiers used by the synthetic
+ * orders are not reused.
+ *
+ * The shadow market uses the same kind of matching policy as the real market, so that the code of
+ * that policy is compiled as well. Only the classes used by the shadow market are warmed up, so
+ * e.g. the listeners of the real market are still compiled on their first calls.
+ */
+public class EngineWarmUp {
+    public static final int DEFAULT_ORDERS_PER_ROUND = 5000;
+    public static final int DEFAULT_MAX_ROUNDS = 40;
+    private static final int MIN_ROUNDS = 4;
+    private static final int QUIET_ROUNDS = 2;
+    /** Rounds which compile for no longer than this are counted as quiet. */
+    private static final long QUIET_COMPILATION_MILLIS = 2;
+    private static final int PRODUCTS = 4;
+    private static final int ACCOUNTS = 4;
+
+    private final Supplier<MatchingPolicy> mPolicies;
+    private int mOrdersPerRound = DEFAULT_ORDERS_PER_ROUND;
+    private int mMaxRounds = DEFAULT_MAX_ROUNDS;
+
+    /**
+     * Constructs a warm-up of markets which use the FIFO matching policy.
+     */
+    public EngineWarmUp() {
+        this(FifoMatchingPolicy::new);
+    }
+
+    /**
+     * Constructs a warm-up of markets which use another matching policy.
+     * @param policies creates the policy of each product of the shadow market
+     */
+    public EngineWarmUp(Supplier<MatchingPolicy> policies) {
+        mPolicies = policies;
+    }
+
+    /**
+     * Sets the number of orders placed in each round.
+     * @param orders the number of orders
+     */
+    public void setOrdersPerRound(int orders) {
+        if (orders <= 0) throw new IllegalArgumentException("A round should place orders (was " +
+                orders + ")");
+        mOrdersPerRound = orders;
+    }
+
+    /**
+     * Sets the maximum number of rounds, after which the warm-up stops even if the compiler is
+     * still busy.
+     * @param rounds the maximum number of rounds
+     */
+    public void setMaxRounds(int rounds) {
+        if (rounds <= 0) throw new IllegalArgumentException("The warm-up should run at least " +
+                "one round (was " + rounds + ")");
+        mMaxRounds = rounds;
+    }
+
+    /**
+     * Runs the warm-up.
+     * @return the report of the warm-up
+     */
+    public Report run() {
+        final long start = System.nanoTime();
+        final CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+        final boolean monitored = compiler != null &&
+                compiler.isCompilationTimeMonitoringSupported();
+        final long compilationStart = monitored? compiler.getTotalCompilationTime() : 0;
+
+        final Map<Product, MatchingPolicy> policies = new LinkedHashMap<>();
+        for (int i = 0; i < PRODUCTS; i++) {
+            policies.put(new Product("WARMUP" + i), mPolicies.get());
+        }
+        final List<Product> products = new ArrayList<>(policies.keySet());
+        final List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            final Account account = new Account("WarmUp" + i);
+            for (Product p : products) account.updateBook(p, Integer.MAX_VALUE / 2);
+            accounts.add(account);
+        }
+        final MarketManager shadow = new MarketManager(policies);
+        shadow.addOrderListener(new OrderListener() { });
+        shadow.addTradeListener(manager -> { });
+
+        final Random random = new Random(42);
+        final List<Order> open = new ArrayList<>();
+        final List<Long> roundNanos = new ArrayList<>();
+        long compilation = compilationStart;
+        int quiet = 0;
+        int rounds = 0;
+        while (rounds < mMaxRounds) {
+            final long roundStart = System.nanoTime();
+            round(shadow, products, accounts, open, random);
+            roundNanos.add(System.nanoTime() - roundStart);
+            rounds++;
+            if (!monitored) continue;
+            final long total = compiler.getTotalCompilationTime();
+            quiet = (total - compilation <= QUIET_COMPILATION_MILLIS)? quiet + 1 : 0;
+            compilation = total;
+            if (rounds >= MIN_ROUNDS && quiet >= QUIET_ROUNDS) break;
+        }
+        final long compilationMillis = monitored? compilation - compilationStart : -1;
+        return new Report(rounds, mOrdersPerRound, roundNanos, compilationMillis,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Places a round of random orders around a fixed price, most of which rest and some of which
+     * cross, and cancels and amends some of the resting orders.
+     */
+    private void round(MarketManager shadow, List<Product> products, List<Account> accounts,
+                       List<Order> open, Random random) {
+        for (int i = 0; i < mOrdersPerRound; i++) {
+            final int action = random.nextInt(10);
+            if (action < 2 && !open.isEmpty()) {
+                final Order order = open.remove(random.nextInt(open.size()));
+                shadow.cancelOrder(order);
+                continue;
+            }
+            if (action < 3 && !open.isEmpty()) {
+                final Order order = open.get(random.nextInt(open.size()));
+                if (order.getStatus() == Status.NEW || order.getStatus() == Status.PARTIAL) {
+                    try {
+                        shadow.amendOrder(order, order.getPrice() + (random.nextInt(3) - 1) * 0.01f,
+                                1 + random.nextInt(50));
+                    } catch (IllegalTradeException e) {
+                        throw new IllegalStateException("The warm-up amendment failed", e);
+                    }
+                }
+                continue;
+            }
+            final boolean buy = random.nextBoolean();
+            final Order order = new Order(products.get(random.nextInt(products.size())),
+                    100.0f + (random.nextInt(21) - 10) * 0.01f, 1 + random.nextInt(50),
+                    accounts.get(random.nextInt(accounts.size())), buy? Side.BUY : Side.SELL,
+                    OffsetDateTime.now(shadow.getClock()));
+            try {
+                shadow.placeOrder(order);
+            } catch (IllegalTradeException e) {
+                throw new IllegalStateException("The warm-up order was rejected", e);
+            }
+            if (order.getStatus() != Status.COMPLETED) open.add(order);
+        }
+        // Completed orders no longer need to be cancelled or amended
+        open.removeIf(o -> o.getStatus() != Status.NEW && o.getStatus() != Status.PARTIAL);
+    }
+
+    /**
+     * Report holds what a warm-up did.
+     */
+    public static final class Report {
+        private final int mRounds;
+        private final int mOrdersPerRound;
+        private final List<Long> mRoundNanos;
+        private final long mCompilationMillis;
+        private final long mElapsedMillis;
+
+        private Report(int rounds, int ordersPerRound, List<Long> roundNanos,
+                       long compilationMillis, long elapsedMillis) {
+            mRounds = rounds;
+            mOrdersPerRound = ordersPerRound;
+            mRoundNanos = roundNanos;
+            mCompilationMillis = compilationMillis;
+            mElapsedMillis = elapsedMillis;
+        }
+
+        public int getRounds() {
+            return mRounds;
+        }
+
+        public long getElapsedMillis() {
+            return mElapsedMillis;
+        }
+
+        /**
+         * Returns the time the JIT compiler spent during the warm-up.
+         * @return the compilation time in milliseconds, or -1 if it cannot be monitored
+         */
+        public long getCompilationMillis() {
+            return mCompilationMillis;
+        }
+
+        /**
+         * Returns the mean time per command (place, cancel or amend) of a round.
+         * @param round the round, from 0
+         * @return the mean time in nanoseconds
+         */
+        public double getNanosPerCommand(int round) {
+            return (double) mRoundNanos.get(round) / mOrdersPerRound;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d rounds of %d commands in %d ms (compiling for %d ms): " +
+                    "%.0f ns per command in the first round, %.0f ns in the last", mRounds,
+                    mOrdersPerRound, mElapsedMillis, mCompilationMillis, getNanosPerCommand(0),
+                    getNanosPerCommand(mRounds - 1));
+        }
+    }
+}
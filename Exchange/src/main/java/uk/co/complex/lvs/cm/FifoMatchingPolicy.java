@@ -0,0 +1,20 @@
+package uk.co.complex.lvs.cm;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * FifoMatchingPolicy is the price-time priority policy: a new order is matched with the best
+ * opposing price, and orders at the same price are matched in the order in which they were placed.
+ * See {@link MatchingAlgorithm}. This policy keeps no state, so it may be shared between products.
+ */
+public class FifoMatchingPolicy implements MatchingPolicy {
+    @Override
+    public List<Trade> matchOrder(Order order, PriceTimePriorityQueue opposingOrderQueue,
+                                  OffsetDateTime time) {
+        return MatchingAlgorithm.matchOrder(order, opposingOrderQueue, time);
+    }
+}
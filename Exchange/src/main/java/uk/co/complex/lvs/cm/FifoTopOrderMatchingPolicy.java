@@ -0,0 +1,157 @@
+package uk.co.complex.lvs.cm;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * FifoTopOrderMatchingPolicy is a FIFO policy with priority allocations. The quantity traded at a
+ * price level is allocated in three steps:
+ * 1. The top order, i.e. the order which set the current best price of its side by improving on
+ *    the previous best price, is filled first. It keeps this priority until it is completed or
+ *    cancelled, or until another order improves on its price.
+ * 2. A percentage of the remaining quantity is allocated to the orders of the lead market makers
+ *    (LMMs), in FIFO order.
+ * 3. The rest is allocated to all orders at the level in FIFO order.
+ *
+ * The policy keeps track of the top order of each side, so an instance should only be used for a
+ * single product.
+ */
+public class FifoTopOrderMatchingPolicy implements MatchingPolicy {
+    private final Set<Account> mLeadMarketMakers;
+    private final int mLmmPercentage;
+    private final List<Order> mLevelOrders = new ArrayList<>();
+    private Order mTopBuyOrder;
+    private Order mTopSellOrder;
+
+    /**
+     * Constructs a FIFO policy with a top order allocation, but without lead market makers.
+     */
+    public FifoTopOrderMatchingPolicy() {
+        this(Collections.emptyList(), 0);
+    }
+
+    /**
+     * Constructs a FIFO policy with a top order allocation and an allocation for lead market makers.
+     * @param leadMarketMakers the accounts of the lead market makers
+     * @param lmmPercentage the percentage (0-100) of the quantity at a level, after the top order
+     *                      allocation, which is allocated to the lead market makers
+     */
+    public FifoTopOrderMatchingPolicy(Collection<Account> leadMarketMakers, int lmmPercentage) {
+        if (lmmPercentage < 0 || lmmPercentage > 100) {
+            throw new IllegalArgumentException("The LMM percentage should be between 0 and 100 " +
+                    "(was " + lmmPercentage + ")");
+        }
+        mLeadMarketMakers = new HashSet<>(leadMarketMakers);
+        mLmmPercentage = lmmPercentage;
+    }
+
+    /**
+     * Returns the current top order of the given side.
+     * @param side the side
+     * @return the top order, or null if the side has no top order
+     */
+    public Order getTopOrder(Side side) {
+        return (side == Side.BUY)? mTopBuyOrder : mTopSellOrder;
+    }
+
+    @Override
+    public List<Trade> matchOrder(Order order, PriceTimePriorityQueue opposingOrderQueue,
+                                  OffsetDateTime time) {
+        MatchingAlgorithm.checkSides(order, opposingOrderQueue);
+
+        final List<Trade> matchedOrders = new ArrayList<>();
+        final Side opposingSide = opposingOrderQueue.getSide();
+
+        while (!opposingOrderQueue.isEmpty() && order.getStatus() != Status.COMPLETED) {
+            final float price = opposingOrderQueue.first().getPrice();
+            if (!MatchingAlgorithm.crosses(order, price)) break;
+
+            mLevelOrders.clear();
+            for (Order o : opposingOrderQueue) {
+                if (o.getPrice() != price) break;
+                mLevelOrders.add(o);
+            }
+
+            // Top order allocation
+            final Order top = getTopOrder(opposingSide);
+            if (top != null && top.getPrice() == price) {
+                fill(order, top, order.getRemainingAmount(), time, matchedOrders);
+            }
+
+            // Lead market maker allocation
+            if (!mLeadMarketMakers.isEmpty()) {
+                int lmmQuantity = (int) ((long) order.getRemainingAmount() * mLmmPercentage / 100);
+                for (int i = 0; i < mLevelOrders.size() && lmmQuantity > 0; i++) {
+                    final Order o = mLevelOrders.get(i);
+                    if (mLeadMarketMakers.contains(o.getActor())) {
+                        lmmQuantity -= fill(order, o, lmmQuantity, time, matchedOrders);
+                    }
+                }
+            }
+
+            // FIFO allocation
+            for (int i = 0; i < mLevelOrders.size() && order.getStatus() != Status.COMPLETED;
+                 i++) {
+                fill(order, mLevelOrders.get(i), order.getRemainingAmount(), time, matchedOrders);
+            }
+
+            for (Order o : mLevelOrders) {
+                if (o.getStatus() == Status.COMPLETED) {
+                    opposingOrderQueue.remove(o);
+                    if (o == top) setTopOrder(opposingSide, null);
+                }
+            }
+        }
+        mLevelOrders.clear();
+
+        return matchedOrders;
+    }
+
+    /**
+     * Trades up to the given amount between the new order and a resting order.
+     * @return the amount which was traded
+     */
+    private int fill(Order order, Order restingOrder, int maxAmount, OffsetDateTime time,
+                     List<Trade> matchedOrders) {
+        final int amount = Math.min(maxAmount, Math.min(order.getRemainingAmount(),
+                restingOrder.getRemainingAmount()));
+        if (amount > 0) {
+            matchedOrders.add(MatchingAlgorithm.trade(order, restingOrder, amount, time));
+        }
+        return amount;
+    }
+
+    @Override
+    public void orderAdded(Order order, PriceTimePriorityQueue queue) {
+        // An order improves on the best price if it is first and alone at its price level
+        if (queue.first() != order) return;
+        final Order next = queue.higher(order);
+        if (next == null || next.getPrice() != order.getPrice()) {
+            setTopOrder(queue.getSide(), order);
+        }
+    }
+
+    @Override
+    public void orderRemoved(Order order, PriceTimePriorityQueue queue) {
+        if (getTopOrder(queue.getSide()) == order) setTopOrder(queue.getSide(), null);
+    }
+
+    private void setTopOrder(Side side, Order order) {
+        if (side == Side.BUY) {
+            mTopBuyOrder = order;
+        } else {
+            mTopSellOrder = order;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package uk.co.complex.lvs.cm;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * FrequentBatchAuction trades all products of a market in frequent batch auctions, as an
+ * alternative to continuous matching. Orders placed during a batch interval (e.g. 100 ms) are
+ * collected, and at the end of the interval each product is uncrossed in a uniform-price auction.
+ * The products of a batch are uncrossed in parallel.
+ */
+public class FrequentBatchAuction {
+    /**
+     * BatchListener is notified each time a batch has been uncrossed. It is notified while the
+     * market manager is locked, so no orders are placed in between the batch and the notification.
+     */
+    public interface BatchListener {
+        /**
+         * Notifies the listener that a batch has been uncrossed.
+         * @param trades the trades made in the batch
+         */
+        void batchCompleted(List<Trade> trades);
+    }
+
+    private final MarketManager mManager;
+    private final long mInterval;
+    private final Executor mExecutor;
+    private final ScheduledExecutorService mScheduler;
+    private final List<BatchListener> mBatchListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructs frequent batch auctions for the given market, which uncross the products of a
+     * batch on the common fork-join pool.
+     * @param manager the market manager
+     * @param interval the length (in milliseconds) of a batch interval
+     */
+    public FrequentBatchAuction(MarketManager manager, long interval) {
+        this(manager, interval, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs frequent batch auctions for the given market.
+     * @param manager the market manager
+     * @param interval the length (in milliseconds) of a batch interval
+     * @param executor the executor on which the products of a batch are uncrossed
+     */
+    public FrequentBatchAuction(MarketManager manager, long interval, Executor executor) {
+        if (interval <= 0) throw new IllegalArgumentException("The batch interval should be " +
+                "positive (was " + interval + ")");
+        mManager = manager;
+        mInterval = interval;
+        mExecutor = executor;
+        mScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "batch-auction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds the given batch listener.
+     * @param listener the batch listener to be added
+     */
+    public void addBatchListener(BatchListener listener) {
+        mBatchListeners.add(listener);
+    }
+
+    /**
+     * Removes the given batch listener.
+     * @param listener the batch listener to be removed
+     */
+    public void removeBatchListener(BatchListener listener) {
+        mBatchListeners.remove(listener);
+    }
+
+    /**
+     * Puts all products of the market in batch auctions and starts uncrossing a batch at the end of
+     * each interval.
+     */
+    public void start() {
+        for (Product p : mManager.getProducts()) {
+            mManager.startBatchAuctions(p);
+        }
+        mScheduler.scheduleAtFixedRate(() -> {
+            try {
+                runBatch();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, mInterval, mInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Uncrosses the current batch. This is done automatically at the end of each interval once the
+     * auctions are started.
+     * @return the trades made in the batch
+     */
+    public List<Trade> runBatch() {
+        synchronized (mManager) {
+            final List<Trade> trades = mManager.uncrossBatch(mExecutor);
+            mBatchListeners.forEach((BatchListener l) -> l.batchCompleted(trades));
+            return trades;
+        }
+    }
+
+    /**
+     * Stops the batch auctions. The last batch of each product is uncrossed, after which the
+     * products return to continuous trading.
+     */
+    public void stop() {
+        mScheduler.shutdown();
+        try {
+            mScheduler.awaitTermination(mInterval, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Product p : mManager.getProducts()) {
+            if (mManager.getTradingPhase(p) == TradingPhase.BATCH_AUCTION) mManager.uncross(p);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package uk.co.complex.lvs.cm;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import uk.co.complex.lvs.cm.datamodel.CalendarSpread;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * ImpliedMatcher matches orders across the products of the calendar spreads of a market. The near
+ * leg, the far leg and the spread of a {@link CalendarSpread} are related by
+ * near - far - spread = 0, so the best orders of any two of them imply an order in the third:
+ * - implied in: a sell order of the near leg and a buy order of the far leg imply a sell order of
+ *   the spread, at the difference of their prices (and the other way round for a buy order)
+ * - implied out: a sell order of the spread and a sell order of the far leg imply a sell order of
+ *   the near leg, at the sum of their prices; likewise, a spread order and a near leg order imply
+ *   an order of the far leg
+ *
+ * An incoming order is matched with the direct orders of its product and the implied orders in
+ * price order. At the same price, direct orders go first. An implied fill trades the incoming order
+ * and both resting orders at once, under the lock of the market manager, so the legs are never
+ * traded separately. As in a direct match, the incoming order trades at the average of its price
+ * and the implied price; the other half of the difference is split evenly between the two resting
+ * orders, so that the prices of the legs still add up (near - far = spread). A fill is recorded
+ * as a trade of each leg, and both trades refer to the spread order (see
+ * {@link Trade#fills(Product, Product)}).
+ *
+ * The implied top of book of each product is kept up to date incrementally: when the top of book
+ * of a product is published, only the implied prices of the other products of its spreads are
+ * derived again from the published tops, which takes constant time. Before an order is matched,
+ * the implied top of book tells whether it can match any implied order at all, so the orders
+ * which cannot (most of them) are matched by their matching policy as before. Only first
+ * generation implied orders are derived: implied orders do not imply further orders.
+ *
+ * The matcher is used under the lock of the market manager; the implied tops of book can be read
+ * from any thread.
+ */
+final class ImpliedMatcher {
+    /**
+     * The coefficients of the near leg, the far leg and the spread in near - far - spread = 0.
+     */
+    private static final int[] COEFFICIENTS = {1, -1, -1};
+    private static final int NEAR = 0;
+    private static final int FAR = 1;
+    private static final int SPREAD = 2;
+
+    private final Map<Product, List<Relation>> mRelations = new HashMap<>();
+    private final Map<Product, TopOfBook> mImplied = new ConcurrentHashMap<>();
+    private final Map<Product, PriceTimePriorityQueue> mBuyQueues;
+    private final Map<Product, PriceTimePriorityQueue> mSellQueues;
+    private final Map<Product, MatchingPolicy> mPolicies;
+    private final Map<Product, TradingPhase> mPhases;
+    private final Map<Product, BookView> mViews;
+    private long mVersion;
+
+    ImpliedMatcher(Collection<Product> products, Map<Product, PriceTimePriorityQueue> buyQueues,
+                   Map<Product, PriceTimePriorityQueue> sellQueues,
+                   Map<Product, MatchingPolicy> policies, Map<Product, TradingPhase> phases,
+                   Map<Product, BookView> views) {
+        mBuyQueues = buyQueues;
+        mSellQueues = sellQueues;
+        mPolicies = policies;
+        mPhases = phases;
+        mViews = views;
+        for (Product p : products) {
+            mImplied.put(p, TopOfBook.empty(p));
+            if (!(p instanceof CalendarSpread)) continue;
+            final CalendarSpread spread = (CalendarSpread) p;
+            if (!products.contains(spread.getNearLeg()) || !products.contains(spread.getFarLeg())) {
+                throw new IllegalArgumentException("The legs of a spread should be listed on the " +
+                        "market (spread was " + spread.getName() + ")");
+            }
+            final Relation relation = new Relation(spread);
+            for (Product q : relation.mProducts) {
+                mRelations.computeIfAbsent(q, k -> new ArrayList<>()).add(relation);
+            }
+        }
+    }
+
+    /**
+     * Returns the implied top of book of a product: the best orders implied by its spreads.
+     */
+    TopOfBook getTopOfBook(Product p) {
+        return mImplied.get(p);
+    }
+
+    /**
+     * Derives the implied tops of book which depend on a product again, after the top of book of
+     * the product has been published.
+     */
+    void published(Product p) {
+        final List<Relation> relations = mRelations.get(p);
+        if (relations == null) return;
+        for (Relation r : relations) {
+            for (Product q : r.mProducts) {
+                if (!q.equals(p)) derive(q);
+            }
+        }
+    }
+
+    private void derive(Product p) {
+        float bidPrice = Float.NaN;
+        int bidAmount = 0;
+        float askPrice = Float.NaN;
+        int askAmount = 0;
+        for (Relation r : mRelations.get(p)) {
+            final int i = r.indexOf(p);
+            final int j = (i + 1) % 3;
+            final int k = (i + 2) % 3;
+            final TopOfBook first = mViews.get(r.mProducts[j]).getTopOfBook();
+            final TopOfBook second = mViews.get(r.mProducts[k]).getTopOfBook();
+
+            // An incoming sell order takes the implied bid; an incoming buy order the implied ask
+            final Side firstBid = restingSide(Side.SELL, i, j);
+            final Side secondBid = restingSide(Side.SELL, i, k);
+            final int bid = Math.min(amount(first, firstBid), amount(second, secondBid));
+            if (bid > 0) {
+                final float price = impliedPrice(i, j, price(first, firstBid), k,
+                        price(second, secondBid));
+                if (bidAmount == 0 || price > bidPrice) {
+                    bidPrice = price;
+                    bidAmount = bid;
+                } else if (price == bidPrice) {
+                    bidAmount += bid;
+                }
+            }
+            final int ask = Math.min(amount(first, opposite(firstBid)),
+                    amount(second, opposite(secondBid)));
+            if (ask > 0) {
+                final float price = impliedPrice(i, j, price(first, opposite(firstBid)), k,
+                        price(second, opposite(secondBid)));
+                if (askAmount == 0 || price < askPrice) {
+                    askPrice = price;
+                    askAmount = ask;
+                } else if (price == askPrice) {
+                    askAmount += ask;
+                }
+            }
+        }
+        mImplied.put(p, TopOfBook.of(p, ++mVersion, bidPrice, bidAmount, askPrice, askAmount));
+    }
+
+    private static int amount(TopOfBook top, Side side) {
+        return (side == Side.BUY)? top.getBidAmount() : top.getAskAmount();
+    }
+
+    private static float price(TopOfBook top, Side side) {
+        return (side == Side.BUY)? top.getBidPrice() : top.getAskPrice();
+    }
+
+    /**
+     * Returns whether an order could match an implied order, according to the implied top of book
+     * of its product. If not, it only has to be matched with the direct orders.
+     */
+    boolean crossesImplied(Order order) {
+        if (!mRelations.containsKey(order.getProduct())) return false;
+        final TopOfBook implied = mImplied.get(order.getProduct());
+        if (order.getSide() == Side.BUY) {
+            return implied.hasAsk() && implied.getAskPrice() <= order.getPrice();
+        } else {
+            return implied.hasBid() && implied.getBidPrice() >= order.getPrice();
+        }
+    }
+
+    /**
+     * Matches an order with the direct orders of its product and the implied orders, in price
+     * order. The matched orders are updated, and completed orders are removed from their queues.
+     * @param order the new order to be matched
+     * @param policy the matching policy of the product of the order
+     * @param opposingOrderQueue the queue of direct orders of the opposing side
+     * @param time the execution time of the resulting trades
+     * @param changed the set to which the other products whose queues changed are added
+     * @return the records of all the trades made
+     */
+    List<Trade> matchOrder(Order order, MatchingPolicy policy,
+                           PriceTimePriorityQueue opposingOrderQueue, OffsetDateTime time,
+                           Set<Product> changed) {
+        final List<Trade> trades = new ArrayList<>();
+        while (order.getStatus() != Status.COMPLETED) {
+            final Fill fill = bestFill(order);
+            if (fill == null) {
+                trades.addAll(policy.matchOrder(order, opposingOrderQueue, time));
+                break;
+            }
+            final int direct = directAmount(order, opposingOrderQueue, fill.mPrice);
+            if (direct == 0) {
+                fill(order, fill, time, trades, changed);
+            } else if (!matchDirect(order, direct, policy, opposingOrderQueue, time, trades)) {
+                break;
+            }
+        }
+        return trades;
+    }
+
+    /**
+     * Returns the best implied fill of an order, or null if it does not match any implied order.
+     */
+    private Fill bestFill(Order order) {
+        final List<Relation> relations = mRelations.get(order.getProduct());
+        Fill best = null;
+        for (Relation r : relations) {
+            final int i = r.indexOf(order.getProduct());
+            final int j = (i + 1) % 3;
+            final int k = (i + 2) % 3;
+            if (mPhases.get(r.mProducts[j]) != TradingPhase.CONTINUOUS ||
+                    mPhases.get(r.mProducts[k]) != TradingPhase.CONTINUOUS) {
+                continue;
+            }
+            final PriceTimePriorityQueue first = queue(r.mProducts[j],
+                    restingSide(order.getSide(), i, j));
+            final PriceTimePriorityQueue second = queue(r.mProducts[k],
+                    restingSide(order.getSide(), i, k));
+            if (first.isEmpty() || second.isEmpty()) continue;
+
+            final float price = impliedPrice(i, j, first.first().getPrice(), k,
+                    second.first().getPrice());
+            if (!MatchingAlgorithm.crosses(order, price)) continue;
+            if (best == null || (price != best.mPrice &&
+                    atLeastAsGood(order.getSide(), best.mPrice, price))) {
+                best = new Fill(i, j, first.first(), k, second.first(), price);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the amount of the order which can be matched with direct orders at prices at least
+     * as good as the implied price.
+     */
+    private static int directAmount(Order order, PriceTimePriorityQueue opposingOrderQueue,
+                                    float impliedPrice) {
+        int amount = 0;
+        for (Order o : opposingOrderQueue) {
+            if (!atLeastAsGood(order.getSide(), impliedPrice, o.getPrice())) break;
+            amount += o.getRemainingAmount();
+            if (amount >= order.getRemainingAmount()) return order.getRemainingAmount();
+        }
+        return amount;
+    }
+
+    /**
+     * Matches the given amount of an order with direct orders by the matching policy of its
+     * product. If only part of the order is matched, the policy matches a part with the same
+     * identifier, so that it does not go on to the levels beyond the implied price.
+     * @return false iff nothing could be matched
+     */
+    private static boolean matchDirect(Order order, int amount, MatchingPolicy policy,
+                                       PriceTimePriorityQueue opposingOrderQueue,
+                                       OffsetDateTime time, List<Trade> trades) {
+        if (amount == order.getRemainingAmount()) {
+            final List<Trade> matched = policy.matchOrder(order, opposingOrderQueue, time);
+            trades.addAll(matched);
+            return !matched.isEmpty();
+        }
+        final Order part = new Order(order.getId(), order.getProduct(), order.getPrice(), amount,
+                order.getActor(), order.getSide(), order.getTime());
+        final List<Trade> matched = policy.matchOrder(part, opposingOrderQueue, time);
+        if (matched.isEmpty()) return false;
+        order.tradeProduct(amount - part.getRemainingAmount());
+        trades.addAll(matched);
+        return true;
+    }
+
+    /**
+     * Trades an order with the two resting orders of an implied fill, for as much as all three
+     * have left.
+     */
+    private void fill(Order order, Fill fill, OffsetDateTime time, List<Trade> trades,
+                      Set<Product> changed) {
+        final int amount = Math.min(order.getRemainingAmount(),
+                Math.min(fill.mFirst.getRemainingAmount(), fill.mSecond.getRemainingAmount()));
+        final Order[] orders = new Order[3];
+        orders[fill.mIncoming] = order;
+        orders[fill.mFirstIndex] = fill.mFirst;
+        orders[fill.mSecondIndex] = fill.mSecond;
+
+        // Each resting order moves by half of the improvement in its favour, which moves the
+        // implied price to the average price of the incoming order
+        final float price = (order.getPrice() + fill.mPrice) / 2;
+        final float shift = (price - fill.mPrice) / 2;
+        final float[] prices = new float[3];
+        prices[fill.mIncoming] = price;
+        prices[fill.mFirstIndex] = fill.mFirst.getPrice() -
+                COEFFICIENTS[fill.mIncoming] * COEFFICIENTS[fill.mFirstIndex] * shift;
+        prices[fill.mSecondIndex] = fill.mSecond.getPrice() -
+                COEFFICIENTS[fill.mIncoming] * COEFFICIENTS[fill.mSecondIndex] * shift;
+
+        order.tradeProduct(amount);
+        for (Order resting : new Order[] {fill.mFirst, fill.mSecond}) {
+            MatchingAlgorithm.fillOutsidePolicy(resting, amount,
+                    queue(resting.getProduct(), resting.getSide()),
+                    mPolicies.get(resting.getProduct()));
+            changed.add(resting.getProduct());
+        }
+
+        trades.add(legTrade(orders[NEAR], orders[SPREAD], prices[NEAR], amount, time));
+        trades.add(legTrade(orders[FAR], orders[SPREAD], prices[FAR], amount, time));
+    }
+
+    /**
+     * Records the trade of a leg between an order of the leg and a spread order.
+     */
+    private static Trade legTrade(Order leg, Order spread, float price, int amount,
+                                  OffsetDateTime time) {
+        if (leg.getSide() == Side.BUY) {
+            return new Trade(leg.getProduct(), leg.getActor(), spread.getActor(), price, amount,
+                    time, leg.getId(), spread.getId());
+        } else {
+            return new Trade(leg.getProduct(), spread.getActor(), leg.getActor(), price, amount,
+                    time, spread.getId(), leg.getId());
+        }
+    }
+
+    private PriceTimePriorityQueue queue(Product p, Side side) {
+        return ((side == Side.BUY)? mBuyQueues : mSellQueues).get(p);
+    }
+
+    /**
+     * Returns the side of the resting orders of product j which imply an order of product i for
+     * an incoming order of product i with the given side.
+     */
+    private static Side restingSide(Side incoming, int i, int j) {
+        return (COEFFICIENTS[i] * COEFFICIENTS[j] > 0)? incoming : opposite(incoming);
+    }
+
+    /**
+     * Returns the price of product i implied by the prices of products j and k.
+     */
+    private static float impliedPrice(int i, int j, float priceJ, int k, float priceK) {
+        return -COEFFICIENTS[i] * (COEFFICIENTS[j] * priceJ + COEFFICIENTS[k] * priceK);
+    }
+
+    private static Side opposite(Side side) {
+        return (side == Side.BUY)? Side.SELL : Side.BUY;
+    }
+
+    /**
+     * Returns whether a price is at least as good as a reference price for an order of the given
+     * side, i.e. not higher for a buy order and not lower for a sell order.
+     */
+    private static boolean atLeastAsGood(Side side, float reference, float price) {
+        return (side == Side.BUY)? price <= reference : price >= reference;
+    }
+
+    /**
+     * Relation holds the near leg, the far leg and the spread of a calendar spread.
+     */
+    private static final class Relation {
+        private final Product[] mProducts;
+
+        private Relation(CalendarSpread spread) {
+            mProducts = new Product[] {spread.getNearLeg(), spread.getFarLeg(), spread};
+        }
+
+        private int indexOf(Product p) {
+            for (int i = 0; i < mProducts.length; i++) {
+                if (mProducts[i].equals(p)) return i;
+            }
+            throw new IllegalArgumentException(p.getName() + " is not part of the spread");
+        }
+    }
+
+    /**
+     * Fill is an implied order: the two resting orders which imply it, and its price.
+     */
+    private static final class Fill {
+        private final int mIncoming;
+        private final int mFirstIndex;
+        private final Order mFirst;
+        private final int mSecondIndex;
+        private final Order mSecond;
+        private final float mPrice;
+
+        private Fill(int incoming, int firstIndex, Order first, int secondIndex, Order second,
+                     float price) {
+            mIncoming = incoming;
+            mFirstIndex = firstIndex;
+            mFirst = first;
+            mSecondIndex = secondIndex;
+            mSecond = second;
+            mPrice = price;
+        }
+    }
+}
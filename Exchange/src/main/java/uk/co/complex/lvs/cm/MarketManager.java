@@ -1,19 +1,39 @@
 package uk.co.complex.lvs.cm;
 
+import java.time.Clock;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import uk.co.complex.lvs.cm.datamodel.Account;
 import uk.co.complex.lvs.cm.datamodel.Book;
+import uk.co.complex.lvs.cm.datamodel.CalendarSpread;
 import uk.co.complex.lvs.cm.datamodel.Order;
 import uk.co.complex.lvs.cm.datamodel.Product;
 import uk.co.complex.lvs.cm.datamodel.Side;
 import uk.co.complex.lvs.cm.datamodel.Status;
+import uk.co.complex.lvs.cm.datamodel.TimeInForce;
 import uk.co.complex.lvs.cm.datamodel.Trade;
+import uk.co.complex.lvs.cm.datamodel.TradeArchive;
+import uk.co.complex.lvs.cm.datamodel.TradeQuery;
+import uk.co.complex.lvs.cm.jfr.ListenerCallbackEvent;
+import uk.co.complex.lvs.cm.jfr.MatchCompletedEvent;
+import uk.co.complex.lvs.cm.jfr.OrderCancelledEvent;
+import uk.co.complex.lvs.cm.jfr.OrderReceivedEvent;
+import uk.co.complex.lvs.cm.jfr.OrderRestedEvent;
+import uk.co.complex.lvs.cm.metrics.EngineMetrics;
 import uk.co.complex.lvs.cm.traders.RandomIntervalProductTrader;
 
 /**
@@ -30,13 +50,69 @@ import uk.co.complex.lvs.cm.traders.RandomIntervalProductTrader;
  * - Buy 10 XYZ at 100.01 and Sell 20 XYZ at 100.02 do not match
  * - Buy 10 ABC at 100.00 and Sell 10 XYZ at 100.00 do not match
  *
+ * How the amount of a new order is allocated between matching orders is decided by the matching
+ * policy of the product (see {@link MatchingPolicy}). By default, all products use the FIFO policy
+ * (see {@link MatchingAlgorithm}).
+ *
+ * A product can also be traded in a call auction (e.g. at the open or the close). During the
+ * auction, new orders are only queued. When the auction is uncrossed, all crossing orders are
+ * matched in bulk at a single price (see {@link AuctionUncrossing}), and continuous trading resumes.
+ * Alternatively, a product can be traded in frequent batch auctions, which are uncrossed at the end
+ * of each batch interval (see {@link FrequentBatchAuction}).
+ *
+ * Metrics can be enabled to record the latency of each stage of placing an order, and the activity
+ * of each product (see {@link EngineMetrics}). For profiling, the market manager also emits Java
+ * Flight Recorder events (see the uk.co.complex.lvs.cm.jfr package), which cost next to nothing
+ * when they are not recorded.
+ *
+ * Before an order is matched, it is checked against the risk limits of its account (see
+ * {@link RiskEngine}). By default, the positions of the accounts are updated while the trades are
+ * made; with batched settlement, they are updated on a separate thread (see {@link Settlement}).
+ *
+ * The buy and sell queues may only be read under the lock of the market manager. Other threads
+ * can read the best bid and offer ({@link #getTopOfBook(Product)}) and full-depth snapshots
+ * ({@link #getBookSnapshot(Product)}) instead; these are immutable and never take the lock.
+ *
+ * Good-till-time and good-for-day orders are kept on a timing wheel while they are queued (see
+ * {@link TimingWheel}). The orders which have expired are removed in a single batch before the
+ * next order is matched, or when {@link #expireOrders()} is called.
+ *
+ * The queued orders are also indexed by account, so that all the orders of an account can be
+ * cancelled at once (see {@link #cancelAllOrders(Account, Product, Side)}), e.g. by its kill switch.
+ *
+ * The orders, amendments and cancellations of each account can be rate limited (see
+ * {@link RateLimiter}). The rate limits are checked before the market manager is locked, so a
+ * flooding account is turned away without holding up the others.
+ *
+ * Calendar spreads can be listed together with their legs (see {@link CalendarSpread}). Orders of
+ * a spread then also match with combinations of orders of its legs, and orders of a leg with
+ * combinations of orders of the spread and the other leg (see {@link ImpliedMatcher}). The best
+ * implied orders of each product can be read without the lock
+ * ({@link #getImpliedTopOfBook(Product)}).
  */
 public class MarketManager {
     private final List<Product> mProducts;
     private final Map<Product, PriceTimePriorityQueue> mBuyQueues;
     private final Map<Product, PriceTimePriorityQueue> mSellQueues;
+    private final Map<Product, MatchingPolicy> mPolicies;
+    private final Map<Product, TradingPhase> mPhases;
+    private final Map<Product, BookView> mViews;
+    private final RiskEngine mRisk;
+    private final RateLimiter mRateLimiter;
+    private final ImpliedMatcher mImplied;
+    private final Set<Product> mImpliedChanged = new LinkedHashSet<>();
     private final Book mBook;
     private final List<TradeListener> mTradeListeners;
+    private final List<OrderListener> mOrderListeners;
+    private final TimingWheel<Order> mExpiries;
+    private final Map<Long, TimingWheel.Timer<Order>> mExpiryTimers;
+    private final Map<Long, Order> mRestingOrders;
+    private final Map<Account, Map<Long, Order>> mAccountOrders;
+    private final Set<Account> mKilledAccounts;
+    private EngineMetrics mMetrics;
+    private Settlement mSettlement;
+    private LocalTime mEndOfDay = LocalTime.MIDNIGHT;
+    private volatile Clock mClock = Clock.systemDefaultZone();
 
     /**
      * Constructs a market manager for an empty (no products) market.
@@ -50,15 +126,49 @@ public class MarketManager {
      * @param products the products which can be traded on this market.
      */
     public MarketManager(Collection<Product> products) {
-        mProducts = new ArrayList<>(products);
+        this(fifoPolicies(products));
+    }
+
+    /**
+     * Constructs a market manager for a market with the given products, each of which is matched
+     * using its own matching policy.
+     * @param policies the products which can be traded on this market, mapped to their matching
+     *                 policy. Stateful policies should not be shared between products.
+     * @throws IllegalArgumentException if a calendar spread is listed without its legs
+     */
+    public MarketManager(Map<Product, MatchingPolicy> policies) {
+        mProducts = new ArrayList<>(policies.keySet());
         mBuyQueues = new HashMap<>();
         mSellQueues = new HashMap<>();
-        for (Product p: products) {
+        mPolicies = new HashMap<>(policies);
+        mPhases = new HashMap<>();
+        mViews = new HashMap<>();
+        for (Product p: mProducts) {
+            mViews.put(p, new BookView(p));
+            mPhases.put(p, TradingPhase.CONTINUOUS);
             mBuyQueues.put(p, new PriceTimePriorityQueue(Side.BUY));
             mSellQueues.put(p, new PriceTimePriorityQueue(Side.SELL));
         }
         mBook = new Book();
+        mRisk = new RiskEngine(this);
+        mRateLimiter = new RateLimiter();
+        mImplied = new ImpliedMatcher(mProducts, mBuyQueues, mSellQueues, mPolicies, mPhases,
+                mViews);
         mTradeListeners = new ArrayList<>();
+        mOrderListeners = new ArrayList<>();
+        mExpiries = new TimingWheel<>(1);
+        mExpiryTimers = new HashMap<>();
+        mRestingOrders = new HashMap<>();
+        mAccountOrders = new HashMap<>();
+        mKilledAccounts = new HashSet<>();
+    }
+
+    private static Map<Product, MatchingPolicy> fifoPolicies(Collection<Product> products) {
+        final Map<Product, MatchingPolicy> policies = new LinkedHashMap<>();
+        for (Product p: products) {
+            policies.put(p, new FifoMatchingPolicy());
+        }
+        return policies;
     }
 
     /**
@@ -73,10 +183,32 @@ public class MarketManager {
      * Returns the record book of this market.
      * @return the record book of this market
      */
-    public Book getBook() {
+    public synchronized Book getBook() {
         return new Book(mBook);
     }
 
+    /**
+     * Returns a page of the trades of this market which are selected by a query, oldest first.
+     * Only the trades on the page are copied, so this is much cheaper than searching the whole
+     * book from {@link #getBook()}.
+     * @param query the query
+     * @param pageSize the maximum number of trades on the page
+     * @return the page of trades
+     */
+    public synchronized Book.Page getTrades(TradeQuery query, int pageSize) {
+        return mBook.getPage(query, pageSize);
+    }
+
+    /**
+     * Keeps only the most recent trades of this market in memory, and moves the older trades to an
+     * archive on disk. The trades of the market can still be queried as before.
+     * @param archive the empty archive
+     * @param recentTrades the number of most recent trades which are kept in memory
+     */
+    public synchronized void setTradeArchive(TradeArchive archive, int recentTrades) {
+        mBook.setArchive(archive, recentTrades);
+    }
+
     /**
      * Returns the buy queue of a product p
      * @param p the product p
@@ -95,6 +227,445 @@ public class MarketManager {
         return mSellQueues.get(p);
     }
 
+    /**
+     * Returns the best bid and offer of a product p. This never takes the lock of the market
+     * manager, so it can be polled from any thread at a high rate without slowing down matching.
+     * @param p the product p
+     * @return the latest top of book of the product
+     */
+    public TopOfBook getTopOfBook(Product p) {
+        return view(p).getTopOfBook();
+    }
+
+    /**
+     * Returns the best orders of a product p which are implied by the calendar spreads of the
+     * market. Like the top of book, it is immutable and can be read from any thread.
+     * @param p the product p
+     * @return the latest implied top of book of the product, which has no orders if the product is
+     *         not part of a spread
+     */
+    public TopOfBook getImpliedTopOfBook(Product p) {
+        view(p);
+        return mImplied.getTopOfBook(p);
+    }
+
+    /**
+     * Returns a snapshot of all the orders queued for a product p. Unlike the buy and sell queues,
+     * the snapshot is immutable, so it can be read safely from any thread. The first call for a
+     * product takes the lock once to start publishing snapshots; from then on, a new snapshot is
+     * published with each change of the queues, and this method never takes the lock.
+     * @param p the product p
+     * @return the latest snapshot of the queues of the product
+     */
+    public BookSnapshot getBookSnapshot(Product p) {
+        final BookView view = view(p);
+        final BookSnapshot snapshot = view.getSnapshot();
+        if (snapshot != null) return snapshot;
+        synchronized (this) {
+            return view.enableSnapshots(mBuyQueues.get(p), mSellQueues.get(p));
+        }
+    }
+
+    private BookView view(Product p) {
+        final BookView view = mViews.get(p);
+        if (view == null) throw new IllegalArgumentException("The product is not listed on " +
+                "this market (was " + p.getName() + ")");
+        return view;
+    }
+
+    /**
+     * Publishes the new state of the queues of a product p to the readers of its top of book and
+     * snapshots.
+     */
+    private void publishBook(Product p, boolean buyChanged, boolean sellChanged) {
+        mViews.get(p).publish(mBuyQueues.get(p), buyChanged, mSellQueues.get(p), sellChanged);
+        mImplied.published(p);
+    }
+
+    /**
+     * Returns the risk engine which checks orders before they are matched, e.g. to set the limits
+     * of an account.
+     * @return the risk engine
+     */
+    public RiskEngine getRiskEngine() {
+        return mRisk;
+    }
+
+    /**
+     * Returns the rate limiter, which throttles the requests of each account.
+     * @return the rate limiter
+     */
+    public RateLimiter getRateLimiter() {
+        return mRateLimiter;
+    }
+
+    /**
+     * Returns the clock which provides the execution time of trades.
+     * @return the clock
+     */
+    public Clock getClock() {
+        return mClock;
+    }
+
+    /**
+     * Sets the clock which provides the execution time of trades (e.g. to replay orders
+     * deterministically). By default, this is the system clock.
+     * @param clock the clock
+     */
+    public synchronized void setClock(Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Returns the time of day at which good-for-day orders expire.
+     * @return the end of the trading day, in the time zone of the clock
+     */
+    public synchronized LocalTime getEndOfDay() {
+        return mEndOfDay;
+    }
+
+    /**
+     * Sets the time of day at which good-for-day orders expire. By default, this is midnight. The
+     * orders which are queued already keep their expiry time.
+     * @param endOfDay the end of the trading day, in the time zone of the clock
+     */
+    public synchronized void setEndOfDay(LocalTime endOfDay) {
+        mEndOfDay = endOfDay;
+    }
+
+    /**
+     * Removes all the queued orders which have expired, and notifies the listeners of their
+     * expiry. This is also done before each order is placed, so it only has to be called when
+     * expired orders should be removed while no orders are placed.
+     * @return the expired orders
+     */
+    public synchronized List<Order> expireOrders() {
+        final List<Order> expired = expire(mClock.millis());
+        if (!expired.isEmpty()) notifyTradeListeners(null, 0);
+        return expired;
+    }
+
+    /**
+     * Removes the expired orders from their queues in a single batch.
+     */
+    private List<Order> expire(long nowMillis) {
+        if (mExpiries.size() == 0) return new ArrayList<>();
+        final List<Order> due = new ArrayList<>();
+        mExpiries.advance(nowMillis, due);
+        return removeOrders(due, true);
+    }
+
+    /**
+     * Removes a batch of queued orders from their queues, and cancels or expires them. The top of
+     * book and snapshots of each product are published once, after all its orders have been
+     * removed, and only then are the listeners notified.
+     * @return the orders which were removed
+     */
+    private List<Order> removeOrders(Collection<Order> orders, boolean expiry) {
+        final List<Order> removed = new ArrayList<>(orders.size());
+        final Set<Product> changed = new LinkedHashSet<>();
+        for (Order order : orders) {
+            final PriceTimePriorityQueue queue = ((order.getSide() == Side.BUY)?
+                    mBuyQueues : mSellQueues).get(order.getProduct());
+            if (!queue.remove(order)) continue;
+            if (expiry) {
+                order.expireOrder();
+            } else {
+                order.cancelOrder();
+                if (mMetrics != null) mMetrics.orderCancelled(order.getProduct());
+            }
+            forgetOrder(order);
+            mRisk.orderCancelled(order);
+            mPolicies.get(order.getProduct()).orderRemoved(order, queue);
+            changed.add(order.getProduct());
+            removed.add(order);
+        }
+        for (Product p : changed) {
+            publishBook(p, true, true);
+        }
+        for (Order order : removed) {
+            if (expiry) {
+                notifyOrderExpired(order);
+            } else {
+                notifyOrderCancelled(order);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Adds an order which was put on a queue to the index of its account, and puts it on the
+     * timing wheel if it has a limited time in force.
+     */
+    private void indexOrder(Order order) {
+        mRestingOrders.put(order.getId(), order);
+        Map<Long, Order> orders = mAccountOrders.get(order.getActor());
+        if (orders == null) {
+            orders = new LinkedHashMap<>();
+            mAccountOrders.put(order.getActor(), orders);
+        }
+        orders.put(order.getId(), order);
+        scheduleExpiry(order);
+    }
+
+    /**
+     * Removes an order which left its queue from the index of its account and the timing wheel.
+     */
+    private void forgetOrder(Order order) {
+        mRestingOrders.remove(order.getId());
+        final Map<Long, Order> orders = mAccountOrders.get(order.getActor());
+        if (orders != null) {
+            orders.remove(order.getId());
+            if (orders.isEmpty()) mAccountOrders.remove(order.getActor());
+        }
+        final TimingWheel.Timer<Order> timer = mExpiryTimers.remove(order.getId());
+        if (timer != null) mExpiries.cancel(timer);
+    }
+
+    /**
+     * Forgets the queued orders which were completed by the given trades.
+     */
+    private void forgetCompleted(List<Trade> trades) {
+        for (Trade t : trades) {
+            forgetCompleted(t.getBuyOrderId());
+            forgetCompleted(t.getSellOrderId());
+        }
+    }
+
+    private void forgetCompleted(long orderId) {
+        final Order order = mRestingOrders.get(orderId);
+        if (order != null && order.getStatus() == Status.COMPLETED) forgetOrder(order);
+    }
+
+    /**
+     * Puts a queued order with a limited time in force on the timing wheel.
+     */
+    private void scheduleExpiry(Order order) {
+        final long expiry;
+        if (order.getTimeInForce() == TimeInForce.GOOD_TILL_TIME) {
+            expiry = toMillis(order.getExpiry());
+        } else if (order.getTimeInForce() == TimeInForce.GOOD_FOR_DAY) {
+            final ZonedDateTime now = ZonedDateTime.now(mClock);
+            ZonedDateTime end = now.with(mEndOfDay);
+            if (!end.isAfter(now)) end = now.plusDays(1).with(mEndOfDay);
+            expiry = toMillis(end.toOffsetDateTime());
+        } else {
+            return;
+        }
+        mExpiryTimers.put(order.getId(), mExpiries.schedule(order, expiry, mClock.millis()));
+    }
+
+    /**
+     * Returns a time in milliseconds, rounded up so that an order never expires early.
+     */
+    private static long toMillis(OffsetDateTime time) {
+        final long millis = time.toInstant().toEpochMilli();
+        return (time.getNano() % 1_000_000 == 0)? millis : millis + 1;
+    }
+
+    /**
+     * Returns the matching policy of a product p
+     * @param p the product p
+     * @return the matching policy of the product
+     */
+    public synchronized MatchingPolicy getMatchingPolicy(Product p) {
+        return mPolicies.get(p);
+    }
+
+    /**
+     * Sets the matching policy of a product p. As a policy may keep state about the orders in the
+     * queues of the product, the policy can only be changed while the product has no orders queued.
+     * @param p the product p
+     * @param policy the new matching policy of the product
+     */
+    public synchronized void setMatchingPolicy(Product p, MatchingPolicy policy) {
+        if (!mProducts.contains(p)) throw new IllegalArgumentException("The product is not " +
+                "listed on this market (was " + p.getName() + ")");
+        if (!mBuyQueues.get(p).isEmpty() || !mSellQueues.get(p).isEmpty()) {
+            throw new IllegalStateException("The matching policy of " + p.getName() + " cannot " +
+                    "be changed while orders are queued");
+        }
+        mPolicies.put(p, policy);
+    }
+
+    /**
+     * Returns the trading phase of a product p
+     * @param p the product p
+     * @return the trading phase of the product
+     */
+    public synchronized TradingPhase getTradingPhase(Product p) {
+        return mPhases.get(p);
+    }
+
+    /**
+     * Starts a call auction for a product p. Until the auction is uncrossed, new orders for the
+     * product are queued without being matched.
+     * @param p the product p
+     */
+    public synchronized void startAuction(Product p) {
+        if (!mProducts.contains(p)) throw new IllegalArgumentException("The product is not " +
+                "listed on this market (was " + p.getName() + ")");
+        mPhases.put(p, TradingPhase.AUCTION);
+    }
+
+    /**
+     * Starts frequent batch auctions for a product p. Until the product is uncrossed with
+     * {@link #uncross(Product)}, new orders for the product are queued without being matched, and
+     * crossing orders are matched each time {@link #uncrossBatch(Executor)} is called.
+     * @param p the product p
+     */
+    public synchronized void startBatchAuctions(Product p) {
+        if (!mProducts.contains(p)) throw new IllegalArgumentException("The product is not " +
+                "listed on this market (was " + p.getName() + ")");
+        mPhases.put(p, TradingPhase.BATCH_AUCTION);
+    }
+
+    /**
+     * Returns the price and volume at which the auction of a product p would uncross if it was
+     * uncrossed now.
+     * @param p the product p
+     * @return the indicative equilibrium, or null if the queues of the product do not cross
+     */
+    public synchronized AuctionUncrossing.Equilibrium getIndicativeEquilibrium(Product p) {
+        return AuctionUncrossing.findEquilibrium(mBuyQueues.get(p), mSellQueues.get(p));
+    }
+
+    /**
+     * Ends the call auction (or the batch auctions) of a product p. All crossing orders are matched
+     * at the equilibrium price, after which the product returns to continuous trading.
+     * @param p the product p
+     * @return a list with records of all the trades made in the auction
+     */
+    public synchronized List<Trade> uncross(Product p) {
+        if (mPhases.get(p) == TradingPhase.CONTINUOUS) throw new IllegalStateException("The " +
+                "product is not in an auction (was " + p.getName() + ")");
+
+        final List<Trade> trades = AuctionUncrossing.uncross(mBuyQueues.get(p), mSellQueues.get(p),
+                mPolicies.get(p), OffsetDateTime.now(mClock));
+        mPhases.put(p, TradingPhase.CONTINUOUS);
+        if (!trades.isEmpty()) publishBook(p, true, true);
+        forgetCompleted(trades);
+
+        mBook.addAllRecords(trades);
+        notifyAccounts(trades);
+        notifyTradesExecuted(trades, 0);
+        notifyTradeListeners(p, 0);
+
+        return trades;
+    }
+
+    /**
+     * Uncrosses the current batch of all products which are traded in frequent batch auctions.
+     * The products are independent of each other, so they are uncrossed in parallel on the given
+     * executor. The products remain in batch auctions.
+     * @param executor the executor on which the products are uncrossed
+     * @return a list with records of all the trades made in the batch
+     */
+    public synchronized List<Trade> uncrossBatch(Executor executor) {
+        final OffsetDateTime time = OffsetDateTime.now(mClock);
+        final List<CompletableFuture<List<Trade>>> batches = new ArrayList<>();
+        final List<Product> uncrossed = new ArrayList<>();
+        for (Product p: mProducts) {
+            final PriceTimePriorityQueue buyQueue = mBuyQueues.get(p);
+            final PriceTimePriorityQueue sellQueue = mSellQueues.get(p);
+            if (mPhases.get(p) != TradingPhase.BATCH_AUCTION || buyQueue.isEmpty() ||
+                    sellQueue.isEmpty() ||
+                    buyQueue.first().getPrice() < sellQueue.first().getPrice()) {
+                continue;
+            }
+            final MatchingPolicy policy = mPolicies.get(p);
+            uncrossed.add(p);
+            batches.add(CompletableFuture.supplyAsync(
+                    () -> AuctionUncrossing.uncross(buyQueue, sellQueue, policy, time), executor));
+        }
+
+        final List<Trade> trades = new ArrayList<>();
+        for (CompletableFuture<List<Trade>> batch : batches) {
+            trades.addAll(batch.join());
+        }
+        for (Product p : uncrossed) {
+            publishBook(p, true, true);
+        }
+        forgetCompleted(trades);
+
+        mBook.addAllRecords(trades);
+        notifyAccounts(trades);
+        notifyTradesExecuted(trades, 0);
+        notifyTradeListeners(null, 0);
+
+        return trades;
+    }
+
+    /**
+     * Enables the metrics of this market. If they are enabled already, the existing metrics are
+     * returned.
+     * @param marketName the name of the market, which identifies its MBeans
+     * @return the metrics of this market
+     */
+    public synchronized EngineMetrics enableMetrics(String marketName) {
+        if (mMetrics == null) mMetrics = new EngineMetrics(marketName, this, mProducts);
+        return mMetrics;
+    }
+
+    /**
+     * Disables the metrics of this market.
+     */
+    public synchronized void disableMetrics() {
+        mMetrics = null;
+    }
+
+    /**
+     * Returns the metrics of this market.
+     * @return the metrics, or null if they are disabled
+     */
+    public synchronized EngineMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Enables batched settlement: from now on, trades are netted per account and product and
+     * applied to the accounts on a separate thread, instead of one by one while matching (see
+     * {@link Settlement}). If settlement is enabled already, the existing stage is returned.
+     * @param windowMillis the maximum time between two settlements, in milliseconds
+     * @param batchSize the number of pending trades which triggers an earlier settlement
+     * @return the settlement stage
+     */
+    public synchronized Settlement enableSettlement(long windowMillis, int batchSize) {
+        if (mSettlement == null) {
+            mSettlement = new Settlement(windowMillis, batchSize);
+            mSettlement.start();
+            mRisk.setSettlement(mSettlement);
+        }
+        return mSettlement;
+    }
+
+    /**
+     * Disables batched settlement. The trades which are still pending are settled before this
+     * method returns, after which trades are applied to the accounts directly again.
+     */
+    public synchronized void disableSettlement() {
+        if (mSettlement == null) return;
+        mSettlement.stop();
+        mSettlement = null;
+        mRisk.setSettlement(null);
+    }
+
+    /**
+     * Returns the settlement stage of this market.
+     * @return the settlement stage, or null if trades are applied to the accounts directly
+     */
+    public synchronized Settlement getSettlement() {
+        return mSettlement;
+    }
+
+    /**
+     * Records the latency of a stage, unless the timer is null (the order is not timed).
+     * @return the end time of the stage
+     */
+    private static long recordStage(EngineMetrics timer, EngineMetrics.Stage stage, long start) {
+        return (timer == null)? 0 : timer.record(stage, start);
+    }
+
     /**
      * Adds the given trade listener to the list of listeners of the market manager.
      * @param listener the trade listener to be added
@@ -111,8 +682,98 @@ public class MarketManager {
         mTradeListeners.remove(listener);
     }
 
-    private void notifyTradeListeners() {
-        mTradeListeners.forEach((TradeListener t) -> t.update(this));
+    private void notifyTradeListeners(Product p, long orderId) {
+        for (TradeListener t : mTradeListeners) {
+            final ListenerCallbackEvent event = beginCallback();
+            t.update(this);
+            commitCallback(event, t, "update", p, orderId);
+        }
+    }
+
+    private static ListenerCallbackEvent beginCallback() {
+        final ListenerCallbackEvent event = new ListenerCallbackEvent();
+        event.begin();
+        return event;
+    }
+
+    private static void commitCallback(ListenerCallbackEvent event, Object listener,
+                                       String callback, Product p, long orderId) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.listener = listener.getClass().getName();
+            event.callback = callback;
+            event.product = (p == null)? null : p.getName();
+            event.orderId = orderId;
+            event.commit();
+        }
+    }
+
+    /**
+     * Adds the given order listener to the list of listeners of the market manager.
+     * @param listener the order listener to be added
+     */
+    public synchronized void addOrderListener(OrderListener listener) {
+        mOrderListeners.add(listener);
+    }
+
+    /**
+     * Removes the given order listener from the list of listeners of the market manager.
+     * @param listener the order listener to be removed
+     */
+    public synchronized void removeOrderListener(OrderListener listener) {
+        mOrderListeners.remove(listener);
+    }
+
+    private void notifyOrderRested(Order order) {
+        final OrderRestedEvent rested = new OrderRestedEvent();
+        if (rested.shouldCommit()) {
+            rested.product = order.getProduct().getName();
+            rested.orderId = order.getId();
+            rested.price = order.getPrice();
+            rested.remainingAmount = order.getRemainingAmount();
+            rested.commit();
+        }
+        for (OrderListener l : mOrderListeners) {
+            final ListenerCallbackEvent event = beginCallback();
+            l.orderRested(order);
+            commitCallback(event, l, "orderRested", order.getProduct(), order.getId());
+        }
+    }
+
+    private void notifyOrderCancelled(Order order) {
+        for (OrderListener l : mOrderListeners) {
+            final ListenerCallbackEvent event = beginCallback();
+            l.orderCancelled(order);
+            commitCallback(event, l, "orderCancelled", order.getProduct(), order.getId());
+        }
+    }
+
+    private void notifyOrderAmended(Order order, float previousPrice, int previousAmount) {
+        for (OrderListener l : mOrderListeners) {
+            final ListenerCallbackEvent event = beginCallback();
+            l.orderAmended(order, previousPrice, previousAmount);
+            commitCallback(event, l, "orderAmended", order.getProduct(), order.getId());
+        }
+    }
+
+    private void notifyOrderExpired(Order order) {
+        for (OrderListener l : mOrderListeners) {
+            final ListenerCallbackEvent event = beginCallback();
+            l.orderExpired(order);
+            commitCallback(event, l, "orderExpired", order.getProduct(), order.getId());
+        }
+    }
+
+    private void notifyTradesExecuted(List<Trade> trades, long orderId) {
+        if (mMetrics != null) mMetrics.tradesExecuted(trades);
+        if (mOrderListeners.isEmpty()) return;
+        for (Trade t : trades) {
+            for (OrderListener l : mOrderListeners) {
+                final ListenerCallbackEvent event = beginCallback();
+                l.tradeExecuted(t);
+                commitCallback(event, l, "tradeExecuted", t.getProduct(), orderId);
+            }
+        }
     }
 
     /**
@@ -121,35 +782,161 @@ public class MarketManager {
      * @param trades
      */
     private void notifyAccounts(List<Trade> trades) {
+        if (mSettlement != null) {
+            trades.forEach(mRisk::tradeExecuted);
+            mSettlement.tradesExecuted(trades);
+            return;
+        }
         trades.forEach((Trade r) -> {
             final Product p = r.getProduct();
             final int amount = r.getAmount();
-            r.getBuyer().updateBook(p, amount);
-            r.getSeller().updateBook(p, -amount);
+            if (p instanceof CalendarSpread) {
+                final CalendarSpread spread = (CalendarSpread) p;
+                r.getBuyer().updateBook(spread.getNearLeg(), amount);
+                r.getBuyer().updateBook(spread.getFarLeg(), -amount);
+                r.getSeller().updateBook(spread.getNearLeg(), -amount);
+                r.getSeller().updateBook(spread.getFarLeg(), amount);
+            } else {
+                r.getBuyer().updateBook(p, amount);
+                r.getSeller().updateBook(p, -amount);
+            }
+            mRisk.tradeExecuted(r);
         });
     }
 
     /**
      * Cancel the given order and remove it from the buy/sell queue.
      * @param order the order to be cancelled
-     * @return true iff the order was successfully cancelled and removed from the buy/sell queue
+     * @return true iff the order was successfully cancelled and removed from the buy/sell queue;
+     *         false if it was not queued, or the account has sent too many cancellations
      */
-    public synchronized boolean cancelOrder(Order order) {
+    public boolean cancelOrder(Order order) {
+        if (!mRateLimiter.acquireCancel(order, mClock.millis())) return false;
+        return cancel(order);
+    }
+
+    private synchronized boolean cancel(Order order) {
+        final OrderCancelledEvent event = new OrderCancelledEvent();
+        event.begin();
         final Map<Product, PriceTimePriorityQueue> orderQueues = (order.getSide() == Side.BUY)?
                 mBuyQueues : mSellQueues;
         final PriceTimePriorityQueue productQueue = orderQueues.get(order.getProduct());
-        order.cancelOrder();
-        return productQueue.remove(order);
+        final boolean removed = productQueue.remove(order);
+        if (removed) {
+            order.cancelOrder();
+            forgetOrder(order);
+            mRisk.orderCancelled(order);
+            mPolicies.get(order.getProduct()).orderRemoved(order, productQueue);
+            publishBook(order.getProduct(), order.getSide() == Side.BUY,
+                    order.getSide() == Side.SELL);
+            if (mMetrics != null) mMetrics.orderCancelled(order.getProduct());
+            notifyOrderCancelled(order);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.product = order.getProduct().getName();
+            event.orderId = order.getId();
+            event.removed = removed;
+            event.commit();
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the orders of an account which are queued on this market. The orders are found in an
+     * index of the orders of each account, so this does not search the queues.
+     * @param account the account
+     * @return the queued orders of the account, in the order in which they were queued
+     */
+    public synchronized List<Order> getOrders(Account account) {
+        final Map<Long, Order> orders = mAccountOrders.get(account);
+        return (orders == null)? new ArrayList<>() : new ArrayList<>(orders.values());
+    }
+
+    /**
+     * Cancels all the queued orders of an account.
+     * @param account the account
+     * @return the cancelled orders
+     */
+    public synchronized List<Order> cancelAllOrders(Account account) {
+        return cancelAllOrders(account, null, null);
+    }
+
+    /**
+     * Cancels the queued orders of an account, optionally only those for a product or on a side.
+     * The orders are cancelled in a single batch, which no order can be matched against in the
+     * meantime. This takes time in proportion to the number of orders of the account, rather than
+     * to the number of orders on the market.
+     * @param account the account
+     * @param product the product of the orders to be cancelled, or null for all products
+     * @param side the side of the orders to be cancelled, or null for both sides
+     * @return the cancelled orders
+     */
+    public synchronized List<Order> cancelAllOrders(Account account, Product product, Side side) {
+        final Map<Long, Order> orders = mAccountOrders.get(account);
+        if (orders == null) return new ArrayList<>();
+        final List<Order> selected = new ArrayList<>(orders.size());
+        for (Order o : orders.values()) {
+            if ((product == null || o.getProduct().equals(product)) &&
+                    (side == null || o.getSide() == side)) {
+                selected.add(o);
+            }
+        }
+        final List<Order> cancelled = removeOrders(selected, false);
+        if (!cancelled.isEmpty()) notifyTradeListeners(product, 0);
+        return cancelled;
+    }
+
+    /**
+     * Engages the kill switch of an account: all its queued orders are cancelled, and its new
+     * orders are rejected until the kill switch is released.
+     * @param account the account
+     * @return the cancelled orders
+     */
+    public synchronized List<Order> engageKillSwitch(Account account) {
+        mKilledAccounts.add(account);
+        return cancelAllOrders(account);
+    }
+
+    /**
+     * Releases the kill switch of an account, so that it can place orders again.
+     * @param account the account
+     */
+    public synchronized void releaseKillSwitch(Account account) {
+        mKilledAccounts.remove(account);
+    }
+
+    /**
+     * Returns whether the kill switch of an account is engaged.
+     * @param account the account
+     * @return true iff new orders of the account are rejected
+     */
+    public synchronized boolean isKillSwitchEngaged(Account account) {
+        return mKilledAccounts.contains(account);
     }
 
     /**
      * Places an order on the market. The market manager tries to match the new order with any of
      * the existing orders (see the class description for definition of matching). When an order
      * cannot be further matched, it is put on the buy/sell queue if it is not fully processed.
+     * During an auction (or batch auctions) of the product, the order is only put on the buy/sell
+     * queue.
      * @param order the order to be processed
      * @return a list with records of all the trades which happen initially when the order is placed
+     * @throws IllegalTradeException if the order is invalid, the account has sent too many orders,
+     *                               or the order is rejected by the risk checks
      */
-    public synchronized List<Trade> placeOrder(Order order) throws IllegalTradeException {
+    public List<Trade> placeOrder(Order order) throws IllegalTradeException {
+        mRateLimiter.acquireOrder(order, mClock.millis());
+        return place(order);
+    }
+
+    private synchronized List<Trade> place(Order order) throws IllegalTradeException {
+        final EngineMetrics metrics = mMetrics;
+        final EngineMetrics timer = (metrics != null && metrics.nextTimed())? metrics : null;
+        final long start = (timer == null)? 0 : System.nanoTime();
+        final OrderReceivedEvent received = new OrderReceivedEvent();
+        received.begin();
         if (order.getAmount() <= 0) throw new IllegalTradeException("The trade should have a" +
                 "positive amount of units (had " + order.getAmount() + ")");
         if (order.getActor() == null) throw new IllegalTradeException("The trade should be from " +
@@ -157,30 +944,171 @@ public class MarketManager {
         if (!mProducts.contains(order.getProduct())) throw new IllegalTradeException("The " +
                 "product to be traded is not listed on this market (was " +
                 order.getProduct().toString() + ")");
-        if (order.getSide() == Side.SELL &
-            order.getActor().getPosition(order.getProduct()) < order.getAmount())
-            throw new IllegalTradeException("The actor does not have enough of the product it is " +
-                    "trying to sell (has: " + order.getActor().getPosition(order.getProduct())
-                    + " , wants: " + order.getAmount() + ")");
+        if (mKilledAccounts.contains(order.getActor())) throw new IllegalTradeException("The " +
+                "kill switch of the account is engaged (was " + order.getActor().getName() + ")");
+        final long now = mClock.millis();
+        if (order.getExpiry() != null && toMillis(order.getExpiry()) <= now) {
+            throw new IllegalTradeException("The order has expired already (expiry was " +
+                    order.getExpiry() + ")");
+        }
+        expire(now);
+        mRisk.accept(order, now);
+        final long time = recordStage(timer, EngineMetrics.Stage.VALIDATION, start);
+        if (metrics != null) metrics.orderPlaced(order.getProduct());
+
+        final List<Trade> trades = execute(order, false, timer, start, time);
+        commitReceived(received, order);
+        return trades;
+    }
+
+    /**
+     * Matches an order which passed validation, and queues whatever remains of it. The stages are
+     * timed if the timer is not null.
+     * @param requeued whether the order was just taken off its queue to be amended
+     */
+    private List<Trade> execute(Order order, boolean requeued, EngineMetrics timer, long start,
+                                long validated) {
+        long time = validated;
+        final MatchingPolicy policy = mPolicies.get(order.getProduct());
+        if (mPhases.get(order.getProduct()) != TradingPhase.CONTINUOUS) {
+            final PriceTimePriorityQueue actorSide = ((order.getSide() == Side.BUY)?
+                    mBuyQueues : mSellQueues).get(order.getProduct());
+            actorSide.add(order);
+            policy.orderAdded(order, actorSide);
+            indexOrder(order);
+            publishBook(order.getProduct(), order.getSide() == Side.BUY,
+                    order.getSide() == Side.SELL);
+            notifyOrderRested(order);
+            notifyTradeListeners(order.getProduct(), order.getId());
+            return new ArrayList<>();
+        }
 
         final PriceTimePriorityQueue oppositeSide = ((order.getSide() == Side.BUY)?
                 mSellQueues : mBuyQueues).get(order.getProduct());
 
-        final List<Trade> trades = MatchingAlgorithm.matchOrder(order, oppositeSide);
+        final MatchCompletedEvent match = new MatchCompletedEvent();
+        final int levels = match.isEnabled()?
+                MatchingAlgorithm.levelsToSweep(order, oppositeSide) : 0;
+        match.begin();
+        final List<Trade> trades = mImplied.crossesImplied(order)?
+                mImplied.matchOrder(order, policy, oppositeSide, OffsetDateTime.now(mClock),
+                        mImpliedChanged) :
+                policy.matchOrder(order, oppositeSide, OffsetDateTime.now(mClock));
+        match.end();
+        if (match.shouldCommit()) {
+            match.product = order.getProduct().getName();
+            match.orderId = order.getId();
+            match.fills = trades.size();
+            match.levelsSwept = levels;
+            match.commit();
+        }
 
         if (order.getStatus() != Status.COMPLETED) {
             final PriceTimePriorityQueue actorSide = ((order.getSide() == Side.BUY)?
                     mBuyQueues : mSellQueues).get(order.getProduct());
             actorSide.add(order);
+            policy.orderAdded(order, actorSide);
+            indexOrder(order);
         }
+        forgetCompleted(trades);
+        final boolean ownSideChanged = order.getStatus() != Status.COMPLETED || requeued;
+        final boolean traded = !trades.isEmpty();
+        publishBook(order.getProduct(), (order.getSide() == Side.BUY)? ownSideChanged : traded,
+                (order.getSide() == Side.SELL)? ownSideChanged : traded);
+        for (Product p : mImpliedChanged) {
+            publishBook(p, true, true);
+        }
+        mImpliedChanged.clear();
+        time = recordStage(timer, EngineMetrics.Stage.MATCHING, time);
+        final long matched = time;
 
         mBook.addAllRecords(trades);
+        time = recordStage(timer, EngineMetrics.Stage.BOOK, time);
         notifyAccounts(trades);
-        notifyTradeListeners();
+        time = recordStage(timer, EngineMetrics.Stage.ACCOUNTS, time);
+        notifyTradesExecuted(trades, order.getId());
+        if (order.getStatus() != Status.COMPLETED) notifyOrderRested(order);
+        time = recordStage(timer, EngineMetrics.Stage.ORDER_LISTENERS, time);
+        notifyTradeListeners(order.getProduct(), order.getId());
+        recordStage(timer, EngineMetrics.Stage.TRADE_LISTENERS, time);
+        if (timer != null) {
+            timer.recordListenerLag(matched);
+            timer.record(EngineMetrics.Stage.PLACE_ORDER, start);
+        }
 
         return trades;
     }
 
+    /**
+     * Amends the price and remaining amount of a queued order in a single operation. If only the
+     * amount is reduced, the order is amended in place and keeps its position in the queue.
+     * Otherwise (the price changes or the amount is increased), the order loses its time priority:
+     * it is taken off the queue and matched again as if it was placed now, with the same
+     * identifier. The order listeners are notified that the order was amended, and then of its
+     * trades and its rest as for a new order.
+     * @param order the queued order
+     * @param price the new price of the order
+     * @param amount the new remaining amount of the order
+     * @return a list with records of all the trades made by the amended order
+     * @throws IllegalTradeException if the order is not queued, the account has sent too many
+     *                               orders, or the amendment is rejected by the risk checks; the
+     *                               order is then left unchanged
+     */
+    public List<Trade> amendOrder(Order order, float price, int amount)
+            throws IllegalTradeException {
+        mRateLimiter.acquireOrder(order, mClock.millis());
+        return amend(order, price, amount);
+    }
+
+    private synchronized List<Trade> amend(Order order, float price, int amount)
+            throws IllegalTradeException {
+        if (amount <= 0) throw new IllegalTradeException("The amended order should have a " +
+                "positive amount of units (had " + amount + ")");
+        if (mKilledAccounts.contains(order.getActor())) throw new IllegalTradeException("The " +
+                "kill switch of the account is engaged (was " + order.getActor().getName() + ")");
+        final long now = mClock.millis();
+        expire(now);
+        if (mRestingOrders.get(order.getId()) != order) throw new IllegalTradeException("The " +
+                "order is not queued on this market (was " + order + ")");
+
+        final Product p = order.getProduct();
+        final boolean buy = order.getSide() == Side.BUY;
+        final float previousPrice = order.getPrice();
+        final int previousAmount = order.getRemainingAmount();
+        final PriceTimePriorityQueue queue = (buy? mBuyQueues : mSellQueues).get(p);
+        if (price == previousPrice && amount <= previousAmount) {
+            if (amount == previousAmount) return new ArrayList<>();
+            order.amend(price, amount, order.getTime());
+            mPolicies.get(p).orderReduced(order, queue, previousAmount - amount);
+            mRisk.orderReduced(order, previousAmount - amount);
+            publishBook(p, buy, !buy);
+            notifyOrderAmended(order, previousPrice, previousAmount);
+            notifyOrderRested(order);
+            notifyTradeListeners(p, order.getId());
+            return new ArrayList<>();
+        }
+
+        mRisk.amend(order, price, amount, now);
+        queue.remove(order);
+        mPolicies.get(p).orderRemoved(order, queue);
+        forgetOrder(order);
+        order.amend(price, amount, OffsetDateTime.now(mClock));
+        notifyOrderAmended(order, previousPrice, previousAmount);
+        return execute(order, true, null, 0, 0);
+    }
+
+    private static void commitReceived(OrderReceivedEvent event, Order order) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.product = order.getProduct().getName();
+            event.orderId = order.getId();
+            event.side = order.getSide().name();
+            event.price = order.getPrice();
+            event.amount = order.getAmount();
+            event.commit();
+        }
+    }
+
     public static void main(String[] args) {
         final Product xyz = new Product("XYZ");
         final MarketManager manager = new MarketManager(
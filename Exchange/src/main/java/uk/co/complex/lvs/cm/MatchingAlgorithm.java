@@ -4,7 +4,6 @@ import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
-import uk.co.complex.lvs.cm.datamodel.Account;
 import uk.co.complex.lvs.cm.datamodel.Order;
 import uk.co.complex.lvs.cm.datamodel.Side;
 import uk.co.complex.lvs.cm.datamodel.Status;
@@ -36,48 +35,131 @@ public class MatchingAlgorithm {
      * @return all the matched order records from the queue
      */
     public static List<Trade> matchOrder(Order order, PriceTimePriorityQueue opposingOrderQueue) {
-        // Perform a sanity check on the sides of the order
-        if (order.getSide().equals(opposingOrderQueue.getSide())) {
-            throw new IllegalArgumentException("The new order and the order queue should not " +
-                    "contain order of the same side");
-        }
+        return matchOrder(order, opposingOrderQueue, OffsetDateTime.now());
+    }
+
+    /**
+     * Matches a new order with order from the queue of the opposing side, stamping all resulting
+     * trades with the given time. See {@link #matchOrder(Order, PriceTimePriorityQueue)}.
+     * @param order the new order to be matched
+     * @param opposingOrderQueue the queue of the opposing side
+     * @param time the execution time of the resulting trades
+     * @return all the matched order records from the queue
+     */
+    public static List<Trade> matchOrder(Order order, PriceTimePriorityQueue opposingOrderQueue,
+                                         OffsetDateTime time) {
+        checkSides(order, opposingOrderQueue);
 
         final List<Trade> matchedOrders = new ArrayList<>();
 
         while (!opposingOrderQueue.isEmpty()) {
             final Order oppositeOrder = opposingOrderQueue.first();
-            if (order.getSide().equals(Side.BUY)) {
-                if (oppositeOrder.getPrice() > order.getPrice()) break;
+            if (!crosses(order, oppositeOrder.getPrice())) break;
+
+            final int tradeAmount = Math.min(order.getRemainingAmount(),
+                                       oppositeOrder.getRemainingAmount());
+            matchedOrders.add(trade(order, oppositeOrder, tradeAmount, time));
+
+            if (oppositeOrder.getStatus() == Status.COMPLETED) {
+                opposingOrderQueue.pollFirst();
             } else {
-                if (oppositeOrder.getPrice() < order.getPrice()) break;
+                break;
+            }
+            if (order.getStatus() == Status.COMPLETED) {
+                break;
             }
-
-                final int tradeAmount = Math.min(order.getRemainingAmount(),
-                                           oppositeOrder.getRemainingAmount());
-
-                oppositeOrder.tradeProduct(tradeAmount);
-                order.tradeProduct(tradeAmount);
-
-                final float price = (order.getPrice() + oppositeOrder.getPrice())/2;
-
-                final Account buyer = (order.getSide() == Side.BUY)?
-                        order.getActor() : oppositeOrder.getActor();
-                final Account seller = (order.getSide() == Side.SELL)?
-                        order.getActor() : oppositeOrder.getActor();
-                final Trade record = new Trade(order.getProduct(), buyer, seller, price,
-                        tradeAmount, OffsetDateTime.now());
-                matchedOrders.add(record);
-
-                if (oppositeOrder.getStatus() == Status.COMPLETED) {
-                    opposingOrderQueue.pollFirst();
-                } else {
-                    break;
-                }
-                if (order.getStatus() == Status.COMPLETED) {
-                    break;
-                }
         }
 
         return matchedOrders;
     }
+
+    /**
+     * Counts the price levels of the opposing queue which a new order would trade with, assuming
+     * that the order takes the levels in price order (which all matching policies do).
+     * @param order the new order
+     * @param opposingOrderQueue the queue of the opposing side
+     * @return the number of price levels which the order would sweep
+     */
+    static int levelsToSweep(Order order, PriceTimePriorityQueue opposingOrderQueue) {
+        int levels = 0;
+        long remaining = order.getRemainingAmount();
+        float price = Float.NaN;
+        for (Order o : opposingOrderQueue) {
+            if (remaining <= 0 || !crosses(order, o.getPrice())) break;
+            if (o.getPrice() != price) {
+                levels++;
+                price = o.getPrice();
+            }
+            remaining -= o.getRemainingAmount();
+        }
+        return levels;
+    }
+
+    /**
+     * Performs a sanity check on the sides of the order and the opposing queue.
+     * @param order the new order to be matched
+     * @param opposingOrderQueue the queue of the opposing side
+     */
+    static void checkSides(Order order, PriceTimePriorityQueue opposingOrderQueue) {
+        if (order.getSide().equals(opposingOrderQueue.getSide())) {
+            throw new IllegalArgumentException("The new order and the order queue should not " +
+                    "contain order of the same side");
+        }
+    }
+
+    /**
+     * Trades an amount of the first order of a queue outside of the matching policy of its
+     * product (e.g. in an auction), and tells the policy whether the order was completed and
+     * removed, or only reduced.
+     * @param order the first order of the queue
+     * @param amount the amount to be traded
+     * @param queue the queue of the order
+     * @param policy the matching policy of the product of the order
+     */
+    static void fillOutsidePolicy(Order order, int amount, PriceTimePriorityQueue queue,
+                                  MatchingPolicy policy) {
+        if (amount == order.getRemainingAmount()) {
+            policy.orderRemoved(order, queue);
+            order.tradeProduct(amount);
+            queue.pollFirst();
+        } else {
+            order.tradeProduct(amount);
+            policy.orderReduced(order, queue, amount);
+        }
+    }
+
+    /**
+     * Returns whether the given order can trade with an opposing order at the given price.
+     * @param order the new order
+     * @param oppositePrice the price of the opposing order
+     * @return true iff the prices of the orders match
+     */
+    static boolean crosses(Order order, float oppositePrice) {
+        if (order.getSide() == Side.BUY) {
+            return oppositePrice <= order.getPrice();
+        } else {
+            return oppositePrice >= order.getPrice();
+        }
+    }
+
+    /**
+     * Trades the given amount between a new order and an opposing order, and records the trade.
+     * The trade takes place at the average of the prices of both orders.
+     * @param order the new order
+     * @param oppositeOrder the opposing order from the queue
+     * @param amount the amount to be traded
+     * @param time the execution time of the trade
+     * @return the record of the trade
+     */
+    static Trade trade(Order order, Order oppositeOrder, int amount, OffsetDateTime time) {
+        oppositeOrder.tradeProduct(amount);
+        order.tradeProduct(amount);
+
+        final float price = (order.getPrice() + oppositeOrder.getPrice())/2;
+
+        final Order buy = (order.getSide() == Side.BUY)? order : oppositeOrder;
+        final Order sell = (order.getSide() == Side.SELL)? order : oppositeOrder;
+        return new Trade(order.getProduct(), buy.getActor(), sell.getActor(), price, amount, time,
+                buy.getId(), sell.getId());
+    }
 }
@@ -0,0 +1,60 @@
+package uk.co.complex.lvs.cm;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * MatchingPolicy decides how a new order is matched with the orders resting in the queue of the
+ * opposing side, i.e. how an incoming quantity is allocated between the resting orders at a price.
+ *
+ * The market manager holds one policy instance per product, so an implementation may keep its own
+ * per-level state for that product's buy and sell queues. To keep that state up to date, the
+ * market manager reports every order it adds to or removes from a queue (e.g. a cancel), and
+ * every order it reduces in place (e.g. an amendment). Orders which are completed during matching
+ * are removed by the policy itself. Orders which are traded outside of the policy (e.g. in an
+ * auction) are reported as reduced if they remain queued, or as removed before the trade if they
+ * are completed. A stateful policy instance should therefore not be shared between products.
+ */
+public interface MatchingPolicy {
+    /**
+     * Matches a new order with orders from the queue of the opposing side. Both the new order and
+     * the matched orders in the queue are updated, and completed orders are removed from the queue.
+     * @param order the new order to be matched
+     * @param opposingOrderQueue the queue of the opposing side
+     * @param time the execution time of the resulting trades
+     * @return the records of all the trades made
+     */
+    List<Trade> matchOrder(Order order, PriceTimePriorityQueue opposingOrderQueue,
+                           OffsetDateTime time);
+
+    /**
+     * Notifies the policy that an order has been added to one of the product's queues.
+     * @param order the added order
+     * @param queue the queue to which the order was added
+     */
+    default void orderAdded(Order order, PriceTimePriorityQueue queue) {
+    }
+
+    /**
+     * Notifies the policy that an order has been removed from one of the product's queues without
+     * being completed by the policy (e.g. because it was cancelled, or completed in an auction).
+     * @param order the removed order
+     * @param queue the queue from which the order was removed
+     */
+    default void orderRemoved(Order order, PriceTimePriorityQueue queue) {
+    }
+
+    /**
+     * Notifies the policy that the remaining amount of an order has been reduced while the order
+     * keeps its place in one of the product's queues (e.g. because it was amended in place, or
+     * partly traded in an auction).
+     * @param order the reduced order, which is still queued
+     * @param queue the queue which holds the order
+     * @param delta the amount by which the order was reduced
+     */
+    default void orderReduced(Order order, PriceTimePriorityQueue queue, int delta) {
+    }
+}
@@ -0,0 +1,58 @@
+package uk.co.complex.lvs.cm;
+
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * OrderListener is notified of the individual events of the orders on a market, such as each trade
+ * which is made. Unlike a {@link TradeListener}, which is only told that the market has changed,
+ * it does not have to inspect the market to find out what happened. The listener is notified while
+ * the market manager is locked, so it should return quickly.
+ *
+ * The events of a new order are notified in the order in which they happen: first the trades it
+ * made, and then its rest (if it was not completed). An amended order is first notified as
+ * amended, which takes it off its old place in the queues, and then as a new order. Following these
+ * events, a listener can keep its own image of the queues of the market.
+ */
+public interface OrderListener {
+
+    /**
+     * Notifies the listener that a trade was made.
+     * @param trade the record of the trade
+     */
+    default void tradeExecuted(Trade trade) {
+    }
+
+    /**
+     * Notifies the listener that an order was put on a buy/sell queue with its remaining amount.
+     * @param order the order which was queued
+     */
+    default void orderRested(Order order) {
+    }
+
+    /**
+     * Notifies the listener that a queued order was cancelled and removed from its queue.
+     * @param order the cancelled order
+     */
+    default void orderCancelled(Order order) {
+    }
+
+    /**
+     * Notifies the listener that a queued order was amended. The order is no longer queued with its
+     * previous price and amount; its new rest (or its trades) are notified next.
+     * @param order the amended order
+     * @param previousPrice the price of the order before it was amended
+     * @param previousAmount the remaining amount of the order before it was amended
+     */
+    default void orderAmended(Order order, float previousPrice, int previousAmount) {
+    }
+
+    /**
+     * Notifies the listener that a queued order expired and was removed from its queue. By default,
+     * this is handled like a cancellation, so that images of the queues stay up to date.
+     * @param order the expired order
+     */
+    default void orderExpired(Order order) {
+        orderCancelled(order);
+    }
+}
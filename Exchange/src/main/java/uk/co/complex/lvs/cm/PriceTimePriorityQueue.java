@@ -9,7 +9,8 @@ import uk.co.complex.lvs.cm.datamodel.Side;
  * Created by Lex van der Stoep on 10/12/2017.
  *
  * PriceTimePriorityQueue is a PriorityQueue for trade orders. It orders these first by price
- * (best first) and then by time (earliest first).
+ * (best first) and then by time (earliest first). Orders with the same price and time are ordered
+ * by their identifier, so that they are not considered equal.
  */
 public class PriceTimePriorityQueue extends TreeSet<Order> {
     private final Side mSide;
@@ -19,12 +20,13 @@ public class PriceTimePriorityQueue extends TreeSet<Order> {
             if (side == Side.SELL) {
                 if (o1.getPrice() < o2.getPrice()) return -1;
                 if (o1.getPrice() > o2.getPrice()) return 1;
-                return o1.getTime().compareTo(o2.getTime());
             } else {
                 if (o1.getPrice() < o2.getPrice()) return 1;
                 if (o1.getPrice() > o2.getPrice()) return -1;
-                return o1.getTime().compareTo(o2.getTime());
             }
+            final int byTime = o1.getTime().compareTo(o2.getTime());
+            if (byTime != 0) return byTime;
+            return Long.compare(o1.getId(), o2.getId());
         });
 
         mSide = side;
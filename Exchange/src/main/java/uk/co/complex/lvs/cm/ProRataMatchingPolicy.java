@@ -0,0 +1,130 @@
+package uk.co.complex.lvs.cm;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * ProRataMatchingPolicy matches a new order with the best opposing price first, but allocates the
+ * quantity traded at a price between all orders resting at that price in proportion to their
+ * remaining amount. The allocations are rounded down, and the units left over by rounding are
+ * allocated to the orders at that price in FIFO order.
+ *
+ * The policy keeps the total remaining amount of each price level, so that it does not have to
+ * sum the resting orders of a level before allocating. Therefore, an instance should only be used
+ * for a single product.
+ */
+public class ProRataMatchingPolicy implements MatchingPolicy {
+    private final Map<Float, int[]> mBuyLevels = new HashMap<>();
+    private final Map<Float, int[]> mSellLevels = new HashMap<>();
+    private final List<Order> mLevelOrders = new ArrayList<>();
+    private int[] mAllocations = new int[16];
+
+    @Override
+    public List<Trade> matchOrder(Order order, PriceTimePriorityQueue opposingOrderQueue,
+                                  OffsetDateTime time) {
+        MatchingAlgorithm.checkSides(order, opposingOrderQueue);
+
+        final List<Trade> matchedOrders = new ArrayList<>();
+        final Map<Float, int[]> levels = getLevels(opposingOrderQueue.getSide());
+
+        while (!opposingOrderQueue.isEmpty() && order.getStatus() != Status.COMPLETED) {
+            final float price = opposingOrderQueue.first().getPrice();
+            if (!MatchingAlgorithm.crosses(order, price)) break;
+
+            final int[] level = levels.get(price);
+            if (level == null) {
+                throw new IllegalStateException("No volume is known for price level " + price +
+                        " (was the policy set after orders were queued?)");
+            }
+            final int levelVolume = level[0];
+            final int quantity = Math.min(order.getRemainingAmount(), levelVolume);
+
+            mLevelOrders.clear();
+            for (Order o : opposingOrderQueue) {
+                if (o.getPrice() != price) break;
+                mLevelOrders.add(o);
+            }
+            allocate(quantity, levelVolume);
+
+            for (int i = 0; i < mLevelOrders.size(); i++) {
+                if (mAllocations[i] > 0) {
+                    matchedOrders.add(MatchingAlgorithm.trade(order, mLevelOrders.get(i),
+                            mAllocations[i], time));
+                }
+            }
+
+            level[0] -= quantity;
+            if (level[0] == 0) levels.remove(price);
+            for (Order o : mLevelOrders) {
+                if (o.getStatus() == Status.COMPLETED) opposingOrderQueue.remove(o);
+            }
+        }
+        mLevelOrders.clear();
+
+        return matchedOrders;
+    }
+
+    /**
+     * Divides the given quantity between the orders of the current level, pro rata to their
+     * remaining amounts, and then allocates the remainder in FIFO order.
+     * @param quantity the quantity to be allocated
+     * @param levelVolume the total remaining amount of the orders at the level
+     */
+    private void allocate(int quantity, int levelVolume) {
+        final int n = mLevelOrders.size();
+        if (mAllocations.length < n) {
+            mAllocations = new int[Math.max(n, 2 * mAllocations.length)];
+        }
+
+        int allocated = 0;
+        for (int i = 0; i < n; i++) {
+            final int remaining = mLevelOrders.get(i).getRemainingAmount();
+            mAllocations[i] = (int) ((long) quantity * remaining / levelVolume);
+            allocated += mAllocations[i];
+        }
+
+        int leftover = quantity - allocated;
+        for (int i = 0; i < n && leftover > 0; i++) {
+            final int extra = Math.min(leftover,
+                    mLevelOrders.get(i).getRemainingAmount() - mAllocations[i]);
+            mAllocations[i] += extra;
+            leftover -= extra;
+        }
+    }
+
+    @Override
+    public void orderAdded(Order order, PriceTimePriorityQueue queue) {
+        getLevels(queue.getSide()).computeIfAbsent(order.getPrice(), p -> new int[1])[0] +=
+                order.getRemainingAmount();
+    }
+
+    @Override
+    public void orderRemoved(Order order, PriceTimePriorityQueue queue) {
+        final Map<Float, int[]> levels = getLevels(queue.getSide());
+        final int[] level = levels.get(order.getPrice());
+        if (level == null) return;
+        level[0] -= order.getRemainingAmount();
+        if (level[0] <= 0) levels.remove(order.getPrice());
+    }
+
+    @Override
+    public void orderReduced(Order order, PriceTimePriorityQueue queue, int delta) {
+        final Map<Float, int[]> levels = getLevels(queue.getSide());
+        final int[] level = levels.get(order.getPrice());
+        if (level == null) return;
+        level[0] -= delta;
+        if (level[0] <= 0) levels.remove(order.getPrice());
+    }
+
+    private Map<Float, int[]> getLevels(Side side) {
+        return (side == Side.BUY)? mBuyLevels : mSellLevels;
+    }
+}
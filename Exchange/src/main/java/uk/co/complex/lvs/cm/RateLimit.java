@@ -0,0 +1,78 @@
+package uk.co.complex.lvs.cm;
+
+/**
+ * RateLimit is the rate at which an account can send requests of one kind (e.g. orders) to a
+ * market (see {@link RateLimiter}). It is a token bucket: the account can send a burst of requests
+ * at once, after which the bucket is refilled at the sustained rate.
+ */
+public final class RateLimit {
+    /**
+     * A limit which never throttles a request.
+     */
+    public static final RateLimit UNLIMITED = new RateLimit(Double.POSITIVE_INFINITY,
+            Integer.MAX_VALUE);
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final double mRatePerSecond;
+    private final int mBurst;
+
+    /**
+     * Constructs a rate limit.
+     * @param ratePerSecond the sustained number of requests per second
+     * @param burst the number of requests which can be sent at once, after a quiet period
+     */
+    public RateLimit(double ratePerSecond, int burst) {
+        if (!(ratePerSecond > 0)) throw new IllegalArgumentException("The rate should be " +
+                "positive (was " + ratePerSecond + ")");
+        if (burst < 1) throw new IllegalArgumentException("The burst should be at least 1 (was " +
+                burst + ")");
+        mRatePerSecond = ratePerSecond;
+        mBurst = burst;
+    }
+
+    /**
+     * Returns the sustained number of requests per second.
+     * @return the rate
+     */
+    public double getRatePerSecond() {
+        return mRatePerSecond;
+    }
+
+    /**
+     * Returns the number of requests which can be sent at once.
+     * @return the burst
+     */
+    public int getBurst() {
+        return mBurst;
+    }
+
+    /**
+     * Returns whether this limit never throttles a request.
+     * @return true iff the rate is infinite
+     */
+    public boolean isUnlimited() {
+        return mRatePerSecond == Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the time in which the bucket gains one request, in nanoseconds.
+     */
+    long getIntervalNanos() {
+        return isUnlimited()? 0 : (long) Math.min(NANOS_PER_SECOND / mRatePerSecond,
+                Long.MAX_VALUE / 4);
+    }
+
+    /**
+     * Returns how far ahead of the current time the bucket may be drawn, in nanoseconds: the
+     * intervals of all but one request of a burst.
+     */
+    long getToleranceNanos() {
+        return (long) Math.min((double) getIntervalNanos() * (mBurst - 1), Long.MAX_VALUE / 4);
+    }
+
+    @Override
+    public String toString() {
+        return mRatePerSecond + " per second, burst " + mBurst;
+    }
+}
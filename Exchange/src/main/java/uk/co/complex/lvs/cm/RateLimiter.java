@@ -0,0 +1,233 @@
+package uk.co.complex.lvs.cm;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+
+/**
+ * RateLimiter throttles the requests of each account to a market, so that a single account which
+ * floods the market cannot keep the other accounts from the lock of the market manager. Each
+ * account has a token bucket for its orders (new orders and amendments) and one for its
+ * cancellations (see {@link RateLimit}). A request which finds its bucket empty is rejected, and
+ * the throttle listeners are notified.
+ *
+ * The market manager checks the buckets before it takes its lock, so a throttled request never
+ * touches the queues. A bucket is a single atomic "theoretical arrival time": the time at which
+ * the bucket would be full again. A request is accepted if that time is less than a burst ahead
+ * of the current time, and then moves it one interval further, with a single compare-and-set.
+ * The check is lock-free and takes constant time. While no limits are set, it is skipped.
+ *
+ * The time is taken from the clock of the market manager, so the replicas of a replicated market
+ * (which share the time of each command) throttle the same requests.
+ */
+public class RateLimiter {
+    private static final long NANOS_PER_MILLI = 1_000_000;
+
+    private final ConcurrentMap<Account, Throttle> mThrottles = new ConcurrentHashMap<>();
+    private final List<ThrottleListener> mListeners = new CopyOnWriteArrayList<>();
+    private final LongAdder mThrottledOrders = new LongAdder();
+    private final LongAdder mThrottledCancels = new LongAdder();
+    private volatile RateLimit mDefaultOrderLimit = RateLimit.UNLIMITED;
+    private volatile RateLimit mDefaultCancelLimit = RateLimit.UNLIMITED;
+    private volatile boolean mEnabled = false;
+
+    RateLimiter() {
+    }
+
+    /**
+     * Sets the limits of accounts which do not have limits of their own. The buckets of those
+     * accounts are refilled.
+     * @param orderLimit the limit of new orders and amendments
+     * @param cancelLimit the limit of cancellations
+     */
+    public synchronized void setDefaultLimits(RateLimit orderLimit, RateLimit cancelLimit) {
+        mDefaultOrderLimit = orderLimit;
+        mDefaultCancelLimit = cancelLimit;
+        mThrottles.replaceAll((a, t) -> t.mCustom? t :
+                new Throttle(orderLimit, cancelLimit, false, t));
+        updateEnabled();
+    }
+
+    /**
+     * Sets the limits of an account. Its buckets are refilled.
+     * @param account the account
+     * @param orderLimit the limit of new orders and amendments, or null to use the default limits
+     * @param cancelLimit the limit of cancellations, or null to use the default limits
+     */
+    public synchronized void setLimits(Account account, RateLimit orderLimit,
+                                       RateLimit cancelLimit) {
+        final boolean custom = orderLimit != null || cancelLimit != null;
+        final Throttle previous = mThrottles.get(account);
+        mThrottles.put(account, new Throttle(
+                (orderLimit == null)? mDefaultOrderLimit : orderLimit,
+                (cancelLimit == null)? mDefaultCancelLimit : cancelLimit, custom, previous));
+        updateEnabled();
+    }
+
+    private void updateEnabled() {
+        boolean enabled = !mDefaultOrderLimit.isUnlimited() || !mDefaultCancelLimit.isUnlimited();
+        for (Throttle t : mThrottles.values()) {
+            enabled |= t.mOrders.mInterval > 0 || t.mCancels.mInterval > 0;
+        }
+        mEnabled = enabled;
+    }
+
+    /**
+     * Returns the limit of the new orders and amendments of an account.
+     * @param account the account
+     * @return the order limit
+     */
+    public RateLimit getOrderLimit(Account account) {
+        final Throttle throttle = mThrottles.get(account);
+        return (throttle == null)? mDefaultOrderLimit : throttle.mOrders.mLimit;
+    }
+
+    /**
+     * Returns the limit of the cancellations of an account.
+     * @param account the account
+     * @return the cancel limit
+     */
+    public RateLimit getCancelLimit(Account account) {
+        final Throttle throttle = mThrottles.get(account);
+        return (throttle == null)? mDefaultCancelLimit : throttle.mCancels.mLimit;
+    }
+
+    /**
+     * Adds a listener which is notified of the throttled requests.
+     * @param listener the listener
+     */
+    public void addListener(ThrottleListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(ThrottleListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Returns the number of orders (and amendments) which have been throttled.
+     * @return the number of throttled orders
+     */
+    public long getThrottledOrders() {
+        return mThrottledOrders.sum();
+    }
+
+    /**
+     * Returns the number of cancellations which have been throttled.
+     * @return the number of throttled cancellations
+     */
+    public long getThrottledCancels() {
+        return mThrottledCancels.sum();
+    }
+
+    /**
+     * Returns the number of orders (and amendments) of an account which have been throttled.
+     * @param account the account
+     * @return the number of throttled orders of the account
+     */
+    public long getThrottledOrders(Account account) {
+        final Throttle throttle = mThrottles.get(account);
+        return (throttle == null)? 0 : throttle.mThrottledOrders.get();
+    }
+
+    /**
+     * Returns the number of cancellations of an account which have been throttled.
+     * @param account the account
+     * @return the number of throttled cancellations of the account
+     */
+    public long getThrottledCancels(Account account) {
+        final Throttle throttle = mThrottles.get(account);
+        return (throttle == null)? 0 : throttle.mThrottledCancels.get();
+    }
+
+    private Throttle throttle(Account account) {
+        final Throttle throttle = mThrottles.get(account);
+        if (throttle != null) return throttle;
+        return mThrottles.computeIfAbsent(account,
+                a -> new Throttle(mDefaultOrderLimit, mDefaultCancelLimit, false, null));
+    }
+
+    /**
+     * Takes a token from the order bucket of the account of an order.
+     * @param order the new (or amended) order
+     * @param now the current time in milliseconds
+     * @throws IllegalTradeException if the bucket is empty
+     */
+    void acquireOrder(Order order, long now) throws IllegalTradeException {
+        if (!mEnabled || order.getActor() == null) return;
+        final Throttle throttle = throttle(order.getActor());
+        if (throttle.mOrders.tryAcquire(now * NANOS_PER_MILLI)) return;
+
+        throttle.mThrottledOrders.incrementAndGet();
+        mThrottledOrders.increment();
+        for (ThrottleListener l : mListeners) l.orderThrottled(order);
+        throw new IllegalTradeException("The actor has sent too many orders (limit: " +
+                throttle.mOrders.mLimit + ")");
+    }
+
+    /**
+     * Takes a token from the cancel bucket of the account of an order.
+     * @param order the order which is to be cancelled
+     * @param now the current time in milliseconds
+     * @return true iff the cancellation may proceed
+     */
+    boolean acquireCancel(Order order, long now) {
+        if (!mEnabled || order.getActor() == null) return true;
+        final Throttle throttle = throttle(order.getActor());
+        if (throttle.mCancels.tryAcquire(now * NANOS_PER_MILLI)) return true;
+
+        throttle.mThrottledCancels.incrementAndGet();
+        mThrottledCancels.increment();
+        for (ThrottleListener l : mListeners) l.cancelThrottled(order);
+        return false;
+    }
+
+    /**
+     * Throttle holds the buckets of an account, and its counts of throttled requests, which are
+     * kept when its limits change.
+     */
+    private static final class Throttle {
+        private final Bucket mOrders;
+        private final Bucket mCancels;
+        private final boolean mCustom;
+        private final AtomicLong mThrottledOrders;
+        private final AtomicLong mThrottledCancels;
+
+        private Throttle(RateLimit orderLimit, RateLimit cancelLimit, boolean custom,
+                         Throttle previous) {
+            mOrders = new Bucket(orderLimit);
+            mCancels = new Bucket(cancelLimit);
+            mCustom = custom;
+            mThrottledOrders = (previous == null)? new AtomicLong() : previous.mThrottledOrders;
+            mThrottledCancels = (previous == null)? new AtomicLong() : previous.mThrottledCancels;
+        }
+    }
+
+    private static final class Bucket {
+        private final RateLimit mLimit;
+        private final long mInterval;
+        private final long mTolerance;
+        private final AtomicLong mFullAt = new AtomicLong();
+
+        private Bucket(RateLimit limit) {
+            mLimit = limit;
+            mInterval = limit.getIntervalNanos();
+            mTolerance = limit.getToleranceNanos();
+        }
+
+        private boolean tryAcquire(long now) {
+            if (mInterval == 0) return true;
+            while (true) {
+                final long fullAt = mFullAt.get();
+                if (fullAt - now > mTolerance) return false;
+                if (mFullAt.compareAndSet(fullAt, Math.max(fullAt, now) + mInterval)) return true;
+            }
+        }
+    }
+}
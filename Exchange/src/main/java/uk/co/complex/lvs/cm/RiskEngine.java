@@ -0,0 +1,327 @@
+package uk.co.complex.lvs.cm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.CalendarSpread;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * RiskEngine performs the pre-trade risk checks of a market manager. Before an order is matched,
+ * it checks that:
+ * - a sell order is covered by the position of the account, after deducting the sell orders
+ *   which the account already has open for the product
+ * - the open buy (or sell) amount of the account for the product stays within its limits
+ * - the notional exposure (price times remaining amount) of all open orders of the account stays
+ *   within its limit
+ * - the account does not place more orders per second than its limit
+ *
+ * An order of a calendar spread sells one of the legs of the spread (the near leg for a sell
+ * order, the far leg for a buy order), so it is checked as a sell order of that leg. Its notional
+ * exposure is taken from the absolute price of the spread.
+ *
+ * The exposures are kept up to date incrementally when an order is accepted, traded, amended or
+ * cancelled, so each check takes constant time and never scans the queues. All updates are made
+ * under the lock of the market manager.
+ */
+public class RiskEngine {
+    private static final long WINDOW_MILLIS = 1000;
+
+    private final Object mLock;
+    private final Map<Account, AccountRisk> mAccounts = new HashMap<>();
+    private final Map<Long, OpenOrder> mOpenOrders = new HashMap<>();
+    private RiskLimits mDefaultLimits = RiskLimits.UNLIMITED;
+    private Settlement mSettlement;
+    private long mRejected;
+
+    RiskEngine(Object lock) {
+        mLock = lock;
+    }
+
+    /**
+     * Sets the limits of accounts which do not have limits of their own.
+     * @param limits the default limits
+     */
+    public void setDefaultLimits(RiskLimits limits) {
+        synchronized (mLock) {
+            mDefaultLimits = limits;
+        }
+    }
+
+    /**
+     * Sets the limits of an account.
+     * @param account the account
+     * @param limits the limits of the account, or null to use the default limits
+     */
+    public void setLimits(Account account, RiskLimits limits) {
+        synchronized (mLock) {
+            account(account).mLimits = limits;
+        }
+    }
+
+    /**
+     * Returns the limits which apply to an account.
+     * @param account the account
+     * @return the limits of the account
+     */
+    public RiskLimits getLimits(Account account) {
+        synchronized (mLock) {
+            final AccountRisk risk = mAccounts.get(account);
+            return (risk == null || risk.mLimits == null)? mDefaultLimits : risk.mLimits;
+        }
+    }
+
+    /**
+     * Returns the total remaining amount of the open buy orders of an account for a product.
+     * @param account the account
+     * @param product the product
+     * @return the open buy amount
+     */
+    public int getOpenBuyAmount(Account account, Product product) {
+        synchronized (mLock) {
+            final Exposure exposure = exposure(account, product);
+            return (exposure == null)? 0 : exposure.mOpenBuy;
+        }
+    }
+
+    /**
+     * Returns the total remaining amount of the open sell orders of an account for a product.
+     * @param account the account
+     * @param product the product
+     * @return the open sell amount
+     */
+    public int getOpenSellAmount(Account account, Product product) {
+        synchronized (mLock) {
+            final Exposure exposure = exposure(account, product);
+            return (exposure == null)? 0 : exposure.mOpenSell;
+        }
+    }
+
+    /**
+     * Returns the total value (price times remaining amount) of the open orders of an account.
+     * @param account the account
+     * @return the notional exposure
+     */
+    public double getNotional(Account account) {
+        synchronized (mLock) {
+            final AccountRisk risk = mAccounts.get(account);
+            return (risk == null)? 0 : risk.mNotional;
+        }
+    }
+
+    /**
+     * Returns the number of orders which have been rejected by the risk checks.
+     * @return the number of rejected orders
+     */
+    public long getRejectedCount() {
+        synchronized (mLock) {
+            return mRejected;
+        }
+    }
+
+    /**
+     * Sets the settlement stage whose unsettled trades are included in the positions of the
+     * accounts, or null if trades are applied to the accounts directly.
+     */
+    void setSettlement(Settlement settlement) {
+        mSettlement = settlement;
+    }
+
+    private Exposure exposure(Account account, Product product) {
+        final AccountRisk risk = mAccounts.get(account);
+        return (risk == null)? null : risk.mExposures.get(product);
+    }
+
+    private AccountRisk account(Account account) {
+        AccountRisk risk = mAccounts.get(account);
+        if (risk == null) {
+            risk = new AccountRisk();
+            mAccounts.put(account, risk);
+        }
+        return risk;
+    }
+
+    /**
+     * Checks an order against the limits of its account, and accepts it if it passes. From then
+     * on, the order counts towards the exposure of the account until it is traded or cancelled.
+     * @param order the order
+     * @param now the current time in milliseconds
+     * @throws IllegalTradeException if the order breaks a limit
+     */
+    void accept(Order order, long now) throws IllegalTradeException {
+        accept(order, order.getPrice(), order.getRemainingAmount(), now);
+    }
+
+    /**
+     * Checks an amendment of an open order against the limits of its account, as if the order was
+     * replaced by an order with the new price and amount. If the amendment passes, the exposure of
+     * the order is replaced; otherwise, the exposure is left as it was.
+     * @param order the order
+     * @param price the new price of the order
+     * @param amount the new remaining amount of the order
+     * @param now the current time in milliseconds
+     * @throws IllegalTradeException if the amended order breaks a limit
+     */
+    void amend(Order order, float price, int amount, long now) throws IllegalTradeException {
+        final OpenOrder open = mOpenOrders.get(order.getId());
+        final int remaining = (open == null)? 0 : open.mRemaining;
+        if (open != null) release(order.getId(), remaining);
+        try {
+            accept(order, price, amount, now);
+        } catch (IllegalTradeException e) {
+            if (open != null) hold(order.getId(), open, remaining);
+            throw e;
+        }
+    }
+
+    private void accept(Order order, float price, int amount, long now)
+            throws IllegalTradeException {
+        Product product = order.getProduct();
+        Side side = order.getSide();
+        if (product instanceof CalendarSpread) {
+            final CalendarSpread spread = (CalendarSpread) product;
+            product = (side == Side.SELL)? spread.getNearLeg() : spread.getFarLeg();
+            side = Side.SELL;
+        }
+        final AccountRisk risk = account(order.getActor());
+        Exposure exposure = risk.mExposures.get(product);
+        if (exposure == null) {
+            exposure = new Exposure();
+            risk.mExposures.put(product, exposure);
+        }
+        final RiskLimits limits = (risk.mLimits == null)? mDefaultLimits : risk.mLimits;
+        final float absolutePrice = Math.abs(price);
+        final double notional = (double) absolutePrice * amount;
+
+        if (now - risk.mWindowStart >= WINDOW_MILLIS) {
+            risk.mWindowStart = now;
+            risk.mWindowOrders = 0;
+        }
+        if (risk.mWindowOrders >= limits.getMaxOrdersPerSecond()) {
+            reject("The actor has placed too many orders (limit: " +
+                    limits.getMaxOrdersPerSecond() + " per second)");
+        }
+        if (side == Side.SELL) {
+            final int position = (mSettlement == null)?
+                    order.getActor().getPosition(product) :
+                    mSettlement.getPosition(order.getActor(), product);
+            final long available = (long) position - exposure.mOpenSell;
+            if (available < amount) {
+                reject("The actor does not have enough of the product it is trying to sell " +
+                        "(has: " + available + " not yet offered, wants: " + amount + ")");
+            }
+            if ((long) exposure.mOpenSell + amount > limits.getMaxOpenSellAmount()) {
+                reject("The order exceeds the open sell limit of the actor (open: " +
+                        exposure.mOpenSell + ", limit: " + limits.getMaxOpenSellAmount() + ")");
+            }
+        } else if ((long) exposure.mOpenBuy + amount > limits.getMaxOpenBuyAmount()) {
+            reject("The order exceeds the open buy limit of the actor (open: " +
+                    exposure.mOpenBuy + ", limit: " + limits.getMaxOpenBuyAmount() + ")");
+        }
+        if (risk.mNotional + notional > limits.getMaxNotional()) {
+            reject("The order exceeds the notional limit of the actor (open: " +
+                    risk.mNotional + ", limit: " + limits.getMaxNotional() + ")");
+        }
+
+        risk.mWindowOrders++;
+        hold(order.getId(), new OpenOrder(order.getProduct(), risk, exposure, side,
+                absolutePrice), amount);
+    }
+
+    /**
+     * Adds an amount of an open order to the exposure of its account.
+     */
+    private void hold(long orderId, OpenOrder open, int amount) {
+        open.mAccount.mNotional += (double) open.mPrice * amount;
+        if (open.mSide == Side.SELL) {
+            open.mExposure.mOpenSell += amount;
+        } else {
+            open.mExposure.mOpenBuy += amount;
+        }
+        open.mRemaining += amount;
+        mOpenOrders.put(orderId, open);
+    }
+
+    private void reject(String reason) throws IllegalTradeException {
+        mRejected++;
+        throw new IllegalTradeException(reason);
+    }
+
+    /**
+     * Releases the traded amount of both orders of a trade.
+     */
+    void tradeExecuted(Trade trade) {
+        fill(trade.getBuyOrderId(), trade);
+        fill(trade.getSellOrderId(), trade);
+    }
+
+    private void fill(long orderId, Trade trade) {
+        final OpenOrder open = mOpenOrders.get(orderId);
+        if (open != null && Trade.fills(trade.getProduct(), open.mProduct)) {
+            release(orderId, trade.getAmount());
+        }
+    }
+
+    /**
+     * Releases the amount by which an open order was reduced.
+     */
+    void orderReduced(Order order, int amount) {
+        release(order.getId(), amount);
+    }
+
+    /**
+     * Releases the remaining amount of a cancelled or expired order.
+     */
+    void orderCancelled(Order order) {
+        final OpenOrder open = mOpenOrders.get(order.getId());
+        if (open != null) release(order.getId(), open.mRemaining);
+    }
+
+    private void release(long orderId, int amount) {
+        final OpenOrder open = mOpenOrders.get(orderId);
+        if (open == null) return;
+        if (open.mSide == Side.SELL) {
+            open.mExposure.mOpenSell -= amount;
+        } else {
+            open.mExposure.mOpenBuy -= amount;
+        }
+        open.mAccount.mNotional -= (double) open.mPrice * amount;
+        open.mRemaining -= amount;
+        if (open.mRemaining <= 0) mOpenOrders.remove(orderId);
+    }
+
+    private static final class AccountRisk {
+        private final Map<Product, Exposure> mExposures = new HashMap<>();
+        private RiskLimits mLimits;
+        private double mNotional;
+        private long mWindowStart = Long.MIN_VALUE / 2;
+        private int mWindowOrders;
+    }
+
+    private static final class Exposure {
+        private int mOpenBuy;
+        private int mOpenSell;
+    }
+
+    private static final class OpenOrder {
+        private final Product mProduct;
+        private final AccountRisk mAccount;
+        private final Exposure mExposure;
+        private final Side mSide;
+        private final float mPrice;
+        private int mRemaining;
+
+        private OpenOrder(Product product, AccountRisk account, Exposure exposure, Side side,
+                          float price) {
+            mProduct = product;
+            mAccount = account;
+            mExposure = exposure;
+            mSide = side;
+            mPrice = price;
+        }
+    }
+}
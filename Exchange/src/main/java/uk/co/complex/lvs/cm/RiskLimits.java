@@ -0,0 +1,71 @@
+package uk.co.complex.lvs.cm;
+
+/**
+ * RiskLimits are the pre-trade limits of an account (see {@link RiskEngine}). The open amounts are
+ * limited per product; the notional exposure and the order rate are limited over all products of
+ * the market.
+ */
+public final class RiskLimits {
+    /**
+     * Limits which never reject an order.
+     */
+    public static final RiskLimits UNLIMITED = new RiskLimits(Integer.MAX_VALUE,
+            Integer.MAX_VALUE, Double.POSITIVE_INFINITY, Integer.MAX_VALUE);
+
+    private final int mMaxOpenBuyAmount;
+    private final int mMaxOpenSellAmount;
+    private final double mMaxNotional;
+    private final int mMaxOrdersPerSecond;
+
+    /**
+     * Constructs risk limits.
+     * @param maxOpenBuyAmount the maximum total remaining amount of open buy orders per product
+     * @param maxOpenSellAmount the maximum total remaining amount of open sell orders per product
+     * @param maxNotional the maximum total value (price times remaining amount) of all open
+     *                    orders
+     * @param maxOrdersPerSecond the maximum number of orders which can be placed in one second
+     */
+    public RiskLimits(int maxOpenBuyAmount, int maxOpenSellAmount, double maxNotional,
+                      int maxOrdersPerSecond) {
+        if (maxOpenBuyAmount < 0 || maxOpenSellAmount < 0 || maxNotional < 0 ||
+                maxOrdersPerSecond < 0) {
+            throw new IllegalArgumentException("Risk limits cannot be negative");
+        }
+        mMaxOpenBuyAmount = maxOpenBuyAmount;
+        mMaxOpenSellAmount = maxOpenSellAmount;
+        mMaxNotional = maxNotional;
+        mMaxOrdersPerSecond = maxOrdersPerSecond;
+    }
+
+    /**
+     * Returns the maximum total remaining amount of open buy orders per product.
+     * @return the maximum open buy amount
+     */
+    public int getMaxOpenBuyAmount() {
+        return mMaxOpenBuyAmount;
+    }
+
+    /**
+     * Returns the maximum total remaining amount of open sell orders per product.
+     * @return the maximum open sell amount
+     */
+    public int getMaxOpenSellAmount() {
+        return mMaxOpenSellAmount;
+    }
+
+    /**
+     * Returns the maximum total value of all open orders.
+     * @return the maximum notional exposure
+     */
+    public double getMaxNotional() {
+        return mMaxNotional;
+    }
+
+    /**
+     * Returns the maximum number of orders which can be placed in one second.
+     * @return the maximum order rate
+     */
+    public int getMaxOrdersPerSecond() {
+        return mMaxOrdersPerSecond;
+    }
+}
@@ -0,0 +1,226 @@
+package uk.co.complex.lvs.cm;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.CalendarSpread;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * Settlement applies the trades of a market manager to the positions of the accounts on a
+ * separate thread. The matching thread only adds each fill to the pending amount of its account
+ * and product; the settlement thread nets all pending fills of an account and product, and applies
+ * them with a single update. It settles at the end of every window, or earlier once a batch of
+ * trades is pending, whichever comes first.
+ *
+ * Each trade has a sequence number (the number of trades executed before it, plus one). The
+ * watermark is the sequence number up to which all trades have been settled, so a reader of
+ * {@link Account#getPosition(Product)} knows how current the position is. Until a trade has been
+ * settled, the risk checks of the market manager include it through
+ * {@link #getPosition(Account, Product)}.
+ */
+public class Settlement {
+    private final long mWindowNanos;
+    private final int mBatchSize;
+    private final Map<Account, Map<Product, Pending>> mPending = new HashMap<>();
+    private final Queue<Pending> mDirty = new ConcurrentLinkedQueue<>();
+    private final AtomicLong mExecuted = new AtomicLong();
+    private volatile long mWatermark;
+    private volatile long mUpdates;
+    private volatile boolean mRunning;
+    private long mRequested;
+    private Thread mThread;
+
+    /**
+     * Constructs a settlement stage.
+     * @param windowMillis the maximum time between two settlements, in milliseconds
+     * @param batchSize the number of pending trades which triggers a settlement before the end of
+     *                  the window
+     */
+    Settlement(long windowMillis, int batchSize) {
+        if (windowMillis <= 0) throw new IllegalArgumentException("The settlement window " +
+                "should be positive (was " + windowMillis + ")");
+        if (batchSize <= 0) throw new IllegalArgumentException("The settlement batch size " +
+                "should be positive (was " + batchSize + ")");
+        mWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * Starts the settlement thread.
+     */
+    void start() {
+        mRunning = true;
+        mThread = new Thread(this::run, "settlement");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stops the settlement thread, after all trades executed so far have been settled.
+     */
+    void stop() {
+        mRunning = false;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (mRunning) {
+            LockSupport.parkNanos(this, mWindowNanos);
+            settle();
+        }
+        settle();
+    }
+
+    /**
+     * Adds the fills of the given trades to the pending amounts. Called by the market manager
+     * under its lock.
+     */
+    void tradesExecuted(List<Trade> trades) {
+        for (Trade t : trades) {
+            if (t.getProduct() instanceof CalendarSpread) {
+                // A spread is held as its legs
+                final CalendarSpread spread = (CalendarSpread) t.getProduct();
+                add(t.getBuyer(), spread.getNearLeg(), t.getAmount());
+                add(t.getBuyer(), spread.getFarLeg(), -t.getAmount());
+                add(t.getSeller(), spread.getNearLeg(), -t.getAmount());
+                add(t.getSeller(), spread.getFarLeg(), t.getAmount());
+            } else {
+                add(t.getBuyer(), t.getProduct(), t.getAmount());
+                add(t.getSeller(), t.getProduct(), -t.getAmount());
+            }
+        }
+        final long executed = mExecuted.addAndGet(trades.size());
+        if (executed - mRequested >= mBatchSize) {
+            mRequested = executed;
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    private void add(Account account, Product product, int amount) {
+        final Pending pending = pending(account, product);
+        synchronized (pending) {
+            pending.mAmount += amount;
+            if (!pending.mDirty) {
+                pending.mDirty = true;
+                mDirty.add(pending);
+            }
+        }
+    }
+
+    private Pending pending(Account account, Product product) {
+        Map<Product, Pending> products = mPending.get(account);
+        if (products == null) {
+            products = new HashMap<>();
+            mPending.put(account, products);
+        }
+        Pending pending = products.get(product);
+        if (pending == null) {
+            pending = new Pending(account, product);
+            products.put(product, pending);
+        }
+        return pending;
+    }
+
+    /**
+     * Returns the position of an account including the trades which have not been settled yet.
+     * Called by the market manager under its lock.
+     */
+    int getPosition(Account account, Product product) {
+        final Map<Product, Pending> products = mPending.get(account);
+        final Pending pending = (products == null)? null : products.get(product);
+        if (pending == null) return account.getPosition(product);
+        synchronized (pending) {
+            return account.getPosition(product) + pending.mAmount;
+        }
+    }
+
+    private void settle() {
+        final long executed = mExecuted.get();
+        long updates = 0;
+        Pending pending;
+        while ((pending = mDirty.poll()) != null) {
+            synchronized (pending) {
+                if (pending.mAmount != 0) {
+                    pending.mAccount.updateBook(pending.mProduct, pending.mAmount);
+                    pending.mAmount = 0;
+                    updates++;
+                }
+                pending.mDirty = false;
+            }
+        }
+        mUpdates += updates;
+        mWatermark = executed;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last trade executed.
+     * @return the number of trades executed
+     */
+    public long getTradeSequence() {
+        return mExecuted.get();
+    }
+
+    /**
+     * Returns the sequence number up to which all trades have been settled into the accounts.
+     * @return the watermark
+     */
+    public long getWatermark() {
+        return mWatermark;
+    }
+
+    /**
+     * Returns the number of account updates made. As fills are netted, this is usually far less
+     * than twice the number of trades.
+     * @return the number of account updates
+     */
+    public long getUpdateCount() {
+        return mUpdates;
+    }
+
+    /**
+     * Waits until all trades up to a sequence number have been settled.
+     * @param sequence the sequence number
+     * @param timeoutMillis the maximum time to wait, in milliseconds
+     * @return true iff the trades have been settled
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized boolean awaitWatermark(long sequence, long timeoutMillis)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (mWatermark < sequence) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return false;
+            wait(remaining);
+        }
+        return true;
+    }
+
+    private static final class Pending {
+        private final Account mAccount;
+        private final Product mProduct;
+        private int mAmount;
+        private boolean mDirty;
+
+        private Pending(Account account, Product product) {
+            mAccount = account;
+            mProduct = product;
+        }
+    }
+}
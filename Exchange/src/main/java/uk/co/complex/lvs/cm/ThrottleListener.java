@@ -0,0 +1,27 @@
+package uk.co.complex.lvs.cm;
+
+import uk.co.complex.lvs.cm.datamodel.Order;
+
+/**
+ * ThrottleListener is notified of the requests which the rate limiter of a market rejects (see
+ * {@link RateLimiter}). Unlike an {@link OrderListener}, it is notified on the thread which sent
+ * the request, before the market manager is locked, so it can be notified concurrently.
+ */
+public interface ThrottleListener {
+
+    /**
+     * Notifies the listener that a new order (or an amendment) was rejected because its account
+     * exceeded its order rate. The order has not been queued.
+     * @param order the throttled order
+     */
+    default void orderThrottled(Order order) {
+    }
+
+    /**
+     * Notifies the listener that a cancellation was rejected because its account exceeded its
+     * cancel rate. The order is left on its queue.
+     * @param order the order which was to be cancelled
+     */
+    default void cancelThrottled(Order order) {
+    }
+}
@@ -0,0 +1,192 @@
+package uk.co.complex.lvs.cm;
+
+import java.util.List;
+
+/**
+ * TimingWheel is a hierarchical timing wheel, which keeps track of a large number of deadlines at
+ * a fixed resolution (the tick). Scheduling and cancelling a timer take constant time, whatever the
+ * number of timers.
+ *
+ * The wheel has a number of levels of 64 slots each. The slots of the lowest level are one tick
+ * wide, and those of each higher level are 64 times wider than those of the level below. A timer is
+ * put in the slot of the lowest level which still reaches its deadline. When the wheel reaches the
+ * slot of a higher level, its timers are moved down to the levels below, until they reach the
+ * lowest level and expire. Each level keeps a bitmap of its occupied slots, so the wheel skips
+ * straight to the next occupied slot however far it is advanced.
+ *
+ * The wheel is not thread-safe: the market manager only uses it under its own lock.
+ * @param <T> the type of the values of the timers
+ */
+class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 10;
+    /** The index of the list of timers which were overdue when they were scheduled. */
+    private static final int OVERDUE = LEVELS * SLOTS;
+    /** The furthest a deadline can be ahead of the wheel, so that it fits in the highest level. */
+    private static final long HORIZON = 1L << (LEVELS * SLOT_BITS - 2);
+
+    private final long mTickMillis;
+    @SuppressWarnings("unchecked")
+    private final Timer<T>[] mSlots = (Timer<T>[]) new Timer<?>[OVERDUE + 1];
+    private final long[] mOccupied = new long[LEVELS];
+    private long mTick;
+    private int mSize;
+
+    /**
+     * Constructs an empty timing wheel.
+     * @param tickMillis the resolution of the wheel, in milliseconds
+     */
+    TimingWheel(long tickMillis) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("The tick should be positive " +
+                "(was " + tickMillis + ")");
+        mTickMillis = tickMillis;
+    }
+
+    /**
+     * Returns the number of timers which are scheduled.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Schedules a timer. A timer is never expired before its deadline, but it may expire up to a
+     * tick after it. While the wheel is empty, it is moved to the given current time, so the clock
+     * may be set back between timers.
+     * @param value the value of the timer
+     * @param deadlineMillis the time at which the timer expires, in milliseconds
+     * @param nowMillis the current time, in milliseconds
+     * @return the timer, which can be cancelled
+     */
+    Timer<T> schedule(T value, long deadlineMillis, long nowMillis) {
+        if (mSize == 0) mTick = Math.floorDiv(nowMillis, mTickMillis);
+        final long deadline = -Math.floorDiv(-deadlineMillis, mTickMillis);
+        final Timer<T> timer = new Timer<>(value, Math.min(deadline, mTick + HORIZON));
+        insert(timer);
+        mSize++;
+        return timer;
+    }
+
+    /**
+     * Cancels a timer, unless it has expired or been cancelled already.
+     * @param timer the timer
+     * @return true iff the timer was scheduled
+     */
+    boolean cancel(Timer<T> timer) {
+        if (timer.mSlot < 0) return false;
+        unlink(timer);
+        mSize--;
+        return true;
+    }
+
+    /**
+     * Advances the wheel to the current time, and collects the values of all the timers which have
+     * expired, oldest deadline first.
+     * @param nowMillis the current time, in milliseconds
+     * @param expired the list to which the values of the expired timers are added
+     */
+    void advance(long nowMillis, List<T> expired) {
+        while (mSlots[OVERDUE] != null) {
+            expired.add(expire(mSlots[OVERDUE]));
+        }
+        final long now = Math.floorDiv(nowMillis, mTickMillis);
+        while (mSize > 0 && mTick < now) {
+            // The next occupied slot is in the lowest level which has one ahead of the current tick
+            int level = 0;
+            long next = -1;
+            for (; level < LEVELS; level++) {
+                final int shift = level * SLOT_BITS;
+                final int digit = (int) (mTick >>> shift) & (SLOTS - 1);
+                final long ahead = (digit == SLOTS - 1)? 0 :
+                        mOccupied[level] & (-1L << (digit + 1));
+                if (ahead != 0) {
+                    final long base = (mTick >>> (shift + SLOT_BITS)) << (shift + SLOT_BITS);
+                    next = base | ((long) Long.numberOfTrailingZeros(ahead) << shift);
+                    break;
+                }
+            }
+            if (next < 0 || next > now) break;
+
+            mTick = next;
+            final int slot = level * SLOTS + ((int) (next >>> (level * SLOT_BITS)) & (SLOTS - 1));
+            while (mSlots[slot] != null) {
+                final Timer<T> timer = mSlots[slot];
+                if (level == 0 || timer.mDeadline <= mTick) {
+                    expired.add(expire(timer));
+                } else {
+                    unlink(timer);
+                    insert(timer);
+                }
+            }
+        }
+        if (mTick < now) mTick = now;
+    }
+
+    private T expire(Timer<T> timer) {
+        unlink(timer);
+        mSize--;
+        return timer.mValue;
+    }
+
+    /**
+     * Puts a timer in the slot of the lowest level which reaches its deadline: the level of the
+     * highest digit in which the deadline differs from the current tick.
+     */
+    private void insert(Timer<T> timer) {
+        final int slot;
+        if (timer.mDeadline <= mTick) {
+            slot = OVERDUE;
+        } else {
+            final int level = (63 - Long.numberOfLeadingZeros(timer.mDeadline ^ mTick)) /
+                    SLOT_BITS;
+            final int digit = (int) (timer.mDeadline >>> (level * SLOT_BITS)) & (SLOTS - 1);
+            slot = level * SLOTS + digit;
+            mOccupied[level] |= 1L << digit;
+        }
+        timer.mSlot = slot;
+        timer.mPrevious = null;
+        timer.mNext = mSlots[slot];
+        if (timer.mNext != null) timer.mNext.mPrevious = timer;
+        mSlots[slot] = timer;
+    }
+
+    private void unlink(Timer<T> timer) {
+        final int slot = timer.mSlot;
+        if (timer.mPrevious != null) {
+            timer.mPrevious.mNext = timer.mNext;
+        } else {
+            mSlots[slot] = timer.mNext;
+        }
+        if (timer.mNext != null) timer.mNext.mPrevious = timer.mPrevious;
+        if (mSlots[slot] == null && slot != OVERDUE) {
+            mOccupied[slot / SLOTS] &= ~(1L << (slot % SLOTS));
+        }
+        timer.mSlot = -1;
+        timer.mPrevious = null;
+        timer.mNext = null;
+    }
+
+    /**
+     * Timer is a value which is scheduled on the wheel.
+     */
+    static final class Timer<T> {
+        private final T mValue;
+        private final long mDeadline;
+        private int mSlot = -1;
+        private Timer<T> mPrevious;
+        private Timer<T> mNext;
+
+        private Timer(T value, long deadline) {
+            mValue = value;
+            mDeadline = deadline;
+        }
+
+        /**
+         * Returns the value of the timer.
+         */
+        T getValue() {
+            return mValue;
+        }
+    }
+}
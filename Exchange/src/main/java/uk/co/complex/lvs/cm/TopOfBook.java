@@ -0,0 +1,160 @@
+package uk.co.complex.lvs.cm;
+
+import java.util.Optional;
+
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+
+/**
+ * TopOfBook is an immutable view of the best bid and offer of a product. The market manager
+ * publishes a new view each time the queues of the product change, so it can be read from any
+ * thread without taking the lock of the market manager (see
+ * {@link MarketManager#getTopOfBook(Product)}).
+ *
+ * The version increases with every change of the queues of the product, and is shared with the
+ * full-depth {@link BookSnapshot} of the same state.
+ */
+public final class TopOfBook {
+    private final Product mProduct;
+    private final long mVersion;
+    private final float mBidPrice;
+    private final int mBidAmount;
+    private final float mAskPrice;
+    private final int mAskAmount;
+
+    private TopOfBook(Product product, long version, float bidPrice, int bidAmount,
+                      float askPrice, int askAmount) {
+        mProduct = product;
+        mVersion = version;
+        mBidPrice = bidPrice;
+        mBidAmount = bidAmount;
+        mAskPrice = askPrice;
+        mAskAmount = askAmount;
+    }
+
+    /**
+     * Returns the top of book of a product without any orders.
+     */
+    static TopOfBook empty(Product product) {
+        return new TopOfBook(product, 0, Float.NaN, 0, Float.NaN, 0);
+    }
+
+    /**
+     * Returns a top of book with the given prices and amounts, e.g. of implied orders.
+     */
+    static TopOfBook of(Product product, long version, float bidPrice, int bidAmount,
+                        float askPrice, int askAmount) {
+        return new TopOfBook(product, version, bidPrice, bidAmount, askPrice, askAmount);
+    }
+
+    /**
+     * Returns the next version of the given top of book. Only the sides which have changed are read
+     * from their queue; the other side is copied from the previous version.
+     */
+    static TopOfBook next(TopOfBook previous, long version, PriceTimePriorityQueue buyQueue,
+                          boolean buyChanged, PriceTimePriorityQueue sellQueue,
+                          boolean sellChanged) {
+        float bidPrice = previous.mBidPrice;
+        int bidAmount = previous.mBidAmount;
+        if (buyChanged) {
+            bidPrice = buyQueue.isEmpty()? Float.NaN : buyQueue.first().getPrice();
+            bidAmount = amountAt(buyQueue, bidPrice);
+        }
+        float askPrice = previous.mAskPrice;
+        int askAmount = previous.mAskAmount;
+        if (sellChanged) {
+            askPrice = sellQueue.isEmpty()? Float.NaN : sellQueue.first().getPrice();
+            askAmount = amountAt(sellQueue, askPrice);
+        }
+        return new TopOfBook(previous.mProduct, version, bidPrice, bidAmount, askPrice, askAmount);
+    }
+
+    private static int amountAt(PriceTimePriorityQueue queue, float price) {
+        int amount = 0;
+        for (Order o : queue) {
+            if (o.getPrice() != price) break;
+            amount += o.getRemainingAmount();
+        }
+        return amount;
+    }
+
+    /**
+     * Returns the product.
+     * @return the product
+     */
+    public Product getProduct() {
+        return mProduct;
+    }
+
+    /**
+     * Returns the version of the queues of the product this view was taken from.
+     * @return the version
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Returns whether there is at least one buy order.
+     * @return true iff there is a bid
+     */
+    public boolean hasBid() {
+        return mBidAmount > 0;
+    }
+
+    /**
+     * Returns whether there is at least one sell order.
+     * @return true iff there is an offer
+     */
+    public boolean hasAsk() {
+        return mAskAmount > 0;
+    }
+
+    /**
+     * Returns the best buy price.
+     * @return the best bid, or NaN if there is no bid
+     */
+    public float getBidPrice() {
+        return mBidPrice;
+    }
+
+    /**
+     * Returns the total remaining amount of the buy orders at the best bid.
+     * @return the amount at the best bid, or 0 if there is no bid
+     */
+    public int getBidAmount() {
+        return mBidAmount;
+    }
+
+    /**
+     * Returns the best sell price.
+     * @return the best offer, or NaN if there is no offer
+     */
+    public float getAskPrice() {
+        return mAskPrice;
+    }
+
+    /**
+     * Returns the total remaining amount of the sell orders at the best offer.
+     * @return the amount at the best offer, or 0 if there is no offer
+     */
+    public int getAskAmount() {
+        return mAskAmount;
+    }
+
+    /**
+     * Returns the price halfway between the best bid and the best offer.
+     * @return the mid price, or empty if either side has no orders
+     */
+    public Optional<Float> getMidPrice() {
+        if (!hasBid() || !hasAsk()) return Optional.empty();
+        return Optional.of((mBidPrice + mAskPrice) / 2.0f);
+    }
+
+    @Override
+    public String toString() {
+        return mProduct.getName() + " v" + mVersion + ": " +
+                (hasBid()? mBidAmount + "x" + String.format("%.2f", mBidPrice) : "-") + " / " +
+                (hasAsk()? mAskAmount + "x" + String.format("%.2f", mAskPrice) : "-");
+    }
+}
@@ -0,0 +1,13 @@
+package uk.co.complex.lvs.cm;
+
+/**
+ * TradingPhase represents the phase in which a product is traded on a market.
+ * CONTINUOUS is continuous trading: new orders are matched as soon as they are placed.
+ * AUCTION is a call auction (e.g. at the open or close): new orders are only queued, and crossing
+ * orders are matched at a single price when the auction is uncrossed.
+ * BATCH_AUCTION is a series of frequent batch auctions: new orders are only queued, and the
+ * product is uncrossed at the end of each batch interval (see {@link FrequentBatchAuction}).
+ */
+public enum TradingPhase {
+    CONTINUOUS, AUCTION, BATCH_AUCTION
+}
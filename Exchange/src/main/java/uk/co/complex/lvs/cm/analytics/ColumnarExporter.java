@@ -0,0 +1,442 @@
+package uk.co.complex.lvs.cm.analytics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.OrderListener;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * ColumnarExporter exports the trades of a market, and periodic snapshots of the price levels of
+ * its queues, to columnar files for analysis (see {@link ColumnarReader}) while the market runs:
+ * - trades.cmcx: time (long, nanoseconds since the epoch), product, buyer and seller (strings),
+ *   price (float), amount (int), and the identifiers of the buy and sell orders (long)
+ * - depth.cmcx: time (long), product and side (strings), level (int, 0 is the best price), price
+ *   (float), amount (long) and the number of orders (int), for the best levels of each side
+ *
+ * As an order listener, the exporter only copies each event into a pre-allocated ring buffer, so
+ * it adds little work to the matching thread and never blocks it. An exporter thread takes the
+ * events from the ring, keeps its own image of the price levels (so snapshots never read the
+ * queues), and writes the rows in compressed blocks. The ring and the blocks have a fixed size.
+ *
+ * If the ring is full, events are dropped rather than waiting for the exporter thread; the trades
+ * among them are missing from the export, and are counted. The image of the levels is then
+ * rebuilt from the queues, under the lock of the market manager.
+ */
+public class ColumnarExporter implements OrderListener {
+    public static final int DEFAULT_RING_SIZE = 1 << 16;
+    public static final int DEFAULT_BLOCK_ROWS = 8192;
+    public static final String TRADES_FILE = "trades.cmcx";
+    public static final String DEPTH_FILE = "depth.cmcx";
+    private static final long IDLE_PARK_NANOS = 50000;
+    private static final long FLUSH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final byte RESTED = 1;
+    private static final byte CANCELLED = 2;
+    private static final byte TRADED = 3;
+
+    private static final String[] TRADE_COLUMNS = {"time", "product", "buyer", "seller", "price",
+            "amount", "buy_order", "sell_order"};
+    private static final byte[] TRADE_TYPES = {ColumnarReader.LONG, ColumnarReader.STRING,
+            ColumnarReader.STRING, ColumnarReader.STRING, ColumnarReader.FLOAT, ColumnarReader.INT,
+            ColumnarReader.LONG, ColumnarReader.LONG};
+    private static final String[] DEPTH_COLUMNS = {"time", "product", "side", "level", "price",
+            "amount", "orders"};
+    private static final byte[] DEPTH_TYPES = {ColumnarReader.LONG, ColumnarReader.STRING,
+            ColumnarReader.STRING, ColumnarReader.INT, ColumnarReader.FLOAT, ColumnarReader.LONG,
+            ColumnarReader.INT};
+
+    /**
+     * ImageOrder is a queued order as known by the exporter thread.
+     */
+    private static final class ImageOrder {
+        private final Product mProduct;
+        private final Side mSide;
+        private final float mPrice;
+        private long mRemaining;
+
+        private ImageOrder(Product product, Side side, float price, long remaining) {
+            mProduct = product;
+            mSide = side;
+            mPrice = price;
+            mRemaining = remaining;
+        }
+    }
+
+    private final MarketManager mManager;
+    private final Path mDirectory;
+    private final long mSnapshotNanos;
+    private final int mDepth;
+    private final int mBlockRows;
+
+    // The event ring, written by the matching thread and read by the exporter thread
+    private final int mMask;
+    private final byte[] mTypes;
+    private final Product[] mProducts;
+    private final Side[] mSides;
+    private final float[] mPrices;
+    private final int[] mAmounts;
+    private final long[] mIds;
+    private final Trade[] mTrades;
+    private final AtomicLong mPublished = new AtomicLong();
+    private final AtomicLong mConsumed = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mDroppedTrades = new AtomicLong();
+    private volatile boolean mOverflow;
+
+    // State of the exporter thread
+    private final Map<Long, ImageOrder> mOrders = new HashMap<>();
+    private final Map<Product, TreeMap<Float, long[]>> mBids = new HashMap<>();
+    private final Map<Product, TreeMap<Float, long[]>> mAsks = new HashMap<>();
+    private ColumnarWriter mTradeWriter;
+    private ColumnarWriter mDepthWriter;
+    private volatile long mSnapshots;
+    private volatile boolean mRunning;
+    private Thread mThread;
+
+    /**
+     * Constructs an exporter with the default ring and block sizes.
+     * @param manager the market
+     * @param directory the directory to which the files are written
+     * @param snapshotMillis the time between two snapshots of the levels, in milliseconds
+     * @param depth the number of levels of each side in a snapshot
+     */
+    public ColumnarExporter(MarketManager manager, Path directory, long snapshotMillis,
+                            int depth) {
+        this(manager, directory, snapshotMillis, depth, DEFAULT_RING_SIZE, DEFAULT_BLOCK_ROWS);
+    }
+
+    /**
+     * Constructs an exporter.
+     * @param manager the market
+     * @param directory the directory to which the files are written
+     * @param snapshotMillis the time between two snapshots of the levels, in milliseconds
+     * @param depth the number of levels of each side in a snapshot
+     * @param ringSize the number of events the ring can hold (a power of two)
+     * @param blockRows the number of rows in a block of the files
+     */
+    public ColumnarExporter(MarketManager manager, Path directory, long snapshotMillis, int depth,
+                            int ringSize, int blockRows) {
+        if (Integer.bitCount(ringSize) != 1) throw new IllegalArgumentException("The ring size " +
+                "should be a power of two (was " + ringSize + ")");
+        if (snapshotMillis <= 0 || depth <= 0) throw new IllegalArgumentException("The snapshot " +
+                "interval and depth should be positive (were " + snapshotMillis + " and " +
+                depth + ")");
+        mManager = manager;
+        mDirectory = directory;
+        mSnapshotNanos = TimeUnit.MILLISECONDS.toNanos(snapshotMillis);
+        mDepth = depth;
+        mBlockRows = blockRows;
+        mMask = ringSize - 1;
+        mTypes = new byte[ringSize];
+        mProducts = new Product[ringSize];
+        mSides = new Side[ringSize];
+        mPrices = new float[ringSize];
+        mAmounts = new int[ringSize];
+        mIds = new long[ringSize];
+        mTrades = new Trade[ringSize];
+    }
+
+    /**
+     * Starts exporting. The files are created (replacing earlier exports), and the image of the
+     * levels is taken from the queues.
+     * @throws IOException if the files cannot be created
+     */
+    public void start() throws IOException {
+        mTradeWriter = new ColumnarWriter(mDirectory.resolve(TRADES_FILE), TRADE_COLUMNS,
+                TRADE_TYPES, mBlockRows);
+        mDepthWriter = new ColumnarWriter(mDirectory.resolve(DEPTH_FILE), DEPTH_COLUMNS,
+                DEPTH_TYPES, mBlockRows);
+        synchronized (mManager) {
+            resetImage();
+            mManager.addOrderListener(this);
+        }
+        mRunning = true;
+        mThread = new Thread(this::export, "columnar-exporter");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stops exporting, after the events which are already in the ring have been written and a
+     * last snapshot of the levels has been taken, and closes the files.
+     */
+    public void stop() {
+        mManager.removeOrderListener(this);
+        mRunning = false;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            mTradeWriter.close();
+            mDepthWriter.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the number of events which were dropped, as the ring was full.
+     * @return the number of dropped events
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * Returns the number of trades which are missing from the export, as the ring was full.
+     * @return the number of dropped trades
+     */
+    public long getDroppedTradeCount() {
+        return mDroppedTrades.get();
+    }
+
+    /**
+     * Returns the number of snapshots of the levels which were taken.
+     * @return the number of snapshots
+     */
+    public long getSnapshotCount() {
+        return mSnapshots;
+    }
+
+    /**
+     * Returns the number of events which are waiting in the ring to be exported.
+     * @return the number of waiting events
+     */
+    public long getBacklog() {
+        return mPublished.get() - mConsumed.get();
+    }
+
+    @Override
+    public void orderRested(Order order) {
+        offer(RESTED, order.getProduct(), order.getSide(), order.getPrice(),
+                order.getRemainingAmount(), order.getId(), null);
+    }
+
+    @Override
+    public void orderCancelled(Order order) {
+        offer(CANCELLED, order.getProduct(), order.getSide(), order.getPrice(),
+                order.getRemainingAmount(), order.getId(), null);
+    }
+
+    @Override
+    public void orderAmended(Order order, float previousPrice, int previousAmount) {
+        // The image of the order is removed, and added again when the order rests
+        offer(CANCELLED, order.getProduct(), order.getSide(), previousPrice, previousAmount,
+                order.getId(), null);
+    }
+
+    @Override
+    public void tradeExecuted(Trade trade) {
+        offer(TRADED, trade.getProduct(), null, trade.getPrice(), trade.getAmount(), 0, trade);
+    }
+
+    /**
+     * Copies an event into the ring, or drops it if the ring is full. Only the matching thread
+     * (which holds the lock of the market manager) writes to the ring.
+     */
+    private void offer(byte type, Product product, Side side, float price, int amount, long id,
+                       Trade trade) {
+        final long sequence = mPublished.get();
+        if (sequence - mConsumed.get() > mMask) {
+            mDropped.incrementAndGet();
+            if (trade != null) mDroppedTrades.incrementAndGet();
+            mOverflow = true;
+            return;
+        }
+        final int slot = (int) sequence & mMask;
+        mTypes[slot] = type;
+        mProducts[slot] = product;
+        mSides[slot] = side;
+        mPrices[slot] = price;
+        mAmounts[slot] = amount;
+        mIds[slot] = id;
+        mTrades[slot] = trade;
+        mPublished.lazySet(sequence + 1);
+    }
+
+    private void export() {
+        long nextSnapshot = System.nanoTime();
+        long nextFlush = nextSnapshot + FLUSH_NANOS;
+        try {
+            while (true) {
+                final boolean drained = drain();
+                if (mOverflow) {
+                    // The image missed events: catch up with the queues while matching waits
+                    synchronized (mManager) {
+                        drain();
+                        resetImage();
+                        mOverflow = false;
+                    }
+                }
+                final long now = System.nanoTime();
+                if (now - nextSnapshot >= 0) {
+                    snapshot();
+                    nextSnapshot += mSnapshotNanos * (1 + (now - nextSnapshot) / mSnapshotNanos);
+                }
+                if (now - nextFlush >= 0) {
+                    mTradeWriter.flush();
+                    mDepthWriter.flush();
+                    nextFlush = now + FLUSH_NANOS;
+                }
+                if (drained) {
+                    if (!mRunning) break;
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+            drain();
+            snapshot();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Processes the events in the ring.
+     * @return true if the ring was empty
+     */
+    private boolean drain() throws IOException {
+        long consumed = mConsumed.get();
+        final long published = mPublished.get();
+        if (consumed == published) return true;
+        while (consumed < published) {
+            process((int) consumed & mMask);
+            consumed++;
+            mConsumed.lazySet(consumed);
+        }
+        return false;
+    }
+
+    private void process(int slot) throws IOException {
+        final Product product = mProducts[slot];
+        mProducts[slot] = null;
+        switch (mTypes[slot]) {
+            case RESTED: {
+                final ImageOrder order = new ImageOrder(product, mSides[slot], mPrices[slot],
+                        mAmounts[slot]);
+                mOrders.put(mIds[slot], order);
+                updateLevel(order, order.mRemaining, 1);
+                break;
+            }
+            case CANCELLED: {
+                final ImageOrder order = mOrders.remove(mIds[slot]);
+                if (order != null) updateLevel(order, -order.mRemaining, -1);
+                break;
+            }
+            case TRADED: {
+                final Trade trade = mTrades[slot];
+                mTrades[slot] = null;
+                writeTrade(trade);
+                trade(trade.getBuyOrderId(), trade);
+                trade(trade.getSellOrderId(), trade);
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown event type " + mTypes[slot]);
+        }
+    }
+
+    private void writeTrade(Trade trade) throws IOException {
+        final Instant time = trade.getTime().toInstant();
+        mTradeWriter.putLong(0, time.getEpochSecond() * 1_000_000_000L + time.getNano());
+        mTradeWriter.putString(1, trade.getProduct().getName());
+        mTradeWriter.putString(2, trade.getBuyer().getName());
+        mTradeWriter.putString(3, trade.getSeller().getName());
+        mTradeWriter.putFloat(4, trade.getPrice());
+        mTradeWriter.putInt(5, trade.getAmount());
+        mTradeWriter.putLong(6, trade.getBuyOrderId());
+        mTradeWriter.putLong(7, trade.getSellOrderId());
+        mTradeWriter.endRow();
+    }
+
+    private void trade(long orderId, Trade trade) {
+        final ImageOrder order = mOrders.get(orderId);
+        if (order == null || !Trade.fills(trade.getProduct(), order.mProduct)) return;
+        final int amount = trade.getAmount();
+        order.mRemaining -= amount;
+        final boolean completed = order.mRemaining <= 0;
+        if (completed) mOrders.remove(orderId);
+        updateLevel(order, -amount, completed? -1 : 0);
+    }
+
+    private void updateLevel(ImageOrder order, long amount, int orders) {
+        final TreeMap<Float, long[]> levels = levels(order.mProduct, order.mSide);
+        long[] level = levels.get(order.mPrice);
+        if (level == null) {
+            level = new long[2];
+            levels.put(order.mPrice, level);
+        }
+        level[0] += amount;
+        level[1] += orders;
+        if (level[1] <= 0) levels.remove(order.mPrice);
+    }
+
+    private TreeMap<Float, long[]> levels(Product product, Side side) {
+        if (side == Side.BUY) {
+            return mBids.computeIfAbsent(product, p -> new TreeMap<>(Collections.reverseOrder()));
+        }
+        return mAsks.computeIfAbsent(product, p -> new TreeMap<>());
+    }
+
+    /**
+     * Rebuilds the image of the levels from the queues. Must be called under the lock of the
+     * market manager.
+     */
+    private void resetImage() {
+        mOrders.clear();
+        mBids.clear();
+        mAsks.clear();
+        for (Product p : mManager.getProducts()) {
+            for (Order o : mManager.getBuyQueue(p)) image(o);
+            for (Order o : mManager.getSellQueue(p)) image(o);
+        }
+    }
+
+    private void image(Order o) {
+        final ImageOrder order = new ImageOrder(o.getProduct(), o.getSide(), o.getPrice(),
+                o.getRemainingAmount());
+        mOrders.put(o.getId(), order);
+        updateLevel(order, order.mRemaining, 1);
+    }
+
+    private void snapshot() throws IOException {
+        final Instant now = mManager.getClock().instant();
+        final long time = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+        for (Product p : mManager.getProducts()) {
+            writeLevels(time, p, Side.BUY);
+            writeLevels(time, p, Side.SELL);
+        }
+        mSnapshots++;
+    }
+
+    private void writeLevels(long time, Product product, Side side) throws IOException {
+        int level = 0;
+        for (Map.Entry<Float, long[]> e : levels(product, side).entrySet()) {
+            if (level == mDepth) break;
+            mDepthWriter.putLong(0, time);
+            mDepthWriter.putString(1, product.getName());
+            mDepthWriter.putString(2, side.name());
+            mDepthWriter.putInt(3, level++);
+            mDepthWriter.putFloat(4, e.getKey());
+            mDepthWriter.putLong(5, e.getValue()[0]);
+            mDepthWriter.putInt(6, (int) e.getValue()[1]);
+            mDepthWriter.endRow();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package uk.co.complex.lvs.cm.analytics;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * ColumnarReader reads the columnar files written by a {@link ColumnarExporter}, one block at a
+ * time. The format is:
+ * - a header: the magic number "CMCX" (int), the version (int), the number of columns (int), and
+ *   for each column its type (byte) and its name (modified UTF-8)
+ * - any number of blocks: the number of rows (int), the number of new dictionary entries (int) and
+ *   the entries (modified UTF-8), and then for each column the length (int) and the data of the
+ *   column, compressed with deflate
+ *
+ * Once decompressed, the data of a column is an array of big-endian primitives, one per row:
+ * longs (8 bytes), ints or floats (4 bytes), or strings as ints which index the dictionary. The
+ * entries of the dictionary are numbered from 0 in the order in which they appear in the file.
+ *
+ * A block which is cut off at the end of the file (e.g. as the exporter is still writing it) is
+ * treated as the end of the file.
+ */
+public class ColumnarReader implements Closeable {
+    public static final byte LONG = 1;
+    public static final byte INT = 2;
+    public static final byte FLOAT = 3;
+    public static final byte STRING = 4;
+
+    static final int MAGIC = 0x434d4358;
+    static final int VERSION = 1;
+
+    private final DataInputStream mIn;
+    private final List<String> mNames = new ArrayList<>();
+    private final byte[] mTypes;
+    private final List<String> mDictionary = new ArrayList<>();
+    private final Inflater mInflater = new Inflater();
+    private final ByteBuffer[] mColumns;
+    private int mRows;
+
+    /**
+     * Opens a columnar file, and reads its header.
+     * @param file the file
+     * @throws IOException if the file cannot be read, or is not a columnar file
+     */
+    public ColumnarReader(Path file) throws IOException {
+        mIn = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        if (mIn.readInt() != MAGIC) throw new IOException(file + " is not a columnar file");
+        final int version = mIn.readInt();
+        if (version != VERSION) throw new IOException("Unsupported version " + version);
+        mTypes = new byte[mIn.readInt()];
+        for (int c = 0; c < mTypes.length; c++) {
+            mTypes[c] = mIn.readByte();
+            mNames.add(mIn.readUTF());
+        }
+        mColumns = new ByteBuffer[mTypes.length];
+    }
+
+    /**
+     * Returns the names of the columns.
+     * @return the column names, in the order of the file
+     */
+    public List<String> getColumnNames() {
+        return Collections.unmodifiableList(mNames);
+    }
+
+    /**
+     * Reads the next block.
+     * @return true if a block was read, or false at the end of the file
+     * @throws IOException if the file cannot be read, or is corrupt
+     */
+    public boolean nextBlock() throws IOException {
+        try {
+            final int rows = mIn.readInt();
+            final int entries = mIn.readInt();
+            for (int i = 0; i < entries; i++) mDictionary.add(mIn.readUTF());
+            for (int c = 0; c < mTypes.length; c++) {
+                final byte[] compressed = new byte[mIn.readInt()];
+                mIn.readFully(compressed);
+                final byte[] raw = new byte[rows * ((mTypes[c] == LONG)? 8 : 4)];
+                mInflater.reset();
+                mInflater.setInput(compressed);
+                int n = 0;
+                while (n < raw.length) {
+                    final int read = mInflater.inflate(raw, n, raw.length - n);
+                    if (read == 0 && (mInflater.finished() || mInflater.needsInput())) break;
+                    n += read;
+                }
+                if (n < raw.length) throw new IOException("Column " + mNames.get(c) + " is short");
+                mColumns[c] = ByteBuffer.wrap(raw);
+            }
+            mRows = rows;
+            return true;
+        } catch (EOFException e) {
+            return false;
+        } catch (DataFormatException e) {
+            throw new IOException("The columnar file is corrupt", e);
+        }
+    }
+
+    /**
+     * Returns the number of rows of the current block.
+     * @return the number of rows
+     */
+    public int getRowCount() {
+        return mRows;
+    }
+
+    /**
+     * Returns the values of a long column of the current block.
+     * @param column the name of the column
+     * @return the values
+     */
+    public long[] getLongs(String column) {
+        final ByteBuffer data = column(column, LONG);
+        final long[] values = new long[mRows];
+        for (int r = 0; r < mRows; r++) values[r] = data.getLong(8 * r);
+        return values;
+    }
+
+    /**
+     * Returns the values of an int column of the current block.
+     * @param column the name of the column
+     * @return the values
+     */
+    public int[] getInts(String column) {
+        final ByteBuffer data = column(column, INT);
+        final int[] values = new int[mRows];
+        for (int r = 0; r < mRows; r++) values[r] = data.getInt(4 * r);
+        return values;
+    }
+
+    /**
+     * Returns the values of a float column of the current block.
+     * @param column the name of the column
+     * @return the values
+     */
+    public float[] getFloats(String column) {
+        final ByteBuffer data = column(column, FLOAT);
+        final float[] values = new float[mRows];
+        for (int r = 0; r < mRows; r++) values[r] = data.getFloat(4 * r);
+        return values;
+    }
+
+    /**
+     * Returns the dictionary identifiers of a string column of the current block.
+     * @param column the name of the column
+     * @return the identifiers, which index {@link #getDictionary()}
+     */
+    public int[] getStringIds(String column) {
+        final ByteBuffer data = column(column, STRING);
+        final int[] values = new int[mRows];
+        for (int r = 0; r < mRows; r++) values[r] = data.getInt(4 * r);
+        return values;
+    }
+
+    /**
+     * Returns the values of a string column of the current block.
+     * @param column the name of the column
+     * @return the values
+     */
+    public String[] getStrings(String column) {
+        final int[] ids = getStringIds(column);
+        final String[] values = new String[mRows];
+        for (int r = 0; r < mRows; r++) values[r] = mDictionary.get(ids[r]);
+        return values;
+    }
+
+    /**
+     * Returns the dictionary of the strings read so far.
+     * @return the dictionary, indexed by identifier
+     */
+    public List<String> getDictionary() {
+        return Collections.unmodifiableList(mDictionary);
+    }
+
+    private ByteBuffer column(String name, byte type) {
+        final int c = mNames.indexOf(name);
+        if (c < 0) throw new IllegalArgumentException("Unknown column " + name);
+        if (mTypes[c] != type) throw new IllegalArgumentException("Column " + name + " has type " +
+                mTypes[c] + " (not " + type + ")");
+        if (mColumns[c] == null) throw new IllegalStateException("No block has been read");
+        return mColumns[c];
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInflater.end();
+        mIn.close();
+    }
+}
@@ -0,0 +1,162 @@
+package uk.co.complex.lvs.cm.analytics;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * ColumnarWriter writes rows to a columnar file (see {@link ColumnarReader} for the format). The
+ * rows are collected in fixed-size primitive arrays, one per column, and written as a compressed
+ * block when the arrays are full or the writer is flushed, so the memory it uses is bounded.
+ * Strings are dictionary-encoded: each distinct string is written once, in the first block which
+ * uses it, and stored as an identifier in the columns.
+ */
+final class ColumnarWriter implements Closeable {
+    private final DataOutputStream mOut;
+    private final byte[] mTypes;
+    private final int mBlockRows;
+    private final long[][] mLongs;
+    private final int[][] mInts;
+    private final float[][] mFloats;
+    private final Map<String, Integer> mDictionary = new HashMap<>();
+    private final List<String> mNewEntries = new ArrayList<>();
+    private final ByteBuffer mRaw;
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] mCompressed;
+    private int mRows;
+    private long mTotalRows;
+
+    /**
+     * Creates a columnar file, replacing any file of the same name.
+     * @param file the file
+     * @param names the names of the columns
+     * @param types the types of the columns (see {@link ColumnarReader})
+     * @param blockRows the number of rows in a full block
+     * @throws IOException if the file cannot be created
+     */
+    ColumnarWriter(Path file, String[] names, byte[] types, int blockRows) throws IOException {
+        if (blockRows <= 0) throw new IllegalArgumentException("A block should hold rows (was " +
+                blockRows + ")");
+        mTypes = types.clone();
+        mBlockRows = blockRows;
+        mLongs = new long[types.length][];
+        mInts = new int[types.length][];
+        mFloats = new float[types.length][];
+        for (int c = 0; c < types.length; c++) {
+            switch (types[c]) {
+                case ColumnarReader.LONG: mLongs[c] = new long[blockRows]; break;
+                case ColumnarReader.FLOAT: mFloats[c] = new float[blockRows]; break;
+                case ColumnarReader.INT:
+                case ColumnarReader.STRING: mInts[c] = new int[blockRows]; break;
+                default: throw new IllegalArgumentException("Unknown column type " + types[c]);
+            }
+        }
+        mRaw = ByteBuffer.allocate(blockRows * 8);
+        mCompressed = new byte[blockRows * 8 + 64];
+
+        mOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        mOut.writeInt(ColumnarReader.MAGIC);
+        mOut.writeInt(ColumnarReader.VERSION);
+        mOut.writeInt(types.length);
+        for (int c = 0; c < types.length; c++) {
+            mOut.writeByte(types[c]);
+            mOut.writeUTF(names[c]);
+        }
+    }
+
+    void putLong(int column, long value) {
+        mLongs[column][mRows] = value;
+    }
+
+    void putInt(int column, int value) {
+        mInts[column][mRows] = value;
+    }
+
+    void putFloat(int column, float value) {
+        mFloats[column][mRows] = value;
+    }
+
+    void putString(int column, String value) {
+        Integer id = mDictionary.get(value);
+        if (id == null) {
+            id = mDictionary.size();
+            mDictionary.put(value, id);
+            mNewEntries.add(value);
+        }
+        mInts[column][mRows] = id;
+    }
+
+    /**
+     * Ends the current row, and writes the block if it is full.
+     */
+    void endRow() throws IOException {
+        mRows++;
+        mTotalRows++;
+        if (mRows == mBlockRows) writeBlock();
+    }
+
+    /**
+     * Returns the number of rows written so far, including those not yet in a block.
+     */
+    long getRowCount() {
+        return mTotalRows;
+    }
+
+    /**
+     * Writes the rows collected so far as a (partial) block, and flushes the file.
+     */
+    void flush() throws IOException {
+        if (mRows > 0) writeBlock();
+        mOut.flush();
+    }
+
+    private void writeBlock() throws IOException {
+        mOut.writeInt(mRows);
+        mOut.writeInt(mNewEntries.size());
+        for (String entry : mNewEntries) mOut.writeUTF(entry);
+        mNewEntries.clear();
+        for (int c = 0; c < mTypes.length; c++) {
+            mRaw.clear();
+            for (int r = 0; r < mRows; r++) {
+                switch (mTypes[c]) {
+                    case ColumnarReader.LONG: mRaw.putLong(mLongs[c][r]); break;
+                    case ColumnarReader.FLOAT: mRaw.putFloat(mFloats[c][r]); break;
+                    default: mRaw.putInt(mInts[c][r]);
+                }
+            }
+            mDeflater.reset();
+            mDeflater.setInput(mRaw.array(), 0, mRaw.position());
+            mDeflater.finish();
+            int length = 0;
+            while (!mDeflater.finished()) {
+                if (length == mCompressed.length) {
+                    mCompressed = Arrays.copyOf(mCompressed, 2 * length);
+                }
+                length += mDeflater.deflate(mCompressed, length, mCompressed.length - length);
+            }
+            mOut.writeInt(length);
+            mOut.write(mCompressed, 0, length);
+        }
+        mRows = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mDeflater.end();
+            mOut.close();
+        }
+    }
+}
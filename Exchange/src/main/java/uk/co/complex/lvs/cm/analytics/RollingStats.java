@@ -0,0 +1,178 @@
+package uk.co.complex.lvs.cm.analytics;
+
+/**
+ * RollingStats keeps running sums over a series of trades, so each trade is added in constant time
+ * and the statistics can be read without looking at the trades again. The series is either
+ * unbounded, or a sliding window over the trades of the last milliseconds or the last trades. A
+ * window keeps its trades in a ring of primitive arrays, and subtracts a trade from the sums when
+ * it leaves the window.
+ *
+ * The returns between consecutive trades are logarithmic, or price differences for a series whose
+ * prices may be zero or negative (e.g. of a calendar spread). The kind of return is fixed for the
+ * series, so its sums never mix the two.
+ */
+final class RollingStats {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final long mWindowMillis;
+    private final int mMaxTrades;
+    private final boolean mBounded;
+    private final boolean mDifferences;
+
+    private long[] mTimes;
+    private double[] mPrices;
+    private int[] mAmounts;
+    private double[] mSquaredReturns;
+    private double[] mWeightedPrices;
+    private long[] mDurations;
+    private int mHead;
+    private int mSize;
+
+    private long mCount;
+    private long mVolume;
+    private double mNotional;
+    private double mSquaredReturnSum;
+    private double mWeightedPriceSum;
+    private long mDurationSum;
+
+    private double mLastPrice = Double.NaN;
+    private long mLastTime;
+
+    /**
+     * Constructs running statistics.
+     * @param windowMillis the length of the time window, or 0 if it is not bounded by time
+     * @param maxTrades the number of trades in the window, or 0 if it is not bounded by count
+     * @param differences whether the returns are price differences rather than logarithmic
+     */
+    RollingStats(long windowMillis, int maxTrades, boolean differences) {
+        mWindowMillis = windowMillis;
+        mMaxTrades = maxTrades;
+        mBounded = windowMillis > 0 || maxTrades > 0;
+        mDifferences = differences;
+        if (mBounded) {
+            allocate((maxTrades > 0)? maxTrades : INITIAL_CAPACITY);
+        }
+    }
+
+    private void allocate(int capacity) {
+        final long[] times = new long[capacity];
+        final double[] prices = new double[capacity];
+        final int[] amounts = new int[capacity];
+        final double[] squaredReturns = new double[capacity];
+        final double[] weightedPrices = new double[capacity];
+        final long[] durations = new long[capacity];
+        for (int i = 0; i < mSize; i++) {
+            final int j = (mHead + i) % mTimes.length;
+            times[i] = mTimes[j];
+            prices[i] = mPrices[j];
+            amounts[i] = mAmounts[j];
+            squaredReturns[i] = mSquaredReturns[j];
+            weightedPrices[i] = mWeightedPrices[j];
+            durations[i] = mDurations[j];
+        }
+        mTimes = times;
+        mPrices = prices;
+        mAmounts = amounts;
+        mSquaredReturns = squaredReturns;
+        mWeightedPrices = weightedPrices;
+        mDurations = durations;
+        mHead = 0;
+    }
+
+    /**
+     * Adds a trade to the series.
+     * @param time the execution time in milliseconds
+     * @param price the price
+     * @param amount the amount
+     */
+    void add(long time, double price, int amount) {
+        final double squaredReturn;
+        if (Double.isNaN(mLastPrice)) {
+            squaredReturn = 0;
+        } else {
+            final double r = mDifferences? price - mLastPrice : Math.log(price / mLastPrice);
+            squaredReturn = r * r;
+            // The previous price was in force until this trade
+            final long duration = Math.max(0, time - mLastTime);
+            final double weighted = mLastPrice * duration;
+            if (!mBounded) {
+                mWeightedPriceSum += weighted;
+                mDurationSum += duration;
+            } else if (mSize > 0) {
+                final int tail = (mHead + mSize - 1) % mTimes.length;
+                mWeightedPrices[tail] += weighted;
+                mDurations[tail] += duration;
+                mWeightedPriceSum += weighted;
+                mDurationSum += duration;
+            }
+        }
+        mLastPrice = price;
+        mLastTime = time;
+
+        mCount++;
+        mVolume += amount;
+        mNotional += price * amount;
+        mSquaredReturnSum += squaredReturn;
+        if (!mBounded) return;
+
+        if (mSize == mTimes.length) {
+            if (mMaxTrades > 0) {
+                evict();
+            } else {
+                allocate(mTimes.length * 2);
+            }
+        }
+        final int i = (mHead + mSize) % mTimes.length;
+        mTimes[i] = time;
+        mPrices[i] = price;
+        mAmounts[i] = amount;
+        mSquaredReturns[i] = squaredReturn;
+        mWeightedPrices[i] = 0;
+        mDurations[i] = 0;
+        mSize++;
+        expire(time);
+    }
+
+    /**
+     * Removes the trades which are older than the time window.
+     * @param now the current time in milliseconds
+     */
+    void expire(long now) {
+        if (mWindowMillis <= 0) return;
+        while (mSize > 0 && mTimes[mHead] <= now - mWindowMillis) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        final int i = mHead;
+        mCount--;
+        mVolume -= mAmounts[i];
+        mNotional -= mPrices[i] * mAmounts[i];
+        mSquaredReturnSum -= mSquaredReturns[i];
+        mWeightedPriceSum -= mWeightedPrices[i];
+        mDurationSum -= mDurations[i];
+        mHead = (mHead + 1) % mTimes.length;
+        mSize--;
+        if (mSize == 0) {
+            // Start again from exact zeros, so rounding errors do not build up
+            mNotional = 0;
+            mSquaredReturnSum = 0;
+            mWeightedPriceSum = 0;
+            mDurationSum = 0;
+        }
+    }
+
+    /**
+     * Returns the statistics of the trades in the series.
+     */
+    TradeStats toStats() {
+        if (mCount == 0) {
+            return new TradeStats(0, 0, 0, Double.NaN, Double.NaN, 0);
+        }
+        final double last = mBounded? mPrices[(mHead + mSize - 1) % mTimes.length] : mLastPrice;
+        final double twap = (mDurationSum > 0)? mWeightedPriceSum / mDurationSum : last;
+        return new TradeStats(mCount, mVolume, mNotional, twap, last,
+                Math.max(0, mSquaredReturnSum));
+    }
+}
@@ -0,0 +1,168 @@
+package uk.co.complex.lvs.cm.analytics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.OrderListener;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.CalendarSpread;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * TradeAnalytics computes trade statistics (VWAP, TWAP, volume, trade count and realized
+ * volatility) of a market per product, and per product of each account. It is fed with each trade as it is executed
+ * (see {@link OrderListener}), and keeps running sums for three windows:
+ * - all trades since the analytics were started
+ * - the trades of the last milliseconds
+ * - the last trades
+ * Adding a trade and reading the statistics take constant (amortised) time, and never look at the
+ * record book of the market.
+ *
+ * An account is counted as the buyer and as the seller of its trades, so the volume of an account
+ * is the amount it bought plus the amount it sold. The trades of an account are kept per product,
+ * as the prices of different products cannot be averaged or compared.
+ */
+public class TradeAnalytics implements OrderListener {
+    /**
+     * Window selects the trades which the statistics are computed over.
+     */
+    public enum Window {
+        /** All trades since the analytics were started. */
+        ALL,
+        /** The trades of the last milliseconds, as set by the time window. */
+        TIME,
+        /** The last trades, as set by the trade window. */
+        TRADES
+    }
+
+    private final MarketManager mManager;
+    private final long mWindowMillis;
+    private final int mWindowTrades;
+    private final Map<Product, Series> mProducts = new HashMap<>();
+    private final Map<Account, Map<Product, Series>> mAccounts = new HashMap<>();
+
+    /**
+     * Constructs trade analytics for a market.
+     * @param manager the market
+     * @param windowMillis the length of the time window, in milliseconds
+     * @param windowTrades the number of trades in the trade window
+     */
+    public TradeAnalytics(MarketManager manager, long windowMillis, int windowTrades) {
+        if (windowMillis <= 0) throw new IllegalArgumentException("The time window should be " +
+                "positive (was " + windowMillis + ")");
+        if (windowTrades <= 0) throw new IllegalArgumentException("The trade window should be " +
+                "positive (was " + windowTrades + ")");
+        mManager = manager;
+        mWindowMillis = windowMillis;
+        mWindowTrades = windowTrades;
+    }
+
+    /**
+     * Starts following the trades of the market.
+     */
+    public void start() {
+        mManager.addOrderListener(this);
+    }
+
+    /**
+     * Stops following the trades of the market.
+     */
+    public void stop() {
+        mManager.removeOrderListener(this);
+    }
+
+    @Override
+    public synchronized void tradeExecuted(Trade trade) {
+        final long time = trade.getTime().toInstant().toEpochMilli();
+        series(mProducts, trade.getProduct()).add(time, trade.getPrice(), trade.getAmount());
+        series(account(trade.getBuyer()), trade.getProduct()).add(time, trade.getPrice(),
+                trade.getAmount());
+        if (trade.getSeller() != trade.getBuyer()) {
+            series(account(trade.getSeller()), trade.getProduct()).add(time, trade.getPrice(),
+                    trade.getAmount());
+        }
+    }
+
+    private Map<Product, Series> account(Account account) {
+        Map<Product, Series> products = mAccounts.get(account);
+        if (products == null) {
+            products = new HashMap<>();
+            mAccounts.put(account, products);
+        }
+        return products;
+    }
+
+    private Series series(Map<Product, Series> map, Product product) {
+        Series series = map.get(product);
+        if (series == null) {
+            series = new Series(mWindowMillis, mWindowTrades, product instanceof CalendarSpread);
+            map.put(product, series);
+        }
+        return series;
+    }
+
+    /**
+     * Returns the trade statistics of a product.
+     * @param product the product
+     * @param window the trades to compute the statistics over
+     * @return the statistics
+     */
+    public TradeStats getStats(Product product, Window window) {
+        final long now = mManager.getClock().millis();
+        synchronized (this) {
+            return stats(mProducts.get(product), window, now);
+        }
+    }
+
+    /**
+     * Returns the trade statistics of the trades of an account in a product.
+     * @param account the account
+     * @param product the product
+     * @param window the trades to compute the statistics over
+     * @return the statistics
+     */
+    public TradeStats getStats(Account account, Product product, Window window) {
+        // The clock is read before locking, as trades are added while the market is locked
+        final long now = mManager.getClock().millis();
+        synchronized (this) {
+            final Map<Product, Series> products = mAccounts.get(account);
+            return stats((products == null)? null : products.get(product), window, now);
+        }
+    }
+
+    private TradeStats stats(Series series, Window window, long now) {
+        if (series == null) return new RollingStats(0, 0, false).toStats();
+        switch (window) {
+            case TIME:
+                series.mTime.expire(now);
+                return series.mTime.toStats();
+            case TRADES:
+                return series.mTrades.toStats();
+            default:
+                return series.mAll.toStats();
+        }
+    }
+
+    /**
+     * Series holds the statistics of the trades of one product, or of one account in a product.
+     */
+    private static final class Series {
+        private final RollingStats mAll;
+        private final RollingStats mTime;
+        private final RollingStats mTrades;
+
+        private Series(long windowMillis, int windowTrades, boolean differences) {
+            mAll = new RollingStats(0, 0, differences);
+            mTime = new RollingStats(windowMillis, 0, differences);
+            mTrades = new RollingStats(0, windowTrades, differences);
+        }
+
+        private void add(long time, double price, int amount) {
+            mAll.add(time, price, amount);
+            mTime.add(time, price, amount);
+            mTrades.add(time, price, amount);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package uk.co.complex.lvs.cm.analytics;
+
+/**
+ * TradeStats is an immutable summary of a series of trades (see {@link TradeAnalytics}). The prices
+ * are NaN if the series contains no trades.
+ */
+public final class TradeStats {
+    private final long mCount;
+    private final long mVolume;
+    private final double mNotional;
+    private final double mTimeWeightedPrice;
+    private final double mLastPrice;
+    private final double mSquaredReturns;
+
+    TradeStats(long count, long volume, double notional, double timeWeightedPrice,
+               double lastPrice, double squaredReturns) {
+        mCount = count;
+        mVolume = volume;
+        mNotional = notional;
+        mTimeWeightedPrice = timeWeightedPrice;
+        mLastPrice = lastPrice;
+        mSquaredReturns = squaredReturns;
+    }
+
+    /**
+     * Returns the number of trades.
+     * @return the trade count
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the total amount traded.
+     * @return the volume
+     */
+    public long getVolume() {
+        return mVolume;
+    }
+
+    /**
+     * Returns the total value (price times amount) traded.
+     * @return the notional
+     */
+    public double getNotional() {
+        return mNotional;
+    }
+
+    /**
+     * Returns the volume-weighted average price.
+     * @return the VWAP, or NaN if there were no trades
+     */
+    public double getVwap() {
+        return (mVolume == 0)? Double.NaN : mNotional / mVolume;
+    }
+
+    /**
+     * Returns the time-weighted average price. Each trade price is weighted by the time until the
+     * next trade; if all trades were made at the same time, this is the last price.
+     * @return the TWAP, or NaN if there were no trades
+     */
+    public double getTwap() {
+        return mTimeWeightedPrice;
+    }
+
+    /**
+     * Returns the price of the most recent trade.
+     * @return the last price, or NaN if there were no trades
+     */
+    public double getLastPrice() {
+        return mLastPrice;
+    }
+
+    /**
+     * Returns the realized volatility: the square root of the sum of the squared logarithmic
+     * returns between consecutive trades. It is not annualised. For a calendar spread, whose price
+     * may be zero or negative, the returns are the differences of the prices instead.
+     * @return the realized volatility
+     */
+    public double getRealizedVolatility() {
+        return Math.sqrt(mSquaredReturns);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d volume=%d vwap=%.4f twap=%.4f last=%.4f vol=%.6f",
+                mCount, mVolume, getVwap(), mTimeWeightedPrice, mLastPrice,
+                getRealizedVolatility());
+    }
+}
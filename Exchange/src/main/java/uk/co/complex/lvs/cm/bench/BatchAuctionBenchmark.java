@@ -0,0 +1,153 @@
+package uk.co.complex.lvs.cm.bench;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import uk.co.complex.lvs.cm.FrequentBatchAuction;
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+/**
+ * BatchAuctionBenchmark compares continuous matching with frequent batch auctions under the same
+ * simulated load: a number of submitter threads place random orders for a number of products as
+ * fast as they can. For both modes it reports the throughput and the distribution of the latency
+ * from placing an order until the order has been processed. In continuous matching, an order is
+ * processed when placeOrder returns. In batch auctions, it is processed at the end of the first
+ * batch in which it is uncrossed.
+ *
+ * The batch interval (in milliseconds) can be given as an argument; it is 100 ms by default.
+ */
+public class BatchAuctionBenchmark {
+    private static final int PRODUCTS = 8;
+    private static final int SUBMITTERS = 4;
+    private static final int ORDERS_PER_SUBMITTER = 100000;
+
+    private final boolean mBatch;
+    private final long mInterval;
+    private final List<Product> mProducts = new ArrayList<>();
+    private final AtomicLong mSequence = new AtomicLong();
+    private final OffsetDateTime mStart = OffsetDateTime.now();
+    private final long[] mSubmitted = new long[SUBMITTERS * ORDERS_PER_SUBMITTER];
+    private final long[] mPlaced = new long[SUBMITTERS * ORDERS_PER_SUBMITTER];
+    private final List<Long> mBatchEnds = new ArrayList<>();
+
+    private BatchAuctionBenchmark(boolean batch, long interval) {
+        mBatch = batch;
+        mInterval = interval;
+        for (int i = 0; i < PRODUCTS; i++) {
+            mProducts.add(new Product("P" + i));
+        }
+    }
+
+    private void run() throws InterruptedException {
+        final MarketManager manager = new MarketManager(mProducts);
+        FrequentBatchAuction auction = null;
+        if (mBatch) {
+            auction = new FrequentBatchAuction(manager, mInterval);
+            auction.addBatchListener(trades -> mBatchEnds.add(System.nanoTime()));
+            auction.start();
+        }
+
+        final Thread[] submitters = new Thread[SUBMITTERS];
+        for (int s = 0; s < SUBMITTERS; s++) {
+            final int submitter = s;
+            final Account account = new Account("Submitter" + s);
+            for (Product p : mProducts) {
+                account.updateBook(p, Integer.MAX_VALUE / 2);
+            }
+            submitters[s] = new Thread(() -> submit(manager, account, submitter));
+        }
+
+        final long start = System.nanoTime();
+        for (Thread t : submitters) t.start();
+        for (Thread t : submitters) t.join();
+        if (mBatch) {
+            // Wait for the batch which processes the last orders
+            final int batches;
+            synchronized (manager) {
+                batches = mBatchEnds.size();
+            }
+            while (true) {
+                synchronized (manager) {
+                    if (mBatchEnds.size() > batches) break;
+                }
+                Thread.sleep(1);
+            }
+            auction.stop();
+        }
+        final long end = System.nanoTime();
+
+        report(end - start);
+    }
+
+    private void submit(MarketManager manager, Account account, int submitter) {
+        final Random rnd = new Random(submitter);
+        for (int i = 0; i < ORDERS_PER_SUBMITTER; i++) {
+            final Product product = mProducts.get(rnd.nextInt(PRODUCTS));
+            final float price = 99.00f + rnd.nextInt(200) / 100.0f;
+            final int amount = 1 + rnd.nextInt(100);
+            final Side side = rnd.nextBoolean()? Side.BUY : Side.SELL;
+            // Unique order times, so that no two orders of a queue compare as equal
+            final Order order = new Order(product, price, amount, account, side,
+                    mStart.plusNanos(mSequence.getAndIncrement()));
+
+            final int index = submitter * ORDERS_PER_SUBMITTER + i;
+            mSubmitted[index] = System.nanoTime();
+            try {
+                manager.placeOrder(order);
+            } catch (IllegalTradeException e) {
+                e.printStackTrace();
+            }
+            mPlaced[index] = System.nanoTime();
+        }
+    }
+
+    private void report(long elapsed) {
+        final long[] latencies = new long[mSubmitted.length];
+        final long[] batchEnds = new long[mBatchEnds.size()];
+        for (int i = 0; i < batchEnds.length; i++) batchEnds[i] = mBatchEnds.get(i);
+
+        for (int i = 0; i < latencies.length; i++) {
+            long processed = mPlaced[i];
+            if (mBatch) {
+                // The order is uncrossed in the first batch which ends after it was placed, as
+                // no order can be placed while a batch is being uncrossed
+                int b = Arrays.binarySearch(batchEnds, mPlaced[i]);
+                if (b < 0) b = -b - 1;
+                processed = batchEnds[Math.min(b, batchEnds.length - 1)];
+            }
+            latencies[i] = processed - mSubmitted[i];
+        }
+        Arrays.sort(latencies);
+
+        System.out.println(String.format("%-12s %10.0f %10.1f %10.1f %10.1f %10.1f %10.1f",
+                mBatch? "batch " + mInterval + "ms" : "continuous",
+                latencies.length / (elapsed / 1e9),
+                percentile(latencies, 0.50), percentile(latencies, 0.90),
+                percentile(latencies, 0.99), percentile(latencies, 0.999),
+                latencies[latencies.length - 1] / 1e3));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(p * sorted.length))] / 1e3;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final long interval = (args.length > 0)? Long.parseLong(args[0]) : 100;
+
+        System.out.println(String.format("%d orders from %d submitters for %d products",
+                SUBMITTERS * ORDERS_PER_SUBMITTER, SUBMITTERS, PRODUCTS));
+        System.out.println(String.format("%-12s %10s %10s %10s %10s %10s %10s", "mode",
+                "orders/s", "p50 (us)", "p90 (us)", "p99 (us)", "p99.9 (us)", "max (us)"));
+        new BatchAuctionBenchmark(false, interval).run();
+        new BatchAuctionBenchmark(true, interval).run();
+    }
+}
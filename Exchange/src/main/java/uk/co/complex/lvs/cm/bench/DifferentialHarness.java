@@ -0,0 +1,344 @@
+package uk.co.complex.lvs.cm.bench;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.PriceTimePriorityQueue;
+import uk.co.complex.lvs.cm.TopOfBook;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * DifferentialHarness checks the matching of the market manager at scale. It generates seeded
+ * random batches of place and cancel commands for a number of products, and runs each batch both
+ * on a market manager and on a naive {@link ReferenceMatcher}. After each batch it checks that:
+ * - both produced the same trades, in the same order, and cancelled the same orders
+ * - no book is crossed, and the queues are in price-time order
+ * - the queues hold the same orders with the same remaining amounts as the reference
+ * - the top of book which the market manager published agrees with its queues
+ * - no amount was lost or made up: every amount placed was traded, is queued, or was cancelled
+ *
+ * The first difference is reported with the seed, so it can be reproduced. Both matchers are timed
+ * separately, so a change to the matching can be checked for correctness and speed in one run.
+ *
+ * The number of commands and the seed can be given as arguments (by default two million commands
+ * with seed 42).
+ */
+public class DifferentialHarness {
+    private static final int PRODUCTS = 4;
+    private static final int ACCOUNTS = 8;
+    private static final int BATCH_SIZE = 10000;
+    /** The price levels on either side of the mid price at which orders are placed. */
+    private static final int LEVELS = 10;
+
+    private final long mSeed;
+    private final Random mRandom;
+    private final List<Product> mProducts = new ArrayList<>();
+    private final List<Account> mAccounts = new ArrayList<>();
+    private final MarketManager mManager;
+    private final ReferenceMatcher mReference = new ReferenceMatcher();
+    private final int[] mMidTicks = new int[PRODUCTS];
+    private final OffsetDateTime mStart = OffsetDateTime.now();
+    private long mSequence;
+
+    private long mPlaced;
+    private long mCancels;
+    private long mTrades;
+    private long mPlacedAmount;
+    private long mTradedAmount;
+    private long mCancelledAmount;
+    private long mEngineNanos;
+    private long mReferenceNanos;
+
+    /**
+     * Constructs a harness.
+     * @param seed the seed of the commands
+     */
+    public DifferentialHarness(long seed) {
+        mSeed = seed;
+        mRandom = new Random(seed);
+        for (int i = 0; i < PRODUCTS; i++) {
+            mProducts.add(new Product("P" + i));
+            mMidTicks[i] = 10000;
+        }
+        for (int i = 0; i < ACCOUNTS; i++) {
+            final Account account = new Account("Account" + i);
+            for (Product p : mProducts) {
+                account.updateBook(p, Integer.MAX_VALUE / 2);
+            }
+            mAccounts.add(account);
+        }
+        mManager = new MarketManager(mProducts);
+    }
+
+    /**
+     * Runs a number of commands in batches, and checks the market manager after each batch.
+     * @param commands the number of commands
+     * @return the report of the run
+     * @throws IllegalStateException if the market manager differs from the reference, or breaks
+     *                               an invariant
+     */
+    public Report run(int commands) {
+        for (int done = 0; done < commands; done += BATCH_SIZE) {
+            runBatch(Math.min(BATCH_SIZE, commands - done), done);
+        }
+        return new Report(mPlaced, mCancels, mTrades, mEngineNanos, mReferenceNanos);
+    }
+
+    private void runBatch(int size, int first) {
+        // The orders which may be cancelled: those which are queued, and those placed before
+        final List<Order> cancellable = new ArrayList<>();
+        for (Product p : mProducts) {
+            cancellable.addAll(mManager.getBuyQueue(p));
+            cancellable.addAll(mManager.getSellQueue(p));
+        }
+        for (int p = 0; p < PRODUCTS; p++) {
+            mMidTicks[p] += mRandom.nextInt(3) - 1;
+        }
+
+        final Order[] orders = new Order[size];
+        final int[] productIndices = new int[size];
+        final boolean[] cancels = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            if (!cancellable.isEmpty() && mRandom.nextInt(100) < 40) {
+                final int c = mRandom.nextInt(cancellable.size());
+                orders[i] = cancellable.get(c);
+                cancellable.set(c, cancellable.get(cancellable.size() - 1));
+                cancellable.remove(cancellable.size() - 1);
+                productIndices[i] = mProducts.indexOf(orders[i].getProduct());
+                cancels[i] = true;
+            } else {
+                final int p = mRandom.nextInt(PRODUCTS);
+                final int ticks = mMidTicks[p] + mRandom.nextInt(2 * LEVELS + 1) - LEVELS;
+                // Now and then, a large order which sweeps several levels
+                final int amount = (mRandom.nextInt(20) == 0)?
+                        1 + mRandom.nextInt(1000) : 1 + mRandom.nextInt(100);
+                orders[i] = new Order(mProducts.get(p), ticks / 100.0f, amount,
+                        mAccounts.get(mRandom.nextInt(ACCOUNTS)),
+                        mRandom.nextBoolean()? Side.BUY : Side.SELL,
+                        mStart.plusNanos(mSequence++));
+                productIndices[i] = p;
+                cancellable.add(orders[i]);
+            }
+        }
+
+        final List<Trade> trades = new ArrayList<>();
+        final boolean[] cancelled = new boolean[size];
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            if (cancels[i]) {
+                cancelled[i] = mManager.cancelOrder(orders[i]);
+            } else {
+                try {
+                    trades.addAll(mManager.placeOrder(orders[i]));
+                } catch (IllegalTradeException e) {
+                    throw fail(first + i, "the order was rejected: " + e.getMessage());
+                }
+            }
+        }
+        mEngineNanos += System.nanoTime() - start;
+
+        final List<ReferenceMatcher.Fill> fills = new ArrayList<>();
+        final int[] cancelledAmounts = new int[size];
+        start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            final Order o = orders[i];
+            if (cancels[i]) {
+                cancelledAmounts[i] = mReference.cancel(o.getId());
+            } else {
+                mReference.place(o.getId(), productIndices[i], o.getSide(), o.getPrice(),
+                        o.getAmount(), fills);
+            }
+        }
+        mReferenceNanos += System.nanoTime() - start;
+
+        for (int i = 0; i < size; i++) {
+            if (cancels[i]) {
+                mCancels++;
+                if (cancelled[i] != (cancelledAmounts[i] > 0)) {
+                    throw fail(first + i, "the market " + (cancelled[i]? "cancelled" :
+                            "did not cancel") + " order #" + orders[i].getId());
+                }
+                if (cancelled[i] && orders[i].getRemainingAmount() != cancelledAmounts[i]) {
+                    throw fail(first + i, "order #" + orders[i].getId() + " was cancelled with " +
+                            orders[i].getRemainingAmount() + " remaining instead of " +
+                            cancelledAmounts[i]);
+                }
+                mCancelledAmount += cancelledAmounts[i];
+            } else {
+                mPlaced++;
+                mPlacedAmount += orders[i].getAmount();
+            }
+        }
+        checkTrades(trades, fills, first);
+        checkBooks(first + size - 1);
+    }
+
+    private void checkTrades(List<Trade> trades, List<ReferenceMatcher.Fill> fills, int first) {
+        for (int i = 0; i < Math.max(trades.size(), fills.size()); i++) {
+            final Trade t = (i < trades.size())? trades.get(i) : null;
+            final ReferenceMatcher.Fill f = (i < fills.size())? fills.get(i) : null;
+            if (t == null || f == null || t.getBuyOrderId() != f.mBuyOrderId ||
+                    t.getSellOrderId() != f.mSellOrderId || t.getPrice() != f.mPrice ||
+                    t.getAmount() != f.mAmount) {
+                throw fail(first, "trade " + i + " of the batch was " + t + " instead of " + f);
+            }
+            mTrades++;
+            mTradedAmount += t.getAmount();
+        }
+    }
+
+    private void checkBooks(int command) {
+        long queued = 0;
+        for (int p = 0; p < PRODUCTS; p++) {
+            final Product product = mProducts.get(p);
+            final PriceTimePriorityQueue buys = mManager.getBuyQueue(product);
+            final PriceTimePriorityQueue sells = mManager.getSellQueue(product);
+            queued += checkQueue(buys, mReference.book(p, Side.BUY), command);
+            queued += checkQueue(sells, mReference.book(p, Side.SELL), command);
+            if (!buys.isEmpty() && !sells.isEmpty() &&
+                    buys.first().getPrice() >= sells.first().getPrice()) {
+                throw fail(command, "the book of " + product + " is crossed (" +
+                        buys.first().getPrice() + " bid, " + sells.first().getPrice() + " offered)");
+            }
+
+            final TopOfBook top = mManager.getTopOfBook(product);
+            if (top.hasBid() != !buys.isEmpty() || top.hasAsk() != !sells.isEmpty() ||
+                    (top.hasBid() && (top.getBidPrice() != buys.first().getPrice() ||
+                            top.getBidAmount() != bestAmount(buys))) ||
+                    (top.hasAsk() && (top.getAskPrice() != sells.first().getPrice() ||
+                            top.getAskAmount() != bestAmount(sells)))) {
+                throw fail(command, "the top of book of " + product + " was " + top);
+            }
+        }
+        if (mPlacedAmount != 2 * mTradedAmount + queued + mCancelledAmount) {
+            throw fail(command, "the amounts do not add up (placed " + mPlacedAmount +
+                    ", traded " + mTradedAmount + ", queued " + queued + ", cancelled " +
+                    mCancelledAmount + ")");
+        }
+    }
+
+    /**
+     * Checks that a queue is in price-time order, and holds the same orders as the reference.
+     * @return the total remaining amount of the queue
+     */
+    private long checkQueue(PriceTimePriorityQueue queue, List<long[]> reference, int command) {
+        if (queue.size() != reference.size()) {
+            throw fail(command, "the " + queue.getSide() + " queue has " + queue.size() +
+                    " orders instead of " + reference.size());
+        }
+        long total = 0;
+        Order previous = null;
+        final Iterator<long[]> expected = reference.iterator();
+        for (Order o : queue) {
+            final long[] r = expected.next();
+            if (o.getId() != r[0] || o.getRemainingAmount() != r[1]) {
+                throw fail(command, "the " + queue.getSide() + " queue has order #" + o.getId() +
+                        " with " + o.getRemainingAmount() + " remaining where the reference has #" +
+                        r[0] + " with " + r[1]);
+            }
+            if (o.getRemainingAmount() <= 0 || (o.getStatus() != Status.NEW &&
+                    o.getStatus() != Status.PARTIAL)) {
+                throw fail(command, "order #" + o.getId() + " is queued with status " +
+                        o.getStatus() + " and " + o.getRemainingAmount() + " remaining");
+            }
+            if (previous != null) {
+                final boolean worsePrice = (queue.getSide() == Side.BUY)?
+                        o.getPrice() < previous.getPrice() : o.getPrice() > previous.getPrice();
+                if (!worsePrice && (o.getPrice() != previous.getPrice() ||
+                        !o.getTime().isAfter(previous.getTime()))) {
+                    throw fail(command, "order #" + o.getId() + " is queued after order #" +
+                            previous.getId() + " on the " + queue.getSide() + " side");
+                }
+            }
+            total += o.getRemainingAmount();
+            previous = o;
+        }
+        return total;
+    }
+
+    private static int bestAmount(PriceTimePriorityQueue queue) {
+        final float best = queue.first().getPrice();
+        int amount = 0;
+        for (Order o : queue) {
+            if (o.getPrice() != best) break;
+            amount += o.getRemainingAmount();
+        }
+        return amount;
+    }
+
+    private IllegalStateException fail(int command, String message) {
+        return new IllegalStateException("Seed " + mSeed + ", command " + command + ": " +
+                message);
+    }
+
+    /**
+     * Report holds the counts and timings of a run.
+     */
+    public static final class Report {
+        private final long mPlaced;
+        private final long mCancels;
+        private final long mTrades;
+        private final long mEngineNanos;
+        private final long mReferenceNanos;
+
+        private Report(long placed, long cancels, long trades, long engineNanos,
+                       long referenceNanos) {
+            mPlaced = placed;
+            mCancels = cancels;
+            mTrades = trades;
+            mEngineNanos = engineNanos;
+            mReferenceNanos = referenceNanos;
+        }
+
+        public long getPlaced() {
+            return mPlaced;
+        }
+
+        public long getCancels() {
+            return mCancels;
+        }
+
+        public long getTrades() {
+            return mTrades;
+        }
+
+        /**
+         * Returns the number of commands which the market manager ran per second.
+         * @return the throughput of the market manager
+         */
+        public double getEngineThroughput() {
+            return (mPlaced + mCancels) / (mEngineNanos / 1e9);
+        }
+
+        /**
+         * Returns the number of commands which the reference matcher ran per second.
+         * @return the throughput of the reference matcher
+         */
+        public double getReferenceThroughput() {
+            return (mPlaced + mCancels) / (mReferenceNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d orders, %d cancels, %d trades: market %.0f commands/s, " +
+                    "reference %.0f commands/s", mPlaced, mCancels, mTrades,
+                    getEngineThroughput(), getReferenceThroughput());
+        }
+    }
+
+    public static void main(String[] args) {
+        final int commands = (args.length > 0)? Integer.parseInt(args[0]) : 2_000_000;
+        final long seed = (args.length > 1)? Long.parseLong(args[1]) : 42;
+        System.out.println(new DifferentialHarness(seed).run(commands));
+    }
+}
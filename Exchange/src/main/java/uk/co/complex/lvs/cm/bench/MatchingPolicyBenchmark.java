@@ -0,0 +1,107 @@
+package uk.co.complex.lvs.cm.bench;
+
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import uk.co.complex.lvs.cm.FifoMatchingPolicy;
+import uk.co.complex.lvs.cm.FifoTopOrderMatchingPolicy;
+import uk.co.complex.lvs.cm.MatchingPolicy;
+import uk.co.complex.lvs.cm.PriceTimePriorityQueue;
+import uk.co.complex.lvs.cm.ProRataMatchingPolicy;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+/**
+ * MatchingPolicyBenchmark measures the cost per fill of the matching policies. Each round fills a
+ * sell queue with a number of price levels of resting orders, and then sweeps it with buy orders
+ * until it is empty. Only the sweeping is timed.
+ *
+ * The policies to run can be given as arguments (fifo, prorata, toporder). When a single policy is
+ * run, the call to the policy stays monomorphic, as it is for a market where all products use the
+ * same policy. Running several policies in one JVM makes the call site polymorphic, which slows
+ * down the policies that run later.
+ */
+public class MatchingPolicyBenchmark {
+    private static final int LEVELS = 10;
+    private static final int ORDERS_PER_LEVEL = 50;
+    private static final int SWEEP_AMOUNT = 25;
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int MEASURED_ROUNDS = 2000;
+
+    private final Product mProduct = new Product("XYZ");
+    private final Account mMaker = new Account("Maker");
+    private final Account mTaker = new Account("Taker");
+    private final Random mRandom = new Random(42);
+    private final OffsetDateTime mStart = OffsetDateTime.now();
+    private long mSequence = 0;
+    private long mFills = 0;
+
+    private static Map<String, Supplier<MatchingPolicy>> policies() {
+        final Map<String, Supplier<MatchingPolicy>> policies = new LinkedHashMap<>();
+        policies.put("fifo", FifoMatchingPolicy::new);
+        policies.put("prorata", ProRataMatchingPolicy::new);
+        policies.put("toporder", FifoTopOrderMatchingPolicy::new);
+        return policies;
+    }
+
+    /**
+     * Runs rounds with a new policy each time, and returns the time spent sweeping (in ns).
+     */
+    private long run(Supplier<MatchingPolicy> policies, int rounds) {
+        long nanos = 0;
+        for (int i = 0; i < rounds; i++) {
+            nanos += round(policies.get());
+        }
+        return nanos;
+    }
+
+    private long round(MatchingPolicy policy) {
+        final PriceTimePriorityQueue queue = new PriceTimePriorityQueue(Side.SELL);
+        for (int level = 0; level < LEVELS; level++) {
+            for (int i = 0; i < ORDERS_PER_LEVEL; i++) {
+                final Order order = new Order(mProduct, 100.00f + level * 0.01f,
+                        1 + mRandom.nextInt(10), mMaker, Side.SELL, nextTime());
+                queue.add(order);
+                policy.orderAdded(order, queue);
+            }
+        }
+
+        final long start = System.nanoTime();
+        while (!queue.isEmpty()) {
+            final OffsetDateTime time = nextTime();
+            final Order sweep = new Order(mProduct, 200.00f, SWEEP_AMOUNT, mTaker, Side.BUY, time);
+            mFills += policy.matchOrder(sweep, queue, time).size();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private OffsetDateTime nextTime() {
+        return mStart.plusNanos(mSequence++);
+    }
+
+    public static void main(String[] args) {
+        final Map<String, Supplier<MatchingPolicy>> policies = policies();
+        final String[] names = (args.length > 0)?
+                args : policies.keySet().toArray(new String[0]);
+
+        for (String name : names) {
+            final Supplier<MatchingPolicy> policy = policies.get(name);
+            if (policy == null) {
+                System.err.println("Unknown policy " + name + " (expected one of " +
+                        policies.keySet() + ")");
+                continue;
+            }
+            final MatchingPolicyBenchmark benchmark = new MatchingPolicyBenchmark();
+            benchmark.run(policy, WARMUP_ROUNDS);
+            benchmark.mFills = 0;
+            final long nanos = benchmark.run(policy, MEASURED_ROUNDS);
+            System.out.println(String.format("%-10s %8.1f ns/fill (%d fills)", name,
+                    (double) nanos / benchmark.mFills, benchmark.mFills));
+        }
+    }
+}
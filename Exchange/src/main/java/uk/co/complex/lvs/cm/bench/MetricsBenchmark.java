@@ -0,0 +1,70 @@
+package uk.co.complex.lvs.cm.bench;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.metrics.EngineMetrics;
+import uk.co.complex.lvs.cm.metrics.MetricsReporter;
+
+/**
+ * MetricsBenchmark measures the overhead of the engine metrics: it places the same random orders
+ * on a market with and without metrics, alternating between the two a number of times, and
+ * reports the throughput of both. Finally, it prints the metrics of the last run.
+ */
+public class MetricsBenchmark {
+    private static final int PRODUCTS = 8;
+    private static final int ORDERS = 500000;
+    private static final int ROUNDS = 10;
+
+    private static long run(MarketManager manager, List<Order> orders)
+            throws IllegalTradeException {
+        final long start = System.nanoTime();
+        for (Order o : orders) manager.placeOrder(o);
+        return System.nanoTime() - start;
+    }
+
+    private static List<Order> orders(List<Product> products, Account account) {
+        final Random rnd = new Random(42);
+        final OffsetDateTime time = OffsetDateTime.now();
+        final List<Order> orders = new ArrayList<>();
+        for (int i = 0; i < ORDERS; i++) {
+            final Product product = products.get(rnd.nextInt(PRODUCTS));
+            final float price = 99.00f + rnd.nextInt(200) / 100.0f;
+            final int amount = 1 + rnd.nextInt(100);
+            final Side side = rnd.nextBoolean()? Side.BUY : Side.SELL;
+            orders.add(new Order(product, price, amount, account, side, time.plusNanos(i)));
+        }
+        return orders;
+    }
+
+    public static void main(String[] args) throws IllegalTradeException {
+        final List<Product> products = new ArrayList<>();
+        for (int i = 0; i < PRODUCTS; i++) products.add(new Product("P" + i));
+        final Account account = new Account("Trader");
+        for (Product p : products) account.updateBook(p, Integer.MAX_VALUE / 2);
+
+        System.out.println(String.format("%d orders for %d products", ORDERS, PRODUCTS));
+        System.out.println(String.format("%-8s %14s %14s %10s", "round", "without (o/s)",
+                "with (o/s)", "overhead"));
+        EngineMetrics metrics = null;
+        for (int r = 0; r < ROUNDS; r++) {
+            // Orders are stateful, so each run gets fresh ones
+            final long without = run(new MarketManager(products), orders(products, account));
+            final MarketManager manager = new MarketManager(products);
+            metrics = manager.enableMetrics("benchmark");
+            final long with = run(manager, orders(products, account));
+            System.out.println(String.format("%-8d %14.0f %14.0f %9.1f%%", r,
+                    ORDERS / (without / 1e9), ORDERS / (with / 1e9),
+                    100.0 * (with - without) / without));
+        }
+        new MetricsReporter(metrics, System.out, MetricsReporter.Format.TEXT).report();
+    }
+}
@@ -0,0 +1,114 @@
+package uk.co.complex.lvs.cm.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.replay.FlowEvent;
+import uk.co.complex.lvs.cm.replay.FlowFormat;
+import uk.co.complex.lvs.cm.replay.OrderFlowReader;
+import uk.co.complex.lvs.cm.replay.OrderFlowReplayer;
+
+/**
+ * OrderFlowImportBenchmark measures how fast historical order flow is imported. It writes a
+ * synthetic CSV file of random add, cancel, delete and execute events for a number of products,
+ * and then times:
+ * - parsing the file alone, in MB/s and events/s (a few passes, the first of which may include
+ *   reading the file into the page cache)
+ * - replaying the file on a market manager, which shows how much of the replay time is parsing
+ *
+ * The number of events can be given as an argument (five million by default).
+ */
+public class OrderFlowImportBenchmark {
+    private static final int PRODUCTS = 4;
+    private static final int PARSE_PASSES = 3;
+
+    private static void write(Path file, List<Product> products, int events) throws IOException {
+        final Random rnd = new Random(42);
+        final List<List<long[]>> live = new ArrayList<>();
+        for (int p = 0; p < PRODUCTS; p++) live.add(new ArrayList<>());
+        long id = 0;
+        long time = 34_200_000_000_000L;
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            out.write("time,symbol,type,id,side,price,size\n");
+            for (int i = 0; i < events; i++) {
+                time += 1 + rnd.nextInt(100_000);
+                final int p = rnd.nextInt(PRODUCTS);
+                final List<long[]> orders = live.get(p);
+                final int kind = rnd.nextInt(10);
+                final String type;
+                final long[] order;
+                final long size;
+                if (orders.isEmpty() || kind < 5) {
+                    // Buys below and sells above 100.00, so that the adds do not cross
+                    final boolean buy = rnd.nextBoolean();
+                    final int ticks = 1 + rnd.nextInt(20);
+                    order = new long[] {++id, buy? 1 : 0, buy? 10000 - ticks : 10000 + ticks,
+                            1 + rnd.nextInt(500)};
+                    orders.add(order);
+                    type = "A";
+                    size = order[3];
+                } else {
+                    final int index = rnd.nextInt(orders.size());
+                    order = orders.get(index);
+                    type = (kind < 7)? "D" : (kind < 8)? "C" : "E";
+                    size = type.equals("D")? order[3] : 1 + rnd.nextInt((int) order[3]);
+                    order[3] -= size;
+                    if (order[3] == 0) {
+                        orders.set(index, orders.get(orders.size() - 1));
+                        orders.remove(orders.size() - 1);
+                    }
+                }
+                out.write(String.format("%d.%09d,%s,%s,%d,%s,%d.%02d,%d\n",
+                        time / 1_000_000_000L, time % 1_000_000_000L, products.get(p).getName(),
+                        type, order[0], (order[1] == 1)? "B" : "S", order[2] / 100,
+                        order[2] % 100, size));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        final int events = (args.length > 0)? Integer.parseInt(args[0]) : 5_000_000;
+        final List<Product> products = new ArrayList<>();
+        for (int p = 0; p < PRODUCTS; p++) products.add(new Product("SYM" + p));
+        final Path file = Files.createTempFile("flow", ".csv");
+        try {
+            write(file, products, events);
+            final double megabytes = Files.size(file) / 1e6;
+            System.out.println(String.format("%d events, %.1f MB", events, megabytes));
+
+            final FlowEvent event = new FlowEvent();
+            for (int pass = 0; pass < PARSE_PASSES; pass++) {
+                long read = 0;
+                final long start = System.nanoTime();
+                try (OrderFlowReader reader = new OrderFlowReader(file, FlowFormat.CSV, products)) {
+                    while (reader.next(event)) read++;
+                }
+                final double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.println(String.format("parse  %8.1f MB/s %12.0f events/s",
+                        megabytes / seconds, read / seconds));
+            }
+
+            final MarketManager manager = new MarketManager(products);
+            final OrderFlowReplayer replayer = new OrderFlowReplayer(manager, LocalDate.now());
+            final long start = System.nanoTime();
+            try (OrderFlowReader reader = new OrderFlowReader(file, FlowFormat.CSV, products)) {
+                replayer.replay(reader);
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("replay %8.1f MB/s %12.0f events/s (%d trades, " +
+                    "%d ignored)", megabytes / seconds, replayer.getEventCount() / seconds,
+                    replayer.getTradeCount(), replayer.getIgnoredCount()));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package uk.co.complex.lvs.cm.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+/**
+ * ReferenceMatcher is a deliberately naive price-time priority matcher, against which the market
+ * manager is checked by the {@link DifferentialHarness}. Each side of each product is a plain list
+ * of orders in the order in which they arrived, and every match scans the whole opposing list for
+ * the best price. It is slow, but it is simple enough to be obviously correct.
+ */
+final class ReferenceMatcher {
+    private final Map<Integer, List<Resting>> mBuys = new HashMap<>();
+    private final Map<Integer, List<Resting>> mSells = new HashMap<>();
+    private final Map<Long, Resting> mResting = new HashMap<>();
+
+    /**
+     * Matches a new order, and queues whatever remains of it.
+     * @param id the identifier of the order
+     * @param product the index of the product of the order
+     * @param side the side of the order
+     * @param price the limit price of the order
+     * @param amount the amount of the order
+     * @param fills the list to which the fills of the order are added
+     */
+    void place(long id, int product, Side side, float price, int amount, List<Fill> fills) {
+        final List<Resting> opposite = orders(product, side == Side.BUY? Side.SELL : Side.BUY);
+        int remaining = amount;
+        while (remaining > 0) {
+            Resting best = null;
+            for (Resting o : opposite) {
+                // Strictly better only, so the earliest order wins at the same price
+                if (best == null || (side == Side.BUY? o.mPrice < best.mPrice :
+                        o.mPrice > best.mPrice)) {
+                    best = o;
+                }
+            }
+            if (best == null || (side == Side.BUY? best.mPrice > price : best.mPrice < price)) {
+                break;
+            }
+            final int fill = Math.min(remaining, best.mRemaining);
+            final float fillPrice = (price + best.mPrice) / 2;
+            fills.add(side == Side.BUY? new Fill(id, best.mId, fillPrice, fill) :
+                    new Fill(best.mId, id, fillPrice, fill));
+            remaining -= fill;
+            best.mRemaining -= fill;
+            if (best.mRemaining == 0) {
+                opposite.remove(best);
+                mResting.remove(best.mId);
+            }
+        }
+        if (remaining > 0) {
+            final Resting order = new Resting(id, product, side, price, remaining);
+            orders(product, side).add(order);
+            mResting.put(id, order);
+        }
+    }
+
+    /**
+     * Cancels a queued order.
+     * @param id the identifier of the order
+     * @return the remaining amount of the cancelled order, or 0 if it was not queued
+     */
+    int cancel(long id) {
+        final Resting order = mResting.remove(id);
+        if (order == null) return 0;
+        orders(order.mProduct, order.mSide).remove(order);
+        return order.mRemaining;
+    }
+
+    /**
+     * Returns the queued orders of a side of a product, in price-time priority.
+     * @param product the index of the product
+     * @param side the side
+     * @return the identifier and remaining amount of each order
+     */
+    List<long[]> book(int product, Side side) {
+        final List<Resting> orders = new ArrayList<>(orders(product, side));
+        // A stable sort keeps the orders at the same price in the order in which they arrived
+        orders.sort((a, b) -> side == Side.BUY? Float.compare(b.mPrice, a.mPrice) :
+                Float.compare(a.mPrice, b.mPrice));
+        final List<long[]> book = new ArrayList<>(orders.size());
+        for (Resting o : orders) {
+            book.add(new long[] {o.mId, o.mRemaining});
+        }
+        return book;
+    }
+
+    private List<Resting> orders(int product, Side side) {
+        return ((side == Side.BUY)? mBuys : mSells).computeIfAbsent(product, p -> new ArrayList<>());
+    }
+
+    /**
+     * A fill of a buy order and a sell order.
+     */
+    static final class Fill {
+        final long mBuyOrderId;
+        final long mSellOrderId;
+        final float mPrice;
+        final int mAmount;
+
+        Fill(long buyOrderId, long sellOrderId, float price, int amount) {
+            mBuyOrderId = buyOrderId;
+            mSellOrderId = sellOrderId;
+            mPrice = price;
+            mAmount = amount;
+        }
+
+        @Override
+        public String toString() {
+            return "buy #" + mBuyOrderId + " sell #" + mSellOrderId + " " + mAmount + " at " +
+                    mPrice;
+        }
+    }
+
+    private static final class Resting {
+        private final long mId;
+        private final int mProduct;
+        private final Side mSide;
+        private final float mPrice;
+        private int mRemaining;
+
+        private Resting(long id, int product, Side side, float price, int remaining) {
+            mId = id;
+            mProduct = product;
+            mSide = side;
+            mPrice = price;
+            mRemaining = remaining;
+        }
+    }
+}
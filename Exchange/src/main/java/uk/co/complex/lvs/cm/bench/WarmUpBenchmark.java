@@ -0,0 +1,88 @@
+package uk.co.complex.lvs.cm.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import uk.co.complex.lvs.cm.EngineWarmUp;
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+/**
+ * WarmUpBenchmark measures the latency of the first orders of a market, with and without a
+ * warm-up (see {@link EngineWarmUp}). A JVM can only be cold once, so each mode runs in a JVM of
+ * its own: the benchmark starts a child JVM with the same class path for each mode, which opens a
+ * fresh market and times each of its first orders. The latency distribution is reported for the
+ * first orders and for later ones.
+ *
+ * A single mode can be run in the current JVM by giving it as an argument (cold or warm).
+ */
+public class WarmUpBenchmark {
+    private static final int ORDERS = 20000;
+    private static final int[] WINDOWS = {0, 1000, 5000, ORDERS};
+
+    private static void measure(boolean warm) throws IllegalTradeException {
+        if (warm) System.out.println(new EngineWarmUp().run());
+
+        final Product product = new Product("XYZ");
+        final Account buyer = new Account("Buyer");
+        final Account seller = new Account("Seller");
+        seller.updateBook(product, Integer.MAX_VALUE / 2);
+        final MarketManager manager = new MarketManager(Arrays.asList(product));
+        final Random rnd = new Random(7);
+        final long[] latencies = new long[ORDERS];
+        for (int i = 0; i < ORDERS; i++) {
+            final boolean buy = rnd.nextBoolean();
+            final Order order = new Order(product, 100.0f + (rnd.nextInt(21) - 10) * 0.01f,
+                    1 + rnd.nextInt(50), buy? buyer : seller, buy? Side.BUY : Side.SELL,
+                    OffsetDateTime.now());
+            final long start = System.nanoTime();
+            manager.placeOrder(order);
+            latencies[i] = System.nanoTime() - start;
+        }
+
+        for (int w = 1; w < WINDOWS.length; w++) {
+            final long[] window = Arrays.copyOfRange(latencies, WINDOWS[w - 1], WINDOWS[w]);
+            Arrays.sort(window);
+            System.out.println(String.format("%-5s orders %5d-%-5d %10.1f %10.1f %10.1f %10.1f",
+                    warm? "warm" : "cold", WINDOWS[w - 1] + 1, WINDOWS[w],
+                    percentile(window, 0.50), percentile(window, 0.90),
+                    percentile(window, 0.99), window[window.length - 1] / 1e3));
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(p * sorted.length))] / 1e3;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException,
+            IllegalTradeException {
+        if (args.length > 0) {
+            measure(args[0].equals("warm"));
+            return;
+        }
+        System.out.println(String.format("%-24s %10s %10s %10s %10s", "mode", "p50 (us)",
+                "p90 (us)", "p99 (us)", "max (us)"));
+        for (String mode : new String[] {"cold", "warm"}) {
+            final List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" +
+                    File.separator + "java");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(WarmUpBenchmark.class.getName());
+            command.add(mode);
+            final Process process = new ProcessBuilder(command).inheritIO().start();
+            if (process.waitFor() != 0) {
+                System.err.println("The " + mode + " run failed");
+            }
+        }
+    }
+}
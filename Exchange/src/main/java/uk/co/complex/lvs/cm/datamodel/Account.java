@@ -1,17 +1,18 @@
 package uk.co.complex.lvs.cm.datamodel;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by Lex van der Stoep on 06/12/2017.
  *
  * Account represents an account which can place orders on markets. It keeps track of the stocks
- * it owns.
+ * it owns. An account can trade on several markets at the same time, so its positions can be
+ * read and updated concurrently.
  */
 public class Account {
     private final String theName;
-    private final Map<Product, Integer> thePosition = new HashMap<>();
+    private final Map<Product, Integer> thePosition = new ConcurrentHashMap<>();
 
     /**
      * Constructs an account with the specified name.
@@ -35,17 +36,15 @@ public class Account {
      * @return the amount of the product in the account
      */
     public int getPosition(Product aProduct) {
-        if (!thePosition.containsKey(aProduct)) return 0;
-
-        return thePosition.get(aProduct);
+        return thePosition.getOrDefault(aProduct, 0);
     }
 
+    /**
+     * Changes the amount of the specified product there is in the account.
+     * @param aProduct the product
+     * @param aChange the change of the amount
+     */
     public void updateBook(Product aProduct, int aChange) {
-        if (thePosition.containsKey(aProduct)) {
-            final int current = thePosition.get(aProduct);
-            thePosition.put(aProduct, current + aChange);
-        } else {
-            thePosition.put(aProduct, aChange);
-        }
+        thePosition.merge(aProduct, aChange, Integer::sum);
     }
 }
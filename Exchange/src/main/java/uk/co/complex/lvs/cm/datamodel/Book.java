@@ -1,39 +1,140 @@
 package uk.co.complex.lvs.cm.datamodel;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
 
 /**
  * Created by Lex van der Stoep on 06/12/2017.
  *
  * Book represents an order book of a market. It contains the results of orders which took place.
  * The book holds records of each trade, sorted by their execution time, newest first.
+ *
+ * Besides the list of all records, the book keeps indexes of the records by product, by account
+ * (as buyer or seller) and by account and product, each sorted by execution time. A
+ * {@link TradeQuery} uses the most selective index, so its cost is proportional to the number of
+ * records it returns rather than to the size of the book. Records with the same execution time are
+ * kept in the order in which they were added.
+ *
+ * A book can move its older records to a {@link TradeArchive} on disk, so that it only keeps its
+ * most recent records in memory. Queries read the archive where needed: apart from their cost,
+ * archived records cannot be told apart from the records in memory.
  */
 public class Book {
-    private final LinkedList<Trade> theRecords;
+    private final NavigableMap<TradeKey, Trade> theRecords;
+    private final Map<Product, NavigableMap<TradeKey, Trade>> theByProduct;
+    private final Map<Account, NavigableMap<TradeKey, Trade>> theByAccount;
+    private final Map<Account, Map<Product, NavigableMap<TradeKey, Trade>>> theByAccountProduct;
+    private long theNextSequence;
+    private TradeArchive theArchive;
+    private int theArchivedSegments;
+    private long theArchivedRecords;
+    private int theRecentRecords = -1;
 
     /**
      * Constructs an empty book.
      */
     public Book() {
-        theRecords = new LinkedList<>();
+        theRecords = new TreeMap<>();
+        theByProduct = new HashMap<>();
+        theByAccount = new HashMap<>();
+        theByAccountProduct = new HashMap<>();
     }
 
     /**
-     * Constructs a copy of a given book.
+     * Constructs a copy of a given book. The copy shares the records which the original has
+     * archived so far, but keeps all the records added to it later in memory.
      * @param aBook the original record book
      */
     public Book(Book aBook) {
-        theRecords = new LinkedList<>(aBook.theRecords);
+        theRecords = new TreeMap<>(aBook.theRecords);
+        theByProduct = copy(aBook.theByProduct);
+        theByAccount = copy(aBook.theByAccount);
+        theByAccountProduct = new HashMap<>();
+        for (Map.Entry<Account, Map<Product, NavigableMap<TradeKey, Trade>>> e :
+                aBook.theByAccountProduct.entrySet()) {
+            theByAccountProduct.put(e.getKey(), copy(e.getValue()));
+        }
+        theNextSequence = aBook.theNextSequence;
+        theArchive = aBook.theArchive;
+        theArchivedSegments = aBook.theArchivedSegments;
+        theArchivedRecords = aBook.theArchivedRecords;
+    }
+
+    private static <K> Map<K, NavigableMap<TradeKey, Trade>> copy(
+            Map<K, NavigableMap<TradeKey, Trade>> aMap) {
+        final Map<K, NavigableMap<TradeKey, Trade>> copy = new HashMap<>();
+        for (Map.Entry<K, NavigableMap<TradeKey, Trade>> e : aMap.entrySet()) {
+            copy.put(e.getKey(), new TreeMap<>(e.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Starts moving the older records of the book to an archive. As soon as the book holds a
+     * full segment of records besides its most recent records, the oldest segment is written to
+     * the archive and removed from memory. An archive can only be used by a single book.
+     * @param aArchive the empty archive
+     * @param aRecentRecords the number of most recent records which are kept in memory
+     */
+    public void setArchive(TradeArchive aArchive, int aRecentRecords) {
+        if (theArchive != null) throw new IllegalStateException("The book already has an " +
+                "archive");
+        if (aRecentRecords < 0) throw new IllegalArgumentException("The number of recent " +
+                "records cannot be negative (was " + aRecentRecords + ")");
+        if (aArchive.getSegmentCount() > 0) throw new IllegalArgumentException("The archive is " +
+                "not empty");
+        theArchive = aArchive;
+        theRecentRecords = aRecentRecords;
+        archiveOldRecords();
+    }
+
+    /**
+     * Returns the archive of the book.
+     * @return the archive, or null if the book keeps all its records in memory
+     */
+    public TradeArchive getArchive() {
+        return theArchive;
     }
 
     /**
      * Returns all the records in the book.
-     * @return a list of all the records in the book
+     * @return a list of all the records in the book, newest first
      */
     public List<Trade> getAllRecords() {
-        return new ArrayList<>(theRecords);
+        final List<Trade> records = new ArrayList<>(size());
+        final List<Long> times = new ArrayList<>(size());
+        final Iterator<Map.Entry<TradeKey, Trade>> it = select(TradeQuery.all());
+        while (it.hasNext()) {
+            final Map.Entry<TradeKey, Trade> e = it.next();
+            records.add(e.getValue());
+            times.add(e.getKey().getTime());
+        }
+        // Newest first, but records with the same time in the order in which they were added
+        Collections.reverse(records);
+        Collections.reverse(times);
+        int sameTime = 0;
+        for (int i = 1; i <= records.size(); i++) {
+            if (i == records.size() || !times.get(i).equals(times.get(sameTime))) {
+                Collections.reverse(records.subList(sameTime, i));
+                sameTime = i;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Returns the number of records in the book.
+     * @return the number of records
+     */
+    public int size() {
+        return (int) (theRecords.size() + theArchivedRecords);
     }
 
     /**
@@ -41,24 +142,250 @@ public class Book {
      * @param aRecord the record to be added
      */
     public void addRecord(Trade aRecord) {
-        // Assert: record list sorted from new to old
-        // Use linear search (as new record will most likely be inserted at the head)
-        for (int i = 0; i < theRecords.size(); i++) {
-            final Trade r = theRecords.get(i);
-            if (r.getTime().compareTo(aRecord.getTime()) < 0) {
-                theRecords.add(i, aRecord);
-                return;
-            }
+        final TradeKey key = new TradeKey(TradeKey.toNanos(aRecord.getTime()), theNextSequence++);
+        theRecords.put(key, aRecord);
+        index(theByProduct, aRecord.getProduct()).put(key, aRecord);
+        index(theByAccount, aRecord.getBuyer()).put(key, aRecord);
+        index(index(theByAccountProduct, aRecord.getBuyer()), aRecord.getProduct())
+                .put(key, aRecord);
+        if (aRecord.getSeller() != aRecord.getBuyer()) {
+            index(theByAccount, aRecord.getSeller()).put(key, aRecord);
+            index(index(theByAccountProduct, aRecord.getSeller()), aRecord.getProduct())
+                    .put(key, aRecord);
+        }
+        archiveOldRecords();
+    }
+
+    private static <K> NavigableMap<TradeKey, Trade> index(
+            Map<K, NavigableMap<TradeKey, Trade>> aIndexes, K aKey) {
+        NavigableMap<TradeKey, Trade> index = aIndexes.get(aKey);
+        if (index == null) {
+            index = new TreeMap<>();
+            aIndexes.put(aKey, index);
         }
-        theRecords.add(aRecord);
+        return index;
+    }
+
+    private static Map<Product, NavigableMap<TradeKey, Trade>> index(
+            Map<Account, Map<Product, NavigableMap<TradeKey, Trade>>> aIndexes, Account aAccount) {
+        Map<Product, NavigableMap<TradeKey, Trade>> index = aIndexes.get(aAccount);
+        if (index == null) {
+            index = new HashMap<>();
+            aIndexes.put(aAccount, index);
+        }
+        return index;
     }
 
     /**
-     * Adds all the given records to the book.
+     * Adds all the given records to the book. Records with the same time keep their order in the
+     * given list.
      * @param records the records to be added
      */
     public void addAllRecords(List<Trade> records) {
-        records.forEach((Trade r) -> addRecord(r));
+        for (Trade r : records) {
+            addRecord(r);
+        }
+    }
+
+    /**
+     * Writes the oldest segments of records to the archive, until less than a segment of records
+     * besides the most recent records is left in memory.
+     */
+    private void archiveOldRecords() {
+        if (theRecentRecords < 0) return;
+        final int segmentSize = theArchive.getSegmentSize();
+        while (theRecords.size() >= (long) theRecentRecords + segmentSize) {
+            final List<Map.Entry<TradeKey, Trade>> segment = new ArrayList<>(segmentSize);
+            for (int i = 0; i < segmentSize; i++) {
+                final Map.Entry<TradeKey, Trade> e = theRecords.pollFirstEntry();
+                segment.add(e);
+                unindex(e.getKey(), e.getValue());
+            }
+            theArchive.append(segment);
+            theArchivedSegments++;
+            theArchivedRecords += segmentSize;
+        }
+    }
+
+    private void unindex(TradeKey aKey, Trade aRecord) {
+        remove(theByProduct, aRecord.getProduct(), aKey);
+        remove(theByAccount, aRecord.getBuyer(), aKey);
+        remove(theByAccount, aRecord.getSeller(), aKey);
+        for (Account a : new Account[] {aRecord.getBuyer(), aRecord.getSeller()}) {
+            final Map<Product, NavigableMap<TradeKey, Trade>> products =
+                    theByAccountProduct.get(a);
+            if (products == null) continue;
+            remove(products, aRecord.getProduct(), aKey);
+            if (products.isEmpty()) theByAccountProduct.remove(a);
+        }
+    }
+
+    private static <K> void remove(Map<K, NavigableMap<TradeKey, Trade>> aIndexes, K aIndex,
+                                   TradeKey aKey) {
+        final NavigableMap<TradeKey, Trade> index = aIndexes.get(aIndex);
+        if (index == null) return;
+        index.remove(aKey);
+        if (index.isEmpty()) aIndexes.remove(aIndex);
+    }
+
+    /**
+     * Returns the records selected by a query, oldest first. The records are read from the book as
+     * the iterator advances, so the book should not be changed while it is being iterated.
+     * @param aQuery the query
+     * @return an iterator over the selected records
+     */
+    public Iterator<Trade> query(TradeQuery aQuery) {
+        final Iterator<Map.Entry<TradeKey, Trade>> entries = select(aQuery);
+        return new Iterator<Trade>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Trade next() {
+                return entries.next().getValue();
+            }
+        };
+    }
+
+    /**
+     * Returns a page of the records selected by a query, oldest first. The next page can be
+     * requested with the query returned by {@link Page#getNextQuery()}.
+     * @param aQuery the query
+     * @param aPageSize the maximum number of records on the page
+     * @return the page
+     */
+    public Page getPage(TradeQuery aQuery, int aPageSize) {
+        if (aPageSize <= 0) throw new IllegalArgumentException("The page size should be " +
+                "positive (was " + aPageSize + ")");
+        final List<Trade> trades = new ArrayList<>(Math.min(aPageSize, 1024));
+        final Iterator<Map.Entry<TradeKey, Trade>> entries = select(aQuery);
+        TradeKey last = null;
+        while (entries.hasNext()) {
+            final Map.Entry<TradeKey, Trade> e = entries.next();
+            if (trades.size() == aPageSize) {
+                return new Page(trades, aQuery.after(last.getTime(), last.getSequence()));
+            }
+            trades.add(e.getValue());
+            last = e.getKey();
+        }
+        return new Page(trades, null);
+    }
+
+    /**
+     * Selects the records of a query, sorted by their key: the archived records merged with those
+     * in the range of the most selective index.
+     */
+    private Iterator<Map.Entry<TradeKey, Trade>> select(TradeQuery aQuery) {
+        TradeKey from = (aQuery.getFrom() == null)? null :
+                new TradeKey(TradeKey.toNanos(aQuery.getFrom()), Long.MIN_VALUE);
+        if (aQuery.hasCursor()) {
+            final TradeKey after = new TradeKey(aQuery.getAfterTime(),
+                    aQuery.getAfterSequence() + 1);
+            if (from == null || after.compareTo(from) > 0) from = after;
+        }
+        final TradeKey to = (aQuery.getTo() == null)? null :
+                new TradeKey(TradeKey.toNanos(aQuery.getTo()), Long.MIN_VALUE);
+        if (from != null && to != null && from.compareTo(to) >= 0) {
+            return Collections.emptyIterator();
+        }
+
+        final Iterator<Map.Entry<TradeKey, Trade>> recent = filter(
+                range(index(aQuery), from, to).entrySet().iterator(), aQuery);
+        if (theArchivedSegments == 0) return recent;
+        return merge(theArchive.select(aQuery, from, to, theArchivedSegments), recent);
+    }
+
+    /**
+     * Returns the most selective index of a query.
+     */
+    private NavigableMap<TradeKey, Trade> index(TradeQuery aQuery) {
+        final NavigableMap<TradeKey, Trade> index;
+        final Product product = aQuery.getProduct();
+        final Account account = aQuery.getAccount();
+        if (account != null) {
+            if (product != null) {
+                final Map<Product, NavigableMap<TradeKey, Trade>> products =
+                        theByAccountProduct.get(account);
+                index = (products == null)? null : products.get(product);
+            } else {
+                index = theByAccount.get(account);
+            }
+        } else {
+            index = (product != null)? theByProduct.get(product) : theRecords;
+        }
+        return (index == null)? Collections.emptyNavigableMap() : index;
+    }
+
+    private static NavigableMap<TradeKey, Trade> range(NavigableMap<TradeKey, Trade> aIndex,
+                                                       TradeKey aFrom, TradeKey aTo) {
+        if (aFrom != null && aTo != null) return aIndex.subMap(aFrom, true, aTo, false);
+        if (aFrom != null) return aIndex.tailMap(aFrom, true);
+        if (aTo != null) return aIndex.headMap(aTo, false);
+        return aIndex;
+    }
+
+    private static Iterator<Map.Entry<TradeKey, Trade>> filter(
+            Iterator<Map.Entry<TradeKey, Trade>> aEntries, TradeQuery aQuery) {
+        return new Iterator<Map.Entry<TradeKey, Trade>>() {
+            private Map.Entry<TradeKey, Trade> theNext = advance();
+
+            private Map.Entry<TradeKey, Trade> advance() {
+                while (aEntries.hasNext()) {
+                    final Map.Entry<TradeKey, Trade> e = aEntries.next();
+                    if (aQuery.matches(e.getValue())) return e;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return theNext != null;
+            }
+
+            @Override
+            public Map.Entry<TradeKey, Trade> next() {
+                if (theNext == null) throw new NoSuchElementException();
+                final Map.Entry<TradeKey, Trade> next = theNext;
+                theNext = advance();
+                return next;
+            }
+        };
+    }
+
+    /**
+     * Merges two iterators of entries which are each sorted by key. Records are normally archived
+     * in the order of their key, but a record may have been added with an older time than those
+     * already archived.
+     */
+    private static Iterator<Map.Entry<TradeKey, Trade>> merge(
+            Iterator<Map.Entry<TradeKey, Trade>> aFirst,
+            Iterator<Map.Entry<TradeKey, Trade>> aSecond) {
+        return new Iterator<Map.Entry<TradeKey, Trade>>() {
+            private Map.Entry<TradeKey, Trade> theFirst = aFirst.hasNext()? aFirst.next() : null;
+            private Map.Entry<TradeKey, Trade> theSecond = aSecond.hasNext()? aSecond.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return theFirst != null || theSecond != null;
+            }
+
+            @Override
+            public Map.Entry<TradeKey, Trade> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                final Map.Entry<TradeKey, Trade> next;
+                if (theSecond == null || (theFirst != null
+                        && theFirst.getKey().compareTo(theSecond.getKey()) < 0)) {
+                    next = theFirst;
+                    theFirst = aFirst.hasNext()? aFirst.next() : null;
+                } else {
+                    next = theSecond;
+                    theSecond = aSecond.hasNext()? aSecond.next() : null;
+                }
+                return next;
+            }
+        };
     }
 
     @Override
@@ -67,6 +394,48 @@ public class Book {
 
         final Book book = (Book) o;
 
-        return theRecords.equals(book.theRecords);
+        return getAllRecords().equals(book.getAllRecords());
+    }
+
+    @Override
+    public int hashCode() {
+        return getAllRecords().hashCode();
+    }
+
+    /**
+     * Page is a page of the records selected by a query.
+     */
+    public static final class Page {
+        private final List<Trade> theTrades;
+        private final TradeQuery theNextQuery;
+
+        private Page(List<Trade> aTrades, TradeQuery aNextQuery) {
+            theTrades = Collections.unmodifiableList(aTrades);
+            theNextQuery = aNextQuery;
+        }
+
+        /**
+         * Returns the records on this page, oldest first.
+         * @return the records
+         */
+        public List<Trade> getTrades() {
+            return theTrades;
+        }
+
+        /**
+         * Returns whether there are more records after this page.
+         * @return true iff there is a next page
+         */
+        public boolean hasMore() {
+            return theNextQuery != null;
+        }
+
+        /**
+         * Returns the query which selects the records after this page.
+         * @return the query of the next page, or null if this is the last page
+         */
+        public TradeQuery getNextQuery() {
+            return theNextQuery;
+        }
     }
 }
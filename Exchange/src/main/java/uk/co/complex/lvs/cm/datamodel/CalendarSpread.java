@@ -0,0 +1,49 @@
+package uk.co.complex.lvs.cm.datamodel;
+
+/**
+ * CalendarSpread is a product which trades the difference between two outright products, e.g. two
+ * delivery months of the same commodity. Buying the spread buys the near leg and sells the far
+ * leg; selling the spread does the opposite. The price of the spread is the price of the near leg
+ * minus the price of the far leg, so it may be zero or negative.
+ *
+ * A position in the spread is held as positions in its legs: each unit of the spread which is
+ * bought adds a unit of the near leg and removes a unit of the far leg.
+ */
+public class CalendarSpread extends Product {
+    private final Product theNearLeg;
+    private final Product theFarLeg;
+
+    /**
+     * Constructs a calendar spread between two outright products.
+     * @param aName the name of the spread
+     * @param aNearLeg the product which is bought when the spread is bought
+     * @param aFarLeg the product which is sold when the spread is bought
+     */
+    public CalendarSpread(String aName, Product aNearLeg, Product aFarLeg) {
+        super(aName);
+        if (aNearLeg instanceof CalendarSpread || aFarLeg instanceof CalendarSpread ||
+                aNearLeg.equals(aFarLeg)) {
+            throw new IllegalArgumentException("The legs of a spread should be two different " +
+                    "outright products (were " + aNearLeg.getName() + " and " +
+                    aFarLeg.getName() + ")");
+        }
+        theNearLeg = aNearLeg;
+        theFarLeg = aFarLeg;
+    }
+
+    /**
+     * Returns the leg which is bought when the spread is bought.
+     * @return the near leg
+     */
+    public Product getNearLeg() {
+        return theNearLeg;
+    }
+
+    /**
+     * Returns the leg which is sold when the spread is bought.
+     * @return the far leg
+     */
+    public Product getFarLeg() {
+        return theFarLeg;
+    }
+}
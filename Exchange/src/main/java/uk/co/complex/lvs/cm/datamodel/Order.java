@@ -2,22 +2,29 @@ package uk.co.complex.lvs.cm.datamodel;
 
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by Lex van der Stoep on 06/12/2017.
  *
  * Order represents an order to buy or sell a product on a market. The order encapsulates an actor
  * (which buys or sells) and an amount of a certain product to buy/sell at a certain price.
+ * Each order has a unique identifier.
  */
 public class Order {
+    private static final AtomicLong theNextId = new AtomicLong(1);
+
+    private final long theId;
     private final Product theProduct;
-    private final float thePrice;
-    private final int theVolume;
+    private float thePrice;
+    private int theVolume;
     private int theRemainingAmount;
     private final Account theActor;
     private final Side theSide;
     private Status theStatus;
-    private final OffsetDateTime theTime;
+    private OffsetDateTime theTime;
+    private final TimeInForce theTimeInForce;
+    private final OffsetDateTime theExpiry;
 
     /**
      * Constructs a new order to buy/sell a certain amount of a product at a specified price.
@@ -29,6 +36,64 @@ public class Order {
      * @param aTime the time at which the order was placed
      */
     public Order(Product aProduct, float aPrice, int aAmount, Account aActor, Side aSide, OffsetDateTime aTime) {
+        this(theNextId.getAndIncrement(), aProduct, aPrice, aAmount, aActor, aSide, aTime);
+    }
+
+    /**
+     * Constructs a new order which is only queued for a limited time. A good-till-time order
+     * expires at the given time; a good-for-day order expires at the end of the trading day of the
+     * market, so it has no expiry time of its own.
+     * @param aProduct the product to be bought/sold
+     * @param aPrice the price of the order
+     * @param aAmount the amount to be traded
+     * @param aActor the actor which wants to execute the order
+     * @param aSide the side of the order (buy/sell)
+     * @param aTime the time at which the order was placed
+     * @param aTimeInForce how long the order stays queued
+     * @param aExpiry the time at which a good-till-time order expires, or null for other orders
+     */
+    public Order(Product aProduct, float aPrice, int aAmount, Account aActor, Side aSide,
+                 OffsetDateTime aTime, TimeInForce aTimeInForce, OffsetDateTime aExpiry) {
+        this(theNextId.getAndIncrement(), aProduct, aPrice, aAmount, aActor, aSide, aTime,
+                aTimeInForce, aExpiry);
+    }
+
+    /**
+     * Constructs a new order with a given identifier (e.g. an order which is restored or
+     * replicated). The identifier should be unique.
+     * @param aId the identifier of the order
+     * @param aProduct the product to be bought/sold
+     * @param aPrice the price of the order
+     * @param aAmount the amount to be traded
+     * @param aActor the actor which wants to execute the order
+     * @param aSide the side of the order (buy/sell)
+     * @param aTime the time at which the order was placed
+     */
+    public Order(long aId, Product aProduct, float aPrice, int aAmount, Account aActor, Side aSide,
+                 OffsetDateTime aTime) {
+        this(aId, aProduct, aPrice, aAmount, aActor, aSide, aTime, TimeInForce.GOOD_TILL_CANCELLED,
+                null);
+    }
+
+    /**
+     * Constructs a new order with a given identifier and time in force.
+     * @param aId the identifier of the order
+     * @param aProduct the product to be bought/sold
+     * @param aPrice the price of the order
+     * @param aAmount the amount to be traded
+     * @param aActor the actor which wants to execute the order
+     * @param aSide the side of the order (buy/sell)
+     * @param aTime the time at which the order was placed
+     * @param aTimeInForce how long the order stays queued
+     * @param aExpiry the time at which a good-till-time order expires, or null for other orders
+     */
+    public Order(long aId, Product aProduct, float aPrice, int aAmount, Account aActor, Side aSide,
+                 OffsetDateTime aTime, TimeInForce aTimeInForce, OffsetDateTime aExpiry) {
+        if ((aTimeInForce == TimeInForce.GOOD_TILL_TIME) != (aExpiry != null)) {
+            throw new IllegalArgumentException("Only good-till-time orders have an expiry time " +
+                    "(was " + aTimeInForce + " with expiry " + aExpiry + ")");
+        }
+        theId = aId;
         this.theProduct = aProduct;
         thePrice = aPrice;
         theVolume = aAmount;
@@ -37,6 +102,16 @@ public class Order {
         theSide = aSide;
         theStatus = Status.NEW;
         theTime = aTime;
+        theTimeInForce = aTimeInForce;
+        theExpiry = aExpiry;
+    }
+
+    /**
+     * Returns the identifier.
+     * @return the identifier
+     */
+    public long getId() {
+        return theId;
     }
 
     /**
@@ -103,6 +178,22 @@ public class Order {
         return theTime;
     }
 
+    /**
+     * Returns how long this order stays queued.
+     * @return the time in force of this order
+     */
+    public TimeInForce getTimeInForce() {
+        return theTimeInForce;
+    }
+
+    /**
+     * Returns the time at which this order expires, if it is a good-till-time order.
+     * @return the expiry time, or null if the order is not a good-till-time order
+     */
+    public OffsetDateTime getExpiry() {
+        return theExpiry;
+    }
+
     /**
      * Execute the order (partially) for a given amount of units. It updates the remaining units
      * to be bought/sold and set the status of the order appropriately.
@@ -124,6 +215,26 @@ public class Order {
         theStatus = (theRemainingAmount == 0) ? Status.COMPLETED : Status.PARTIAL;
     }
 
+    /**
+     * Amends the price and remaining amount of this order. The amount which has been traded
+     * already is kept, so the total amount changes with the remaining amount. As the price and
+     * time decide the position of the order in its queue, they may only be changed while the order
+     * is not queued.
+     * @param aPrice the new price
+     * @param aRemainingAmount the new remaining amount
+     * @param aTime the time at which the order was amended, which is its new time
+     */
+    public void amend(float aPrice, int aRemainingAmount, OffsetDateTime aTime) {
+        if (aRemainingAmount <= 0) {
+            throw new IllegalArgumentException("The remaining amount should be positive (was " +
+                    aRemainingAmount + ")");
+        }
+        theVolume += aRemainingAmount - theRemainingAmount;
+        theRemainingAmount = aRemainingAmount;
+        thePrice = aPrice;
+        theTime = aTime;
+    }
+
     /**
      * Cancel this order.
      */
@@ -131,6 +242,13 @@ public class Order {
         theStatus = Status.CANCELLED;
     }
 
+    /**
+     * Expire this order.
+     */
+    public void expireOrder() {
+        theStatus = Status.EXPIRED;
+    }
+
     @Override
     public String toString() {
         final StringBuilder builder = new StringBuilder();
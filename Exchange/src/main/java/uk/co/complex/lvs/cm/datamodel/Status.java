@@ -8,7 +8,8 @@ package uk.co.complex.lvs.cm.datamodel;
  * PARTIAL is a partially completed order.
  * COMPLETED is a completed order - all units have been bought/sold.
  * CANCELLED is a cancelled - no more units can be bought/sold.
+ * EXPIRED is an order which was removed at the end of its time in force.
  */
 public enum Status {
-    NEW, PARTIAL, COMPLETED, CANCELLED
+    NEW, PARTIAL, COMPLETED, CANCELLED, EXPIRED
 }
@@ -0,0 +1,11 @@
+package uk.co.complex.lvs.cm.datamodel;
+
+/**
+ * TimeInForce represents how long an order stays on the buy/sell queue.
+ * GOOD_TILL_CANCELLED is an order which stays queued until it is completed or cancelled;
+ * GOOD_TILL_TIME is an order which expires at a given time;
+ * GOOD_FOR_DAY is an order which expires at the end of the trading day of the market.
+ */
+public enum TimeInForce {
+    GOOD_TILL_CANCELLED, GOOD_TILL_TIME, GOOD_FOR_DAY
+}
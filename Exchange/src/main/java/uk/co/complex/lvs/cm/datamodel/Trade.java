@@ -9,6 +9,10 @@ import java.util.Objects;
  *
  * TradeRecord represents a record of trade. A trade happens when a buyer and a seller have
  * matching orders. An order is matching when they can agree on a price.
+ *
+ * A trade also refers to the identifiers of the buy and sell orders which were matched. Two trades
+ * are equal if they have the same product, buyer, seller, price, amount and time, regardless of
+ * these identifiers.
  */
 public class Trade {
     private final Product theProduct;
@@ -17,9 +21,11 @@ public class Trade {
     private final float thePrice;
     private final int theAmount;
     private final OffsetDateTime theTime;
+    private final long theBuyOrderId;
+    private final long theSellOrderId;
 
     /**
-     * Constructs a new trade record.
+     * Constructs a new trade record, which does not refer to the matched orders.
      * @param aProduct the traded product
      * @param aBuyer the buyer of the product
      * @param aSeller the seller of the product
@@ -28,12 +34,30 @@ public class Trade {
      * @param aTime the time at which the trade was executed
      */
     public Trade(Product aProduct, Account aBuyer, Account aSeller, float aPrice, int aAmount, OffsetDateTime aTime) {
+        this(aProduct, aBuyer, aSeller, aPrice, aAmount, aTime, 0, 0);
+    }
+
+    /**
+     * Constructs a new trade record between two orders.
+     * @param aProduct the traded product
+     * @param aBuyer the buyer of the product
+     * @param aSeller the seller of the product
+     * @param aPrice the price at which the product was traded
+     * @param aAmount the amount which was traded
+     * @param aTime the time at which the trade was executed
+     * @param aBuyOrderId the identifier of the buy order
+     * @param aSellOrderId the identifier of the sell order
+     */
+    public Trade(Product aProduct, Account aBuyer, Account aSeller, float aPrice, int aAmount,
+                 OffsetDateTime aTime, long aBuyOrderId, long aSellOrderId) {
         theProduct = aProduct;
         theBuyer = aBuyer;
         theSeller = aSeller;
         thePrice = aPrice;
         theAmount = aAmount;
         theTime = aTime;
+        theBuyOrderId = aBuyOrderId;
+        theSellOrderId = aSellOrderId;
     }
 
     /**
@@ -84,6 +108,37 @@ public class Trade {
         return theTime;
     }
 
+    /**
+     * Returns the identifier of the buy order, or 0 if the trade does not refer to the orders.
+     * @return the identifier of the buy order
+     */
+    public long getBuyOrderId() {
+        return theBuyOrderId;
+    }
+
+    /**
+     * Returns the identifier of the sell order, or 0 if the trade does not refer to the orders.
+     * @return the identifier of the sell order
+     */
+    public long getSellOrderId() {
+        return theSellOrderId;
+    }
+
+    /**
+     * Returns whether a trade of a product fills an order of a (possibly other) product. A fill of
+     * a calendar spread order against implied orders is recorded as a trade of each leg, and both
+     * trades refer to the spread order. Only the trade of the near leg counts as a fill of the
+     * spread order, so that its amount is counted once.
+     * @param aTradeProduct the product of the trade
+     * @param aOrderProduct the product of the order which the trade refers to
+     * @return true iff the trade reduces the remaining amount of the order
+     */
+    public static boolean fills(Product aTradeProduct, Product aOrderProduct) {
+        if (aTradeProduct.equals(aOrderProduct)) return true;
+        return aOrderProduct instanceof CalendarSpread &&
+                ((CalendarSpread) aOrderProduct).getNearLeg().equals(aTradeProduct);
+    }
+
     @Override
     public String toString() {
         final StringBuilder builder = new StringBuilder();
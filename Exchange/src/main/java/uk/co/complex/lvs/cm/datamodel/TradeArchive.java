@@ -0,0 +1,169 @@
+package uk.co.complex.lvs.cm.datamodel;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * TradeArchive holds the older records of a {@link Book} on disk, so that the book only has to
+ * keep its most recent records in memory. The records are written in segments of a fixed number
+ * of records (see {@link TradeSegment}), which are only read when a query needs them.
+ *
+ * The products and accounts of the archived records are replaced by identifiers in a dictionary,
+ * which is kept in memory: its size grows with the number of products and accounts, but not with
+ * the number of records. The archived records therefore refer to the same account objects as the
+ * records in memory.
+ */
+public class TradeArchive {
+    private final Path theDirectory;
+    private final int theSegmentSize;
+    private final List<TradeSegment> theSegments = new ArrayList<>();
+    private final List<Product> theProducts = new ArrayList<>();
+    private final Map<Product, Integer> theProductIds = new HashMap<>();
+    private final List<Account> theAccounts = new ArrayList<>();
+    private final Map<Account, Integer> theAccountIds = new IdentityHashMap<>();
+    private long theRecords;
+    private long theBytes;
+
+    /**
+     * Constructs an archive which writes its segments to a directory.
+     * @param aDirectory the directory, which is created if it does not exist
+     * @param aSegmentSize the number of records in each segment
+     * @throws IOException if the directory cannot be created
+     */
+    public TradeArchive(Path aDirectory, int aSegmentSize) throws IOException {
+        if (aSegmentSize <= 0) throw new IllegalArgumentException("The segment size should be " +
+                "positive (was " + aSegmentSize + ")");
+        theDirectory = Files.createDirectories(aDirectory);
+        theSegmentSize = aSegmentSize;
+    }
+
+    /**
+     * Returns the number of records in each segment.
+     * @return the segment size
+     */
+    public int getSegmentSize() {
+        return theSegmentSize;
+    }
+
+    /**
+     * Returns the number of segments written.
+     * @return the number of segments
+     */
+    public synchronized int getSegmentCount() {
+        return theSegments.size();
+    }
+
+    /**
+     * Returns the number of records archived.
+     * @return the number of records
+     */
+    public synchronized long getRecordCount() {
+        return theRecords;
+    }
+
+    /**
+     * Returns the total size of the segment files.
+     * @return the size in bytes
+     */
+    public synchronized long getByteCount() {
+        return theBytes;
+    }
+
+    /**
+     * Writes the given records, sorted by their key, to a new segment.
+     */
+    synchronized void append(List<Map.Entry<TradeKey, Trade>> aRecords) {
+        final Path path = theDirectory.resolve(
+                String.format("trades-%06d.seg", theSegments.size()));
+        final TradeSegment segment = TradeSegment.write(path, aRecords, this);
+        theSegments.add(segment);
+        theRecords += segment.getCount();
+        theBytes += segment.getSize();
+    }
+
+    /**
+     * Returns the records of the first segments which match a query within a range of keys, sorted
+     * by their key. The segments are read one at a time, as the iterator reaches them.
+     * @param aSegments the number of segments to search
+     */
+    Iterator<Map.Entry<TradeKey, Trade>> select(TradeQuery aQuery, TradeKey aFrom, TradeKey aTo,
+                                                int aSegments) {
+        final List<TradeSegment> segments;
+        final int product;
+        final int account;
+        synchronized (this) {
+            segments = new ArrayList<>(theSegments.subList(0, aSegments));
+            final Integer productId = (aQuery.getProduct() == null)? null :
+                    theProductIds.get(aQuery.getProduct());
+            final Integer accountId = (aQuery.getAccount() == null)? null :
+                    theAccountIds.get(aQuery.getAccount());
+            if ((aQuery.getProduct() != null && productId == null) ||
+                    (aQuery.getAccount() != null && accountId == null)) {
+                return new ArrayList<Map.Entry<TradeKey, Trade>>().iterator();
+            }
+            product = (productId == null)? -1 : productId;
+            account = (accountId == null)? -1 : accountId;
+        }
+        return new Iterator<Map.Entry<TradeKey, Trade>>() {
+            private final List<Map.Entry<TradeKey, Trade>> theBuffer = new ArrayList<>();
+            private int theSegment;
+            private int thePosition;
+
+            @Override
+            public boolean hasNext() {
+                while (thePosition == theBuffer.size() && theSegment < segments.size()) {
+                    final TradeSegment s = segments.get(theSegment++);
+                    theBuffer.clear();
+                    thePosition = 0;
+                    if (s.mayContain(product, account, aFrom, aTo)) {
+                        s.select(aQuery, product, account, aFrom, aTo, TradeArchive.this,
+                                theBuffer);
+                    }
+                }
+                return thePosition < theBuffer.size();
+            }
+
+            @Override
+            public Map.Entry<TradeKey, Trade> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return theBuffer.get(thePosition++);
+            }
+        };
+    }
+
+    synchronized int productId(Product aProduct) {
+        Integer id = theProductIds.get(aProduct);
+        if (id == null) {
+            id = theProducts.size();
+            theProducts.add(aProduct);
+            theProductIds.put(aProduct, id);
+        }
+        return id;
+    }
+
+    synchronized int accountId(Account aAccount) {
+        Integer id = theAccountIds.get(aAccount);
+        if (id == null) {
+            id = theAccounts.size();
+            theAccounts.add(aAccount);
+            theAccountIds.put(aAccount, id);
+        }
+        return id;
+    }
+
+    synchronized Product product(int aId) {
+        return theProducts.get(aId);
+    }
+
+    synchronized Account account(int aId) {
+        return theAccounts.get(aId);
+    }
+}
@@ -0,0 +1,45 @@
+package uk.co.complex.lvs.cm.datamodel;
+
+import java.time.OffsetDateTime;
+
+/**
+ * TradeKey is the position of a record in a {@link Book}: its execution time (in nanoseconds since
+ * the epoch), and the order in which it was added to the book.
+ */
+final class TradeKey implements Comparable<TradeKey> {
+    private final long theTime;
+    private final long theSequence;
+
+    TradeKey(long aTime, long aSequence) {
+        theTime = aTime;
+        theSequence = aSequence;
+    }
+
+    static long toNanos(OffsetDateTime aTime) {
+        return aTime.toEpochSecond() * 1_000_000_000L + aTime.getNano();
+    }
+
+    long getTime() {
+        return theTime;
+    }
+
+    long getSequence() {
+        return theSequence;
+    }
+
+    @Override
+    public int compareTo(TradeKey aOther) {
+        final int byTime = Long.compare(theTime, aOther.theTime);
+        return (byTime != 0)? byTime : Long.compare(theSequence, aOther.theSequence);
+    }
+
+    @Override
+    public boolean equals(Object aOther) {
+        return aOther instanceof TradeKey && compareTo((TradeKey) aOther) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(theTime) * 31 + Long.hashCode(theSequence);
+    }
+}
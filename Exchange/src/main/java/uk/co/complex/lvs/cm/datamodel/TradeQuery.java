@@ -0,0 +1,132 @@
+package uk.co.complex.lvs.cm.datamodel;
+
+import java.time.OffsetDateTime;
+
+/**
+ * TradeQuery selects trades from a {@link Book} by product, account and execution time. A query is
+ * immutable: each of the methods which narrow it down returns a new query. The trades of a query
+ * are returned oldest first.
+ */
+public final class TradeQuery {
+    private static final TradeQuery ALL = new TradeQuery(null, null, null, null, null, -1, -1);
+
+    private final Product theProduct;
+    private final Account theAccount;
+    private final Side theSide;
+    private final OffsetDateTime theFrom;
+    private final OffsetDateTime theTo;
+    private final long theAfterTime;
+    private final long theAfterSequence;
+
+    private TradeQuery(Product aProduct, Account aAccount, Side aSide, OffsetDateTime aFrom,
+                       OffsetDateTime aTo, long aAfterTime, long aAfterSequence) {
+        theProduct = aProduct;
+        theAccount = aAccount;
+        theSide = aSide;
+        theFrom = aFrom;
+        theTo = aTo;
+        theAfterTime = aAfterTime;
+        theAfterSequence = aAfterSequence;
+    }
+
+    /**
+     * Returns a query which selects all trades.
+     * @return the query
+     */
+    public static TradeQuery all() {
+        return ALL;
+    }
+
+    /**
+     * Returns a query which only selects the trades of a product.
+     * @param aProduct the product
+     * @return the narrowed query
+     */
+    public TradeQuery forProduct(Product aProduct) {
+        return new TradeQuery(aProduct, theAccount, theSide, theFrom, theTo, theAfterTime,
+                theAfterSequence);
+    }
+
+    /**
+     * Returns a query which only selects the trades in which an account was the buyer or the
+     * seller.
+     * @param aAccount the account
+     * @return the narrowed query
+     */
+    public TradeQuery forAccount(Account aAccount) {
+        return new TradeQuery(theProduct, aAccount, theSide, theFrom, theTo, theAfterTime,
+                theAfterSequence);
+    }
+
+    /**
+     * Returns a query which only selects the trades in which the account of the query was on the
+     * given side (the buyer for BUY, the seller for SELL).
+     * @param aSide the side of the account
+     * @return the narrowed query
+     */
+    public TradeQuery onSide(Side aSide) {
+        return new TradeQuery(theProduct, theAccount, aSide, theFrom, theTo, theAfterTime,
+                theAfterSequence);
+    }
+
+    /**
+     * Returns a query which only selects the trades executed in a period of time.
+     * @param aFrom the start of the period (inclusive), or null for no start
+     * @param aTo the end of the period (exclusive), or null for no end
+     * @return the narrowed query
+     */
+    public TradeQuery between(OffsetDateTime aFrom, OffsetDateTime aTo) {
+        return new TradeQuery(theProduct, theAccount, theSide, aFrom, aTo, theAfterTime,
+                theAfterSequence);
+    }
+
+    /**
+     * Returns a query which continues after the given position in the book.
+     */
+    TradeQuery after(long aTime, long aSequence) {
+        return new TradeQuery(theProduct, theAccount, theSide, theFrom, theTo, aTime, aSequence);
+    }
+
+    public Product getProduct() {
+        return theProduct;
+    }
+
+    public Account getAccount() {
+        return theAccount;
+    }
+
+    public Side getSide() {
+        return theSide;
+    }
+
+    public OffsetDateTime getFrom() {
+        return theFrom;
+    }
+
+    public OffsetDateTime getTo() {
+        return theTo;
+    }
+
+    boolean hasCursor() {
+        return theAfterSequence >= 0;
+    }
+
+    long getAfterTime() {
+        return theAfterTime;
+    }
+
+    long getAfterSequence() {
+        return theAfterSequence;
+    }
+
+    /**
+     * Returns whether a trade, found through one of the indexes of the book, matches the filters
+     * which the index did not apply.
+     */
+    boolean matches(Trade aTrade) {
+        if (theProduct != null && !theProduct.equals(aTrade.getProduct())) return false;
+        if (theAccount == null || theSide == null) return true;
+        return (theSide == Side.BUY)? aTrade.getBuyer() == theAccount :
+                aTrade.getSeller() == theAccount;
+    }
+}
@@ -0,0 +1,316 @@
+package uk.co.complex.lvs.cm.datamodel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * TradeSegment is a file of a {@link TradeArchive} holding a run of records, sorted by their
+ * position in the book. The records are stored column by column; each column is delta and
+ * variable-length encoded, and then compressed. Products and accounts are stored as identifiers in
+ * the dictionary of the archive.
+ *
+ * The header of the segment (its key range and the products and accounts it contains) is kept in
+ * memory, so queries can skip a segment without reading it. The columns are only read (through a
+ * memory mapping) and decoded when a query needs the records of the segment.
+ */
+final class TradeSegment {
+    private static final int MAGIC = 0x434d5453;
+    private static final int VERSION = 1;
+
+    private static final int TIME = 0;
+    private static final int SEQUENCE = 1;
+    private static final int OFFSET = 2;
+    private static final int PRODUCT = 3;
+    private static final int BUYER = 4;
+    private static final int SELLER = 5;
+    private static final int PRICE = 6;
+    private static final int AMOUNT = 7;
+    private static final int BUY_ORDER = 8;
+    private static final int SELL_ORDER = 9;
+    private static final int COLUMNS = 10;
+
+    private final Path thePath;
+    private final int theCount;
+    private final TradeKey theFirst;
+    private final TradeKey theLast;
+    private final int[] theProducts;
+    private final int[] theAccounts;
+    private final int[] theOffsets;
+    private final int[] theRawLengths;
+    private final int[] theLengths;
+    private final long theSize;
+
+    private TradeSegment(Path aPath, int aCount, TradeKey aFirst, TradeKey aLast,
+                         int[] aProducts, int[] aAccounts, int[] aOffsets, int[] aRawLengths,
+                         int[] aLengths, long aSize) {
+        thePath = aPath;
+        theCount = aCount;
+        theFirst = aFirst;
+        theLast = aLast;
+        theProducts = aProducts;
+        theAccounts = aAccounts;
+        theOffsets = aOffsets;
+        theRawLengths = aRawLengths;
+        theLengths = aLengths;
+        theSize = aSize;
+    }
+
+    /**
+     * Writes the given records, sorted by their key, to a new segment file.
+     */
+    static TradeSegment write(Path aPath, List<Map.Entry<TradeKey, Trade>> aRecords,
+                              TradeArchive aDictionary) {
+        final ColumnWriter[] columns = new ColumnWriter[COLUMNS];
+        for (int c = 0; c < COLUMNS; c++) columns[c] = new ColumnWriter();
+        final int[] products = new int[aRecords.size()];
+        final int[] accounts = new int[aRecords.size() * 2];
+
+        long time = 0;
+        long sequence = 0;
+        int price = 0;
+        long buyOrder = 0;
+        long sellOrder = 0;
+        for (int i = 0; i < aRecords.size(); i++) {
+            final TradeKey key = aRecords.get(i).getKey();
+            final Trade trade = aRecords.get(i).getValue();
+            columns[TIME].writeSigned(key.getTime() - time);
+            columns[SEQUENCE].writeSigned(key.getSequence() - sequence);
+            columns[OFFSET].writeSigned(trade.getTime().getOffset().getTotalSeconds());
+            products[i] = aDictionary.productId(trade.getProduct());
+            columns[PRODUCT].writeUnsigned(products[i]);
+            accounts[2 * i] = aDictionary.accountId(trade.getBuyer());
+            columns[BUYER].writeUnsigned(accounts[2 * i]);
+            accounts[2 * i + 1] = aDictionary.accountId(trade.getSeller());
+            columns[SELLER].writeUnsigned(accounts[2 * i + 1]);
+            final int bits = Float.floatToIntBits(trade.getPrice());
+            columns[PRICE].writeSigned(bits - price);
+            columns[AMOUNT].writeUnsigned(trade.getAmount());
+            columns[BUY_ORDER].writeSigned(trade.getBuyOrderId() - buyOrder);
+            columns[SELL_ORDER].writeSigned(trade.getSellOrderId() - sellOrder);
+            time = key.getTime();
+            sequence = key.getSequence();
+            price = bits;
+            buyOrder = trade.getBuyOrderId();
+            sellOrder = trade.getSellOrderId();
+        }
+
+        final int[] distinctProducts = distinct(products);
+        final int[] distinctAccounts = distinct(accounts);
+        final byte[][] compressed = new byte[COLUMNS][];
+        final int[] rawLengths = new int[COLUMNS];
+        final int[] lengths = new int[COLUMNS];
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        int headerLength = 4 * 4 + 4 * 8 + 4 * (2 + distinctProducts.length +
+                distinctAccounts.length) + 4 * 2 * COLUMNS;
+        final int[] offsets = new int[COLUMNS];
+        for (int c = 0; c < COLUMNS; c++) {
+            rawLengths[c] = columns[c].size();
+            compressed[c] = compress(deflater, columns[c].toByteArray());
+            lengths[c] = compressed[c].length;
+            offsets[c] = headerLength;
+            headerLength += lengths[c];
+        }
+        deflater.end();
+
+        final ByteBuffer buffer = ByteBuffer.allocate(headerLength);
+        final TradeKey first = aRecords.get(0).getKey();
+        final TradeKey last = aRecords.get(aRecords.size() - 1).getKey();
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(aRecords.size()).putInt(COLUMNS);
+        buffer.putLong(first.getTime()).putLong(first.getSequence());
+        buffer.putLong(last.getTime()).putLong(last.getSequence());
+        buffer.putInt(distinctProducts.length);
+        for (int p : distinctProducts) buffer.putInt(p);
+        buffer.putInt(distinctAccounts.length);
+        for (int a : distinctAccounts) buffer.putInt(a);
+        for (int c = 0; c < COLUMNS; c++) buffer.putInt(rawLengths[c]).putInt(lengths[c]);
+        for (int c = 0; c < COLUMNS; c++) buffer.put(compressed[c]);
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(aPath, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new TradeSegment(aPath, aRecords.size(), first, last, distinctProducts,
+                distinctAccounts, offsets, rawLengths, lengths, headerLength);
+    }
+
+    private static int[] distinct(int[] aIds) {
+        final int[] sorted = aIds.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) sorted[n++] = sorted[i];
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    private static byte[] compress(Deflater aDeflater, byte[] aData) {
+        aDeflater.reset();
+        aDeflater.setInput(aData);
+        aDeflater.finish();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(aData.length / 2 + 16);
+        final byte[] chunk = new byte[4096];
+        while (!aDeflater.finished()) {
+            final int n = aDeflater.deflate(chunk);
+            out.write(chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    int getCount() {
+        return theCount;
+    }
+
+    long getSize() {
+        return theSize;
+    }
+
+    /**
+     * Returns whether the segment may contain records of a query within a range of keys.
+     */
+    boolean mayContain(int aProduct, int aAccount, TradeKey aFrom, TradeKey aTo) {
+        if (aFrom != null && theLast.compareTo(aFrom) < 0) return false;
+        if (aTo != null && theFirst.compareTo(aTo) >= 0) return false;
+        if (aProduct >= 0 && Arrays.binarySearch(theProducts, aProduct) < 0) return false;
+        return aAccount < 0 || Arrays.binarySearch(theAccounts, aAccount) >= 0;
+    }
+
+    /**
+     * Reads and decodes the records of the segment which match a query within a range of keys.
+     * @param aProduct the identifier of the product of the query, or -1
+     * @param aAccount the identifier of the account of the query, or -1
+     */
+    void select(TradeQuery aQuery, int aProduct, int aAccount, TradeKey aFrom, TradeKey aTo,
+                TradeArchive aDictionary, List<Map.Entry<TradeKey, Trade>> aResult) {
+        final MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(thePath, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, theSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final Inflater inflater = new Inflater();
+        final ColumnReader[] columns = new ColumnReader[COLUMNS];
+        try {
+            for (int c = 0; c < COLUMNS; c++) {
+                final byte[] data = new byte[theLengths[c]];
+                final ByteBuffer slice = mapped.duplicate();
+                slice.position(theOffsets[c]);
+                slice.get(data);
+                inflater.reset();
+                inflater.setInput(data);
+                final byte[] raw = new byte[theRawLengths[c]];
+                int n = 0;
+                while (n < raw.length) {
+                    final int read = inflater.inflate(raw, n, raw.length - n);
+                    if (read == 0 && (inflater.finished() || inflater.needsInput())) break;
+                    n += read;
+                }
+                columns[c] = new ColumnReader(raw);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("The trade segment " + thePath + " is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+
+        long time = 0;
+        long sequence = 0;
+        int price = 0;
+        long buyOrder = 0;
+        long sellOrder = 0;
+        for (int i = 0; i < theCount; i++) {
+            time += columns[TIME].readSigned();
+            sequence += columns[SEQUENCE].readSigned();
+            final int offset = (int) columns[OFFSET].readSigned();
+            final int product = (int) columns[PRODUCT].readUnsigned();
+            final int buyer = (int) columns[BUYER].readUnsigned();
+            final int seller = (int) columns[SELLER].readUnsigned();
+            price += (int) columns[PRICE].readSigned();
+            final int amount = (int) columns[AMOUNT].readUnsigned();
+            buyOrder += columns[BUY_ORDER].readSigned();
+            sellOrder += columns[SELL_ORDER].readSigned();
+
+            final TradeKey key = new TradeKey(time, sequence);
+            if (aFrom != null && key.compareTo(aFrom) < 0) continue;
+            if (aTo != null && key.compareTo(aTo) >= 0) break;
+            if (aProduct >= 0 && product != aProduct) continue;
+            if (aAccount >= 0 && buyer != aAccount && seller != aAccount) continue;
+
+            final OffsetDateTime tradeTime = OffsetDateTime.ofInstant(
+                    Instant.ofEpochSecond(Math.floorDiv(time, 1_000_000_000L),
+                            Math.floorMod(time, 1_000_000_000L)),
+                    ZoneOffset.ofTotalSeconds(offset));
+            final Trade trade = new Trade(aDictionary.product(product),
+                    aDictionary.account(buyer), aDictionary.account(seller),
+                    Float.intBitsToFloat(price), amount, tradeTime, buyOrder, sellOrder);
+            if (aQuery.matches(trade)) {
+                aResult.add(new AbstractMap.SimpleImmutableEntry<>(key, trade));
+            }
+        }
+    }
+
+    /**
+     * ColumnWriter writes variable-length (7 bits per byte) integers.
+     */
+    private static final class ColumnWriter extends ByteArrayOutputStream {
+        private void writeUnsigned(long aValue) {
+            long value = aValue;
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        private void writeSigned(long aValue) {
+            // Zig-zag encoding, so that small negative deltas are short as well
+            writeUnsigned((aValue << 1) ^ (aValue >> 63));
+        }
+    }
+
+    /**
+     * ColumnReader reads the integers written by a ColumnWriter.
+     */
+    private static final class ColumnReader {
+        private final byte[] theData;
+        private int thePosition;
+
+        private ColumnReader(byte[] aData) {
+            theData = aData;
+        }
+
+        private long readUnsigned() {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                final byte b = theData[thePosition++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+                shift += 7;
+            }
+        }
+
+        private long readSigned() {
+            final long value = readUnsigned();
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package uk.co.complex.lvs.cm.gateway;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+
+/**
+ * GatewayProtocol defines the binary order-entry protocol of the {@link OrderEntryGateway}. Each
+ * message starts with a type byte, which determines the fixed layout (and length) of the rest of
+ * the message. All numbers are big-endian.
+ *
+ * Client to gateway:
+ * - LOGON: account name (16 bytes, ASCII, padded with spaces)
+ * - NEW_ORDER: client order id (long), symbol (8 bytes, ASCII, padded with spaces), side (byte,
+ *   0 = buy, 1 = sell), price (float), amount (int)
+ * - CANCEL: client order id (long)
+ *
+ * Gateway to client:
+ * - ACK: client order id (long), order id (long), status (byte, see {@link Status}), remaining
+ *   amount (int). A logon is acknowledged with client order id 0.
+ * - FILL: client order id (long), order id (long), price (float), amount (int), remaining
+ *   amount (int)
+ * - REJECT: client order id (long), reason (byte)
+ *
+ * Messages are read and written in place with absolute gets and puts, so that no objects are
+ * allocated to decode them. The offsets below are relative to the start of a message.
+ */
+public class GatewayProtocol {
+    public static final byte LOGON = 'L';
+    public static final byte NEW_ORDER = 'N';
+    public static final byte CANCEL = 'C';
+    public static final byte ACK = 'A';
+    public static final byte FILL = 'F';
+    public static final byte REJECT = 'R';
+
+    public static final int LOGON_ACCOUNT = 1;
+    public static final int ACCOUNT_LENGTH = 16;
+    public static final int LOGON_LENGTH = LOGON_ACCOUNT + ACCOUNT_LENGTH;
+
+    public static final int NEW_ORDER_CLIENT_ID = 1;
+    public static final int NEW_ORDER_SYMBOL = 9;
+    public static final int NEW_ORDER_SIDE = 17;
+    public static final int NEW_ORDER_PRICE = 18;
+    public static final int NEW_ORDER_AMOUNT = 22;
+    public static final int NEW_ORDER_LENGTH = 26;
+
+    public static final int CANCEL_CLIENT_ID = 1;
+    public static final int CANCEL_LENGTH = 9;
+
+    public static final int ACK_CLIENT_ID = 1;
+    public static final int ACK_ORDER_ID = 9;
+    public static final int ACK_STATUS = 17;
+    public static final int ACK_REMAINING = 18;
+    public static final int ACK_LENGTH = 22;
+
+    public static final int FILL_CLIENT_ID = 1;
+    public static final int FILL_ORDER_ID = 9;
+    public static final int FILL_PRICE = 17;
+    public static final int FILL_AMOUNT = 21;
+    public static final int FILL_REMAINING = 25;
+    public static final int FILL_LENGTH = 29;
+
+    public static final int REJECT_CLIENT_ID = 1;
+    public static final int REJECT_REASON = 9;
+    public static final int REJECT_LENGTH = 10;
+
+    public static final byte REASON_NOT_LOGGED_ON = 1;
+    public static final byte REASON_UNKNOWN_ACCOUNT = 2;
+    public static final byte REASON_UNKNOWN_PRODUCT = 3;
+    public static final byte REASON_UNKNOWN_ORDER = 4;
+    public static final byte REASON_DUPLICATE_ORDER = 5;
+    public static final byte REASON_ILLEGAL_ORDER = 6;
+
+    private static final Status[] STATUSES = Status.values();
+
+    /**
+     * Returns the length of a message of the given type.
+     * @param type the message type
+     * @return the length of the message, or -1 if the type is unknown
+     */
+    public static int messageLength(byte type) {
+        switch (type) {
+            case LOGON: return LOGON_LENGTH;
+            case NEW_ORDER: return NEW_ORDER_LENGTH;
+            case CANCEL: return CANCEL_LENGTH;
+            case ACK: return ACK_LENGTH;
+            case FILL: return FILL_LENGTH;
+            case REJECT: return REJECT_LENGTH;
+            default: return -1;
+        }
+    }
+
+    /**
+     * Packs a symbol of at most 8 ASCII characters into a long, padded with spaces.
+     * @param symbol the symbol
+     * @return the packed symbol
+     */
+    public static long packSymbol(String symbol) {
+        final byte[] bytes = pad(symbol, 8);
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    private static byte[] pad(String s, int length) {
+        final byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length > length) {
+            throw new IllegalArgumentException("'" + s + "' is longer than " + length +
+                    " characters");
+        }
+        final byte[] padded = new byte[length];
+        for (int i = 0; i < length; i++) {
+            padded[i] = (i < bytes.length)? bytes[i] : (byte) ' ';
+        }
+        return padded;
+    }
+
+    /**
+     * Reads the account name of a LOGON message, without its padding.
+     */
+    static String readAccount(ByteBuffer buffer, int start) {
+        final byte[] bytes = new byte[ACCOUNT_LENGTH];
+        for (int i = 0; i < ACCOUNT_LENGTH; i++) {
+            bytes[i] = buffer.get(start + LOGON_ACCOUNT + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII).trim();
+    }
+
+    public static Side readSide(ByteBuffer buffer, int offset) {
+        return (buffer.get(offset) == 0)? Side.BUY : Side.SELL;
+    }
+
+    public static Status readStatus(ByteBuffer buffer, int offset) {
+        return STATUSES[buffer.get(offset)];
+    }
+
+    /**
+     * Appends a LOGON message to the buffer.
+     */
+    public static void putLogon(ByteBuffer buffer, String account) {
+        buffer.put(LOGON);
+        buffer.put(pad(account, ACCOUNT_LENGTH));
+    }
+
+    /**
+     * Appends a NEW_ORDER message to the buffer.
+     */
+    public static void putNewOrder(ByteBuffer buffer, long clientId, long symbol, Side side,
+                                   float price, int amount) {
+        buffer.put(NEW_ORDER);
+        buffer.putLong(clientId);
+        buffer.putLong(symbol);
+        buffer.put((byte) ((side == Side.BUY)? 0 : 1));
+        buffer.putFloat(price);
+        buffer.putInt(amount);
+    }
+
+    /**
+     * Appends a CANCEL message to the buffer.
+     */
+    public static void putCancel(ByteBuffer buffer, long clientId) {
+        buffer.put(CANCEL);
+        buffer.putLong(clientId);
+    }
+
+    /**
+     * Appends an ACK message to the buffer.
+     */
+    public static void putAck(ByteBuffer buffer, long clientId, long orderId, Status status,
+                              int remaining) {
+        buffer.put(ACK);
+        buffer.putLong(clientId);
+        buffer.putLong(orderId);
+        buffer.put((byte) status.ordinal());
+        buffer.putInt(remaining);
+    }
+
+    /**
+     * Appends a FILL message to the buffer.
+     */
+    public static void putFill(ByteBuffer buffer, long clientId, long orderId, float price,
+                               int amount, int remaining) {
+        buffer.put(FILL);
+        buffer.putLong(clientId);
+        buffer.putLong(orderId);
+        buffer.putFloat(price);
+        buffer.putInt(amount);
+        buffer.putInt(remaining);
+    }
+
+    /**
+     * Appends a REJECT message to the buffer.
+     */
+    public static void putReject(ByteBuffer buffer, long clientId, byte reason) {
+        buffer.put(REJECT);
+        buffer.putLong(clientId);
+        buffer.put(reason);
+    }
+}
@@ -0,0 +1,168 @@
+package uk.co.complex.lvs.cm.gateway;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Status;
+
+/**
+ * GatewaySession is the connection of a single client to the {@link OrderEntryGateway}. It is
+ * owned by one of the I/O loops of the gateway, which reads and decodes its messages. Replies can
+ * be sent from any thread (e.g. fills are sent from the thread which placed the matching order).
+ * A reply is written to the socket straight away; only if the socket cannot take all of it, the
+ * owning I/O loop is asked to finish writing it.
+ */
+class GatewaySession {
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * SessionOrder is an order placed through the session, with the client's identifier.
+     */
+    static class SessionOrder {
+        final GatewaySession mSession;
+        final long mClientId;
+        final Order mOrder;
+        int mRemaining;
+
+        SessionOrder(GatewaySession session, long clientId, Order order) {
+            mSession = session;
+            mClientId = clientId;
+            mOrder = order;
+            mRemaining = order.getAmount();
+        }
+    }
+
+    private final SocketChannel mChannel;
+    private final OrderEntryGateway.IoLoop mLoop;
+    private final ByteBuffer mIn = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer mOut = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Map<Long, SessionOrder> mOrders = new ConcurrentHashMap<>();
+    private SelectionKey mKey;
+    private volatile Account mAccount;
+    private boolean mClosed = false;
+
+    GatewaySession(SocketChannel channel, OrderEntryGateway.IoLoop loop) {
+        mChannel = channel;
+        mLoop = loop;
+    }
+
+    SocketChannel getChannel() {
+        return mChannel;
+    }
+
+    void setKey(SelectionKey key) {
+        mKey = key;
+    }
+
+    SelectionKey getKey() {
+        return mKey;
+    }
+
+    Account getAccount() {
+        return mAccount;
+    }
+
+    void setAccount(Account account) {
+        mAccount = account;
+    }
+
+    /**
+     * Returns the orders of this session which are still open, by their client identifier.
+     */
+    Map<Long, SessionOrder> getOrders() {
+        return mOrders;
+    }
+
+    /**
+     * Reads from the socket and returns the buffer with the received bytes, ready to be decoded.
+     * The buffer should be compacted after decoding. Called by the owning I/O loop only.
+     * @return the buffer, or null if the connection was closed
+     */
+    ByteBuffer read() throws IOException {
+        if (mChannel.read(mIn) < 0) return null;
+        mIn.flip();
+        return mIn;
+    }
+
+    void compactInput() {
+        mIn.compact();
+    }
+
+    void sendAck(long clientId, long orderId, Status status, int remaining) {
+        synchronized (this) {
+            if (!reserve(GatewayProtocol.ACK_LENGTH)) return;
+            GatewayProtocol.putAck(mOut, clientId, orderId, status, remaining);
+            flush();
+        }
+    }
+
+    void sendFill(long clientId, long orderId, float price, int amount, int remaining) {
+        synchronized (this) {
+            if (!reserve(GatewayProtocol.FILL_LENGTH)) return;
+            GatewayProtocol.putFill(mOut, clientId, orderId, price, amount, remaining);
+            flush();
+        }
+    }
+
+    void sendReject(long clientId, byte reason) {
+        synchronized (this) {
+            if (!reserve(GatewayProtocol.REJECT_LENGTH)) return;
+            GatewayProtocol.putReject(mOut, clientId, reason);
+            flush();
+        }
+    }
+
+    /**
+     * Checks that there is room for a message in the output buffer. A client which does not read
+     * its replies fast enough is disconnected once the buffer is full.
+     */
+    private boolean reserve(int length) {
+        if (mClosed) return false;
+        if (mOut.remaining() < length) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes as much of the output buffer as the socket takes. If something is left, the owning
+     * I/O loop is asked to write it once the socket is writable.
+     * @return true iff the output buffer is empty
+     */
+    synchronized boolean flush() {
+        if (mClosed) return true;
+        try {
+            mOut.flip();
+            mChannel.write(mOut);
+            mOut.compact();
+        } catch (IOException e) {
+            close();
+            return true;
+        }
+        if (mOut.position() == 0) return true;
+        mLoop.requestWrite(this);
+        return false;
+    }
+
+    synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    synchronized void close() {
+        if (mClosed) return;
+        mClosed = true;
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        mLoop.sessionClosed(this);
+    }
+}
@@ -0,0 +1,201 @@
+package uk.co.complex.lvs.cm.gateway;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+
+/**
+ * LoadTestClient measures the round-trip latency of the {@link OrderEntryGateway}. It opens a
+ * number of sessions, which each keep one request outstanding: a session places a random order,
+ * and once it is acknowledged either cancels it (if it is still open) or places the next order.
+ * The time from sending a request until its acknowledgement or rejection is recorded, and the
+ * latency percentiles are printed at the end.
+ *
+ * Usage: LoadTestClient [sessions] [seconds] [host port]. Without a host and port, a market with
+ * a gateway is started in-process on localhost. The sessions log on as Client0, Client1, etc.
+ */
+public class LoadTestClient {
+    private static final String SYMBOL = "XYZ";
+
+    /**
+     * ClientSession is a single connection of the load test client.
+     */
+    private static class ClientSession {
+        final SocketChannel mChannel;
+        final ByteBuffer mIn = ByteBuffer.allocateDirect(GatewaySession.BUFFER_SIZE);
+        final ByteBuffer mOut = ByteBuffer.allocateDirect(256);
+        final Random mRandom;
+        long mNextClientId = 1;
+        long mSent;
+
+        ClientSession(SocketChannel channel, long seed) {
+            mChannel = channel;
+            mRandom = new Random(seed);
+        }
+    }
+
+    private final long mSymbol = GatewayProtocol.packSymbol(SYMBOL);
+    private long[] mLatencies = new long[1 << 20];
+    private int mCount = 0;
+    private long mFills = 0;
+    private long mRejects = 0;
+    private long mDeadline;
+
+    private void run(InetSocketAddress address, int sessions, int seconds) throws IOException {
+        final Selector selector = Selector.open();
+        final List<ClientSession> clients = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            final SocketChannel channel = SocketChannel.open(address);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            final ClientSession client = new ClientSession(channel, i);
+            channel.register(selector, SelectionKey.OP_READ, client);
+            clients.add(client);
+        }
+
+        final long start = System.nanoTime();
+        mDeadline = start + seconds * 1000000000L;
+        for (int i = 0; i < sessions; i++) {
+            final ClientSession client = clients.get(i);
+            client.mOut.clear();
+            GatewayProtocol.putLogon(client.mOut, "Client" + i);
+            send(client);
+        }
+
+        int open = sessions;
+        while (open > 0) {
+            selector.select(100);
+            final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                final SelectionKey key = keys.next();
+                keys.remove();
+                final ClientSession client = (ClientSession) key.attachment();
+                if (!receive(client)) {
+                    client.mChannel.close();
+                    open--;
+                }
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        selector.close();
+
+        report(sessions, elapsed);
+    }
+
+    /**
+     * Reads and handles the replies of a session.
+     * @return false iff the session is done
+     */
+    private boolean receive(ClientSession client) throws IOException {
+        final ByteBuffer in = client.mIn;
+        if (client.mChannel.read(in) < 0) return false;
+        in.flip();
+        boolean active = true;
+        while (in.hasRemaining()) {
+            final int start = in.position();
+            final byte type = in.get(start);
+            final int length = GatewayProtocol.messageLength(type);
+            if (in.remaining() < length) break;
+            in.position(start + length);
+
+            if (type == GatewayProtocol.FILL) {
+                mFills++;
+                continue;
+            }
+            final long now = System.nanoTime();
+            final long clientId = in.getLong(start + 1);
+            if (clientId != 0) record(now - client.mSent);
+            if (type == GatewayProtocol.REJECT) mRejects++;
+            if (now > mDeadline) {
+                active = false;
+                continue;
+            }
+
+            client.mOut.clear();
+            final boolean open = type == GatewayProtocol.ACK && clientId != 0 &&
+                    isOpen(GatewayProtocol.readStatus(in, start + GatewayProtocol.ACK_STATUS));
+            if (open) {
+                GatewayProtocol.putCancel(client.mOut, clientId);
+            } else {
+                final Random rnd = client.mRandom;
+                final Side side = rnd.nextBoolean()? Side.BUY : Side.SELL;
+                final float price = 99.90f + rnd.nextInt(21) / 100.0f;
+                GatewayProtocol.putNewOrder(client.mOut, client.mNextClientId++, mSymbol, side,
+                        price, 1 + rnd.nextInt(10));
+            }
+            send(client);
+        }
+        in.compact();
+        return active;
+    }
+
+    private static boolean isOpen(Status status) {
+        return status == Status.NEW || status == Status.PARTIAL;
+    }
+
+    private void send(ClientSession client) throws IOException {
+        client.mOut.flip();
+        client.mSent = System.nanoTime();
+        while (client.mOut.hasRemaining()) {
+            client.mChannel.write(client.mOut);
+        }
+    }
+
+    private void record(long latency) {
+        if (mCount == mLatencies.length) mLatencies = Arrays.copyOf(mLatencies, 2 * mCount);
+        mLatencies[mCount++] = latency;
+    }
+
+    private void report(int sessions, long elapsed) {
+        final long[] latencies = Arrays.copyOf(mLatencies, mCount);
+        Arrays.sort(latencies);
+        System.out.println(String.format("%d sessions, %d requests in %.1f s (%.0f requests/s), " +
+                "%d fills, %d rejects", sessions, mCount, elapsed / 1e9, mCount / (elapsed / 1e9),
+                mFills, mRejects));
+        if (mCount == 0) return;
+        for (double p : new double[]{0.50, 0.90, 0.99, 0.999}) {
+            System.out.println(String.format("p%-6s %10.1f us", p * 100,
+                    latencies[(int) Math.min(mCount - 1, Math.round(p * mCount))] / 1e3));
+        }
+        System.out.println(String.format("max     %10.1f us", latencies[mCount - 1] / 1e3));
+    }
+
+    public static void main(String[] args) throws IOException {
+        final int sessions = (args.length > 0)? Integer.parseInt(args[0]) : 1000;
+        final int seconds = (args.length > 1)? Integer.parseInt(args[1]) : 10;
+
+        final InetSocketAddress address;
+        if (args.length > 3) {
+            address = new InetSocketAddress(args[2], Integer.parseInt(args[3]));
+        } else {
+            final Product xyz = new Product(SYMBOL);
+            final MarketManager manager = new MarketManager(Arrays.asList(xyz));
+            final List<Account> accounts = new ArrayList<>();
+            for (int i = 0; i < sessions; i++) {
+                final Account account = new Account("Client" + i);
+                account.updateBook(xyz, Integer.MAX_VALUE / 2);
+                accounts.add(account);
+            }
+            final OrderEntryGateway gateway = new OrderEntryGateway(manager, accounts, 2);
+            gateway.start(new InetSocketAddress("localhost", 0));
+            address = new InetSocketAddress("localhost", gateway.getPort());
+        }
+
+        new LoadTestClient().run(address, sessions, seconds);
+    }
+}
@@ -0,0 +1,366 @@
+package uk.co.complex.lvs.cm.gateway;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.OrderListener;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * OrderEntryGateway lets clients place and cancel orders on a market over TCP, using the binary
+ * protocol of {@link GatewayProtocol}. A client logs on with the name of its account, after which
+ * it can place new orders and cancel them by its own (client) order identifiers. Each order is
+ * acknowledged with its status, and each trade of an order is reported as a fill. Fills of a new
+ * order which trades immediately are sent before its acknowledgement.
+ *
+ * The gateway uses non-blocking I/O: one thread accepts connections, and a few I/O loops each serve
+ * many sessions with a selector. Messages are decoded in place from direct buffers.
+ */
+public class OrderEntryGateway implements OrderListener {
+    private final MarketManager mManager;
+    private final Map<String, Account> mAccounts = new HashMap<>();
+    private final long[] mSymbols;
+    private final Product[] mProducts;
+    private final Map<Long, GatewaySession.SessionOrder> mOrders = new ConcurrentHashMap<>();
+    private final IoLoop[] mLoops;
+    private ServerSocketChannel mServer;
+    private Thread mAcceptor;
+    private volatile boolean mRunning = false;
+
+    /**
+     * Constructs a gateway for a market.
+     * @param manager the market manager
+     * @param accounts the accounts which can log on to the gateway
+     * @param ioThreads the number of I/O loops
+     */
+    public OrderEntryGateway(MarketManager manager, Collection<Account> accounts, int ioThreads) {
+        mManager = manager;
+        for (Account a : accounts) {
+            mAccounts.put(a.getName(), a);
+        }
+        final List<Product> products = manager.getProducts();
+        mSymbols = new long[products.size()];
+        mProducts = new Product[products.size()];
+        for (int i = 0; i < products.size(); i++) {
+            mProducts[i] = products.get(i);
+            mSymbols[i] = GatewayProtocol.packSymbol(products.get(i).getName());
+        }
+        mLoops = new IoLoop[ioThreads];
+    }
+
+    /**
+     * Starts accepting connections on the given address.
+     * @param address the address to listen on (port 0 picks a free port)
+     * @throws IOException if the address cannot be bound
+     */
+    public void start(InetSocketAddress address) throws IOException {
+        mServer = ServerSocketChannel.open();
+        mServer.bind(address, 1024);
+        mRunning = true;
+        mManager.addOrderListener(this);
+
+        for (int i = 0; i < mLoops.length; i++) {
+            mLoops[i] = new IoLoop(Selector.open());
+            final Thread thread = new Thread(mLoops[i], "gateway-io-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        mAcceptor = new Thread(this::accept, "gateway-acceptor");
+        mAcceptor.setDaemon(true);
+        mAcceptor.start();
+    }
+
+    /**
+     * Returns the port on which the gateway accepts connections.
+     * @return the local port
+     */
+    public int getPort() {
+        return mServer.socket().getLocalPort();
+    }
+
+    /**
+     * Stops the gateway and closes all sessions. Orders placed through the gateway remain on the
+     * market.
+     */
+    public void stop() {
+        mRunning = false;
+        mManager.removeOrderListener(this);
+        try {
+            mServer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (IoLoop loop : mLoops) {
+            if (loop != null) loop.mSelector.wakeup();
+        }
+    }
+
+    private void accept() {
+        int next = 0;
+        while (mRunning) {
+            try {
+                final SocketChannel channel = mServer.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                mLoops[next].register(channel);
+                next = (next + 1) % mLoops.length;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Handles a single message of a session. The message starts at the given position of the
+     * buffer, and its length is known to be available.
+     */
+    private void onMessage(GatewaySession session, ByteBuffer in, int start, byte type) {
+        switch (type) {
+            case GatewayProtocol.LOGON:
+                onLogon(session, in, start);
+                break;
+            case GatewayProtocol.NEW_ORDER:
+                onNewOrder(session, in, start);
+                break;
+            case GatewayProtocol.CANCEL:
+                onCancel(session, in, start);
+                break;
+            default:
+                // Messages which are only sent by the gateway
+                session.close();
+        }
+    }
+
+    private void onLogon(GatewaySession session, ByteBuffer in, int start) {
+        final Account account = mAccounts.get(GatewayProtocol.readAccount(in, start));
+        if (account == null) {
+            session.sendReject(0, GatewayProtocol.REASON_UNKNOWN_ACCOUNT);
+            return;
+        }
+        session.setAccount(account);
+        session.sendAck(0, 0, Status.NEW, 0);
+    }
+
+    private void onNewOrder(GatewaySession session, ByteBuffer in, int start) {
+        final long clientId = in.getLong(start + GatewayProtocol.NEW_ORDER_CLIENT_ID);
+        final Account account = session.getAccount();
+        if (account == null) {
+            session.sendReject(clientId, GatewayProtocol.REASON_NOT_LOGGED_ON);
+            return;
+        }
+        final Product product = findProduct(in.getLong(start + GatewayProtocol.NEW_ORDER_SYMBOL));
+        if (product == null) {
+            session.sendReject(clientId, GatewayProtocol.REASON_UNKNOWN_PRODUCT);
+            return;
+        }
+        if (session.getOrders().containsKey(clientId)) {
+            session.sendReject(clientId, GatewayProtocol.REASON_DUPLICATE_ORDER);
+            return;
+        }
+
+        final Side side = GatewayProtocol.readSide(in, start + GatewayProtocol.NEW_ORDER_SIDE);
+        final float price = in.getFloat(start + GatewayProtocol.NEW_ORDER_PRICE);
+        final int amount = in.getInt(start + GatewayProtocol.NEW_ORDER_AMOUNT);
+        final Order order = new Order(product, price, amount, account, side, OffsetDateTime.now());
+        final GatewaySession.SessionOrder sessionOrder =
+                new GatewaySession.SessionOrder(session, clientId, order);
+
+        // Register the order first, as it may trade while it is being placed
+        session.getOrders().put(clientId, sessionOrder);
+        mOrders.put(order.getId(), sessionOrder);
+        try {
+            mManager.placeOrder(order);
+        } catch (IllegalTradeException e) {
+            forget(sessionOrder);
+            session.sendReject(clientId, GatewayProtocol.REASON_ILLEGAL_ORDER);
+            return;
+        }
+        session.sendAck(clientId, order.getId(), order.getStatus(), order.getRemainingAmount());
+        if (order.getStatus() == Status.COMPLETED) forget(sessionOrder);
+    }
+
+    private void onCancel(GatewaySession session, ByteBuffer in, int start) {
+        final long clientId = in.getLong(start + GatewayProtocol.CANCEL_CLIENT_ID);
+        final GatewaySession.SessionOrder sessionOrder = session.getOrders().get(clientId);
+        if (sessionOrder == null || !mManager.cancelOrder(sessionOrder.mOrder)) {
+            session.sendReject(clientId, GatewayProtocol.REASON_UNKNOWN_ORDER);
+            return;
+        }
+        forget(sessionOrder);
+        session.sendAck(clientId, sessionOrder.mOrder.getId(), Status.CANCELLED,
+                sessionOrder.mOrder.getRemainingAmount());
+    }
+
+    private Product findProduct(long symbol) {
+        for (int i = 0; i < mSymbols.length; i++) {
+            if (mSymbols[i] == symbol) return mProducts[i];
+        }
+        return null;
+    }
+
+    private void forget(GatewaySession.SessionOrder sessionOrder) {
+        sessionOrder.mSession.getOrders().remove(sessionOrder.mClientId);
+        mOrders.remove(sessionOrder.mOrder.getId());
+    }
+
+    @Override
+    public void tradeExecuted(Trade trade) {
+        fill(trade.getBuyOrderId(), trade);
+        fill(trade.getSellOrderId(), trade);
+    }
+
+    private void fill(long orderId, Trade trade) {
+        final GatewaySession.SessionOrder sessionOrder = mOrders.get(orderId);
+        if (sessionOrder == null ||
+                !Trade.fills(trade.getProduct(), sessionOrder.mOrder.getProduct())) {
+            return;
+        }
+        sessionOrder.mRemaining -= trade.getAmount();
+        sessionOrder.mSession.sendFill(sessionOrder.mClientId, orderId, trade.getPrice(),
+                trade.getAmount(), sessionOrder.mRemaining);
+        if (sessionOrder.mRemaining == 0) forget(sessionOrder);
+    }
+
+    /**
+     * IoLoop serves a number of sessions on a single thread with a selector.
+     */
+    class IoLoop implements Runnable {
+        private final Selector mSelector;
+        private final Queue<SocketChannel> mNewChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<GatewaySession> mWriteRequests = new ConcurrentLinkedQueue<>();
+
+        IoLoop(Selector selector) {
+            mSelector = selector;
+        }
+
+        void register(SocketChannel channel) {
+            mNewChannels.add(channel);
+            mSelector.wakeup();
+        }
+
+        /**
+         * Asks the loop to finish writing the output of a session once its socket is writable.
+         */
+        void requestWrite(GatewaySession session) {
+            mWriteRequests.add(session);
+            mSelector.wakeup();
+        }
+
+        void sessionClosed(GatewaySession session) {
+            for (GatewaySession.SessionOrder o : session.getOrders().values()) {
+                mOrders.remove(o.mOrder.getId());
+            }
+            session.getOrders().clear();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (mRunning) {
+                    mSelector.select();
+                    registerNewChannels();
+                    processWriteRequests();
+
+                    final Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        final GatewaySession session = (GatewaySession) key.attachment();
+                        if (!key.isValid()) continue;
+                        if (key.isWritable() && session.flush() && key.isValid()) {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                        if (key.isValid() && key.isReadable()) read(session);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (SelectionKey key : mSelector.keys()) {
+                    ((GatewaySession) key.attachment()).close();
+                }
+                try {
+                    mSelector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void registerNewChannels() {
+            SocketChannel channel;
+            while ((channel = mNewChannels.poll()) != null) {
+                final GatewaySession session = new GatewaySession(channel, this);
+                try {
+                    session.setKey(channel.register(mSelector, SelectionKey.OP_READ, session));
+                } catch (ClosedChannelException e) {
+                    session.close();
+                }
+            }
+        }
+
+        private void processWriteRequests() {
+            GatewaySession session;
+            while ((session = mWriteRequests.poll()) != null) {
+                final SelectionKey key = session.getKey();
+                if (key != null && key.isValid()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+        }
+
+        private void read(GatewaySession session) {
+            final ByteBuffer in;
+            try {
+                in = session.read();
+            } catch (IOException e) {
+                session.close();
+                return;
+            }
+            if (in == null) {
+                session.close();
+                return;
+            }
+
+            while (in.hasRemaining() && !session.isClosed()) {
+                final int start = in.position();
+                final byte type = in.get(start);
+                final int length = GatewayProtocol.messageLength(type);
+                if (length < 0) {
+                    session.close();
+                    return;
+                }
+                if (in.remaining() < length) break;
+                onMessage(session, in, start, type);
+                in.position(start + length);
+            }
+            session.compactInput();
+        }
+    }
+}
@@ -20,8 +20,8 @@ import javax.swing.JScrollPane;
 import javax.swing.ScrollPaneConstants;
 
 import info.clearthought.layout.TableLayout;
+import uk.co.complex.lvs.cm.BookSnapshot;
 import uk.co.complex.lvs.cm.MarketManager;
-import uk.co.complex.lvs.cm.PriceTimePriorityQueue;
 import uk.co.complex.lvs.cm.TradeListener;
 import uk.co.complex.lvs.cm.datamodel.Account;
 import uk.co.complex.lvs.cm.datamodel.Product;
@@ -109,13 +109,13 @@ public class MarketVisualisation implements TradeListener {
 
     @Override
     public void update(MarketManager manager) {
-        final PriceTimePriorityQueue buyQueue = manager.getBuyQueue(manager.getProducts().get(0));
-        final PriceTimePriorityQueue sellQueue = manager.getSellQueue(manager.getProducts().get(0));
-        buyQList.setListData(toString(buyQueue));
-        sellQList.setListData(toString(sellQueue));
+        final Product product = manager.getProducts().get(0);
+        final BookSnapshot snapshot = manager.getBookSnapshot(product);
+        buyQList.setListData(toString(snapshot.getBids()));
+        sellQList.setListData(toString(snapshot.getAsks()));
         bookList.setListData(toString(manager.getBook().getAllRecords()));
 
-        final Optional<Float> price = getPrice(sellQueue, buyQueue);
+        final Optional<Float> price = manager.getTopOfBook(product).getMidPrice();
         lastPrice = price;
 
         if (!price.isPresent()) {
@@ -125,15 +125,6 @@ public class MarketVisualisation implements TradeListener {
         }
     }
 
-    private Optional<Float> getPrice(PriceTimePriorityQueue sellQueue,
-                                     PriceTimePriorityQueue buyQueue) {
-        if (sellQueue.isEmpty() | buyQueue.isEmpty()) {
-            return Optional.empty();
-        } else {
-            return Optional.of((sellQueue.first().getPrice() + buyQueue.first().getPrice())/2.0f);
-        }
-    }
-
     private void updatePricePlot() {
         if (lastPrice.isPresent()) {
             priceHistory.add(lastPrice.get());
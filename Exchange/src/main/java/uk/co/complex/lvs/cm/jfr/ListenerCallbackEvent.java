@@ -0,0 +1,34 @@
+package uk.co.complex.lvs.cm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * ListenerCallbackEvent spans a single callback of an order or trade listener by the market
+ * manager.
+ */
+@Name(ListenerCallbackEvent.NAME)
+@Label("Listener Callback")
+@Description("The market manager notified a listener")
+@Category({"CompLex Markets", "Listeners"})
+@StackTrace(false)
+public class ListenerCallbackEvent extends Event {
+    public static final String NAME = "uk.co.complex.lvs.cm.ListenerCallback";
+
+    @Label("Product")
+    public String product;
+
+    @Label("Order Id")
+    @Description("The order which caused the callback, or 0 if it was not caused by one order")
+    public long orderId;
+
+    @Label("Listener")
+    public String listener;
+
+    @Label("Callback")
+    public String callback;
+}
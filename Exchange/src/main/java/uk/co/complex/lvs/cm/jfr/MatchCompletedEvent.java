@@ -0,0 +1,34 @@
+package uk.co.complex.lvs.cm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * MatchCompletedEvent spans the matching of a new order with the opposite queue.
+ */
+@Name(MatchCompletedEvent.NAME)
+@Label("Match Completed")
+@Description("A new order was matched with the opposite queue")
+@Category({"CompLex Markets", "Matching"})
+@StackTrace(false)
+public class MatchCompletedEvent extends Event {
+    public static final String NAME = "uk.co.complex.lvs.cm.MatchCompleted";
+
+    @Label("Product")
+    public String product;
+
+    @Label("Order Id")
+    public long orderId;
+
+    @Label("Fills")
+    @Description("The number of trades of the order")
+    public int fills;
+
+    @Label("Levels Swept")
+    @Description("The number of price levels of the opposite queue which the order traded with")
+    public int levelsSwept;
+}
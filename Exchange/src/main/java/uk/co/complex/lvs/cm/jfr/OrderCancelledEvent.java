@@ -0,0 +1,30 @@
+package uk.co.complex.lvs.cm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * OrderCancelledEvent spans the cancellation of an order.
+ */
+@Name(OrderCancelledEvent.NAME)
+@Label("Order Cancelled")
+@Description("An order was cancelled")
+@Category({"CompLex Markets", "Orders"})
+@StackTrace(false)
+public class OrderCancelledEvent extends Event {
+    public static final String NAME = "uk.co.complex.lvs.cm.OrderCancelled";
+
+    @Label("Product")
+    public String product;
+
+    @Label("Order Id")
+    public long orderId;
+
+    @Label("Removed")
+    @Description("Whether the order was still queued, and has been removed")
+    public boolean removed;
+}
@@ -0,0 +1,36 @@
+package uk.co.complex.lvs.cm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * OrderReceivedEvent spans the placement of an order on the market, from validation until all
+ * listeners have been notified.
+ */
+@Name(OrderReceivedEvent.NAME)
+@Label("Order Received")
+@Description("An order was placed on the market")
+@Category({"CompLex Markets", "Orders"})
+@StackTrace(false)
+public class OrderReceivedEvent extends Event {
+    public static final String NAME = "uk.co.complex.lvs.cm.OrderReceived";
+
+    @Label("Product")
+    public String product;
+
+    @Label("Order Id")
+    public long orderId;
+
+    @Label("Side")
+    public String side;
+
+    @Label("Price")
+    public float price;
+
+    @Label("Amount")
+    public int amount;
+}
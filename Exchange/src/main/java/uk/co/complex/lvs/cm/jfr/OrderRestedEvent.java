@@ -0,0 +1,32 @@
+package uk.co.complex.lvs.cm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * OrderRestedEvent is committed when (the remainder of) an order is put on the buy/sell queue.
+ */
+@Name(OrderRestedEvent.NAME)
+@Label("Order Rested")
+@Description("An order was put on the buy/sell queue")
+@Category({"CompLex Markets", "Orders"})
+@StackTrace(false)
+public class OrderRestedEvent extends Event {
+    public static final String NAME = "uk.co.complex.lvs.cm.OrderRested";
+
+    @Label("Product")
+    public String product;
+
+    @Label("Order Id")
+    public long orderId;
+
+    @Label("Price")
+    public float price;
+
+    @Label("Remaining Amount")
+    public int remainingAmount;
+}
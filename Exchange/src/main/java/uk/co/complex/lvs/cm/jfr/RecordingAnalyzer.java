@@ -0,0 +1,151 @@
+package uk.co.complex.lvs.cm.jfr;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * RecordingAnalyzer summarizes a Flight Recorder recording of the market into latency tables. The
+ * first table has a row per stage: placing an order, matching, cancelling, and each callback of
+ * each listener. The second table breaks the stages down per product. Latencies are in
+ * microseconds.
+ *
+ * The recording should be made with the bundled configuration (see {@link #getConfiguration()}),
+ * which records every event of the market regardless of its duration.
+ */
+public class RecordingAnalyzer {
+    public static final String CONFIGURATION = "/uk/co/complex/lvs/cm/jfr/complex-markets.jfc";
+
+    /**
+     * Durations collects the durations (in nanoseconds) of a stage.
+     */
+    private static class Durations {
+        private long[] mValues = new long[64];
+        private int mSize = 0;
+
+        void add(long value) {
+            if (mSize == mValues.length) mValues = Arrays.copyOf(mValues, mSize * 2);
+            mValues[mSize++] = value;
+        }
+
+        String row(String name) {
+            final long[] sorted = Arrays.copyOf(mValues, mSize);
+            Arrays.sort(sorted);
+            long sum = 0;
+            for (long v : sorted) sum += v;
+            return String.format("%-48s %10d %10.1f %10.1f %10.1f %10.1f %10.1f", name, mSize,
+                    sum / 1e3 / mSize, percentile(sorted, 0.50), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), sorted[mSize - 1] / 1e3);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1e3;
+        }
+    }
+
+    /**
+     * Returns the bundled Flight Recorder configuration for profiling the market.
+     * @return the configuration
+     * @throws IOException if the configuration cannot be read
+     */
+    public static Configuration getConfiguration() throws IOException {
+        try (Reader reader = new InputStreamReader(
+                RecordingAnalyzer.class.getResourceAsStream(CONFIGURATION),
+                StandardCharsets.UTF_8)) {
+            return Configuration.create(reader);
+        } catch (ParseException e) {
+            throw new IOException("The bundled configuration is invalid", e);
+        }
+    }
+
+    /**
+     * Summarizes a recording into latency tables.
+     * @param recording the recording file
+     * @return the summary
+     * @throws IOException if the recording cannot be read
+     */
+    public static String summarize(Path recording) throws IOException {
+        final Map<String, Durations> stages = new TreeMap<>();
+        final Map<String, Durations> productStages = new TreeMap<>();
+        long matches = 0;
+        long fills = 0;
+        long levels = 0;
+        long rested = 0;
+
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                final RecordedEvent event = file.readEvent();
+                final String name = event.getEventType().getName();
+                final String stage;
+                switch (name) {
+                    case OrderReceivedEvent.NAME:
+                        stage = "placeOrder";
+                        break;
+                    case MatchCompletedEvent.NAME:
+                        stage = "matching";
+                        matches++;
+                        fills += event.getInt("fills");
+                        levels += event.getInt("levelsSwept");
+                        break;
+                    case OrderCancelledEvent.NAME:
+                        stage = "cancelOrder";
+                        break;
+                    case ListenerCallbackEvent.NAME:
+                        final String listener = event.getString("listener");
+                        stage = listener.substring(listener.lastIndexOf('.') + 1) + "." +
+                                event.getString("callback");
+                        break;
+                    case OrderRestedEvent.NAME:
+                        rested++;
+                        continue;
+                    default:
+                        continue;
+                }
+                final long duration = event.getDuration().toNanos();
+                stages.computeIfAbsent(stage, s -> new Durations()).add(duration);
+                final String product = event.getString("product");
+                if (product != null) {
+                    productStages.computeIfAbsent(product + " " + stage, s -> new Durations())
+                            .add(duration);
+                }
+            }
+        }
+
+        final StringBuilder summary = new StringBuilder();
+        summary.append(header("stage"));
+        stages.forEach((stage, d) -> summary.append(d.row(stage)).append(System.lineSeparator()));
+        summary.append(System.lineSeparator());
+        summary.append(header("product stage"));
+        productStages.forEach((stage, d) ->
+                summary.append(d.row(stage)).append(System.lineSeparator()));
+        summary.append(System.lineSeparator());
+        summary.append(String.format("%d matches with %.2f fills and %.2f levels swept on average, "
+                + "%d orders rested%n", matches, (matches == 0)? 0.0 : (double) fills / matches,
+                (matches == 0)? 0.0 : (double) levels / matches, rested));
+        return summary.toString();
+    }
+
+    private static String header(String name) {
+        return String.format("%-48s %10s %10s %10s %10s %10s %10s%n", name, "count", "mean (us)",
+                "p50 (us)", "p99 (us)", "p99.9 (us)", "max (us)");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: RecordingAnalyzer <recording.jfr>");
+            System.exit(1);
+        }
+        System.out.print(summarize(Paths.get(args[0])));
+    }
+}
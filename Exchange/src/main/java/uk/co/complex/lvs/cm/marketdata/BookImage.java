@@ -0,0 +1,105 @@
+package uk.co.complex.lvs.cm.marketdata;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+/**
+ * BookImage is an image of the buy and sell queues of a market, aggregated into price levels. For
+ * each symbol and side it holds the total remaining amount at each price, best price first. It is
+ * kept up to date from market data, so it can be read without touching the market itself.
+ */
+public class BookImage {
+    private final Map<String, NavigableMap<Float, Long>> mBids = new HashMap<>();
+    private final Map<String, NavigableMap<Float, Long>> mAsks = new HashMap<>();
+
+    private NavigableMap<Float, Long> levels(String symbol, Side side) {
+        if (side == Side.BUY) {
+            return mBids.computeIfAbsent(symbol, s -> new TreeMap<>(Collections.reverseOrder()));
+        } else {
+            return mAsks.computeIfAbsent(symbol, s -> new TreeMap<>());
+        }
+    }
+
+    /**
+     * Changes the quantity at a price level by the given amount.
+     * @param symbol the symbol
+     * @param side the side
+     * @param price the price of the level
+     * @param change the change of the quantity
+     * @return the new quantity at the level
+     */
+    public synchronized long update(String symbol, Side side, float price, long change) {
+        final NavigableMap<Float, Long> levels = levels(symbol, side);
+        final long quantity = levels.getOrDefault(price, 0L) + change;
+        if (quantity <= 0) {
+            levels.remove(price);
+            return 0;
+        }
+        levels.put(price, quantity);
+        return quantity;
+    }
+
+    /**
+     * Sets the quantity at a price level.
+     * @param symbol the symbol
+     * @param side the side
+     * @param price the price of the level
+     * @param quantity the quantity at the level; 0 removes the level
+     */
+    public synchronized void set(String symbol, Side side, float price, long quantity) {
+        if (quantity <= 0) {
+            levels(symbol, side).remove(price);
+        } else {
+            levels(symbol, side).put(price, quantity);
+        }
+    }
+
+    /**
+     * Returns a copy of the price levels of a symbol and side, best price first.
+     * @param symbol the symbol
+     * @param side the side
+     * @return the levels, mapping prices to quantities
+     */
+    public synchronized NavigableMap<Float, Long> getLevels(String symbol, Side side) {
+        final NavigableMap<Float, Long> levels = levels(symbol, side);
+        final NavigableMap<Float, Long> copy = new TreeMap<>(levels.comparator());
+        copy.putAll(levels);
+        return copy;
+    }
+
+    /**
+     * Returns the best price of a symbol and side.
+     * @param symbol the symbol
+     * @param side the side
+     * @return the best price, or null if the side is empty
+     */
+    public synchronized Float getBestPrice(String symbol, Side side) {
+        final NavigableMap<Float, Long> levels = levels(symbol, side);
+        return levels.isEmpty()? null : levels.firstKey();
+    }
+
+    /**
+     * Returns the symbols which have (or had) levels in the image.
+     * @return the symbols
+     */
+    public synchronized Set<String> getSymbols() {
+        final Set<String> symbols = new HashSet<>(mBids.keySet());
+        symbols.addAll(mAsks.keySet());
+        return symbols;
+    }
+
+    /**
+     * Removes all levels.
+     */
+    public synchronized void clear() {
+        mBids.clear();
+        mAsks.clear();
+    }
+}
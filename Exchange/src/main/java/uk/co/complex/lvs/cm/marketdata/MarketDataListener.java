@@ -0,0 +1,26 @@
+package uk.co.complex.lvs.cm.marketdata;
+
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+/**
+ * MarketDataListener is notified by a {@link MarketDataSubscriber} of the market data it receives.
+ * The methods are called on the thread of the subscriber, in sequence order.
+ */
+public interface MarketDataListener {
+    /**
+     * Notifies the listener that the quantity at a price level has changed.
+     * @param symbol the symbol
+     * @param side the side
+     * @param price the price of the level
+     * @param quantity the new quantity at the level; 0 means the level is empty
+     */
+    default void levelUpdated(String symbol, Side side, float price, long quantity) {}
+
+    /**
+     * Notifies the listener of a trade.
+     * @param symbol the symbol
+     * @param price the price of the trade
+     * @param amount the amount which was traded
+     */
+    default void tradeReported(String symbol, float price, int amount) {}
+}
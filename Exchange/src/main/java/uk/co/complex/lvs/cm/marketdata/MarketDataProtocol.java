@@ -0,0 +1,126 @@
+package uk.co.complex.lvs.cm.marketdata;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+/**
+ * MarketDataProtocol defines the binary market-data protocol of the {@link MarketDataPublisher}.
+ * All numbers are big-endian, and symbols are 8 ASCII characters padded with spaces.
+ *
+ * Market data is sent in UDP packets. A packet starts with its sequence number (long, starting at
+ * 1) and the number of messages in it (short), followed by the messages. Each message starts with
+ * a type byte, which determines its fixed layout:
+ * - LEVEL: symbol (8 bytes), side (byte, 0 = buy, 1 = sell), price (float), quantity (long). The
+ *   quantity is the new total remaining amount at the price level; 0 means the level is empty.
+ * - TRADE: symbol (8 bytes), price (float), amount (int), buy order id (long), sell order id (long)
+ *
+ * Subscribers recover from gaps over TCP. A connection carries a single request and its response:
+ * - SNAPSHOT request (type only): the response is the type SNAPSHOT, the sequence number of the
+ *   last packet which is included in the snapshot (long), the number of levels (int) and a LEVEL
+ *   message for each non-empty level.
+ * - REPLAY request: first and last sequence number (long). The response is the type REPLAY, the
+ *   number of packets (int), and each packet preceded by its length (short). If the packets are no
+ *   longer available, the response is the type UNAVAILABLE only.
+ */
+public class MarketDataProtocol {
+    public static final int MAX_PACKET_LENGTH = 1400;
+
+    public static final int PACKET_SEQUENCE = 0;
+    public static final int PACKET_COUNT = 8;
+    public static final int PACKET_HEADER_LENGTH = 10;
+
+    public static final byte LEVEL = 'U';
+    public static final int LEVEL_SYMBOL = 1;
+    public static final int LEVEL_SIDE = 9;
+    public static final int LEVEL_PRICE = 10;
+    public static final int LEVEL_QUANTITY = 14;
+    public static final int LEVEL_LENGTH = 22;
+
+    public static final byte TRADE = 'T';
+    public static final int TRADE_SYMBOL = 1;
+    public static final int TRADE_PRICE = 9;
+    public static final int TRADE_AMOUNT = 13;
+    public static final int TRADE_BUY_ORDER_ID = 17;
+    public static final int TRADE_SELL_ORDER_ID = 25;
+    public static final int TRADE_LENGTH = 33;
+
+    public static final byte SNAPSHOT = 'S';
+    public static final byte REPLAY = 'R';
+    public static final byte UNAVAILABLE = 'E';
+    public static final int REPLAY_REQUEST_LENGTH = 17;
+
+    /**
+     * Returns the length of a market-data message of the given type.
+     * @param type the message type
+     * @return the length of the message, or -1 if the type is unknown
+     */
+    public static int messageLength(byte type) {
+        switch (type) {
+            case LEVEL: return LEVEL_LENGTH;
+            case TRADE: return TRADE_LENGTH;
+            default: return -1;
+        }
+    }
+
+    /**
+     * Packs a symbol of at most 8 ASCII characters into a long, padded with spaces.
+     * @param symbol the symbol
+     * @return the packed symbol
+     */
+    public static long packSymbol(String symbol) {
+        final byte[] bytes = symbol.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length > 8) {
+            throw new IllegalArgumentException("'" + symbol + "' is longer than 8 characters");
+        }
+        long packed = 0;
+        for (int i = 0; i < 8; i++) {
+            packed = (packed << 8) | ((i < bytes.length)? bytes[i] & 0xFF : ' ');
+        }
+        return packed;
+    }
+
+    /**
+     * Unpacks a symbol which was packed with {@link #packSymbol(String)}.
+     * @param packed the packed symbol
+     * @return the symbol
+     */
+    public static String unpackSymbol(long packed) {
+        final byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) packed;
+            packed >>>= 8;
+        }
+        return new String(bytes, StandardCharsets.US_ASCII).trim();
+    }
+
+    public static Side readSide(ByteBuffer buffer, int offset) {
+        return (buffer.get(offset) == 0)? Side.BUY : Side.SELL;
+    }
+
+    /**
+     * Appends a LEVEL message to the buffer.
+     */
+    public static void putLevel(ByteBuffer buffer, long symbol, Side side, float price,
+                                long quantity) {
+        buffer.put(LEVEL);
+        buffer.putLong(symbol);
+        buffer.put((byte) ((side == Side.BUY)? 0 : 1));
+        buffer.putFloat(price);
+        buffer.putLong(quantity);
+    }
+
+    /**
+     * Appends a TRADE message to the buffer.
+     */
+    public static void putTrade(ByteBuffer buffer, long symbol, float price, int amount,
+                                long buyOrderId, long sellOrderId) {
+        buffer.put(TRADE);
+        buffer.putLong(symbol);
+        buffer.putFloat(price);
+        buffer.putInt(amount);
+        buffer.putLong(buyOrderId);
+        buffer.putLong(sellOrderId);
+    }
+}
@@ -0,0 +1,574 @@
+package uk.co.complex.lvs.cm.marketdata;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.OrderListener;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * MarketDataPublisher publishes the market data of a market over UDP (multicast or unicast), using
+ * the protocol of {@link MarketDataProtocol}: incremental updates of the price levels of the buy
+ * and sell queues, and the trades. Subscribers which miss packets can ask for them to be replayed,
+ * or for a snapshot of the levels, over TCP.
+ *
+ * As an order listener, the publisher only copies each event into a pre-allocated ring buffer, so
+ * it adds little work to the matching thread. A publisher thread takes the events from the ring,
+ * keeps its own image of the levels, and packs the resulting messages into sequenced packets. It
+ * also keeps the most recent packets for replays, and answers the recovery requests.
+ *
+ * If the ring is full, events are dropped (and counted) rather than making the matching thread wait
+ * for the network. The publisher thread then discards the rest of the ring and rebuilds its image
+ * from the queues, under the lock of the market manager. It skips a sequence number, which cannot
+ * be replayed, so that the subscribers detect the gap and recover from a snapshot. The trades among
+ * the dropped events are not published.
+ */
+public class MarketDataPublisher implements OrderListener {
+    public static final int DEFAULT_RING_SIZE = 1 << 16;
+    public static final int DEFAULT_HISTORY_SIZE = 4096;
+    private static final long IDLE_PARK_NANOS = 50000;
+    private static final long RECOVERY_TIMEOUT_MILLIS = 5000;
+
+    private static final byte RESTED = 1;
+    private static final byte CANCELLED = 2;
+    private static final byte TRADED = 3;
+
+    /**
+     * ImageOrder is a queued order as known by the publisher thread.
+     */
+    private static class ImageOrder {
+        final Product mProduct;
+        final String mSymbol;
+        final long mPackedSymbol;
+        final Side mSide;
+        final float mPrice;
+        long mRemaining;
+
+        ImageOrder(Product product, long packedSymbol, Side side, float price, long remaining) {
+            mProduct = product;
+            mSymbol = product.getName();
+            mPackedSymbol = packedSymbol;
+            mSide = side;
+            mPrice = price;
+            mRemaining = remaining;
+        }
+    }
+
+    /**
+     * RecoveryRequest is a request of a subscriber, which is answered by the publisher thread.
+     */
+    private static class RecoveryRequest {
+        final byte mType;
+        final long mFrom;
+        final long mTo;
+        final CompletableFuture<ByteBuffer> mResponse = new CompletableFuture<>();
+
+        RecoveryRequest(byte type, long from, long to) {
+            mType = type;
+            mFrom = from;
+            mTo = to;
+        }
+    }
+
+    private final MarketManager mManager;
+    private final InetSocketAddress mTarget;
+    private final InetSocketAddress mRecoveryAddress;
+    private final NetworkInterface mMulticastInterface;
+
+    // The event ring, written by the matching thread and read by the publisher thread
+    private final int mMask;
+    private final byte[] mTypes;
+    private final Product[] mProducts;
+    private final Side[] mSides;
+    private final float[] mPrices;
+    private final int[] mAmounts;
+    private final long[] mIds;
+    private final long[] mSecondIds;
+    private final AtomicLong mPublished = new AtomicLong();
+    private final AtomicLong mConsumed = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private volatile boolean mOverflow;
+
+    // State of the publisher thread
+    private final BookImage mImage = new BookImage();
+    private final Map<Long, ImageOrder> mOrders = new HashMap<>();
+    private final Map<Product, Long> mSymbols = new HashMap<>();
+    private final ByteBuffer mPacket = ByteBuffer.allocateDirect(MarketDataProtocol.MAX_PACKET_LENGTH);
+    private final byte[][] mHistory;
+    private final int[] mHistoryLengths;
+    private int mPacketCount = 0;
+    private volatile long mSequence = 0;
+
+    private final Queue<RecoveryRequest> mRequests = new ConcurrentLinkedQueue<>();
+    private DatagramChannel mChannel;
+    private ServerSocketChannel mRecoveryServer;
+    private Thread mPublisherThread;
+    private Thread mRecoveryThread;
+    private volatile boolean mRunning = false;
+
+    /**
+     * Constructs a publisher with the default ring and history sizes.
+     * @param manager the market manager
+     * @param target the (multicast or unicast) address to which the packets are sent
+     * @param recoveryAddress the address on which recovery requests are accepted
+     */
+    public MarketDataPublisher(MarketManager manager, InetSocketAddress target,
+                               InetSocketAddress recoveryAddress) {
+        this(manager, target, recoveryAddress, null, DEFAULT_RING_SIZE, DEFAULT_HISTORY_SIZE);
+    }
+
+    /**
+     * Constructs a publisher.
+     * @param manager the market manager
+     * @param target the (multicast or unicast) address to which the packets are sent
+     * @param recoveryAddress the address on which recovery requests are accepted
+     * @param multicastInterface the interface on which multicast packets are sent, or null for the
+     *                           default interface
+     * @param ringSize the number of events the ring can hold (a power of two)
+     * @param historySize the number of recent packets which are kept for replays
+     */
+    public MarketDataPublisher(MarketManager manager, InetSocketAddress target,
+                               InetSocketAddress recoveryAddress,
+                               NetworkInterface multicastInterface, int ringSize,
+                               int historySize) {
+        if (Integer.bitCount(ringSize) != 1) throw new IllegalArgumentException("The ring size " +
+                "should be a power of two (was " + ringSize + ")");
+        mManager = manager;
+        mTarget = target;
+        mRecoveryAddress = recoveryAddress;
+        mMulticastInterface = multicastInterface;
+
+        mMask = ringSize - 1;
+        mTypes = new byte[ringSize];
+        mProducts = new Product[ringSize];
+        mSides = new Side[ringSize];
+        mPrices = new float[ringSize];
+        mAmounts = new int[ringSize];
+        mIds = new long[ringSize];
+        mSecondIds = new long[ringSize];
+
+        mHistory = new byte[historySize][];
+        mHistoryLengths = new int[historySize];
+        mPacket.position(MarketDataProtocol.PACKET_HEADER_LENGTH);
+    }
+
+    /**
+     * Starts publishing. The orders which are already queued on the market are published first.
+     * @throws IOException if the sockets cannot be opened
+     */
+    public void start() throws IOException {
+        mChannel = DatagramChannel.open(StandardProtocolFamily.INET);
+        if (mTarget.getAddress().isMulticastAddress()) {
+            mChannel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+            if (mMulticastInterface != null) {
+                mChannel.setOption(StandardSocketOptions.IP_MULTICAST_IF, mMulticastInterface);
+            }
+        }
+        mRecoveryServer = ServerSocketChannel.open();
+        mRecoveryServer.bind(mRecoveryAddress);
+        mRunning = true;
+
+        mPublisherThread = new Thread(this::publish, "market-data-publisher");
+        mPublisherThread.setDaemon(true);
+        mPublisherThread.start();
+        mRecoveryThread = new Thread(this::serveRecovery, "market-data-recovery");
+        mRecoveryThread.setDaemon(true);
+        mRecoveryThread.start();
+
+        synchronized (mManager) {
+            for (Product p : mManager.getProducts()) {
+                for (Order o : mManager.getBuyQueue(p)) orderRested(o);
+                for (Order o : mManager.getSellQueue(p)) orderRested(o);
+            }
+            mManager.addOrderListener(this);
+        }
+    }
+
+    /**
+     * Stops publishing, after the events which are already in the ring have been published.
+     */
+    public void stop() {
+        mManager.removeOrderListener(this);
+        mRunning = false;
+        LockSupport.unpark(mPublisherThread);
+        try {
+            mPublisherThread.join();
+            mRecoveryServer.close();
+            mRecoveryThread.join();
+            mChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the port on which recovery requests are accepted.
+     * @return the recovery port
+     */
+    public int getRecoveryPort() {
+        return mRecoveryServer.socket().getLocalPort();
+    }
+
+    /**
+     * Returns the sequence number of the last packet which was sent.
+     * @return the last sequence number
+     */
+    public long getLastSequence() {
+        return mSequence;
+    }
+
+    /**
+     * Returns the number of events which are waiting in the ring to be published.
+     * @return the number of waiting events
+     */
+    public long getBacklog() {
+        return mPublished.get() - mConsumed.get();
+    }
+
+    /**
+     * Returns the number of events which were dropped, as the ring was full.
+     * @return the number of dropped events
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    @Override
+    public void orderRested(Order order) {
+        offer(RESTED, order.getProduct(), order.getSide(), order.getPrice(),
+                order.getRemainingAmount(), order.getId(), 0);
+    }
+
+    @Override
+    public void orderCancelled(Order order) {
+        offer(CANCELLED, order.getProduct(), order.getSide(), order.getPrice(),
+                order.getRemainingAmount(), order.getId(), 0);
+    }
+
+    @Override
+    public void orderAmended(Order order, float previousPrice, int previousAmount) {
+        // The image of the order is removed, and added again when the order rests
+        offer(CANCELLED, order.getProduct(), order.getSide(), previousPrice, previousAmount,
+                order.getId(), 0);
+    }
+
+    @Override
+    public void tradeExecuted(Trade trade) {
+        offer(TRADED, trade.getProduct(), null, trade.getPrice(), trade.getAmount(),
+                trade.getBuyOrderId(), trade.getSellOrderId());
+    }
+
+    /**
+     * Copies an event into the ring, or drops it if the ring is full. Only the matching thread
+     * (which holds the lock of the market manager) writes to the ring.
+     */
+    private void offer(byte type, Product product, Side side, float price, int amount, long id,
+                       long secondId) {
+        final long sequence = mPublished.get();
+        if (sequence - mConsumed.get() > mMask) {
+            mDropped.incrementAndGet();
+            mOverflow = true;
+            return;
+        }
+        final int slot = (int) sequence & mMask;
+        mTypes[slot] = type;
+        mProducts[slot] = product;
+        mSides[slot] = side;
+        mPrices[slot] = price;
+        mAmounts[slot] = amount;
+        mIds[slot] = id;
+        mSecondIds[slot] = secondId;
+        mPublished.lazySet(sequence + 1);
+    }
+
+    private void publish() {
+        long consumed = mConsumed.get();
+        while (true) {
+            if (mOverflow) consumed = resync();
+            final long published = mPublished.get();
+            if (consumed == published) {
+                flush();
+                serveRequests();
+                if (!mRunning) break;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            while (consumed < published) {
+                process((int) consumed & mMask);
+                consumed++;
+                mConsumed.lazySet(consumed);
+            }
+        }
+    }
+
+    /**
+     * Recovers from dropped events: the events left in the ring are discarded and the image is
+     * rebuilt from the queues, while the matching thread waits. Then a sequence number is skipped,
+     * and an (empty) packet is sent at once, so that the subscribers notice the gap.
+     * @return the number of events which have been consumed
+     */
+    private long resync() {
+        flush();
+        final long published;
+        synchronized (mManager) {
+            published = mPublished.get();
+            for (long s = mConsumed.get(); s < published; s++) mProducts[(int) s & mMask] = null;
+            mConsumed.lazySet(published);
+            mOverflow = false;
+            mImage.clear();
+            mOrders.clear();
+            for (Product p : mManager.getProducts()) {
+                for (Order o : mManager.getBuyQueue(p)) rest(o);
+                for (Order o : mManager.getSellQueue(p)) rest(o);
+            }
+        }
+
+        final long gap = mSequence + 1;
+        mHistoryLengths[(int) (gap % mHistory.length)] = -1;
+        mSequence = gap;
+        send();
+        return published;
+    }
+
+    private void rest(Order o) {
+        final Product product = o.getProduct();
+        final long symbol = mSymbols.computeIfAbsent(product,
+                p -> MarketDataProtocol.packSymbol(p.getName()));
+        mOrders.put(o.getId(), new ImageOrder(product, symbol, o.getSide(),
+                o.getPrice(), o.getRemainingAmount()));
+        mImage.update(product.getName(), o.getSide(), o.getPrice(), o.getRemainingAmount());
+    }
+
+    private void process(int slot) {
+        final Product product = mProducts[slot];
+        mProducts[slot] = null;
+        final long symbol = mSymbols.computeIfAbsent(product,
+                p -> MarketDataProtocol.packSymbol(p.getName()));
+
+        switch (mTypes[slot]) {
+            case RESTED: {
+                final ImageOrder order = new ImageOrder(product, symbol, mSides[slot],
+                        mPrices[slot], mAmounts[slot]);
+                mOrders.put(mIds[slot], order);
+                updateLevel(order, order.mRemaining);
+                break;
+            }
+            case CANCELLED: {
+                final ImageOrder order = mOrders.remove(mIds[slot]);
+                if (order != null) updateLevel(order, -order.mRemaining);
+                break;
+            }
+            case TRADED: {
+                reserve(MarketDataProtocol.TRADE_LENGTH);
+                MarketDataProtocol.putTrade(mPacket, symbol, mPrices[slot], mAmounts[slot],
+                        mIds[slot], mSecondIds[slot]);
+                mPacketCount++;
+                trade(mIds[slot], product, mAmounts[slot]);
+                trade(mSecondIds[slot], product, mAmounts[slot]);
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown event type " + mTypes[slot]);
+        }
+    }
+
+    private void trade(long orderId, Product product, int amount) {
+        final ImageOrder order = mOrders.get(orderId);
+        if (order == null || !Trade.fills(product, order.mProduct)) return;
+        order.mRemaining -= amount;
+        if (order.mRemaining <= 0) mOrders.remove(orderId);
+        updateLevel(order, -amount);
+    }
+
+    private void updateLevel(ImageOrder order, long change) {
+        reserve(MarketDataProtocol.LEVEL_LENGTH);
+        final long quantity = mImage.update(order.mSymbol, order.mSide, order.mPrice, change);
+        MarketDataProtocol.putLevel(mPacket, order.mPackedSymbol, order.mSide, order.mPrice,
+                quantity);
+        mPacketCount++;
+    }
+
+    /**
+     * Makes room for a message in the current packet, by sending the packet if it is full.
+     */
+    private void reserve(int length) {
+        if (mPacket.remaining() < length) {
+            flush();
+            serveRequests();
+        }
+    }
+
+    /**
+     * Sends the current packet, if it has any messages.
+     */
+    private void flush() {
+        if (mPacketCount > 0) send();
+    }
+
+    /**
+     * Sends the current packet, even if it is empty, and keeps it for replays.
+     */
+    private void send() {
+        final long sequence = mSequence + 1;
+        mPacket.putLong(MarketDataProtocol.PACKET_SEQUENCE, sequence);
+        mPacket.putShort(MarketDataProtocol.PACKET_COUNT, (short) mPacketCount);
+        mPacket.flip();
+
+        final int slot = (int) (sequence % mHistory.length);
+        if (mHistory[slot] == null) mHistory[slot] = new byte[MarketDataProtocol.MAX_PACKET_LENGTH];
+        mHistoryLengths[slot] = mPacket.remaining();
+        mPacket.get(mHistory[slot], 0, mHistoryLengths[slot]);
+        mPacket.rewind();
+
+        try {
+            mChannel.send(mPacket, mTarget);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        mSequence = sequence;
+
+        mPacket.clear();
+        mPacket.position(MarketDataProtocol.PACKET_HEADER_LENGTH);
+        mPacketCount = 0;
+    }
+
+    private void serveRequests() {
+        RecoveryRequest request;
+        while ((request = mRequests.poll()) != null) {
+            if (request.mType == MarketDataProtocol.SNAPSHOT) {
+                request.mResponse.complete(snapshot());
+            } else {
+                request.mResponse.complete(replay(request.mFrom, request.mTo));
+            }
+        }
+    }
+
+    private ByteBuffer snapshot() {
+        final Map<String, List<NavigableMap<Float, Long>>> symbols = new HashMap<>();
+        int count = 0;
+        for (String symbol : mImage.getSymbols()) {
+            final List<NavigableMap<Float, Long>> sides = new ArrayList<>(Side.values().length);
+            for (Side side : Side.values()) {
+                final NavigableMap<Float, Long> levels = mImage.getLevels(symbol, side);
+                sides.add(levels);
+                count += levels.size();
+            }
+            symbols.put(symbol, sides);
+        }
+
+        final ByteBuffer response = ByteBuffer.allocate(13 + count * MarketDataProtocol.LEVEL_LENGTH);
+        response.put(MarketDataProtocol.SNAPSHOT);
+        response.putLong(mSequence);
+        response.putInt(count);
+        for (Map.Entry<String, List<NavigableMap<Float, Long>>> entry : symbols.entrySet()) {
+            final long symbol = MarketDataProtocol.packSymbol(entry.getKey());
+            for (Side side : Side.values()) {
+                final NavigableMap<Float, Long> levels = entry.getValue().get(side.ordinal());
+                for (Map.Entry<Float, Long> level : levels.entrySet()) {
+                    MarketDataProtocol.putLevel(response, symbol, side, level.getKey(),
+                            level.getValue());
+                }
+            }
+        }
+        response.flip();
+        return response;
+    }
+
+    private ByteBuffer replay(long from, long to) {
+        if (from < 1 || from > to || to > mSequence || mSequence - from >= mHistory.length) {
+            return unavailable();
+        }
+
+        int length = 5;
+        for (long s = from; s <= to; s++) {
+            final int packetLength = mHistoryLengths[(int) (s % mHistory.length)];
+            if (packetLength < 0) return unavailable();
+            length += 2 + packetLength;
+        }
+        final ByteBuffer response = ByteBuffer.allocate(length);
+        response.put(MarketDataProtocol.REPLAY);
+        response.putInt((int) (to - from + 1));
+        for (long s = from; s <= to; s++) {
+            final int slot = (int) (s % mHistory.length);
+            response.putShort((short) mHistoryLengths[slot]);
+            response.put(mHistory[slot], 0, mHistoryLengths[slot]);
+        }
+        response.flip();
+        return response;
+    }
+
+    private static ByteBuffer unavailable() {
+        final ByteBuffer response = ByteBuffer.allocate(1);
+        response.put(MarketDataProtocol.UNAVAILABLE);
+        response.flip();
+        return response;
+    }
+
+    /**
+     * Accepts recovery connections. Each connection carries a single request, which is answered by
+     * the publisher thread, so that the response is consistent with the published packets.
+     */
+    private void serveRecovery() {
+        while (mRunning) {
+            try (SocketChannel channel = mRecoveryServer.accept()) {
+                final ByteBuffer request = ByteBuffer.allocate(MarketDataProtocol.REPLAY_REQUEST_LENGTH);
+                request.limit(1);
+                readFully(channel, request);
+                if (request.get(0) == MarketDataProtocol.REPLAY) {
+                    request.limit(MarketDataProtocol.REPLAY_REQUEST_LENGTH);
+                    readFully(channel, request);
+                }
+                final RecoveryRequest recovery = (request.get(0) == MarketDataProtocol.REPLAY)?
+                        new RecoveryRequest(MarketDataProtocol.REPLAY, request.getLong(1),
+                                request.getLong(9)) :
+                        new RecoveryRequest(MarketDataProtocol.SNAPSHOT, 0, 0);
+                mRequests.add(recovery);
+                LockSupport.unpark(mPublisherThread);
+
+                final ByteBuffer response = recovery.mResponse.get(RECOVERY_TIMEOUT_MILLIS,
+                        TimeUnit.MILLISECONDS);
+                while (response.hasRemaining()) channel.write(response);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException | ExecutionException | TimeoutException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new IOException("The connection was closed");
+        }
+    }
+}
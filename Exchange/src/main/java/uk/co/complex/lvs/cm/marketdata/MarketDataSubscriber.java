@@ -0,0 +1,282 @@
+package uk.co.complex.lvs.cm.marketdata;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+/**
+ * MarketDataSubscriber receives the market data of a {@link MarketDataPublisher} and keeps an
+ * image of the price levels. When it detects a gap in the sequence numbers, it asks the publisher
+ * to replay the missing packets. If they are no longer available, it recovers from a snapshot.
+ */
+public class MarketDataSubscriber {
+    private static final int RECEIVE_BUFFER_SIZE = 4 << 20;
+
+    private final InetSocketAddress mLocalAddress;
+    private final InetAddress mGroup;
+    private final NetworkInterface mInterface;
+    private final InetSocketAddress mRecoveryAddress;
+    private final BookImage mImage = new BookImage();
+    private final List<MarketDataListener> mListeners = new CopyOnWriteArrayList<>();
+
+    private DatagramChannel mChannel;
+    private Thread mThread;
+    private volatile long mLastSequence = 0;
+    private volatile long mGaps = 0;
+    private volatile long mSnapshots = 0;
+
+    /**
+     * Constructs a subscriber which receives unicast packets.
+     * @param localAddress the address on which the packets are received
+     * @param recoveryAddress the recovery address of the publisher
+     */
+    public MarketDataSubscriber(InetSocketAddress localAddress, InetSocketAddress recoveryAddress) {
+        this(localAddress, null, null, recoveryAddress);
+    }
+
+    /**
+     * Constructs a subscriber which joins a multicast group.
+     * @param localAddress the address on which the packets are received
+     * @param group the multicast group, or null for unicast
+     * @param networkInterface the interface on which the group is joined
+     * @param recoveryAddress the recovery address of the publisher
+     */
+    public MarketDataSubscriber(InetSocketAddress localAddress, InetAddress group,
+                                NetworkInterface networkInterface,
+                                InetSocketAddress recoveryAddress) {
+        mLocalAddress = localAddress;
+        mGroup = group;
+        mInterface = networkInterface;
+        mRecoveryAddress = recoveryAddress;
+    }
+
+    public void addListener(MarketDataListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(MarketDataListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Starts receiving market data.
+     * @throws IOException if the socket cannot be opened
+     */
+    public void start() throws IOException {
+        mChannel = DatagramChannel.open(StandardProtocolFamily.INET);
+        mChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        mChannel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+        mChannel.bind(mLocalAddress);
+        if (mGroup != null) mChannel.join(mGroup, mInterface);
+
+        mThread = new Thread(this::receive, "market-data-subscriber");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stops receiving market data.
+     */
+    public void stop() {
+        try {
+            mChannel.close();
+            mThread.join();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the port on which the packets are received.
+     * @return the local port
+     */
+    public int getPort() {
+        return mChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Returns the image of the price levels.
+     * @return the book image
+     */
+    public BookImage getImage() {
+        return mImage;
+    }
+
+    /**
+     * Returns the sequence number of the last packet which was applied to the image.
+     * @return the last sequence number
+     */
+    public long getLastSequence() {
+        return mLastSequence;
+    }
+
+    /**
+     * Returns the number of gaps which were detected.
+     * @return the number of gaps
+     */
+    public long getGapCount() {
+        return mGaps;
+    }
+
+    /**
+     * Returns the number of snapshots which were applied.
+     * @return the number of snapshots
+     */
+    public long getSnapshotCount() {
+        return mSnapshots;
+    }
+
+    private void receive() {
+        final ByteBuffer packet = ByteBuffer.allocateDirect(MarketDataProtocol.MAX_PACKET_LENGTH);
+        while (mChannel.isOpen()) {
+            try {
+                packet.clear();
+                mChannel.receive(packet);
+                packet.flip();
+                final long sequence = packet.getLong(MarketDataProtocol.PACKET_SEQUENCE);
+                if (sequence > mLastSequence + 1) recover(sequence - 1);
+                apply(packet);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Applies a packet to the image, unless it was applied already.
+     */
+    private void apply(ByteBuffer packet) {
+        final long sequence = packet.getLong(MarketDataProtocol.PACKET_SEQUENCE);
+        if (sequence <= mLastSequence) return;
+        final int count = packet.getShort(MarketDataProtocol.PACKET_COUNT);
+        int offset = MarketDataProtocol.PACKET_HEADER_LENGTH;
+        for (int i = 0; i < count; i++) {
+            final byte type = packet.get(offset);
+            if (type == MarketDataProtocol.LEVEL) {
+                applyLevel(packet, offset);
+            } else if (type == MarketDataProtocol.TRADE) {
+                final String symbol = MarketDataProtocol.unpackSymbol(
+                        packet.getLong(offset + MarketDataProtocol.TRADE_SYMBOL));
+                final float price = packet.getFloat(offset + MarketDataProtocol.TRADE_PRICE);
+                final int amount = packet.getInt(offset + MarketDataProtocol.TRADE_AMOUNT);
+                for (MarketDataListener l : mListeners) l.tradeReported(symbol, price, amount);
+            } else {
+                throw new IllegalStateException("Unknown message type " + type);
+            }
+            offset += MarketDataProtocol.messageLength(type);
+        }
+        mLastSequence = sequence;
+    }
+
+    private void applyLevel(ByteBuffer buffer, int offset) {
+        final String symbol = MarketDataProtocol.unpackSymbol(
+                buffer.getLong(offset + MarketDataProtocol.LEVEL_SYMBOL));
+        final Side side = MarketDataProtocol.readSide(buffer, offset + MarketDataProtocol.LEVEL_SIDE);
+        final float price = buffer.getFloat(offset + MarketDataProtocol.LEVEL_PRICE);
+        final long quantity = buffer.getLong(offset + MarketDataProtocol.LEVEL_QUANTITY);
+        mImage.set(symbol, side, price, quantity);
+        for (MarketDataListener l : mListeners) l.levelUpdated(symbol, side, price, quantity);
+    }
+
+    /**
+     * Recovers the packets up to the given sequence number, by a replay or else by a snapshot.
+     */
+    private void recover(long to) throws IOException {
+        mGaps++;
+        if (!replay(mLastSequence + 1, to)) snapshot();
+    }
+
+    private boolean replay(long from, long to) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(mRecoveryAddress)) {
+            final ByteBuffer request = ByteBuffer.allocate(MarketDataProtocol.REPLAY_REQUEST_LENGTH);
+            request.put(MarketDataProtocol.REPLAY);
+            request.putLong(from);
+            request.putLong(to);
+            request.flip();
+            while (request.hasRemaining()) channel.write(request);
+
+            final ByteBuffer header = ByteBuffer.allocate(5);
+            header.limit(1);
+            MarketDataPublisher.readFully(channel, header);
+            if (header.get(0) != MarketDataProtocol.REPLAY) return false;
+            header.limit(5);
+            MarketDataPublisher.readFully(channel, header);
+
+            final int count = header.getInt(1);
+            final ByteBuffer length = ByteBuffer.allocate(2);
+            final ByteBuffer packet = ByteBuffer.allocate(MarketDataProtocol.MAX_PACKET_LENGTH);
+            for (int i = 0; i < count; i++) {
+                length.clear();
+                MarketDataPublisher.readFully(channel, length);
+                packet.clear();
+                packet.limit(length.getShort(0));
+                MarketDataPublisher.readFully(channel, packet);
+                apply(packet);
+            }
+            return true;
+        }
+    }
+
+    private void snapshot() throws IOException {
+        try (SocketChannel channel = SocketChannel.open(mRecoveryAddress)) {
+            final ByteBuffer request = ByteBuffer.allocate(1);
+            request.put(MarketDataProtocol.SNAPSHOT);
+            request.flip();
+            while (request.hasRemaining()) channel.write(request);
+
+            final ByteBuffer header = ByteBuffer.allocate(13);
+            MarketDataPublisher.readFully(channel, header);
+            if (header.get(0) != MarketDataProtocol.SNAPSHOT) {
+                throw new IOException("Unexpected response to a snapshot request");
+            }
+            final ByteBuffer levels = ByteBuffer.allocate(header.getInt(9) *
+                    MarketDataProtocol.LEVEL_LENGTH);
+            MarketDataPublisher.readFully(channel, levels);
+
+            // Remember the old levels, so that listeners are told about the levels which vanished
+            final Map<String, List<NavigableMap<Float, Long>>> old = new HashMap<>();
+            for (String symbol : mImage.getSymbols()) {
+                final List<NavigableMap<Float, Long>> sides = new ArrayList<>(Side.values().length);
+                for (Side side : Side.values()) sides.add(mImage.getLevels(symbol, side));
+                old.put(symbol, sides);
+            }
+
+            mImage.clear();
+            for (int offset = 0; offset < levels.limit(); offset += MarketDataProtocol.LEVEL_LENGTH) {
+                applyLevel(levels, offset);
+            }
+            for (Map.Entry<String, List<NavigableMap<Float, Long>>> entry : old.entrySet()) {
+                for (Side side : Side.values()) {
+                    for (Float price : entry.getValue().get(side.ordinal()).keySet()) {
+                        if (!mImage.getLevels(entry.getKey(), side).containsKey(price)) {
+                            for (MarketDataListener l : mListeners) {
+                                l.levelUpdated(entry.getKey(), side, price, 0);
+                            }
+                        }
+                    }
+                }
+            }
+            mLastSequence = header.getLong(1);
+            mSnapshots++;
+        }
+    }
+}
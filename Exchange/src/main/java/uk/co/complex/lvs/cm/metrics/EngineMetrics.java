@@ -0,0 +1,235 @@
+package uk.co.complex.lvs.cm.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.RateLimiter;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * EngineMetrics holds the metrics of a market: a latency histogram for each stage of placing an
+ * order, the listener lag, and the activity and book depth of each product. The market manager
+ * records into it while it holds its lock; the recording is lock-free and allocation-free, so the
+ * metrics can be read (through JMX, or by a {@link MetricsReporter}) without slowing the market
+ * down.
+ *
+ * Reading the clock costs tens of nanoseconds, so by default only one in every
+ * {@value #DEFAULT_TIMING_INTERVAL} orders is timed; the counters include every order. The
+ * listener lag is the time from the end of matching until all listeners have been notified of the
+ * result. Listeners which process their events asynchronously can add a backlog gauge. The
+ * counts of throttled requests are read from the rate limiter of the market.
+ */
+public class EngineMetrics implements EngineMetricsMXBean {
+    public static final String DOMAIN = "uk.co.complex.lvs.cm";
+    public static final int DEFAULT_TIMING_INTERVAL = 16;
+
+    /**
+     * Stage is a stage of placing an order, of which the latency is recorded.
+     */
+    public enum Stage {
+        VALIDATION("validation"),
+        MATCHING("matching"),
+        BOOK("book"),
+        ACCOUNTS("accounts"),
+        ORDER_LISTENERS("orderListeners"),
+        TRADE_LISTENERS("tradeListeners"),
+        PLACE_ORDER("placeOrder");
+
+        private final String mName;
+
+        Stage(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+    }
+
+    private final String mMarketName;
+    private final RateLimiter mRateLimiter;
+    private final Map<Stage, LatencyHistogram> mStages = new EnumMap<>(Stage.class);
+    private final LatencyHistogram mListenerLag = new LatencyHistogram();
+    private final Map<Product, ProductMetrics> mProducts = new LinkedHashMap<>();
+    private final Map<String, LongSupplier> mBacklogs = new ConcurrentHashMap<>();
+    private final List<ObjectName> mRegistered = new ArrayList<>();
+    private int mTimingInterval = DEFAULT_TIMING_INTERVAL;
+    private int mUntimed = 0;
+
+    /**
+     * Constructs the metrics of a market.
+     * @param marketName the name of the market, which identifies its MBeans
+     * @param manager the market manager
+     * @param products the products of the market
+     */
+    public EngineMetrics(String marketName, MarketManager manager, Collection<Product> products) {
+        mMarketName = marketName;
+        mRateLimiter = manager.getRateLimiter();
+        for (Stage s : Stage.values()) mStages.put(s, new LatencyHistogram());
+        for (Product p : products) mProducts.put(p, new ProductMetrics(manager, p));
+    }
+
+    public String getMarketName() {
+        return mMarketName;
+    }
+
+    /**
+     * Sets how often orders are timed.
+     * @param interval the number of orders per timed order; 1 times every order
+     */
+    public void setTimingInterval(int interval) {
+        if (interval < 1) throw new IllegalArgumentException("The timing interval should be " +
+                "positive (was " + interval + ")");
+        mTimingInterval = interval;
+    }
+
+    /**
+     * Decides whether the next order is timed. This is called by the market manager while it holds
+     * its lock.
+     * @return true iff the stages of the next order should be timed
+     */
+    public boolean nextTimed() {
+        if (++mUntimed < mTimingInterval) return false;
+        mUntimed = 0;
+        return true;
+    }
+
+    /**
+     * Records the latency of a stage which started at the given time.
+     * @param stage the stage
+     * @param start the start time of the stage (from System.nanoTime)
+     * @return the end time of the stage, which is the start time of the next stage
+     */
+    public long record(Stage stage, long start) {
+        final long end = System.nanoTime();
+        mStages.get(stage).record(end - start);
+        return end;
+    }
+
+    /**
+     * Records the time from the end of matching until all listeners have been notified.
+     * @param matched the time at which matching ended (from System.nanoTime)
+     */
+    public void recordListenerLag(long matched) {
+        mListenerLag.record(System.nanoTime() - matched);
+    }
+
+    public void orderPlaced(Product p) {
+        mProducts.get(p).orderPlaced();
+    }
+
+    public void orderCancelled(Product p) {
+        mProducts.get(p).orderCancelled();
+    }
+
+    public void tradesExecuted(List<Trade> trades) {
+        for (int i = 0; i < trades.size(); i++) {
+            final Trade t = trades.get(i);
+            mProducts.get(t.getProduct()).tradeExecuted(t.getAmount());
+        }
+    }
+
+    /**
+     * Adds a gauge of the backlog of an asynchronous listener.
+     * @param name the name of the listener
+     * @param backlog the supplier of the backlog
+     */
+    public void addBacklogGauge(String name, LongSupplier backlog) {
+        mBacklogs.put(name, backlog);
+    }
+
+    public void removeBacklogGauge(String name) {
+        mBacklogs.remove(name);
+    }
+
+    /**
+     * Samples the counters of the products, to compute their rates since the previous sample.
+     */
+    public synchronized void sampleRates() {
+        final long time = System.nanoTime();
+        for (ProductMetrics p : mProducts.values()) p.sample(time);
+    }
+
+    public LatencyHistogram getLatency(Stage stage) {
+        return mStages.get(stage);
+    }
+
+    public LatencyHistogram getListenerLag() {
+        return mListenerLag;
+    }
+
+    public Collection<ProductMetrics> getProductMetrics() {
+        return mProducts.values();
+    }
+
+    public ProductMetrics getProductMetrics(Product p) {
+        return mProducts.get(p);
+    }
+
+    @Override
+    public Map<String, Long> getListenerBacklogs() {
+        final Map<String, Long> backlogs = new LinkedHashMap<>();
+        mBacklogs.forEach((name, backlog) -> backlogs.put(name, backlog.getAsLong()));
+        return backlogs;
+    }
+
+    @Override
+    public long getThrottledOrders() {
+        return mRateLimiter.getThrottledOrders();
+    }
+
+    @Override
+    public long getThrottledCancels() {
+        return mRateLimiter.getThrottledCancels();
+    }
+
+    /**
+     * Registers the MBeans of these metrics with the platform MBean server, under the domain
+     * {@value #DOMAIN}.
+     * @throws JMException if an MBean cannot be registered
+     */
+    public synchronized void register() throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final String market = ObjectName.quote(mMarketName);
+        register(server, DOMAIN + ":type=Engine,market=" + market, this);
+        for (Map.Entry<Stage, LatencyHistogram> e : mStages.entrySet()) {
+            register(server, DOMAIN + ":type=Latency,market=" + market + ",stage=" +
+                    e.getKey().getName(), e.getValue());
+        }
+        register(server, DOMAIN + ":type=Latency,market=" + market + ",stage=listenerLag",
+                mListenerLag);
+        for (ProductMetrics p : mProducts.values()) {
+            register(server, DOMAIN + ":type=Product,market=" + market + ",product=" +
+                    ObjectName.quote(p.getProduct().getName()), p);
+        }
+    }
+
+    private void register(MBeanServer server, String name, Object bean) throws JMException {
+        final ObjectName objectName = new ObjectName(name);
+        server.registerMBean(bean, objectName);
+        mRegistered.add(objectName);
+    }
+
+    /**
+     * Unregisters the MBeans of these metrics.
+     * @throws JMException if an MBean cannot be unregistered
+     */
+    public synchronized void unregister() throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : mRegistered) server.unregisterMBean(name);
+        mRegistered.clear();
+    }
+}
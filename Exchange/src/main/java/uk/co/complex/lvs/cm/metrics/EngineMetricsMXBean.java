@@ -0,0 +1,28 @@
+package uk.co.complex.lvs.cm.metrics;
+
+import java.util.Map;
+
+/**
+ * EngineMetricsMXBean exposes the metrics of a market which are not specific to a stage or a
+ * product through JMX.
+ */
+public interface EngineMetricsMXBean {
+    /**
+     * Returns the backlog of each asynchronous listener (e.g. the number of events it has not yet
+     * processed), by name.
+     * @return the listener backlogs
+     */
+    Map<String, Long> getListenerBacklogs();
+
+    /**
+     * Returns the number of orders (and amendments) which have been rejected by the rate limiter.
+     * @return the number of throttled orders
+     */
+    long getThrottledOrders();
+
+    /**
+     * Returns the number of cancellations which have been rejected by the rate limiter.
+     * @return the number of throttled cancellations
+     */
+    long getThrottledCancels();
+}
@@ -0,0 +1,114 @@
+package uk.co.complex.lvs.cm.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram is a histogram of latencies (in nanoseconds) in the style of HdrHistogram. The
+ * values are counted in buckets whose width grows with the magnitude of the values: values below
+ * 64 have their own bucket, and larger values are counted with a precision of 1/32 (about 3%), up
+ * to Long.MAX_VALUE. The buckets are fixed, so recording a value is lock-free, allocation-free and
+ * takes constant time.
+ *
+ * Values should be recorded by one thread at a time (e.g. while holding the lock of the market
+ * manager), so recording can use ordered writes instead of atomic read-modify-write operations.
+ * The statistics can be read by any thread, without stopping the recording thread, so they may
+ * miss values which are being recorded concurrently.
+ */
+public class LatencyHistogram implements LatencyMXBean {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     * @param value the value (in nanoseconds)
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        final int index = index(value);
+        mCounts.lazySet(index, mCounts.get(index) + 1);
+        mSum.lazySet(mSum.get() + value);
+        if (value > mMax.get()) mMax.lazySet(value);
+    }
+
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the highest value which is counted in the bucket with the given index.
+     */
+    static long highestEquivalentValue(int index) {
+        if (index < 2 * SUB_BUCKETS) return index;
+        final int shift = index / SUB_BUCKETS - 1;
+        final long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Returns the value at the given percentile: the (upper bound of the bucket of) the smallest
+     * recorded value such that the given percentage of the values is less than or equal to it.
+     * @param percentile the percentile (between 0 and 100)
+     * @return the value at the percentile, or 0 if no values were recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        final long count = getCount();
+        if (count == 0) return 0;
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) return Math.min(highestEquivalentValue(i), getMax());
+        }
+        return getMax();
+    }
+
+    @Override
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) count += mCounts.get(i);
+        return count;
+    }
+
+    @Override
+    public double getMean() {
+        final long count = getCount();
+        return (count == 0)? 0 : (double) mSum.get() / count;
+    }
+
+    @Override
+    public long getMax() {
+        return mMax.get();
+    }
+
+    @Override
+    public long get50thPercentile() {
+        return getValueAtPercentile(50);
+    }
+
+    @Override
+    public long get99thPercentile() {
+        return getValueAtPercentile(99);
+    }
+
+    @Override
+    public long get999thPercentile() {
+        return getValueAtPercentile(99.9);
+    }
+
+    /**
+     * Removes all recorded values. This should not be called while values are being recorded.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) mCounts.set(i, 0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+}
@@ -0,0 +1,18 @@
+package uk.co.complex.lvs.cm.metrics;
+
+/**
+ * LatencyMXBean exposes a latency histogram through JMX. All latencies are in nanoseconds.
+ */
+public interface LatencyMXBean {
+    long getCount();
+
+    double getMean();
+
+    long getMax();
+
+    long get50thPercentile();
+
+    long get99thPercentile();
+
+    long get999thPercentile();
+}
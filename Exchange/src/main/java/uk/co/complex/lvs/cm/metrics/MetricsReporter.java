@@ -0,0 +1,145 @@
+package uk.co.complex.lvs.cm.metrics;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MetricsReporter periodically dumps the {@link EngineMetrics} of a market to a stream, either as
+ * a human-readable table or as CSV. Each CSV line holds a single value: the time of the report,
+ * the name of the metric (e.g. latency.matching or product.XYZ), the field (e.g. p99) and the
+ * value. Latencies are in nanoseconds and rates are per second.
+ */
+public class MetricsReporter {
+    /**
+     * Format is the output format of a report.
+     */
+    public enum Format {
+        TEXT,
+        CSV
+    }
+
+    private final EngineMetrics mMetrics;
+    private final PrintStream mOut;
+    private final Format mFormat;
+    private ScheduledExecutorService mScheduler;
+
+    /**
+     * Constructs a reporter.
+     * @param metrics the metrics to be reported
+     * @param out the stream to which the reports are written
+     * @param format the format of the reports
+     */
+    public MetricsReporter(EngineMetrics metrics, PrintStream out, Format format) {
+        mMetrics = metrics;
+        mOut = out;
+        mFormat = format;
+        if (format == Format.CSV) mOut.println("time,metric,field,value");
+    }
+
+    /**
+     * Starts reporting at a fixed rate.
+     * @param intervalMillis the interval between the reports (in milliseconds)
+     */
+    public synchronized void start(long intervalMillis) {
+        mScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        mScheduler.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops reporting.
+     */
+    public synchronized void stop() {
+        if (mScheduler != null) mScheduler.shutdown();
+        mScheduler = null;
+    }
+
+    /**
+     * Samples the metrics and writes a report.
+     */
+    public void report() {
+        mMetrics.sampleRates();
+        final String time = Instant.now().toString();
+        if (mFormat == Format.TEXT) {
+            mOut.println("Metrics of " + mMetrics.getMarketName() + " at " + time);
+            mOut.println(String.format("%-16s %10s %10s %10s %10s %10s %10s", "latency (ns)",
+                    "count", "mean", "p50", "p99", "p99.9", "max"));
+        }
+        for (EngineMetrics.Stage s : EngineMetrics.Stage.values()) {
+            reportLatency(time, s.getName(), mMetrics.getLatency(s));
+        }
+        reportLatency(time, "listenerLag", mMetrics.getListenerLag());
+
+        if (mFormat == Format.TEXT) {
+            mOut.println(String.format("%-16s %10s %10s %10s %10s %10s %10s %10s %10s",
+                    "product", "orders", "trades", "volume", "orders/s", "trades/s", "bids",
+                    "asks", "levels"));
+        }
+        for (ProductMetrics p : mMetrics.getProductMetrics()) {
+            final String name = p.getProduct().getName();
+            if (mFormat == Format.TEXT) {
+                mOut.println(String.format("%-16s %10d %10d %10d %10.1f %10.1f %10d %10d %4d/%-5d",
+                        name, p.getOrders(), p.getTrades(), p.getVolume(), p.getOrderRate(),
+                        p.getTradeRate(), p.getBidOrders(), p.getAskOrders(), p.getBidLevels(),
+                        p.getAskLevels()));
+            } else {
+                final String metric = "product." + name;
+                csv(time, metric, "orders", p.getOrders());
+                csv(time, metric, "cancels", p.getCancels());
+                csv(time, metric, "trades", p.getTrades());
+                csv(time, metric, "volume", p.getVolume());
+                csv(time, metric, "orderRate", p.getOrderRate());
+                csv(time, metric, "tradeRate", p.getTradeRate());
+                csv(time, metric, "bidOrders", p.getBidOrders());
+                csv(time, metric, "askOrders", p.getAskOrders());
+                csv(time, metric, "bidLevels", p.getBidLevels());
+                csv(time, metric, "askLevels", p.getAskLevels());
+            }
+        }
+
+        if (mFormat == Format.TEXT) {
+            mOut.println(String.format("throttled orders: %d, cancels: %d",
+                    mMetrics.getThrottledOrders(), mMetrics.getThrottledCancels()));
+        } else {
+            csv(time, "throttle", "orders", mMetrics.getThrottledOrders());
+            csv(time, "throttle", "cancels", mMetrics.getThrottledCancels());
+        }
+
+        for (Map.Entry<String, Long> e : mMetrics.getListenerBacklogs().entrySet()) {
+            if (mFormat == Format.TEXT) {
+                mOut.println(String.format("backlog of %s: %d", e.getKey(), e.getValue()));
+            } else {
+                csv(time, "backlog." + e.getKey(), "events", e.getValue());
+            }
+        }
+        mOut.flush();
+    }
+
+    private void reportLatency(String time, String name, LatencyHistogram h) {
+        if (mFormat == Format.TEXT) {
+            mOut.println(String.format("%-16s %10d %10.0f %10d %10d %10d %10d", name,
+                    h.getCount(), h.getMean(), h.get50thPercentile(), h.get99thPercentile(),
+                    h.get999thPercentile(), h.getMax()));
+        } else {
+            final String metric = "latency." + name;
+            csv(time, metric, "count", h.getCount());
+            csv(time, metric, "mean", h.getMean());
+            csv(time, metric, "p50", h.get50thPercentile());
+            csv(time, metric, "p99", h.get99thPercentile());
+            csv(time, metric, "p99.9", h.get999thPercentile());
+            csv(time, metric, "max", h.getMax());
+        }
+    }
+
+    private void csv(String time, String metric, String field, Object value) {
+        mOut.println(time + "," + metric + "," + field + "," + value);
+    }
+}
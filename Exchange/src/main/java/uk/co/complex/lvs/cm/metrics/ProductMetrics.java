@@ -0,0 +1,137 @@
+package uk.co.complex.lvs.cm.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.PriceTimePriorityQueue;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+
+/**
+ * ProductMetrics counts the orders, cancels and trades of a product, and reads the depth of its
+ * buy and sell queues on demand. The counters are written by the market manager while it holds its
+ * lock, so they use ordered writes.
+ */
+public class ProductMetrics implements ProductMetricsMXBean {
+    private final MarketManager mManager;
+    private final Product mProduct;
+    private final AtomicLong mOrders = new AtomicLong();
+    private final AtomicLong mCancels = new AtomicLong();
+    private final AtomicLong mTrades = new AtomicLong();
+    private final AtomicLong mVolume = new AtomicLong();
+
+    // Rates over the last sample interval, written by the sampling thread only
+    private long mSampleTime = System.nanoTime();
+    private long mSampleOrders = 0;
+    private long mSampleTrades = 0;
+    private volatile double mOrderRate = 0;
+    private volatile double mTradeRate = 0;
+
+    ProductMetrics(MarketManager manager, Product product) {
+        mManager = manager;
+        mProduct = product;
+    }
+
+    public Product getProduct() {
+        return mProduct;
+    }
+
+    void orderPlaced() {
+        mOrders.lazySet(mOrders.get() + 1);
+    }
+
+    void orderCancelled() {
+        mCancels.lazySet(mCancels.get() + 1);
+    }
+
+    void tradeExecuted(int amount) {
+        mTrades.lazySet(mTrades.get() + 1);
+        mVolume.lazySet(mVolume.get() + amount);
+    }
+
+    /**
+     * Computes the order and trade rates since the previous sample.
+     */
+    void sample(long time) {
+        final long orders = mOrders.get();
+        final long trades = mTrades.get();
+        final double seconds = (time - mSampleTime) / 1e9;
+        if (seconds > 0) {
+            mOrderRate = (orders - mSampleOrders) / seconds;
+            mTradeRate = (trades - mSampleTrades) / seconds;
+        }
+        mSampleTime = time;
+        mSampleOrders = orders;
+        mSampleTrades = trades;
+    }
+
+    @Override
+    public long getOrders() {
+        return mOrders.get();
+    }
+
+    @Override
+    public long getCancels() {
+        return mCancels.get();
+    }
+
+    @Override
+    public long getTrades() {
+        return mTrades.get();
+    }
+
+    @Override
+    public long getVolume() {
+        return mVolume.get();
+    }
+
+    @Override
+    public double getOrderRate() {
+        return mOrderRate;
+    }
+
+    @Override
+    public double getTradeRate() {
+        return mTradeRate;
+    }
+
+    @Override
+    public int getBidOrders() {
+        synchronized (mManager) {
+            return mManager.getBuyQueue(mProduct).size();
+        }
+    }
+
+    @Override
+    public int getAskOrders() {
+        synchronized (mManager) {
+            return mManager.getSellQueue(mProduct).size();
+        }
+    }
+
+    @Override
+    public int getBidLevels() {
+        synchronized (mManager) {
+            return levels(mManager.getBuyQueue(mProduct));
+        }
+    }
+
+    @Override
+    public int getAskLevels() {
+        synchronized (mManager) {
+            return levels(mManager.getSellQueue(mProduct));
+        }
+    }
+
+    private static int levels(PriceTimePriorityQueue queue) {
+        int levels = 0;
+        float price = Float.NaN;
+        for (Order o : queue) {
+            if (o.getPrice() != price) {
+                levels++;
+                price = o.getPrice();
+            }
+        }
+        return levels;
+    }
+}
@@ -0,0 +1,27 @@
+package uk.co.complex.lvs.cm.metrics;
+
+/**
+ * ProductMetricsMXBean exposes the activity and the book depth of a product through JMX. The rates
+ * are per second, over the interval between the last two rate samples of the {@link EngineMetrics}.
+ */
+public interface ProductMetricsMXBean {
+    long getOrders();
+
+    long getCancels();
+
+    long getTrades();
+
+    long getVolume();
+
+    double getOrderRate();
+
+    double getTradeRate();
+
+    int getBidOrders();
+
+    int getAskOrders();
+
+    int getBidLevels();
+
+    int getAskLevels();
+}
@@ -0,0 +1,96 @@
+package uk.co.complex.lvs.cm.replay;
+
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+/**
+ * FlowEvent is an event of historical order flow. A reader fills the same event over and over,
+ * so that reading a file allocates nothing per line; an event is therefore only valid until the
+ * next one is read.
+ */
+public final class FlowEvent {
+    /**
+     * The type of an event.
+     */
+    public enum Type {
+        /** A new limit order. */
+        ADD,
+        /** A partial cancellation, which reduces the size of an order. */
+        CANCEL,
+        /** A deletion of the remainder of an order. */
+        DELETE,
+        /** An execution of (part of) a visible order. */
+        EXECUTE
+    }
+
+    private Type mType;
+    private long mTimeNanos;
+    private Product mProduct;
+    private long mOrderId;
+    private Side mSide;
+    private float mPrice;
+    private int mSize;
+
+    void set(Type type, long timeNanos, Product product, long orderId, Side side, float price,
+             int size) {
+        mType = type;
+        mTimeNanos = timeNanos;
+        mProduct = product;
+        mOrderId = orderId;
+        mSide = side;
+        mPrice = price;
+        mSize = size;
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    /**
+     * Returns the time of the event.
+     * @return the time in nanoseconds after midnight
+     */
+    public long getTimeNanos() {
+        return mTimeNanos;
+    }
+
+    public Product getProduct() {
+        return mProduct;
+    }
+
+    /**
+     * Returns the identifier of the order in the historical flow. It is not the identifier of the
+     * order on the market.
+     * @return the historical order identifier
+     */
+    public long getOrderId() {
+        return mOrderId;
+    }
+
+    /**
+     * Returns the side of the order. For executions, this is the side of the resting order.
+     * @return the side
+     */
+    public Side getSide() {
+        return mSide;
+    }
+
+    public float getPrice() {
+        return mPrice;
+    }
+
+    /**
+     * Returns the size of the event: the amount of a new order, or the amount which is cancelled
+     * or executed.
+     * @return the size
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    @Override
+    public String toString() {
+        return mType + " " + mProduct + " #" + mOrderId + " " + mSide + " " + mSize + "x" +
+                mPrice + " @ " + mTimeNanos;
+    }
+}
@@ -0,0 +1,24 @@
+package uk.co.complex.lvs.cm.replay;
+
+/**
+ * FlowFormat is the format of a historical order-flow file (see {@link OrderFlowReader}). In both
+ * formats, each line is an event, and times are given in seconds after midnight with up to nine
+ * decimals. Lines which do not start with a digit (e.g. headers) are skipped.
+ */
+public enum FlowFormat {
+    /**
+     * Comma-separated events of any number of products:
+     * time,symbol,type,order id,side,price,size
+     * where the type is A (add), C (partial cancel), D (delete) or E (execute), the side is B or
+     * S, and the price is a decimal number. For example: 34200.000012,XYZ,A,1001,B,100.25,50
+     */
+    CSV,
+    /**
+     * LOBSTER message files, which hold the events of a single product:
+     * time,type,order id,size,price,direction
+     * where the type is 1 (add), 2 (partial cancel), 3 (delete) or 4 (execute), the price is in
+     * units of 1/10000, and the direction is 1 (buy) or -1 (sell). Other types (hidden executions,
+     * cross trades and halts) are skipped.
+     */
+    LOBSTER
+}
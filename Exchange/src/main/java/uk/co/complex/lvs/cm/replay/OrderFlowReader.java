@@ -0,0 +1,320 @@
+package uk.co.complex.lvs.cm.replay;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+/**
+ * OrderFlowReader reads the events of a historical order-flow file (see {@link FlowFormat}). The
+ * file is memory-mapped in windows, so files of any size can be read, and each line is parsed
+ * directly from the mapped bytes into a reused {@link FlowEvent}: no String or other object is
+ * allocated per line. Symbols are matched against the names of the products byte by byte.
+ *
+ * Events of products which are not given, and events of types which are not replayed, are skipped.
+ * A line which cannot be parsed causes an IllegalArgumentException, with its line number.
+ */
+public class OrderFlowReader implements Closeable {
+    static final int DEFAULT_WINDOW = 64 << 20;
+    private static final double[] POWERS_OF_TEN = {1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+
+    private final FileChannel mChannel;
+    private final FlowFormat mFormat;
+    private final long mFileSize;
+    private final int mWindow;
+    private final byte[][] mSymbols;
+    private final Product[] mProducts;
+    private MappedByteBuffer mBuffer;
+    private long mWindowStart;
+    private int mPosition;
+    private int mLineStart;
+    private int mCursor;
+    private long mLines;
+    private long mSkipped;
+
+    /**
+     * Opens an order-flow file.
+     * @param file the file
+     * @param format the format of the file
+     * @param products the products whose events are read. A LOBSTER file holds the events of a
+     *                 single product, so exactly one product should be given for it.
+     * @throws IOException if the file cannot be opened
+     */
+    public OrderFlowReader(Path file, FlowFormat format, Collection<Product> products)
+            throws IOException {
+        this(file, format, products, DEFAULT_WINDOW);
+    }
+
+    OrderFlowReader(Path file, FlowFormat format, Collection<Product> products, int window)
+            throws IOException {
+        if (format == FlowFormat.LOBSTER && products.size() != 1) {
+            throw new IllegalArgumentException("A LOBSTER file holds a single product (was " +
+                    products.size() + " products)");
+        }
+        mFormat = format;
+        mWindow = window;
+        mProducts = products.toArray(new Product[0]);
+        mSymbols = new byte[mProducts.length][];
+        for (int i = 0; i < mProducts.length; i++) {
+            mSymbols[i] = mProducts[i].getName().getBytes(StandardCharsets.US_ASCII);
+        }
+        mChannel = FileChannel.open(file, StandardOpenOption.READ);
+        mFileSize = mChannel.size();
+        map(0);
+    }
+
+    /**
+     * Returns the number of lines read so far.
+     * @return the number of lines
+     */
+    public long getLineCount() {
+        return mLines;
+    }
+
+    /**
+     * Returns the number of lines which were skipped so far: headers and blank lines, and events
+     * of other products or types.
+     * @return the number of skipped lines
+     */
+    public long getSkippedCount() {
+        return mSkipped;
+    }
+
+    /**
+     * Returns the number of bytes read so far.
+     * @return the position in the file
+     */
+    public long getPosition() {
+        return mWindowStart + mPosition;
+    }
+
+    /**
+     * Reads the next event.
+     * @param event the event to fill
+     * @return true if an event was read, or false at the end of the file
+     * @throws IllegalArgumentException if a line cannot be parsed
+     */
+    public boolean next(FlowEvent event) {
+        while (true) {
+            final int end = lineEnd();
+            if (end < 0) return false;
+            final int start = mPosition;
+            mPosition = Math.min(end + 1, mBuffer.limit());
+            mLines++;
+            int last = end;
+            if (last > start && mBuffer.get(last - 1) == '\r') last--;
+            mLineStart = start;
+            mCursor = start;
+            if (last > start && isDigit(mBuffer.get(start)) && ((mFormat == FlowFormat.CSV)?
+                    parseCsv(last, event) : parseLobster(last, event))) {
+                return true;
+            }
+            mSkipped++;
+        }
+    }
+
+    /**
+     * Finds the end of the line at the current position, mapping the next window of the file
+     * when the line does not end in the current one.
+     * @return the index of the end of the line, or -1 at the end of the file
+     */
+    private int lineEnd() {
+        while (true) {
+            final int limit = mBuffer.limit();
+            for (int i = mPosition; i < limit; i++) {
+                if (mBuffer.get(i) == '\n') return i;
+            }
+            if (mWindowStart + limit >= mFileSize) return (mPosition < limit)? limit : -1;
+            if (mPosition == 0) {
+                throw new IllegalArgumentException("Line " + (mLines + 1) + " is longer than " +
+                        mWindow + " bytes");
+            }
+            map(mWindowStart + mPosition);
+        }
+    }
+
+    private void map(long position) {
+        try {
+            mBuffer = mChannel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(mWindow, mFileSize - position));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        mWindowStart = position;
+        mPosition = 0;
+    }
+
+    private boolean parseCsv(int end, FlowEvent event) {
+        final long time = parseDecimal(end, 9);
+        final Product product = parseSymbol(end);
+        if (product == null) return false;
+        final FlowEvent.Type type;
+        switch (parseChar(end)) {
+            case 'A': type = FlowEvent.Type.ADD; break;
+            case 'C': type = FlowEvent.Type.CANCEL; break;
+            case 'D': type = FlowEvent.Type.DELETE; break;
+            case 'E': type = FlowEvent.Type.EXECUTE; break;
+            default: return false;
+        }
+        final long id = parseLong(end);
+        final Side side;
+        switch (parseChar(end)) {
+            case 'B': side = Side.BUY; break;
+            case 'S': side = Side.SELL; break;
+            default: throw malformed("the side should be B or S");
+        }
+        final float price = parsePrice(end);
+        event.set(type, time, product, id, side, price, parseSize(end));
+        return true;
+    }
+
+    private boolean parseLobster(int end, FlowEvent event) {
+        final long time = parseDecimal(end, 9);
+        final FlowEvent.Type type;
+        switch ((int) parseLong(end)) {
+            case 1: type = FlowEvent.Type.ADD; break;
+            case 2: type = FlowEvent.Type.CANCEL; break;
+            case 3: type = FlowEvent.Type.DELETE; break;
+            case 4: type = FlowEvent.Type.EXECUTE; break;
+            default: return false;
+        }
+        final long id = parseLong(end);
+        final int size = parseSize(end);
+        final float price = (float) (parseLong(end) / 10000.0);
+        final long direction = parseLong(end);
+        if (direction != 1 && direction != -1) throw malformed("the direction should be 1 or -1");
+        event.set(type, time, mProducts[0], id, (direction == 1)? Side.BUY : Side.SELL, price,
+                size);
+        return true;
+    }
+
+    /**
+     * Parses a field of digits, with an optional minus sign.
+     */
+    private long parseLong(int end) {
+        final boolean negative = mCursor < end && mBuffer.get(mCursor) == '-';
+        if (negative) mCursor++;
+        final int start = mCursor;
+        long value = 0;
+        while (mCursor < end && isDigit(mBuffer.get(mCursor))) {
+            value = value * 10 + (mBuffer.get(mCursor++) - '0');
+        }
+        if (mCursor == start) throw malformed("expected a number");
+        endField(end);
+        return negative? -value : value;
+    }
+
+    private int parseSize(int end) {
+        final long size = parseLong(end);
+        if (size <= 0 || size > Integer.MAX_VALUE) throw malformed("the size is out of range");
+        return (int) size;
+    }
+
+    /**
+     * Parses a decimal field into a whole number of units of 10^-scale. Further decimals are
+     * truncated.
+     */
+    private long parseDecimal(int end, int scale) {
+        final int start = mCursor;
+        long value = 0;
+        while (mCursor < end && isDigit(mBuffer.get(mCursor))) {
+            value = value * 10 + (mBuffer.get(mCursor++) - '0');
+        }
+        if (mCursor == start) throw malformed("expected a number");
+        int decimals = 0;
+        if (mCursor < end && mBuffer.get(mCursor) == '.') {
+            mCursor++;
+            while (mCursor < end && isDigit(mBuffer.get(mCursor))) {
+                if (decimals < scale) {
+                    value = value * 10 + (mBuffer.get(mCursor) - '0');
+                    decimals++;
+                }
+                mCursor++;
+            }
+        }
+        for (; decimals < scale; decimals++) value *= 10;
+        endField(end);
+        return value;
+    }
+
+    private float parsePrice(int end) {
+        final int start = mCursor;
+        long mantissa = 0;
+        int decimals = -1;
+        while (mCursor < end && mBuffer.get(mCursor) != ',') {
+            final byte b = mBuffer.get(mCursor++);
+            if (b == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (isDigit(b) && mantissa < Long.MAX_VALUE / 10) {
+                mantissa = mantissa * 10 + (b - '0');
+                if (decimals >= 0) decimals++;
+            } else {
+                throw malformed("the price should be a decimal number");
+            }
+        }
+        if (mCursor == start || decimals >= POWERS_OF_TEN.length) {
+            throw malformed("the price should be a decimal number");
+        }
+        endField(end);
+        return (float) (mantissa / POWERS_OF_TEN[Math.max(decimals, 0)]);
+    }
+
+    private byte parseChar(int end) {
+        if (mCursor >= end) throw malformed("expected a character");
+        final byte b = mBuffer.get(mCursor++);
+        endField(end);
+        return b;
+    }
+
+    /**
+     * Finds the product whose name is the next field.
+     * @return the product, or null if no product has the name
+     */
+    private Product parseSymbol(int end) {
+        final int start = mCursor;
+        while (mCursor < end && mBuffer.get(mCursor) != ',') mCursor++;
+        final int length = mCursor - start;
+        endField(end);
+        for (int i = 0; i < mSymbols.length; i++) {
+            final byte[] symbol = mSymbols[i];
+            if (symbol.length != length) continue;
+            int j = 0;
+            while (j < length && mBuffer.get(start + j) == symbol[j]) j++;
+            if (j == length) return mProducts[i];
+        }
+        return null;
+    }
+
+    /**
+     * Skips the separator after a field.
+     */
+    private void endField(int end) {
+        if (mCursor < end) {
+            if (mBuffer.get(mCursor) != ',') throw malformed("expected a comma");
+            mCursor++;
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private IllegalArgumentException malformed(String reason) {
+        return new IllegalArgumentException("Line " + mLines + " is malformed at column " +
+                (mCursor - mLineStart + 1) + ": " + reason);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+}
@@ -0,0 +1,175 @@
+package uk.co.complex.lvs.cm.replay;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+
+/**
+ * OrderFlowReplayer replays historical order flow on a market manager, one event at a time, as it
+ * is read from a file. Historical flow has no accounts, so all orders are placed from a single
+ * replay account, which is given a position large enough to cover any sell order.
+ *
+ * - An added order is placed as a new order, stamped with its historical time on the given date.
+ * - A partial cancellation reduces the remaining amount of the order in place, so it keeps its
+ *   priority (see {@link MarketManager#amendOrder(Order, float, int)}).
+ * - A deletion cancels the order.
+ * - An execution of a resting order is replayed as an opposing order of the executed size at the
+ *   price of the resting order, so that the trade is made by the market itself. Whatever remains
+ *   of the opposing order (e.g. when the resting order was matched earlier) is cancelled.
+ *
+ * Events of orders which are not queued on the market (e.g. orders placed before the flow starts)
+ * are ignored. Orders which the market rejects are counted.
+ */
+public class OrderFlowReplayer {
+    private final MarketManager mManager;
+    private final Account mAccount;
+    private final OffsetDateTime mMidnight;
+    private final Map<Long, Order> mOrders = new HashMap<>();
+    private long mEvents;
+    private long mTrades;
+    private long mIgnored;
+    private long mRejected;
+
+    /**
+     * Constructs a replayer.
+     * @param manager the market manager, on which the products of the flow are listed
+     * @param date the date of the flow
+     */
+    public OrderFlowReplayer(MarketManager manager, LocalDate date) {
+        mManager = manager;
+        mMidnight = date.atStartOfDay().atOffset(ZoneOffset.UTC);
+        mAccount = new Account("Replay");
+        for (Product p : manager.getProducts()) {
+            mAccount.updateBook(p, Integer.MAX_VALUE / 2);
+        }
+    }
+
+    public Account getAccount() {
+        return mAccount;
+    }
+
+    /**
+     * Returns the number of events which were replayed, including ignored events.
+     * @return the number of events
+     */
+    public long getEventCount() {
+        return mEvents;
+    }
+
+    /**
+     * Returns the number of trades which the replayed events made.
+     * @return the number of trades
+     */
+    public long getTradeCount() {
+        return mTrades;
+    }
+
+    /**
+     * Returns the number of events which were ignored, as their order was not queued.
+     * @return the number of ignored events
+     */
+    public long getIgnoredCount() {
+        return mIgnored;
+    }
+
+    /**
+     * Returns the number of orders which the market rejected.
+     * @return the number of rejected orders
+     */
+    public long getRejectedCount() {
+        return mRejected;
+    }
+
+    /**
+     * Replays all the remaining events of a reader.
+     * @param reader the reader
+     * @return the number of events replayed
+     */
+    public long replay(OrderFlowReader reader) {
+        final FlowEvent event = new FlowEvent();
+        long events = 0;
+        while (reader.next(event)) {
+            apply(event);
+            events++;
+        }
+        return events;
+    }
+
+    /**
+     * Replays a single event.
+     * @param event the event
+     */
+    public void apply(FlowEvent event) {
+        mEvents++;
+        if (event.getType() == FlowEvent.Type.ADD) {
+            final Order order = new Order(event.getProduct(), event.getPrice(), event.getSize(),
+                    mAccount, event.getSide(), mMidnight.plusNanos(event.getTimeNanos()));
+            if (place(order) && order.getStatus() != Status.COMPLETED) {
+                mOrders.put(event.getOrderId(), order);
+            }
+            return;
+        }
+
+        final Order order = mOrders.get(event.getOrderId());
+        if (order == null || (order.getStatus() != Status.NEW &&
+                order.getStatus() != Status.PARTIAL)) {
+            mOrders.remove(event.getOrderId());
+            mIgnored++;
+            return;
+        }
+        final int remaining = order.getRemainingAmount() - event.getSize();
+        switch (event.getType()) {
+            case CANCEL:
+                if (remaining > 0) {
+                    try {
+                        mManager.amendOrder(order, order.getPrice(), remaining);
+                    } catch (IllegalTradeException e) {
+                        mRejected++;
+                    }
+                    return;
+                }
+                cancel(event.getOrderId(), order);
+                return;
+            case DELETE:
+                cancel(event.getOrderId(), order);
+                return;
+            case EXECUTE:
+                final Order taker = new Order(order.getProduct(), order.getPrice(),
+                        Math.min(event.getSize(), order.getRemainingAmount()), mAccount,
+                        (order.getSide() == Side.BUY)? Side.SELL : Side.BUY,
+                        mMidnight.plusNanos(event.getTimeNanos()));
+                if (place(taker) && taker.getStatus() != Status.COMPLETED) {
+                    mManager.cancelOrder(taker);
+                }
+                if (order.getStatus() == Status.COMPLETED) mOrders.remove(event.getOrderId());
+                return;
+            default:
+                mIgnored++;
+        }
+    }
+
+    private boolean place(Order order) {
+        try {
+            mTrades += mManager.placeOrder(order).size();
+            return true;
+        } catch (IllegalTradeException e) {
+            mRejected++;
+            return false;
+        }
+    }
+
+    private void cancel(long id, Order order) {
+        mManager.cancelOrder(order);
+        mOrders.remove(id);
+    }
+}
@@ -0,0 +1,176 @@
+package uk.co.complex.lvs.cm.replication;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Collection;
+
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+
+/**
+ * BackupReplica is a hot standby of a {@link ReplicatedMarket}. It receives the command log of the
+ * primary, appends each command to its own log, executes it on its own market manager, and then
+ * acknowledges it, so that its market follows the market of the primary.
+ *
+ * If the primary sends nothing (not even a heartbeat) within the heartbeat timeout, or the
+ * connection is lost, the replica reports that the primary is lost. It can then be promoted to be
+ * the new primary, to which the other backups can connect. Promotion is immediate, as the market
+ * of the replica is already up to date.
+ */
+public class BackupReplica {
+    public static final long DEFAULT_HEARTBEAT_TIMEOUT_MILLIS = 100;
+
+    private final CommandExecutor mExecutor;
+    private final MarketManager mManager;
+    private final CommandLog mLog;
+    private long mHeartbeatTimeoutMillis = DEFAULT_HEARTBEAT_TIMEOUT_MILLIS;
+    private Runnable mFailoverHandler = () -> { };
+    private volatile boolean mPrimaryLost = false;
+    private Socket mSocket;
+    private Thread mThread;
+
+    /**
+     * Constructs a backup replica. If the log already has commands, they are executed first.
+     * @param manager the market manager, which should be in the same initial state as the market
+     *                manager of the primary
+     * @param accounts the accounts which can trade on the market, in their initial state
+     * @param log the command log
+     */
+    public BackupReplica(MarketManager manager, Collection<Account> accounts, CommandLog log) {
+        mExecutor = new CommandExecutor(manager, accounts);
+        mManager = manager;
+        mLog = log;
+        synchronized (mManager) {
+            for (long s = 1; s <= log.getLastSequence(); s++) execute(log.get(s));
+        }
+    }
+
+    public MarketManager getManager() {
+        return mManager;
+    }
+
+    public void setHeartbeatTimeoutMillis(long heartbeatTimeoutMillis) {
+        mHeartbeatTimeoutMillis = heartbeatTimeoutMillis;
+    }
+
+    /**
+     * Sets the handler which is run (on the thread of the replica) when the primary is lost.
+     * @param handler the failover handler
+     */
+    public void setFailoverHandler(Runnable handler) {
+        mFailoverHandler = handler;
+    }
+
+    /**
+     * Returns the sequence number of the last command which the replica has executed.
+     * @return the last sequence number
+     */
+    public long getLastSequence() {
+        return mLog.getLastSequence();
+    }
+
+    public boolean isPrimaryLost() {
+        return mPrimaryLost;
+    }
+
+    /**
+     * Connects to a primary, and starts following its market.
+     * @param primary the replication address of the primary
+     * @throws IOException if the replica cannot connect
+     */
+    public void connect(InetSocketAddress primary) throws IOException {
+        mSocket = new Socket();
+        mSocket.connect(primary);
+        mSocket.setTcpNoDelay(true);
+        mSocket.setSoTimeout((int) mHeartbeatTimeoutMillis);
+        mPrimaryLost = false;
+        final DataOutputStream out = new DataOutputStream(mSocket.getOutputStream());
+        out.writeLong(mLog.getLastSequence());
+        out.flush();
+
+        mThread = new Thread(() -> follow(out), "backup-replica");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Disconnects from the primary.
+     */
+    public void disconnect() {
+        if (mSocket == null) return;
+        try {
+            mSocket.close();
+            // The failover handler may promote the replica from its own thread
+            if (Thread.currentThread() != mThread) mThread.join();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mSocket = null;
+    }
+
+    /**
+     * Promotes this replica to be the primary of the market. The replica stops following the old
+     * primary; the returned primary should be started to accept the other backups.
+     * @param ackMode when the new primary acknowledges commands
+     * @return the new primary
+     */
+    public ReplicatedMarket promote(ReplicatedMarket.AckMode ackMode) {
+        disconnect();
+        return new ReplicatedMarket(mExecutor, mLog, ackMode);
+    }
+
+    private void follow(DataOutputStream out) {
+        try {
+            final DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(mSocket.getInputStream()));
+            while (true) {
+                final byte[] command = new byte[in.readInt()];
+                in.readFully(command);
+                if (command[ReplicationProtocol.COMMAND_TYPE] == ReplicationProtocol.HEARTBEAT) {
+                    continue;
+                }
+                // The command is logged and executed under the lock of the market before it is
+                // acknowledged, so that every command in the log has been executed, even if the
+                // connection is lost while acknowledging it
+                synchronized (mManager) {
+                    mLog.append(command);
+                    execute(command);
+                }
+                out.writeLong(mLog.getLastSequence());
+            }
+        } catch (SocketTimeoutException e) {
+            primaryLost();
+        } catch (IOException e) {
+            // The connection is lost, unless it was closed by disconnect
+            if (!mSocket.isClosed()) primaryLost();
+        }
+    }
+
+    private void primaryLost() {
+        mPrimaryLost = true;
+        try {
+            mSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        mFailoverHandler.run();
+    }
+
+    private void execute(byte[] command) {
+        try {
+            mExecutor.execute(command);
+        } catch (IllegalTradeException e) {
+            // The primary only logs valid commands, so the replicas have diverged
+            throw new IllegalStateException("Command " + mLog.getLastSequence() + " failed on " +
+                    "the replica", e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package uk.co.complex.lvs.cm.replication;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * CommandClock is the clock of a replicated market. It shows the time of the command which is
+ * being executed, so that every replica stamps its orders and trades with the same time.
+ */
+class CommandClock extends Clock {
+    private volatile Instant mInstant = Instant.EPOCH;
+
+    void set(Instant instant) {
+        mInstant = instant;
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return Clock.fixed(mInstant, zone);
+    }
+
+    @Override
+    public Instant instant() {
+        return mInstant;
+    }
+}
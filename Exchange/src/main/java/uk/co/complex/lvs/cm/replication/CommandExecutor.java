@@ -0,0 +1,148 @@
+package uk.co.complex.lvs.cm.replication;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * CommandExecutor executes the commands of a replicated market on its market manager. The outcome
+ * of a command only depends on the command and the state of the market, so every replica which
+ * executes the same commands in the same order ends up in the same state. The primary executes
+ * its commands through the same methods as the backups.
+ *
+ * The executor should only be used while holding the lock of the market manager.
+ */
+class CommandExecutor {
+    private final MarketManager mManager;
+    private final Map<String, Account> mAccounts = new HashMap<>();
+    private final Map<String, Product> mProducts = new HashMap<>();
+    private final Map<Long, Order> mOrders = new HashMap<>();
+    private final CommandClock mClock = new CommandClock();
+
+    CommandExecutor(MarketManager manager, Collection<Account> accounts) {
+        mManager = manager;
+        for (Account a : accounts) mAccounts.put(a.getName(), a);
+        for (Product p : manager.getProducts()) mProducts.put(p.getName(), p);
+        manager.setClock(mClock);
+    }
+
+    MarketManager getManager() {
+        return mManager;
+    }
+
+    private Account account(String name) throws IllegalTradeException {
+        final Account account = mAccounts.get(name);
+        if (account == null) throw new IllegalTradeException("Unknown account (was " + name + ")");
+        return account;
+    }
+
+    private Product product(String name) throws IllegalTradeException {
+        final Product product = mProducts.get(name);
+        if (product == null) throw new IllegalTradeException("The product is not listed on this " +
+                "market (was " + name + ")");
+        return product;
+    }
+
+    private void setTime(long time) {
+        mClock.set(Instant.ofEpochSecond(0, time));
+    }
+
+    /**
+     * Forgets the orders which were completed by the given trades.
+     */
+    private void completed(List<Trade> trades) {
+        for (Trade t : trades) {
+            final Order buy = mOrders.get(t.getBuyOrderId());
+            if (buy != null && buy.getStatus() == Status.COMPLETED) mOrders.remove(buy.getId());
+            final Order sell = mOrders.get(t.getSellOrderId());
+            if (sell != null && sell.getStatus() == Status.COMPLETED) mOrders.remove(sell.getId());
+        }
+    }
+
+    Order place(long sequence, long time, String account, String product, Side side, float price,
+                int amount) throws IllegalTradeException {
+        setTime(time);
+        final Order order = new Order(sequence, product(product), price, amount, account(account),
+                side, OffsetDateTime.ofInstant(mClock.instant(), ZoneOffset.UTC));
+        completed(mManager.placeOrder(order));
+        if (order.getStatus() != Status.COMPLETED) mOrders.put(order.getId(), order);
+        return order;
+    }
+
+    boolean cancel(long time, long orderId) {
+        setTime(time);
+        final Order order = mOrders.remove(orderId);
+        return (order != null) && mManager.cancelOrder(order);
+    }
+
+    void deposit(long time, String account, String product, int amount)
+            throws IllegalTradeException {
+        setTime(time);
+        account(account).updateBook(product(product), amount);
+    }
+
+    void startAuction(long time, String product) throws IllegalTradeException {
+        setTime(time);
+        mManager.startAuction(product(product));
+    }
+
+    List<Trade> uncross(long time, String product) throws IllegalTradeException {
+        setTime(time);
+        final List<Trade> trades = mManager.uncross(product(product));
+        completed(trades);
+        return trades;
+    }
+
+    /**
+     * Executes an encoded command.
+     * @param command the encoded command
+     * @throws IllegalTradeException if the command is invalid
+     */
+    void execute(byte[] command) throws IllegalTradeException {
+        final ByteBuffer buffer = ByteBuffer.wrap(command);
+        final byte type = buffer.get();
+        final long sequence = buffer.getLong();
+        final long time = buffer.getLong();
+        switch (type) {
+            case ReplicationProtocol.PLACE: {
+                final String account = ReplicationProtocol.getString(buffer);
+                final String product = ReplicationProtocol.getString(buffer);
+                final Side side = ReplicationProtocol.readSide(buffer);
+                final float price = buffer.getFloat();
+                place(sequence, time, account, product, side, price, buffer.getInt());
+                break;
+            }
+            case ReplicationProtocol.CANCEL:
+                cancel(time, buffer.getLong());
+                break;
+            case ReplicationProtocol.DEPOSIT: {
+                final String account = ReplicationProtocol.getString(buffer);
+                final String product = ReplicationProtocol.getString(buffer);
+                deposit(time, account, product, buffer.getInt());
+                break;
+            }
+            case ReplicationProtocol.AUCTION:
+                startAuction(time, ReplicationProtocol.getString(buffer));
+                break;
+            case ReplicationProtocol.UNCROSS:
+                uncross(time, ReplicationProtocol.getString(buffer));
+                break;
+            default:
+                throw new IllegalStateException("Unknown command type " + type);
+        }
+    }
+}
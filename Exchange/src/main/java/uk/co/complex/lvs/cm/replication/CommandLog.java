@@ -0,0 +1,123 @@
+package uk.co.complex.lvs.cm.replication;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CommandLog is the sequenced log of the commands of a replicated market (see
+ * {@link ReplicationProtocol}). The commands are kept in memory, so that backups can catch up from
+ * any point. Optionally, the log is also written to a journal file, from which the market can be
+ * restored after a restart. The journal holds each command framed by its length (int).
+ */
+public class CommandLog implements Closeable {
+    private final List<byte[]> mCommands = new ArrayList<>();
+    private final FileChannel mJournal;
+    private final Object mSyncLock = new Object();
+    private long mSynced = 0;
+
+    /**
+     * Constructs a log which is only kept in memory.
+     */
+    public CommandLog() {
+        mJournal = null;
+    }
+
+    /**
+     * Constructs a log which is written to a journal file. If the file exists, the commands in it
+     * are loaded first; an incomplete command at the end (e.g. after a crash) is discarded.
+     * @param journal the journal file
+     * @throws IOException if the journal cannot be opened or read
+     */
+    public CommandLog(Path journal) throws IOException {
+        mJournal = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        final ByteBuffer length = ByteBuffer.allocate(4);
+        long position = 0;
+        while (true) {
+            length.clear();
+            if (mJournal.read(length, position) < 4) break;
+            final ByteBuffer command = ByteBuffer.allocate(length.getInt(0));
+            if (mJournal.read(command, position + 4) < command.capacity()) break;
+            mCommands.add(command.array());
+            position += 4 + command.capacity();
+        }
+        mJournal.truncate(position);
+        mJournal.position(position);
+        mSynced = mCommands.size();
+    }
+
+    /**
+     * Appends a command to the log. Its sequence number should follow the last one in the log.
+     * @param command the encoded command
+     */
+    public synchronized void append(byte[] command) {
+        final long sequence = ByteBuffer.wrap(command).getLong(ReplicationProtocol.COMMAND_SEQUENCE);
+        if (sequence != mCommands.size() + 1) throw new IllegalStateException("Expected command " +
+                (mCommands.size() + 1) + " (was " + sequence + ")");
+        if (mJournal != null) {
+            final ByteBuffer frame = ByteBuffer.allocate(4 + command.length);
+            frame.putInt(command.length);
+            frame.put(command);
+            frame.flip();
+            try {
+                while (frame.hasRemaining()) mJournal.write(frame);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        mCommands.add(command);
+    }
+
+    /**
+     * Returns the command with the given sequence number.
+     * @param sequence the sequence number
+     * @return the encoded command
+     */
+    public synchronized byte[] get(long sequence) {
+        return mCommands.get((int) (sequence - 1));
+    }
+
+    /**
+     * Returns the sequence number of the last command in the log.
+     * @return the last sequence number, or 0 if the log is empty
+     */
+    public synchronized long getLastSequence() {
+        return mCommands.size();
+    }
+
+    /**
+     * Waits until the command with the given sequence number has been written to disk. Concurrent
+     * callers share a single sync of the journal. If the log has no journal, this returns
+     * immediately.
+     * @param sequence the sequence number
+     */
+    public void sync(long sequence) {
+        if (mJournal == null) return;
+        synchronized (mSyncLock) {
+            if (mSynced >= sequence) return;
+            final long last = getLastSequence();
+            try {
+                mJournal.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            mSynced = last;
+        }
+    }
+
+    public boolean isPersistent() {
+        return mJournal != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mJournal != null) mJournal.close();
+    }
+}
@@ -0,0 +1,422 @@
+package uk.co.complex.lvs.cm.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * ReplicatedMarket is the primary of a replicated market. All changes to the market go through it
+ * as commands: each command is executed on the market manager, appended to the command log (see
+ * {@link CommandLog}) and streamed to the connected backups (see {@link BackupReplica}), which
+ * execute the same commands on their own market manager. A command returns once it is
+ * acknowledged, which depends on the acknowledgement mode:
+ * - PERSISTED: once the command has been written to the journal of the log
+ * - REPLICATED: once at least one backup has received the command
+ *
+ * Invalid commands are rejected before they are logged. The primary sends heartbeats to the
+ * backups, so that they can detect its failure and one of them can be promoted.
+ *
+ * The market manager should not be changed other than through the replicated market, but its
+ * queues and book can be read, and listeners can be added.
+ */
+public class ReplicatedMarket {
+    public static final long DEFAULT_HEARTBEAT_MILLIS = 10;
+    public static final long DEFAULT_ACK_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * AckMode determines when a command is acknowledged.
+     */
+    public enum AckMode {
+        PERSISTED,
+        REPLICATED
+    }
+
+    /**
+     * BackupSession streams the log to a backup and receives its acknowledgements.
+     */
+    private class BackupSession {
+        private final Socket mSocket;
+        private final BlockingQueue<byte[]> mQueue = new LinkedBlockingQueue<>();
+
+        BackupSession(Socket socket) {
+            mSocket = socket;
+        }
+
+        void send(byte[] command) {
+            mQueue.add(command);
+        }
+
+        void start() {
+            final Thread sender = new Thread(this::sendCommands, "replication-sender");
+            sender.setDaemon(true);
+            sender.start();
+            final Thread receiver = new Thread(this::receiveAcks, "replication-receiver");
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+
+        private void sendCommands() {
+            try {
+                final DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(mSocket.getOutputStream()));
+                while (true) {
+                    byte[] command = mQueue.take();
+                    while (command != null) {
+                        out.writeInt(command.length);
+                        out.write(command);
+                        command = mQueue.poll();
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void receiveAcks() {
+            try {
+                final DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(mSocket.getInputStream()));
+                while (true) acknowledged(in.readLong());
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            mSessions.remove(this);
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private final CommandExecutor mExecutor;
+    private final MarketManager mManager;
+    private final CommandLog mLog;
+    private final AckMode mAckMode;
+    private final List<BackupSession> mSessions = new CopyOnWriteArrayList<>();
+    private final Object mAckLock = new Object();
+    private long mAcknowledged = 0;
+    private long mHeartbeatMillis = DEFAULT_HEARTBEAT_MILLIS;
+    private long mAckTimeoutMillis = DEFAULT_ACK_TIMEOUT_MILLIS;
+    private ServerSocket mServer;
+    private ScheduledExecutorService mHeartbeats;
+
+    /**
+     * Constructs the primary of a replicated market. If the log already has commands (e.g. it was
+     * loaded from a journal after a restart), they are executed first, to restore the market.
+     * @param manager the market manager, which should be in its initial state
+     * @param accounts the accounts which can trade on the market, in their initial state
+     * @param log the command log
+     * @param ackMode when commands are acknowledged
+     */
+    public ReplicatedMarket(MarketManager manager, Collection<Account> accounts, CommandLog log,
+                            AckMode ackMode) {
+        this(new CommandExecutor(manager, accounts), log, ackMode);
+        synchronized (mManager) {
+            for (long s = 1; s <= log.getLastSequence(); s++) {
+                try {
+                    mExecutor.execute(log.get(s));
+                } catch (IllegalTradeException e) {
+                    throw new IllegalStateException("Command " + s + " of the log is invalid", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructs the primary from the state of a promoted backup.
+     */
+    ReplicatedMarket(CommandExecutor executor, CommandLog log, AckMode ackMode) {
+        if (ackMode == AckMode.PERSISTED && !log.isPersistent()) {
+            throw new IllegalArgumentException("Commands can only be persisted to a log with a " +
+                    "journal");
+        }
+        mExecutor = executor;
+        mManager = executor.getManager();
+        mLog = log;
+        mAckMode = ackMode;
+    }
+
+    public MarketManager getManager() {
+        return mManager;
+    }
+
+    public void setHeartbeatMillis(long heartbeatMillis) {
+        mHeartbeatMillis = heartbeatMillis;
+    }
+
+    public void setAckTimeoutMillis(long ackTimeoutMillis) {
+        mAckTimeoutMillis = ackTimeoutMillis;
+    }
+
+    /**
+     * Starts accepting backups.
+     * @param address the address on which backups are accepted
+     * @throws IOException if the server socket cannot be opened
+     */
+    public void start(InetSocketAddress address) throws IOException {
+        mServer = new ServerSocket();
+        mServer.bind(address);
+        final Thread acceptor = new Thread(this::acceptBackups, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        mHeartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "replication-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        mHeartbeats.scheduleAtFixedRate(this::sendHeartbeats, mHeartbeatMillis, mHeartbeatMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the primary: it no longer sends heartbeats, and disconnects from its backups.
+     */
+    public void stop() {
+        if (mHeartbeats != null) mHeartbeats.shutdownNow();
+        try {
+            if (mServer != null) mServer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (BackupSession s : mSessions) s.close();
+    }
+
+    /**
+     * Returns the port on which backups are accepted.
+     * @return the replication port
+     */
+    public int getPort() {
+        return mServer.getLocalPort();
+    }
+
+    /**
+     * Returns the sequence number of the last command in the log.
+     * @return the last sequence number
+     */
+    public long getLastSequence() {
+        return mLog.getLastSequence();
+    }
+
+    /**
+     * Returns the highest sequence number which a backup has acknowledged.
+     * @return the acknowledged sequence number
+     */
+    public long getAcknowledgedSequence() {
+        synchronized (mAckLock) {
+            return mAcknowledged;
+        }
+    }
+
+    /**
+     * Returns the number of connected backups.
+     * @return the number of backups
+     */
+    public int getBackupCount() {
+        return mSessions.size();
+    }
+
+    private void acceptBackups() {
+        while (!mServer.isClosed()) {
+            try {
+                final Socket socket = mServer.accept();
+                socket.setTcpNoDelay(true);
+                final long last = new DataInputStream(socket.getInputStream()).readLong();
+                final BackupSession session = new BackupSession(socket);
+                // Hold the lock of the market, so that no command is missed or sent twice
+                synchronized (mManager) {
+                    for (long s = last + 1; s <= mLog.getLastSequence(); s++) {
+                        session.send(mLog.get(s));
+                    }
+                    mSessions.add(session);
+                }
+                session.start();
+            } catch (IOException e) {
+                if (!mServer.isClosed()) e.printStackTrace();
+            }
+        }
+    }
+
+    private void sendHeartbeats() {
+        final byte[] heartbeat = ReplicationProtocol.heartbeat(mLog.getLastSequence(), now());
+        for (BackupSession s : mSessions) s.send(heartbeat);
+    }
+
+    private void acknowledged(long sequence) {
+        synchronized (mAckLock) {
+            if (sequence > mAcknowledged) {
+                mAcknowledged = sequence;
+                mAckLock.notifyAll();
+            }
+        }
+    }
+
+    private static long now() {
+        final Instant now = Instant.now();
+        return now.getEpochSecond() * 1000000000L + now.getNano();
+    }
+
+    /**
+     * Appends a command which has been executed to the log, and sends it to the backups. This is
+     * called while holding the lock of the market manager.
+     */
+    private void append(byte[] command) {
+        mLog.append(command);
+        for (BackupSession s : mSessions) s.send(command);
+    }
+
+    /**
+     * Waits until a command is acknowledged.
+     */
+    private void awaitAck(long sequence) {
+        if (mAckMode == AckMode.PERSISTED) {
+            mLog.sync(sequence);
+            return;
+        }
+        final long deadline = System.currentTimeMillis() + mAckTimeoutMillis;
+        synchronized (mAckLock) {
+            while (mAcknowledged < sequence) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) throw new IllegalStateException("Command " + sequence +
+                        " was not acknowledged by a backup within " + mAckTimeoutMillis + " ms");
+                try {
+                    mAckLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for command " +
+                            sequence + " to be acknowledged");
+                }
+            }
+        }
+    }
+
+    /**
+     * Places a new order on the market. The identifier of the order is the sequence number of its
+     * command.
+     * @param account the name of the account which places the order
+     * @param p the product to be bought/sold
+     * @param side the side of the order
+     * @param price the price of the order
+     * @param amount the amount to be traded
+     * @return the order, after it has been matched
+     * @throws IllegalTradeException if the order is invalid
+     * @throws IllegalStateException if the command is not acknowledged in time (it has been
+     *                               executed on the primary, though)
+     */
+    public Order placeOrder(String account, Product p, Side side, float price, int amount)
+            throws IllegalTradeException {
+        final long sequence;
+        final Order order;
+        synchronized (mManager) {
+            sequence = mLog.getLastSequence() + 1;
+            final long time = now();
+            order = mExecutor.place(sequence, time, account, p.getName(), side, price, amount);
+            append(ReplicationProtocol.place(sequence, time, account, p.getName(), side, price,
+                    amount));
+        }
+        awaitAck(sequence);
+        return order;
+    }
+
+    /**
+     * Cancels an order.
+     * @param orderId the identifier of the order
+     * @return true iff the order was queued and has been cancelled
+     */
+    public boolean cancelOrder(long orderId) {
+        final long sequence;
+        final boolean cancelled;
+        synchronized (mManager) {
+            sequence = mLog.getLastSequence() + 1;
+            final long time = now();
+            cancelled = mExecutor.cancel(time, orderId);
+            append(ReplicationProtocol.cancel(sequence, time, orderId));
+        }
+        awaitAck(sequence);
+        return cancelled;
+    }
+
+    /**
+     * Changes the position of an account in a product (e.g. when the account deposits it).
+     * @param account the name of the account
+     * @param p the product
+     * @param amount the change of the position
+     * @throws IllegalTradeException if the account or the product is unknown
+     */
+    public void deposit(String account, Product p, int amount) throws IllegalTradeException {
+        final long sequence;
+        synchronized (mManager) {
+            sequence = mLog.getLastSequence() + 1;
+            final long time = now();
+            mExecutor.deposit(time, account, p.getName(), amount);
+            append(ReplicationProtocol.deposit(sequence, time, account, p.getName(), amount));
+        }
+        awaitAck(sequence);
+    }
+
+    /**
+     * Starts a call auction of a product (see {@link MarketManager#startAuction(Product)}).
+     * @param p the product
+     * @throws IllegalTradeException if the product is not listed
+     */
+    public void startAuction(Product p) throws IllegalTradeException {
+        final long sequence;
+        synchronized (mManager) {
+            sequence = mLog.getLastSequence() + 1;
+            final long time = now();
+            mExecutor.startAuction(time, p.getName());
+            append(ReplicationProtocol.auction(ReplicationProtocol.AUCTION, sequence, time,
+                    p.getName()));
+        }
+        awaitAck(sequence);
+    }
+
+    /**
+     * Uncrosses the call auction of a product (see {@link MarketManager#uncross(Product)}).
+     * @param p the product
+     * @return the trades made in the auction
+     * @throws IllegalTradeException if the product is not listed
+     */
+    public List<Trade> uncross(Product p) throws IllegalTradeException {
+        final long sequence;
+        final List<Trade> trades;
+        synchronized (mManager) {
+            sequence = mLog.getLastSequence() + 1;
+            final long time = now();
+            trades = mExecutor.uncross(time, p.getName());
+            append(ReplicationProtocol.auction(ReplicationProtocol.UNCROSS, sequence, time,
+                    p.getName()));
+        }
+        awaitAck(sequence);
+        return trades;
+    }
+}
@@ -0,0 +1,111 @@
+package uk.co.complex.lvs.cm.replication;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+/**
+ * ReplicationProtocol defines the binary encoding of the commands in the command log of a
+ * replicated market. All numbers are big-endian, and strings are encoded as their length (short)
+ * followed by their UTF-8 bytes.
+ *
+ * A command starts with its type (byte), its sequence number (long, starting at 1) and its time
+ * (long, nanoseconds since the epoch), which is the time at which the command was executed on the
+ * primary. The body depends on the type:
+ * - PLACE: account (string), product (string), side (byte, 0 = buy, 1 = sell), price (float),
+ *   amount (int). The identifier of the new order is the sequence number of the command.
+ * - CANCEL: order id (long)
+ * - DEPOSIT: account (string), product (string), amount (int)
+ * - AUCTION and UNCROSS: product (string)
+ * - HEARTBEAT: no body; its sequence number is the last sequence number of the primary. Heartbeats
+ *   are not part of the log.
+ *
+ * Over TCP, each command is framed by its length (int). A backup starts by sending the sequence
+ * number of the last command it has (long), after which the primary sends all later commands. The
+ * backup acknowledges each command by sending its sequence number (long).
+ */
+public class ReplicationProtocol {
+    public static final byte PLACE = 'P';
+    public static final byte CANCEL = 'C';
+    public static final byte DEPOSIT = 'D';
+    public static final byte AUCTION = 'A';
+    public static final byte UNCROSS = 'U';
+    public static final byte HEARTBEAT = 'H';
+
+    public static final int COMMAND_TYPE = 0;
+    public static final int COMMAND_SEQUENCE = 1;
+    public static final int COMMAND_TIME = 9;
+    public static final int COMMAND_HEADER_LENGTH = 17;
+
+    private static ByteBuffer header(byte type, long sequence, long time, int bodyLength) {
+        final ByteBuffer command = ByteBuffer.allocate(COMMAND_HEADER_LENGTH + bodyLength);
+        command.put(type);
+        command.putLong(sequence);
+        command.putLong(time);
+        return command;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] s) {
+        buffer.putShort((short) s.length);
+        buffer.put(s);
+    }
+
+    /**
+     * Reads a string at the position of the buffer, and advances the position past it.
+     */
+    public static String getString(ByteBuffer buffer) {
+        final byte[] s = new byte[buffer.getShort()];
+        buffer.get(s);
+        return new String(s, StandardCharsets.UTF_8);
+    }
+
+    public static byte[] place(long sequence, long time, String account, String product, Side side,
+                               float price, int amount) {
+        final byte[] a = bytes(account);
+        final byte[] p = bytes(product);
+        final ByteBuffer command = header(PLACE, sequence, time, 4 + a.length + p.length + 9);
+        putString(command, a);
+        putString(command, p);
+        command.put((byte) ((side == Side.BUY)? 0 : 1));
+        command.putFloat(price);
+        command.putInt(amount);
+        return command.array();
+    }
+
+    public static byte[] cancel(long sequence, long time, long orderId) {
+        final ByteBuffer command = header(CANCEL, sequence, time, 8);
+        command.putLong(orderId);
+        return command.array();
+    }
+
+    public static byte[] deposit(long sequence, long time, String account, String product,
+                                 int amount) {
+        final byte[] a = bytes(account);
+        final byte[] p = bytes(product);
+        final ByteBuffer command = header(DEPOSIT, sequence, time, 4 + a.length + p.length + 4);
+        putString(command, a);
+        putString(command, p);
+        command.putInt(amount);
+        return command.array();
+    }
+
+    public static byte[] auction(byte type, long sequence, long time, String product) {
+        final byte[] p = bytes(product);
+        final ByteBuffer command = header(type, sequence, time, 2 + p.length);
+        putString(command, p);
+        return command.array();
+    }
+
+    public static byte[] heartbeat(long sequence, long time) {
+        return header(HEARTBEAT, sequence, time, 0).array();
+    }
+
+    public static Side readSide(ByteBuffer buffer) {
+        return (buffer.get() == 0)? Side.BUY : Side.SELL;
+    }
+}
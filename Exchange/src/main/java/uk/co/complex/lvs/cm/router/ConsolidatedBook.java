@@ -0,0 +1,244 @@
+package uk.co.complex.lvs.cm.router;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.OrderListener;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * ConsolidatedBook is a consolidated view of the buy and sell queues of a product across several
+ * markets (venues). For each price it holds the total remaining amount, and how much of it is
+ * queued on each venue. The view is updated incrementally from the order events of the venues (see
+ * {@link OrderListener}), so it never has to inspect the queues of the venues after it has started.
+ */
+public class ConsolidatedBook {
+    /**
+     * Level is an (immutable) price level of the consolidated book.
+     */
+    public static class Level {
+        private final float mPrice;
+        private final long[] mQuantities;
+        private final long mTotal;
+
+        Level(float price, long[] quantities) {
+            mPrice = price;
+            mQuantities = quantities.clone();
+            long total = 0;
+            for (long q : mQuantities) total += q;
+            mTotal = total;
+        }
+
+        public float getPrice() {
+            return mPrice;
+        }
+
+        /**
+         * Returns the total remaining amount at this price across all venues.
+         * @return the total amount
+         */
+        public long getQuantity() {
+            return mTotal;
+        }
+
+        /**
+         * Returns the remaining amount at this price on a venue.
+         * @param venue the index of the venue
+         * @return the amount on the venue
+         */
+        public long getQuantity(int venue) {
+            return mQuantities[venue];
+        }
+
+        @Override
+        public String toString() {
+            return mTotal + "x" + String.format("%.2f", mPrice) + " " + Arrays.toString(mQuantities);
+        }
+    }
+
+    /**
+     * RestingOrder is the part of a queued order which the consolidated book tracks.
+     */
+    private static class RestingOrder {
+        final Product mProduct;
+        final Side mSide;
+        final float mPrice;
+        int mRemaining;
+
+        RestingOrder(Order order) {
+            mProduct = order.getProduct();
+            mSide = order.getSide();
+            mPrice = order.getPrice();
+            mRemaining = order.getRemainingAmount();
+        }
+    }
+
+    /**
+     * VenueListener follows the order events of a single venue. It is only called while the venue
+     * is locked, so it needs no further synchronization of its own.
+     */
+    private class VenueListener implements OrderListener {
+        private final int mVenue;
+        private final Map<Long, RestingOrder> mResting = new HashMap<>();
+
+        VenueListener(int venue) {
+            mVenue = venue;
+        }
+
+        @Override
+        public void orderRested(Order order) {
+            final RestingOrder resting = new RestingOrder(order);
+            mResting.put(order.getId(), resting);
+            update(mVenue, resting.mProduct, resting.mSide, resting.mPrice, resting.mRemaining);
+        }
+
+        @Override
+        public void orderCancelled(Order order) {
+            final RestingOrder resting = mResting.remove(order.getId());
+            if (resting != null) {
+                update(mVenue, resting.mProduct, resting.mSide, resting.mPrice,
+                        -resting.mRemaining);
+            }
+        }
+
+        @Override
+        public void orderAmended(Order order, float previousPrice, int previousAmount) {
+            orderCancelled(order);
+        }
+
+        @Override
+        public void tradeExecuted(Trade trade) {
+            traded(trade.getBuyOrderId(), trade);
+            traded(trade.getSellOrderId(), trade);
+        }
+
+        private void traded(long orderId, Trade trade) {
+            final RestingOrder resting = mResting.get(orderId);
+            if (resting == null || !Trade.fills(trade.getProduct(), resting.mProduct)) return;
+            final int amount = trade.getAmount();
+            resting.mRemaining -= amount;
+            if (resting.mRemaining <= 0) mResting.remove(orderId);
+            update(mVenue, resting.mProduct, resting.mSide, resting.mPrice, -amount);
+        }
+    }
+
+    private final List<MarketManager> mVenues;
+    private final List<VenueListener> mListeners = new ArrayList<>();
+    private final Map<Product, NavigableMap<Float, long[]>> mBids = new HashMap<>();
+    private final Map<Product, NavigableMap<Float, long[]>> mAsks = new HashMap<>();
+
+    /**
+     * Constructs a consolidated book of the given venues.
+     * @param venues the venues, which are identified by their index in the list
+     */
+    public ConsolidatedBook(List<MarketManager> venues) {
+        mVenues = new ArrayList<>(venues);
+    }
+
+    public List<MarketManager> getVenues() {
+        return new ArrayList<>(mVenues);
+    }
+
+    /**
+     * Starts following the venues. The orders which are already queued are added first.
+     */
+    public void start() {
+        for (int v = 0; v < mVenues.size(); v++) {
+            final MarketManager venue = mVenues.get(v);
+            final VenueListener listener = new VenueListener(v);
+            synchronized (venue) {
+                for (Product p : venue.getProducts()) {
+                    for (Order o : venue.getBuyQueue(p)) listener.orderRested(o);
+                    for (Order o : venue.getSellQueue(p)) listener.orderRested(o);
+                }
+                venue.addOrderListener(listener);
+            }
+            mListeners.add(listener);
+        }
+    }
+
+    /**
+     * Stops following the venues.
+     */
+    public void stop() {
+        for (int v = 0; v < mListeners.size(); v++) {
+            mVenues.get(v).removeOrderListener(mListeners.get(v));
+        }
+        mListeners.clear();
+    }
+
+    private NavigableMap<Float, long[]> levels(Product p, Side side) {
+        if (side == Side.BUY) {
+            return mBids.computeIfAbsent(p, k -> new TreeMap<>(Collections.reverseOrder()));
+        } else {
+            return mAsks.computeIfAbsent(p, k -> new TreeMap<>());
+        }
+    }
+
+    private synchronized void update(int venue, Product p, Side side, float price, long change) {
+        final NavigableMap<Float, long[]> levels = levels(p, side);
+        long[] quantities = levels.get(price);
+        if (quantities == null) {
+            quantities = new long[mVenues.size()];
+            levels.put(price, quantities);
+        }
+        quantities[venue] += change;
+        for (long q : quantities) {
+            if (q > 0) return;
+        }
+        levels.remove(price);
+    }
+
+    /**
+     * Returns the best level of a side of a product.
+     * @param p the product
+     * @param side the side
+     * @return the best level, or null if the side is empty on all venues
+     */
+    public synchronized Level getBest(Product p, Side side) {
+        final Map.Entry<Float, long[]> best = levels(p, side).firstEntry();
+        return (best == null)? null : new Level(best.getKey(), best.getValue());
+    }
+
+    /**
+     * Returns the best levels of a side of a product, best price first.
+     * @param p the product
+     * @param side the side
+     * @param maxLevels the maximum number of levels
+     * @return the levels
+     */
+    public synchronized List<Level> getDepth(Product p, Side side, int maxLevels) {
+        final List<Level> depth = new ArrayList<>();
+        for (Map.Entry<Float, long[]> level : levels(p, side).entrySet()) {
+            if (depth.size() == maxLevels) break;
+            depth.add(new Level(level.getKey(), level.getValue()));
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the levels of a side of a product which are at the given price or better, best price
+     * first. These are the levels with which an opposite order at that price would trade.
+     * @param p the product
+     * @param side the side
+     * @param price the price
+     * @return the levels
+     */
+    public synchronized List<Level> getDepthTo(Product p, Side side, float price) {
+        final List<Level> depth = new ArrayList<>();
+        for (Map.Entry<Float, long[]> level : levels(p, side).headMap(price, true).entrySet()) {
+            depth.add(new Level(level.getKey(), level.getValue()));
+        }
+        return depth;
+    }
+}
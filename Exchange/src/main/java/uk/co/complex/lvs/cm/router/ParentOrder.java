@@ -0,0 +1,145 @@
+package uk.co.complex.lvs.cm.router;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+
+/**
+ * ParentOrder is an order which the {@link SmartOrderRouter} has split into child orders on
+ * several venues. It aggregates the fills of its children into a single status.
+ */
+public class ParentOrder {
+    private final Account mActor;
+    private final Product mProduct;
+    private final Side mSide;
+    private final float mPrice;
+    private final int mAmount;
+    private final Map<Order, MarketManager> mChildren = new LinkedHashMap<>();
+    private int mFilled = 0;
+    private double mNotional = 0;
+    private int mCancelled = 0;
+    private int mRejected = 0;
+
+    ParentOrder(Account actor, Product product, Side side, float price, int amount) {
+        mActor = actor;
+        mProduct = product;
+        mSide = side;
+        mPrice = price;
+        mAmount = amount;
+    }
+
+    public Account getActor() {
+        return mActor;
+    }
+
+    public Product getProduct() {
+        return mProduct;
+    }
+
+    public Side getSide() {
+        return mSide;
+    }
+
+    public float getPrice() {
+        return mPrice;
+    }
+
+    public int getAmount() {
+        return mAmount;
+    }
+
+    synchronized void addChild(Order child, MarketManager venue) {
+        mChildren.put(child, venue);
+    }
+
+    synchronized void filled(int amount, float price) {
+        mFilled += amount;
+        mNotional += (double) amount * price;
+    }
+
+    synchronized void cancelled(int amount) {
+        mCancelled += amount;
+    }
+
+    synchronized void rejected(int amount) {
+        mRejected += amount;
+    }
+
+    /**
+     * Returns the child orders.
+     * @return the child orders
+     */
+    public synchronized List<Order> getChildren() {
+        return new ArrayList<>(mChildren.keySet());
+    }
+
+    /**
+     * Returns the amount which has been traded across all venues.
+     * @return the filled amount
+     */
+    public synchronized int getFilledAmount() {
+        return mFilled;
+    }
+
+    /**
+     * Returns the amount which is still queued on the venues.
+     * @return the remaining amount
+     */
+    public synchronized int getRemainingAmount() {
+        return mAmount - mFilled - mCancelled - mRejected;
+    }
+
+    /**
+     * Returns the amount of the child orders which were rejected by their venue.
+     * @return the rejected amount
+     */
+    public synchronized int getRejectedAmount() {
+        return mRejected;
+    }
+
+    /**
+     * Returns the average price of the fills.
+     * @return the average price, or 0 if nothing has been filled
+     */
+    public synchronized double getAveragePrice() {
+        return (mFilled == 0)? 0 : mNotional / mFilled;
+    }
+
+    /**
+     * Returns the status of the parent order. It is completed when its amount has been filled, and
+     * cancelled when nothing remains queued but not all of it has been filled.
+     * @return the status
+     */
+    public synchronized Status getStatus() {
+        if (mFilled == mAmount) return Status.COMPLETED;
+        if (getRemainingAmount() == 0) return Status.CANCELLED;
+        return (mFilled > 0)? Status.PARTIAL : Status.NEW;
+    }
+
+    /**
+     * Cancels all child orders which are still queued.
+     */
+    public void cancel() {
+        final Map<Order, MarketManager> children;
+        synchronized (this) {
+            children = new LinkedHashMap<>(mChildren);
+        }
+        // The venues notify this order of the cancels, so it must not be locked meanwhile
+        children.forEach((child, venue) -> venue.cancelOrder(child));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return ((mSide == Side.BUY)? "Buy " : "Sell ") + mProduct.getName() + " from " +
+                mActor.getName() + ": (" + mFilled + "/" + mAmount + ")x" +
+                String.format("%.2f", mPrice) + " in " + mChildren.size() + " children";
+    }
+}
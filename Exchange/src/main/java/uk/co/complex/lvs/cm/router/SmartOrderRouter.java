@@ -0,0 +1,192 @@
+package uk.co.complex.lvs.cm.router;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.OrderListener;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+/**
+ * SmartOrderRouter is a single entry point to several markets (venues) which list overlapping
+ * products. It splits an order into child orders on the venues, by the best available prices in
+ * its {@link ConsolidatedBook}: the order takes the liquidity of the venues level by level, up to
+ * its limit price. Whatever cannot be filled immediately is added to the child order of the venue
+ * with the largest allocation (or, if there is none, the first venue which lists the product), so
+ * that it is queued there.
+ *
+ * The child orders are placed on their venues in parallel, and their fills are aggregated into the
+ * {@link ParentOrder}. As the consolidated book may be slightly behind the venues, a child order
+ * which finds less liquidity than expected is queued at the limit price on its venue.
+ */
+public class SmartOrderRouter {
+    /**
+     * Child is a child order which is still open on a venue.
+     */
+    private static class Child {
+        final ParentOrder mParent;
+        final Product mProduct;
+        int mRemaining;
+
+        Child(Order order, ParentOrder parent) {
+            mParent = parent;
+            mProduct = order.getProduct();
+            mRemaining = order.getAmount();
+        }
+    }
+
+    /**
+     * FillListener follows the fills and cancels of the open child orders on a venue.
+     */
+    private static class FillListener implements OrderListener {
+        private final Map<Long, Child> mChildren = new ConcurrentHashMap<>();
+
+        @Override
+        public void tradeExecuted(Trade trade) {
+            filled(trade.getBuyOrderId(), trade);
+            filled(trade.getSellOrderId(), trade);
+        }
+
+        private void filled(long orderId, Trade trade) {
+            final Child child = mChildren.get(orderId);
+            if (child == null || !Trade.fills(trade.getProduct(), child.mProduct)) return;
+            child.mParent.filled(trade.getAmount(), trade.getPrice());
+            // The status of the order is already final, as all its trades are notified after
+            // matching, so the fills are counted down instead
+            child.mRemaining -= trade.getAmount();
+            if (child.mRemaining <= 0) mChildren.remove(orderId);
+        }
+
+        @Override
+        public void orderCancelled(Order order) {
+            final Child child = mChildren.remove(order.getId());
+            if (child != null) child.mParent.cancelled(order.getRemainingAmount());
+        }
+    }
+
+    private final List<MarketManager> mVenues;
+    private final ConsolidatedBook mBook;
+    private final Executor mExecutor;
+    private final List<FillListener> mFillListeners = new ArrayList<>();
+
+    /**
+     * Constructs a router for the given venues.
+     * @param venues the venues
+     * @param executor the executor on which the child orders are placed
+     */
+    public SmartOrderRouter(List<MarketManager> venues, Executor executor) {
+        mVenues = new ArrayList<>(venues);
+        mBook = new ConsolidatedBook(venues);
+        mExecutor = executor;
+    }
+
+    /**
+     * Starts following the venues.
+     */
+    public void start() {
+        mBook.start();
+        for (MarketManager venue : mVenues) {
+            final FillListener listener = new FillListener();
+            venue.addOrderListener(listener);
+            mFillListeners.add(listener);
+        }
+    }
+
+    /**
+     * Stops following the venues. Parent orders are no longer updated.
+     */
+    public void stop() {
+        mBook.stop();
+        for (int v = 0; v < mFillListeners.size(); v++) {
+            mVenues.get(v).removeOrderListener(mFillListeners.get(v));
+        }
+        mFillListeners.clear();
+    }
+
+    public ConsolidatedBook getBook() {
+        return mBook;
+    }
+
+    /**
+     * Routes an order to the venues. This returns once all child orders have been placed.
+     * @param actor the account which places the order
+     * @param p the product to be bought/sold
+     * @param side the side of the order
+     * @param price the limit price of the order
+     * @param amount the amount to be traded
+     * @return the parent order
+     * @throws IllegalTradeException if the amount is not positive or no venue lists the product
+     */
+    public ParentOrder route(Account actor, Product p, Side side, float price, int amount)
+            throws IllegalTradeException {
+        if (amount <= 0) throw new IllegalTradeException("The trade should have a positive " +
+                "amount of units (had " + amount + ")");
+
+        final int[] allocation = allocate(p, side, price, amount);
+        final ParentOrder parent = new ParentOrder(actor, p, side, price, amount);
+        final OffsetDateTime time = OffsetDateTime.now();
+        final List<CompletableFuture<Void>> dispatches = new ArrayList<>();
+        for (int v = 0; v < mVenues.size(); v++) {
+            if (allocation[v] == 0) continue;
+            final MarketManager venue = mVenues.get(v);
+            final FillListener listener = mFillListeners.get(v);
+            final Order child = new Order(p, price, allocation[v], actor, side, time);
+            parent.addChild(child, venue);
+            listener.mChildren.put(child.getId(), new Child(child, parent));
+            dispatches.add(CompletableFuture.runAsync(() -> place(venue, listener, child, parent),
+                    mExecutor));
+        }
+        CompletableFuture.allOf(dispatches.toArray(new CompletableFuture<?>[0])).join();
+        return parent;
+    }
+
+    private static void place(MarketManager venue, FillListener listener, Order child,
+                              ParentOrder parent) {
+        try {
+            venue.placeOrder(child);
+        } catch (IllegalTradeException e) {
+            listener.mChildren.remove(child.getId());
+            parent.rejected(child.getAmount());
+        }
+    }
+
+    /**
+     * Allocates the amount of an order to the venues, by the liquidity on the opposite side.
+     */
+    private int[] allocate(Product p, Side side, float price, int amount)
+            throws IllegalTradeException {
+        final int[] allocation = new int[mVenues.size()];
+        int remaining = amount;
+        final Side opposite = (side == Side.BUY)? Side.SELL : Side.BUY;
+        for (ConsolidatedBook.Level level : mBook.getDepthTo(p, opposite, price)) {
+            for (int v = 0; v < allocation.length && remaining > 0; v++) {
+                final int take = (int) Math.min(remaining, level.getQuantity(v));
+                allocation[v] += take;
+                remaining -= take;
+            }
+            if (remaining == 0) break;
+        }
+
+        if (remaining > 0) {
+            int venue = -1;
+            for (int v = 0; v < allocation.length; v++) {
+                if (!mVenues.get(v).getProducts().contains(p)) continue;
+                if (venue == -1 || allocation[v] > allocation[venue]) venue = v;
+            }
+            if (venue == -1) throw new IllegalTradeException("The product to be traded is not " +
+                    "listed on any venue (was " + p.getName() + ")");
+            allocation[venue] += remaining;
+        }
+        return allocation;
+    }
+}
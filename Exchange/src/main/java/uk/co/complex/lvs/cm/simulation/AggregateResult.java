@@ -0,0 +1,150 @@
+package uk.co.complex.lvs.cm.simulation;
+
+/**
+ * AggregateResult summarises the results of many simulated sessions of the same configuration.
+ * Results of parts of a Monte Carlo run are merged into one, so the summary of the whole run does
+ * not depend on which sessions ran on which thread.
+ */
+public final class AggregateResult {
+    private final double[] mPriceSums;
+    private final int[] mPriceCounts;
+    private int mRuns;
+    private double mVolumeSum;
+    private double mVolumeSquares;
+    private long mTrades;
+    private long mOrders;
+    private long mRejected;
+    private double mSpreadSum;
+    private int mSpreadRuns;
+    private double mFillRateSum;
+    private int mFillRateRuns;
+
+    AggregateResult(int samples) {
+        mPriceSums = new double[samples];
+        mPriceCounts = new int[samples];
+    }
+
+    /**
+     * Adds the result of a session.
+     */
+    void add(SimulationResult result) {
+        final float[] prices = result.getPricePath();
+        if (prices.length != mPriceSums.length) {
+            throw new IllegalArgumentException("The session has " + prices.length +
+                    " samples instead of " + mPriceSums.length);
+        }
+        for (int i = 0; i < prices.length; i++) {
+            if (Float.isNaN(prices[i])) continue;
+            mPriceSums[i] += prices[i];
+            mPriceCounts[i]++;
+        }
+        mRuns++;
+        mVolumeSum += result.getVolume();
+        mVolumeSquares += (double) result.getVolume() * result.getVolume();
+        mTrades += result.getTradeCount();
+        mOrders += result.getOrderCount();
+        mRejected += result.getRejectedCount();
+        if (!Double.isNaN(result.getMeanSpread())) {
+            mSpreadSum += result.getMeanSpread();
+            mSpreadRuns++;
+        }
+        if (!Double.isNaN(result.getFillRate())) {
+            mFillRateSum += result.getFillRate();
+            mFillRateRuns++;
+        }
+    }
+
+    /**
+     * Adds the results of other sessions.
+     */
+    void merge(AggregateResult other) {
+        if (other.mPriceSums.length != mPriceSums.length) {
+            throw new IllegalArgumentException("The results have a different number of samples");
+        }
+        for (int i = 0; i < mPriceSums.length; i++) {
+            mPriceSums[i] += other.mPriceSums[i];
+            mPriceCounts[i] += other.mPriceCounts[i];
+        }
+        mRuns += other.mRuns;
+        mVolumeSum += other.mVolumeSum;
+        mVolumeSquares += other.mVolumeSquares;
+        mTrades += other.mTrades;
+        mOrders += other.mOrders;
+        mRejected += other.mRejected;
+        mSpreadSum += other.mSpreadSum;
+        mSpreadRuns += other.mSpreadRuns;
+        mFillRateSum += other.mFillRateSum;
+        mFillRateRuns += other.mFillRateRuns;
+    }
+
+    public int getRuns() {
+        return mRuns;
+    }
+
+    public long getTradeCount() {
+        return mTrades;
+    }
+
+    public long getOrderCount() {
+        return mOrders;
+    }
+
+    public long getRejectedCount() {
+        return mRejected;
+    }
+
+    /**
+     * Returns the mean volume of a session.
+     * @return the mean volume, or NaN if there were no sessions
+     */
+    public double getMeanVolume() {
+        return (mRuns == 0)? Double.NaN : mVolumeSum / mRuns;
+    }
+
+    /**
+     * Returns the standard deviation of the volume of a session.
+     * @return the standard deviation, or NaN if there were no sessions
+     */
+    public double getVolumeStdDev() {
+        if (mRuns == 0) return Double.NaN;
+        final double mean = mVolumeSum / mRuns;
+        return Math.sqrt(Math.max(0, mVolumeSquares / mRuns - mean * mean));
+    }
+
+    /**
+     * Returns the mean of the mean spreads of the sessions in which a spread was observed.
+     * @return the mean spread, or NaN if no spread was observed
+     */
+    public double getMeanSpread() {
+        return (mSpreadRuns == 0)? Double.NaN : mSpreadSum / mSpreadRuns;
+    }
+
+    /**
+     * Returns the mean of the fill rates of the sessions.
+     * @return the mean fill rate, or NaN if no orders were accepted
+     */
+    public double getMeanFillRate() {
+        return (mFillRateRuns == 0)? Double.NaN : mFillRateSum / mFillRateRuns;
+    }
+
+    /**
+     * Returns the mean price path: for each sample, the mean of the last trade prices of the
+     * sessions which had traded by then.
+     * @return the mean price path, with NaN for the samples before any session traded
+     */
+    public double[] getMeanPricePath() {
+        final double[] path = new double[mPriceSums.length];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = (mPriceCounts[i] == 0)? Double.NaN : mPriceSums[i] / mPriceCounts[i];
+        }
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d runs: volume %.1f (sd %.1f), %d trades, %d orders " +
+                        "(%d rejected), spread %.3f, fill rate %.3f", mRuns, getMeanVolume(),
+                getVolumeStdDev(), mTrades, mOrders, mRejected, getMeanSpread(),
+                getMeanFillRate());
+    }
+}
@@ -0,0 +1,148 @@
+package uk.co.complex.lvs.cm.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * MonteCarloRunner runs many independent simulated sessions in parallel on a fork-join pool, and
+ * aggregates their results. Each session has its own market manager and clock, so the sessions
+ * share no state and need no locking between them.
+ *
+ * The seed of each session is derived from the seed of the run and the index of the session, and
+ * the sessions are split over the tasks and merged in a fixed order. A run therefore gives the
+ * same result for the same seed, whatever the parallelism of the pool.
+ */
+public class MonteCarloRunner {
+    private final ForkJoinPool mPool;
+    private volatile Consumer<SimulationResult> mListener;
+
+    /**
+     * Constructs a runner with a thread per available processor.
+     */
+    public MonteCarloRunner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a runner with a given number of threads.
+     * @param parallelism the number of threads
+     */
+    public MonteCarloRunner(int parallelism) {
+        mPool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Sets a listener which receives the result of each session as soon as it is done. It is
+     * called from the threads of the pool, in no particular order.
+     * @param listener the listener, or null for none
+     */
+    public void setListener(Consumer<SimulationResult> listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Runs a number of sessions of the same configuration.
+     * @param config the configuration of the sessions
+     * @param runs the number of sessions
+     * @param seed the seed of the run
+     * @return the aggregated results of the sessions
+     */
+    public AggregateResult run(SimulationConfig config, int runs, long seed) {
+        return run(i -> config, runs, seed);
+    }
+
+    /**
+     * Runs a number of sessions, each of which may have a configuration of its own, e.g. to sweep
+     * a parameter. All configurations should have the same number of samples.
+     * @param configs the configuration of each session, by its index
+     * @param runs the number of sessions
+     * @param seed the seed of the run
+     * @return the aggregated results of the sessions
+     */
+    public AggregateResult run(IntFunction<SimulationConfig> configs, int runs, long seed) {
+        if (runs <= 0) throw new IllegalArgumentException("A run needs at least one session");
+        final long[] seeds = new long[runs];
+        final Random random = new Random(seed);
+        for (int i = 0; i < runs; i++) {
+            seeds[i] = random.nextLong();
+        }
+        return mPool.invoke(new Sessions(configs, seeds, 0, runs));
+    }
+
+    /**
+     * Shuts down the threads of the runner.
+     */
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    /**
+     * Runs sessions from the first index up to (but excluding) the last, by splitting them in
+     * halves until a single session is left.
+     */
+    private final class Sessions extends RecursiveTask<AggregateResult> {
+        private static final long serialVersionUID = 1L;
+
+        private final IntFunction<SimulationConfig> mConfigs;
+        private final long[] mSeeds;
+        private final int mFrom;
+        private final int mTo;
+
+        private Sessions(IntFunction<SimulationConfig> configs, long[] seeds, int from, int to) {
+            mConfigs = configs;
+            mSeeds = seeds;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected AggregateResult compute() {
+            if (mTo - mFrom == 1) {
+                final SimulationConfig config = mConfigs.apply(mFrom);
+                final SimulationResult result = new Simulation(config, mSeeds[mFrom]).run();
+                final Consumer<SimulationResult> listener = mListener;
+                if (listener != null) listener.accept(result);
+                final AggregateResult aggregate = new AggregateResult(config.getSampleCount());
+                aggregate.add(result);
+                return aggregate;
+            }
+            final int middle = (mFrom + mTo) >>> 1;
+            final Sessions left = new Sessions(mConfigs, mSeeds, mFrom, middle);
+            left.fork();
+            final AggregateResult right = new Sessions(mConfigs, mSeeds, middle, mTo).compute();
+            final AggregateResult result = left.join();
+            result.merge(right);
+            return result;
+        }
+    }
+
+    /**
+     * Runs a number of sessions of a market with ten random traders, and prints the results.
+     * @param args the number of sessions (default 200), and the seed (default 42)
+     */
+    public static void main(String[] args) {
+        final int runs = (args.length > 0)? Integer.parseInt(args[0]) : 200;
+        final long seed = (args.length > 1)? Long.parseLong(args[1]) : 42;
+        final List<TraderParameters> traders = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            traders.add(new TraderParameters(95.0f, 105.0f, 1, 50, 100, 2000, 500));
+        }
+        final SimulationConfig config = new SimulationConfig(traders, 3_600_000L, 60_000L);
+        final MonteCarloRunner runner = new MonteCarloRunner();
+        final long start = System.nanoTime();
+        final AggregateResult result = runner.run(config, runs, seed);
+        final long millis = (System.nanoTime() - start) / 1_000_000;
+        runner.shutdown();
+        System.out.println(result);
+        System.out.println("Simulated " + runs + " hours of trading in " + millis + " ms");
+        final double[] path = result.getMeanPricePath();
+        for (int i = 9; i < path.length; i += 10) {
+            System.out.printf("Mean price after %d minutes: %.3f%n", i + 1, path[i]);
+        }
+    }
+}
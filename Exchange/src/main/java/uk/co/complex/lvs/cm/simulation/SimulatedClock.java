@@ -0,0 +1,42 @@
+package uk.co.complex.lvs.cm.simulation;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * SimulatedClock is a clock which only moves when the simulation advances it, so that a session
+ * takes as long as its events take to process rather than its simulated length.
+ */
+class SimulatedClock extends Clock {
+    private long mMillis;
+
+    SimulatedClock(long startMillis) {
+        mMillis = startMillis;
+    }
+
+    void set(long millis) {
+        mMillis = millis;
+    }
+
+    @Override
+    public long millis() {
+        return mMillis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(mMillis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        throw new UnsupportedOperationException("A simulated clock is always in UTC");
+    }
+}
@@ -0,0 +1,124 @@
+package uk.co.complex.lvs.cm.simulation;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.OrderListener;
+import uk.co.complex.lvs.cm.TopOfBook;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+import uk.co.complex.lvs.cm.traders.RandomIntervalProductTrader;
+
+/**
+ * Simulation runs a single trading session on a market manager of its own. The random traders of
+ * the session are driven by a discrete event loop on simulated time, rather than by threads which
+ * sleep: each trader is scheduled at the time of its next order, the clock of the market is set to
+ * that time, and the order is placed. A session is therefore repeatable given its seed, and takes
+ * only as long as its orders take to match.
+ */
+public final class Simulation implements OrderListener {
+    /** The simulated start of each session. */
+    static final Instant START = Instant.parse("2018-01-02T09:00:00Z");
+
+    private final SimulationConfig mConfig;
+    private final long mSeed;
+    private final Product mProduct = new Product("SIM");
+    private final MarketManager mManager = new MarketManager(Arrays.asList(mProduct));
+    private final SimulatedClock mClock = new SimulatedClock(START.toEpochMilli());
+    private final List<RandomIntervalProductTrader> mTraders = new ArrayList<>();
+    private float mLastPrice = Float.NaN;
+    private long mVolume;
+    private long mTrades;
+
+    /**
+     * Constructs a session.
+     * @param config the configuration of the session
+     * @param seed the seed from which the traders draw their orders
+     */
+    public Simulation(SimulationConfig config, long seed) {
+        mConfig = config;
+        mSeed = seed;
+        mManager.setClock(mClock);
+        mManager.addOrderListener(this);
+        final Random seeds = new Random(seed);
+        int i = 0;
+        for (TraderParameters t : config.getTraders()) {
+            final Account account = new Account("Trader" + i++);
+            account.updateBook(mProduct, t.getPosition());
+            mTraders.add(new RandomIntervalProductTrader(account, mProduct, mManager,
+                    t.getMinValue(), t.getMaxValue(), t.getMinAmount(), t.getMaxAmount(),
+                    t.getMinWait(), t.getMaxWait(), new Random(seeds.nextLong())));
+        }
+    }
+
+    @Override
+    public void tradeExecuted(Trade trade) {
+        mLastPrice = trade.getPrice();
+        mVolume += trade.getAmount();
+        mTrades++;
+    }
+
+    /**
+     * Runs the session from start to end.
+     * @return the statistics of the session
+     */
+    public SimulationResult run() {
+        final long start = START.toEpochMilli();
+        final float[] prices = new float[mConfig.getSampleCount()];
+        int sample = 0;
+        double spreads = 0;
+        int spreadSamples = 0;
+        long orders = 0;
+        long rejected = 0;
+        long orderedAmount = 0;
+
+        // Each event is the time of the next order of a trader, and the index of the trader
+        final PriorityQueue<long[]> events = new PriorityQueue<>(mTraders.size(),
+                (a, b) -> (a[0] != b[0])? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        for (int i = 0; i < mTraders.size(); i++) {
+            events.add(new long[] {start + mTraders.get(i).nextWait(), i});
+        }
+        while (sample < prices.length) {
+            final long[] event = events.peek();
+            final long sampleTime = start + (sample + 1) * mConfig.getSampleMillis();
+            if (event[0] > sampleTime) {
+                // All the orders up to the sample time have been placed
+                prices[sample++] = mLastPrice;
+                final TopOfBook top = mManager.getTopOfBook(mProduct);
+                if (top.hasBid() && top.hasAsk()) {
+                    spreads += top.getAskPrice() - top.getBidPrice();
+                    spreadSamples++;
+                }
+                continue;
+            }
+            events.poll();
+            final RandomIntervalProductTrader trader = mTraders.get((int) event[1]);
+            mClock.set(event[0]);
+            final Order order = trader.nextOrder(
+                    OffsetDateTime.ofInstant(Instant.ofEpochMilli(event[0]), ZoneOffset.UTC));
+            if (order != null) {
+                orders++;
+                try {
+                    mManager.placeOrder(order);
+                    orderedAmount += order.getAmount();
+                } catch (IllegalTradeException e) {
+                    rejected++;
+                }
+            }
+            event[0] += trader.nextWait();
+            events.add(event);
+        }
+        return new SimulationResult(mSeed, prices, mVolume, mTrades, orders, rejected,
+                orderedAmount, (spreadSamples == 0)? Double.NaN : spreads / spreadSamples);
+    }
+}
@@ -0,0 +1,53 @@
+package uk.co.complex.lvs.cm.simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SimulationConfig describes a simulated trading session: the random traders of a single product,
+ * how long the session lasts in simulated time, and how often the state of the market is sampled.
+ */
+public final class SimulationConfig {
+    private final List<TraderParameters> mTraders;
+    private final long mDurationMillis;
+    private final long mSampleMillis;
+
+    /**
+     * Constructs the configuration of a session.
+     * @param traders the parameters of each trader
+     * @param durationMillis the length of the session, in simulated milliseconds
+     * @param sampleMillis the time between two samples of the market, in simulated milliseconds
+     */
+    public SimulationConfig(List<TraderParameters> traders, long durationMillis,
+                            long sampleMillis) {
+        if (traders.isEmpty()) throw new IllegalArgumentException("A session needs traders");
+        if (sampleMillis <= 0 || durationMillis < sampleMillis) {
+            throw new IllegalArgumentException("The session should last at least one sample " +
+                    "(was " + durationMillis + " ms with samples every " + sampleMillis + " ms)");
+        }
+        mTraders = Collections.unmodifiableList(new ArrayList<>(traders));
+        mDurationMillis = durationMillis;
+        mSampleMillis = sampleMillis;
+    }
+
+    public List<TraderParameters> getTraders() {
+        return mTraders;
+    }
+
+    public long getDurationMillis() {
+        return mDurationMillis;
+    }
+
+    public long getSampleMillis() {
+        return mSampleMillis;
+    }
+
+    /**
+     * Returns the number of samples taken in a session.
+     * @return the number of samples
+     */
+    public int getSampleCount() {
+        return (int) (mDurationMillis / mSampleMillis);
+    }
+}
@@ -0,0 +1,95 @@
+package uk.co.complex.lvs.cm.simulation;
+
+import java.util.Arrays;
+
+/**
+ * SimulationResult holds the statistics of a single simulated session.
+ */
+public final class SimulationResult {
+    private final long mSeed;
+    private final float[] mPricePath;
+    private final long mVolume;
+    private final long mTrades;
+    private final long mOrders;
+    private final long mRejected;
+    private final long mOrderedAmount;
+    private final double mMeanSpread;
+
+    SimulationResult(long seed, float[] pricePath, long volume, long trades, long orders,
+                     long rejected, long orderedAmount, double meanSpread) {
+        mSeed = seed;
+        mPricePath = pricePath;
+        mVolume = volume;
+        mTrades = trades;
+        mOrders = orders;
+        mRejected = rejected;
+        mOrderedAmount = orderedAmount;
+        mMeanSpread = meanSpread;
+    }
+
+    /**
+     * Returns the seed from which the traders of the session drew their orders.
+     * @return the seed
+     */
+    public long getSeed() {
+        return mSeed;
+    }
+
+    /**
+     * Returns the last trade price at each sample of the session.
+     * @return the price path, with NaN for the samples before the first trade
+     */
+    public float[] getPricePath() {
+        return Arrays.copyOf(mPricePath, mPricePath.length);
+    }
+
+    /**
+     * Returns the total amount traded.
+     * @return the volume
+     */
+    public long getVolume() {
+        return mVolume;
+    }
+
+    /**
+     * Returns the number of trades.
+     * @return the number of trades
+     */
+    public long getTradeCount() {
+        return mTrades;
+    }
+
+    /**
+     * Returns the number of orders placed, including rejected orders.
+     * @return the number of orders
+     */
+    public long getOrderCount() {
+        return mOrders;
+    }
+
+    /**
+     * Returns the number of orders rejected by the market.
+     * @return the number of rejected orders
+     */
+    public long getRejectedCount() {
+        return mRejected;
+    }
+
+    /**
+     * Returns the mean spread between the best offer and the best bid, over the samples at which
+     * both were present.
+     * @return the mean spread, or NaN if both sides were never present at once
+     */
+    public double getMeanSpread() {
+        return mMeanSpread;
+    }
+
+    /**
+     * Returns the fraction of the amount of the accepted orders which was filled. Each trade fills
+     * its amount of both a buy and a sell order.
+     * @return the fill rate, or NaN if no orders were accepted
+     */
+    public double getFillRate() {
+        return (mOrderedAmount == 0)? Double.NaN : 2.0 * mVolume / mOrderedAmount;
+    }
+}
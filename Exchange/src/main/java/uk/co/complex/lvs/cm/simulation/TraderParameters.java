@@ -0,0 +1,75 @@
+package uk.co.complex.lvs.cm.simulation;
+
+/**
+ * TraderParameters describes a random trader of a simulation (see
+ * {@link uk.co.complex.lvs.cm.traders.RandomIntervalProductTrader}): the ranges from which it
+ * draws the price and amount of its orders and the time between them, and the amount of the
+ * product it holds at the start.
+ */
+public final class TraderParameters {
+    private final float mMinValue;
+    private final float mMaxValue;
+    private final int mMinAmount;
+    private final int mMaxAmount;
+    private final int mMinWait;
+    private final int mMaxWait;
+    private final int mPosition;
+
+    /**
+     * Constructs the parameters of a random trader.
+     * @param minValue the minimum of the order price
+     * @param maxValue the maximum of the order price
+     * @param minAmount the minimum of the order amount
+     * @param maxAmount the maximum of the order amount (exclusive)
+     * @param minWait the minimum time (in milliseconds) between orders
+     * @param maxWait the maximum time (in milliseconds) between orders (exclusive)
+     * @param position the amount of the product which the trader holds at the start
+     */
+    public TraderParameters(float minValue, float maxValue, int minAmount, int maxAmount,
+                            int minWait, int maxWait, int position) {
+        if (!(minValue < maxValue)) throw new IllegalArgumentException("The price range is " +
+                "empty (was " + minValue + " to " + maxValue + ")");
+        if (minAmount <= 0 || maxAmount <= minAmount) throw new IllegalArgumentException("The " +
+                "amount range is empty or not positive (was " + minAmount + " to " + maxAmount +
+                ")");
+        if (minWait <= 0 || maxWait <= minWait) throw new IllegalArgumentException("The wait " +
+                "range is empty or not positive (was " + minWait + " to " + maxWait + ")");
+        if (position < 0) throw new IllegalArgumentException("The position cannot be negative " +
+                "(was " + position + ")");
+        mMinValue = minValue;
+        mMaxValue = maxValue;
+        mMinAmount = minAmount;
+        mMaxAmount = maxAmount;
+        mMinWait = minWait;
+        mMaxWait = maxWait;
+        mPosition = position;
+    }
+
+    public float getMinValue() {
+        return mMinValue;
+    }
+
+    public float getMaxValue() {
+        return mMaxValue;
+    }
+
+    public int getMinAmount() {
+        return mMinAmount;
+    }
+
+    public int getMaxAmount() {
+        return mMaxAmount;
+    }
+
+    public int getMinWait() {
+        return mMinWait;
+    }
+
+    public int getMaxWait() {
+        return mMaxWait;
+    }
+
+    public int getPosition() {
+        return mPosition;
+    }
+}
@@ -21,8 +21,10 @@ public class RandomIntervalProductTrader {
     private final float mMaxValue;
     private final int mMinAmount;
     private final int mMaxAmount;
+    private final int mMinWait;
+    private final int mMaxWait;
     private final Thread tradingThread;
-    private final Random rnd = new Random();
+    private final Random rnd;
 
     private boolean stop = false;
 
@@ -45,6 +47,27 @@ public class RandomIntervalProductTrader {
     public RandomIntervalProductTrader(Account account, Product product, MarketManager market,
                             float minValue, float maxValue, int minAmount,
                             int maxAmount, int minWait, int maxWait) {
+        this(account, product, market, minValue, maxValue, minAmount, maxAmount, minWait, maxWait,
+                new Random());
+    }
+
+    /**
+     * Constructs a new random trader which draws its orders and waiting times from a given source
+     * of randomness, e.g. a seeded one to make a simulation repeatable.
+     * @param account the account of the trader
+     * @param product the product to trade in
+     * @param market the market to trade in
+     * @param minValue the minimum of the order price
+     * @param maxValue the maximum of the order price
+     * @param minAmount the minimum of the order amount
+     * @param maxAmount the maximum of the order amount
+     * @param minWait the minimum time (in milliseconds) to wait between order placements
+     * @param maxWait the maximum time (in milliseconds) to wait between order placements
+     * @param random the source of randomness
+     */
+    public RandomIntervalProductTrader(Account account, Product product, MarketManager market,
+                            float minValue, float maxValue, int minAmount,
+                            int maxAmount, int minWait, int maxWait, Random random) {
         mAccount = account;
         mProduct = product;
         mManager = market;
@@ -52,11 +75,14 @@ public class RandomIntervalProductTrader {
         mMaxValue = maxValue;
         mMinAmount = minAmount;
         mMaxAmount = maxAmount;
+        mMinWait = minWait;
+        mMaxWait = maxWait;
+        rnd = random;
 
         tradingThread = new Thread(() -> {
             while (true) {
                 if (stop) return;
-                final int waitTime = rnd.nextInt(maxWait-minWait) + minWait;
+                final int waitTime = nextWait();
                 try {
                     Thread.sleep(waitTime);
                 } catch (InterruptedException e) {
@@ -67,15 +93,34 @@ public class RandomIntervalProductTrader {
         });
     }
 
-    private void performTrade() {
+    /**
+     * Draws the time to wait before the next order.
+     * @return the waiting time in milliseconds
+     */
+    public int nextWait() {
+        return rnd.nextInt(mMaxWait - mMinWait) + mMinWait;
+    }
+
+    /**
+     * Draws the next random order of the trader, without placing it.
+     * @param time the time at which the order is placed
+     * @return the order, or null if the trader does not hold enough of the product for the sell
+     *         order it drew
+     */
+    public Order nextOrder(OffsetDateTime time) {
         final int tradeAmount = rnd.nextInt(mMaxAmount - mMinAmount) + mMinAmount;
         final float price = rnd.nextFloat() * (mMaxValue - mMinValue) + mMinValue;
         final Side side = (rnd.nextBoolean())?Side.BUY:Side.SELL;
         // Perform no sell trade if there is not enough of the product in the account
         if (side == Side.SELL & tradeAmount > mAccount.getPosition(mProduct)) {
-            return;
+            return null;
         }
-        final Order order = new Order(mProduct, price, tradeAmount, mAccount, side, OffsetDateTime.now());
+        return new Order(mProduct, price, tradeAmount, mAccount, side, time);
+    }
+
+    private void performTrade() {
+        final Order order = nextOrder(OffsetDateTime.now());
+        if (order == null) return;
         try {
             mManager.placeOrder(order);
         } catch (IllegalTradeException e) {
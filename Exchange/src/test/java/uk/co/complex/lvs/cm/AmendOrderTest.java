@@ -0,0 +1,212 @@
+package uk.co.complex.lvs.cm;
+
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AmendOrderTest {
+    private static final Instant START = Instant.parse("2018-01-02T09:00:00Z");
+
+    private Product xyz;
+    private Account alice;
+    private Account bob;
+    private MarketManager manager;
+    private final List<String> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        xyz = new Product("XYZ");
+        alice = new Account("Alice");
+        bob = new Account("Bob");
+        bob.updateBook(xyz, 1000);
+        manager = new MarketManager(Arrays.asList(xyz));
+        manager.setClock(Clock.fixed(START, ZoneOffset.UTC));
+        manager.addOrderListener(new OrderListener() {
+            @Override
+            public void tradeExecuted(Trade trade) {
+                events.add("traded " + trade.getAmount());
+            }
+
+            @Override
+            public void orderRested(Order order) {
+                events.add("rested " + order.getRemainingAmount());
+            }
+
+            @Override
+            public void orderAmended(Order order, float previousPrice, int previousAmount) {
+                events.add("amended " + previousAmount);
+            }
+        });
+    }
+
+    private Order buy(Account actor, float price, int amount, long millis) {
+        return new Order(xyz, price, amount, actor, Side.BUY,
+                OffsetDateTime.ofInstant(START.plusMillis(millis), ZoneOffset.UTC));
+    }
+
+    @Test
+    public void reductionKeepsPriority() throws IllegalTradeException {
+        Order first = buy(alice, 100.0f, 10, 0);
+        Order second = buy(bob, 100.0f, 10, 1);
+        manager.placeOrder(first);
+        manager.placeOrder(second);
+        events.clear();
+
+        assertTrue(manager.amendOrder(first, 100.0f, 4).isEmpty());
+        assertSame(first, manager.getBuyQueue(xyz).first());
+        assertEquals(4, first.getRemainingAmount());
+        assertEquals(4, first.getAmount());
+        assertEquals(Status.NEW, first.getStatus());
+        assertEquals(14, manager.getTopOfBook(xyz).getBidAmount());
+        assertEquals(4, manager.getRiskEngine().getOpenBuyAmount(alice, xyz));
+        assertEquals(Arrays.asList("amended 10", "rested 4"), events);
+
+        List<Trade> trades = manager.placeOrder(new Order(xyz, 100.0f, 4, bob, Side.SELL,
+                OffsetDateTime.now(manager.getClock())));
+        assertEquals(1, trades.size());
+        assertSame(alice, trades.get(0).getBuyer());
+    }
+
+    @Test
+    public void increaseLosesPriority() throws IllegalTradeException {
+        Order first = buy(alice, 100.0f, 10, 0);
+        Order second = buy(bob, 100.0f, 10, 1);
+        manager.placeOrder(first);
+        manager.placeOrder(second);
+
+        manager.setClock(Clock.fixed(START.plusSeconds(1), ZoneOffset.UTC));
+        manager.amendOrder(first, 100.0f, 20);
+        assertSame(second, manager.getBuyQueue(xyz).first());
+        assertSame(first, manager.getBuyQueue(xyz).last());
+        assertEquals(2, manager.getBuyQueue(xyz).size());
+        assertEquals(30, manager.getTopOfBook(xyz).getBidAmount());
+        assertEquals(20, manager.getRiskEngine().getOpenBuyAmount(alice, xyz));
+        assertEquals(1, manager.getOrders(alice).size());
+    }
+
+    @Test
+    public void priceChangeMatches() throws IllegalTradeException {
+        manager.placeOrder(new Order(xyz, 101.0f, 6, bob, Side.SELL,
+                OffsetDateTime.now(manager.getClock())));
+        Order order = buy(alice, 100.0f, 10, 0);
+        manager.placeOrder(order);
+        events.clear();
+
+        List<Trade> trades = manager.amendOrder(order, 101.0f, 10);
+        assertEquals(1, trades.size());
+        assertEquals(6, trades.get(0).getAmount());
+        assertEquals(101.0f, order.getPrice(), 0.0f);
+        assertEquals(Status.PARTIAL, order.getStatus());
+        assertEquals(4, order.getRemainingAmount());
+        assertEquals(Arrays.asList("amended 10", "traded 6", "rested 4"), events);
+        assertTrue(manager.getSellQueue(xyz).isEmpty());
+        assertEquals(101.0f, manager.getTopOfBook(xyz).getBidPrice(), 0.0f);
+
+        // An amendment of a partially traded order keeps the traded amount
+        manager.amendOrder(order, 101.0f, 2);
+        assertEquals(8, order.getAmount());
+        assertEquals(2, order.getRemainingAmount());
+    }
+
+    @Test
+    public void completedByAmendment() throws IllegalTradeException {
+        manager.placeOrder(new Order(xyz, 100.0f, 10, bob, Side.SELL,
+                OffsetDateTime.now(manager.getClock())));
+        Order order = buy(alice, 99.0f, 10, 0);
+        manager.placeOrder(order);
+
+        assertEquals(1, manager.amendOrder(order, 100.0f, 10).size());
+        assertEquals(Status.COMPLETED, order.getStatus());
+        assertTrue(manager.getBuyQueue(xyz).isEmpty());
+        assertTrue(manager.getSellQueue(xyz).isEmpty());
+        assertTrue(!manager.getTopOfBook(xyz).hasBid());
+        assertTrue(manager.getOrders(alice).isEmpty());
+    }
+
+    @Test
+    public void reductionUpdatesProRataLevel() throws IllegalTradeException {
+        final Map<Product, MatchingPolicy> policies = new HashMap<>();
+        policies.put(xyz, new ProRataMatchingPolicy());
+        manager = new MarketManager(policies);
+        manager.setClock(Clock.fixed(START, ZoneOffset.UTC));
+        alice.updateBook(xyz, 1000);
+        final Order first = new Order(xyz, 100.0f, 10, bob, Side.SELL,
+                OffsetDateTime.ofInstant(START, ZoneOffset.UTC));
+        final Order second = new Order(xyz, 100.0f, 10, alice, Side.SELL,
+                OffsetDateTime.ofInstant(START.plusMillis(1), ZoneOffset.UTC));
+        manager.placeOrder(first);
+        manager.placeOrder(second);
+        manager.amendOrder(first, 100.0f, 2);
+
+        // The level holds 12 units, so 6 units are split 1 to 5
+        final List<Trade> trades = manager.placeOrder(buy(new Account("Carol"), 100.0f, 6, 2));
+        assertEquals(2, trades.size());
+        assertEquals(first.getId(), trades.get(0).getSellOrderId());
+        assertEquals(1, trades.get(0).getAmount());
+        assertEquals(second.getId(), trades.get(1).getSellOrderId());
+        assertEquals(5, trades.get(1).getAmount());
+        assertEquals(1, first.getRemainingAmount());
+        assertEquals(5, second.getRemainingAmount());
+    }
+
+    @Test
+    public void reductionKeepsTopOrder() throws IllegalTradeException {
+        final FifoTopOrderMatchingPolicy policy = new FifoTopOrderMatchingPolicy();
+        final Map<Product, MatchingPolicy> policies = new HashMap<>();
+        policies.put(xyz, policy);
+        manager = new MarketManager(policies);
+        manager.setClock(Clock.fixed(START, ZoneOffset.UTC));
+        final Order first = buy(alice, 100.0f, 10, 0);
+        final Order second = buy(bob, 100.0f, 10, 1);
+        manager.placeOrder(first);
+        manager.placeOrder(second);
+        assertSame(first, policy.getTopOrder(Side.BUY));
+
+        manager.amendOrder(first, 100.0f, 4);
+        assertSame(first, policy.getTopOrder(Side.BUY));
+    }
+
+    @Test
+    public void rejectedAmendmentLeavesOrder() throws IllegalTradeException {
+        manager.getRiskEngine().setLimits(alice, new RiskLimits(15, 0, Double.MAX_VALUE, 100));
+        Order order = buy(alice, 100.0f, 10, 0);
+        manager.placeOrder(order);
+        try {
+            manager.amendOrder(order, 100.0f, 20);
+            fail("The amendment breaks the open buy limit");
+        } catch (IllegalTradeException e) {
+            // expected
+        }
+        assertEquals(10, order.getRemainingAmount());
+        assertSame(order, manager.getBuyQueue(xyz).first());
+        assertEquals(10, manager.getRiskEngine().getOpenBuyAmount(alice, xyz));
+
+        manager.cancelOrder(order);
+        try {
+            manager.amendOrder(order, 100.0f, 5);
+            fail("A cancelled order cannot be amended");
+        } catch (IllegalTradeException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package uk.co.complex.lvs.cm;
+
+import org.junit.Test;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AuctionUncrossingTest {
+    private final OffsetDateTime start = OffsetDateTime.now();
+    private int sequence = 0;
+
+    private Order order(Product p, Account a, Side side, float price, int amount) {
+        return new Order(p, price, amount, a, side, start.plusNanos(sequence++));
+    }
+
+    @Test
+    public void uncross() throws IllegalTradeException {
+        Account alice = new Account("Alice");
+        Account bob = new Account("Bob");
+        Product xyz = new Product("XYZ");
+        List<Product> allProducts = new ArrayList<>();
+        allProducts.add(xyz);
+        MarketManager manager = new MarketManager(allProducts);
+        bob.updateBook(xyz, 100);
+
+        manager.startAuction(xyz);
+        assertEquals(TradingPhase.AUCTION, manager.getTradingPhase(xyz));
+
+        Order buy101 = order(xyz, alice, Side.BUY, 101.00f, 10);
+        Order buy100 = order(xyz, alice, Side.BUY, 100.00f, 10);
+        Order buy99 = order(xyz, alice, Side.BUY, 99.00f, 10);
+        Order sell98 = order(xyz, bob, Side.SELL, 98.00f, 5);
+        Order sell99 = order(xyz, bob, Side.SELL, 99.00f, 10);
+        Order sell100 = order(xyz, bob, Side.SELL, 100.00f, 10);
+        Order sell102 = order(xyz, bob, Side.SELL, 102.00f, 10);
+        for (Order o : new Order[]{buy101, buy100, buy99, sell98, sell99, sell100, sell102}) {
+            assertEquals(0, manager.placeOrder(o).size());
+        }
+        assertEquals(3, manager.getBuyQueue(xyz).size());
+        assertEquals(4, manager.getSellQueue(xyz).size());
+
+        // Most volume (20) is executed at 100.00, with a surplus of 5 on the sell side
+        AuctionUncrossing.Equilibrium equilibrium = manager.getIndicativeEquilibrium(xyz);
+        assertEquals(100.00f, equilibrium.getPrice(), 0.0f);
+        assertEquals(20, equilibrium.getVolume());
+        assertEquals(5, equilibrium.getSurplus());
+
+        List<Trade> trades = manager.uncross(xyz);
+        assertEquals(TradingPhase.CONTINUOUS, manager.getTradingPhase(xyz));
+        assertEquals(4, trades.size());
+        int volume = 0;
+        for (Trade t : trades) {
+            assertEquals(100.00f, t.getPrice(), 0.0f);
+            volume += t.getAmount();
+        }
+        assertEquals(20, volume);
+        assertEquals(Status.COMPLETED, buy101.getStatus());
+        assertEquals(Status.COMPLETED, buy100.getStatus());
+        assertEquals(Status.NEW, buy99.getStatus());
+        assertEquals(Status.COMPLETED, sell98.getStatus());
+        assertEquals(Status.COMPLETED, sell99.getStatus());
+        assertEquals(5, sell100.getRemainingAmount());
+        assertEquals(20, alice.getPosition(xyz));
+        assertEquals(80, bob.getPosition(xyz));
+        assertEquals(1, manager.getBuyQueue(xyz).size());
+        assertEquals(2, manager.getSellQueue(xyz).size());
+        assertNull(manager.getIndicativeEquilibrium(xyz));
+    }
+
+    @Test
+    public void equilibriumWithoutSurplus() {
+        Account alice = new Account("Alice");
+        Product xyz = new Product("XYZ");
+        PriceTimePriorityQueue buyQueue = new PriceTimePriorityQueue(Side.BUY);
+        PriceTimePriorityQueue sellQueue = new PriceTimePriorityQueue(Side.SELL);
+        buyQueue.add(order(xyz, alice, Side.BUY, 102.00f, 10));
+        sellQueue.add(order(xyz, alice, Side.SELL, 98.00f, 10));
+
+        // Every price between 98.00 and 102.00 executes all volume, so the middle is chosen
+        AuctionUncrossing.Equilibrium equilibrium =
+                AuctionUncrossing.findEquilibrium(buyQueue, sellQueue);
+        assertEquals(100.00f, equilibrium.getPrice(), 0.0f);
+        assertEquals(10, equilibrium.getVolume());
+        assertEquals(0, equilibrium.getSurplus());
+    }
+
+    @Test
+    public void partialFillKeepsTopOrder() {
+        Account alice = new Account("Alice");
+        Product xyz = new Product("XYZ");
+        FifoTopOrderMatchingPolicy policy = new FifoTopOrderMatchingPolicy();
+        PriceTimePriorityQueue buyQueue = new PriceTimePriorityQueue(Side.BUY);
+        PriceTimePriorityQueue sellQueue = new PriceTimePriorityQueue(Side.SELL);
+        Order top = order(xyz, alice, Side.BUY, 101.00f, 10);
+        Order next = order(xyz, alice, Side.BUY, 101.00f, 10);
+        Order sell = order(xyz, alice, Side.SELL, 100.00f, 5);
+        for (Order o : new Order[]{top, next}) {
+            buyQueue.add(o);
+            policy.orderAdded(o, buyQueue);
+        }
+        sellQueue.add(sell);
+        policy.orderAdded(sell, sellQueue);
+
+        List<Trade> trades = AuctionUncrossing.uncross(buyQueue, sellQueue, policy, start);
+        assertEquals(1, trades.size());
+        assertEquals(5, top.getRemainingAmount());
+        assertSame(top, policy.getTopOrder(Side.BUY));
+        assertNull(policy.getTopOrder(Side.SELL));
+        assertTrue(sellQueue.isEmpty());
+    }
+
+    @Test
+    public void batchAuction() throws IllegalTradeException {
+        Account alice = new Account("Alice");
+        Account bob = new Account("Bob");
+        Product xyz = new Product("XYZ");
+        Product abc = new Product("ABC");
+        List<Product> allProducts = new ArrayList<>();
+        allProducts.add(xyz);
+        allProducts.add(abc);
+        MarketManager manager = new MarketManager(allProducts);
+        bob.updateBook(xyz, 100);
+        bob.updateBook(abc, 100);
+
+        FrequentBatchAuction auction = new FrequentBatchAuction(manager, 1000, Runnable::run);
+        List<List<Trade>> batches = new ArrayList<>();
+        auction.addBatchListener(batches::add);
+        for (Product p : allProducts) manager.startBatchAuctions(p);
+
+        manager.placeOrder(order(xyz, alice, Side.BUY, 101.00f, 10));
+        manager.placeOrder(order(abc, alice, Side.BUY, 50.00f, 10));
+        manager.placeOrder(order(xyz, bob, Side.SELL, 99.00f, 5));
+        assertEquals(0, manager.getBook().getAllRecords().size());
+
+        // Only XYZ crosses (with a surplus on the buy side, so at the highest price); both products
+        // remain in batch auctions
+        List<Trade> trades = auction.runBatch();
+        assertEquals(1, trades.size());
+        assertEquals(101.00f, trades.get(0).getPrice(), 0.0f);
+        assertEquals(1, batches.size());
+        assertEquals(TradingPhase.BATCH_AUCTION, manager.getTradingPhase(xyz));
+        assertEquals(TradingPhase.BATCH_AUCTION, manager.getTradingPhase(abc));
+
+        manager.placeOrder(order(abc, bob, Side.SELL, 50.00f, 10));
+        trades = auction.runBatch();
+        assertEquals(1, trades.size());
+        assertEquals(abc, trades.get(0).getProduct());
+        assertEquals(2, manager.getBook().getAllRecords().size());
+
+        auction.stop();
+        assertEquals(TradingPhase.CONTINUOUS, manager.getTradingPhase(xyz));
+        assertEquals(TradingPhase.CONTINUOUS, manager.getTradingPhase(abc));
+    }
+}
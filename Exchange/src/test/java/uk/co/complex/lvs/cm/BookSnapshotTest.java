@@ -0,0 +1,148 @@
+package uk.co.complex.lvs.cm;
+
+import org.junit.Test;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BookSnapshotTest {
+    @Test
+    public void topOfBook() throws IllegalTradeException {
+        Product xyz = new Product("XYZ");
+        Account alice = new Account("Alice");
+        Account bob = new Account("Bob");
+        bob.updateBook(xyz, 100);
+        MarketManager manager = new MarketManager(Arrays.asList(xyz));
+
+        TopOfBook top = manager.getTopOfBook(xyz);
+        assertFalse(top.hasBid());
+        assertFalse(top.hasAsk());
+        assertFalse(top.getMidPrice().isPresent());
+
+        manager.placeOrder(new Order(xyz, 99.0f, 10, alice, Side.BUY, OffsetDateTime.now()));
+        manager.placeOrder(new Order(xyz, 99.0f, 5, alice, Side.BUY, OffsetDateTime.now()));
+        manager.placeOrder(new Order(xyz, 98.0f, 7, alice, Side.BUY, OffsetDateTime.now()));
+        Order sell = new Order(xyz, 101.0f, 20, bob, Side.SELL, OffsetDateTime.now());
+        manager.placeOrder(sell);
+
+        top = manager.getTopOfBook(xyz);
+        assertEquals(4, top.getVersion());
+        assertEquals(99.0f, top.getBidPrice(), 0.0f);
+        assertEquals(15, top.getBidAmount());
+        assertEquals(101.0f, top.getAskPrice(), 0.0f);
+        assertEquals(20, top.getAskAmount());
+        assertEquals(100.0f, top.getMidPrice().get(), 0.0f);
+
+        // A trade takes the best bid level out, and the remainder of the sell rests at 99.0
+        manager.placeOrder(new Order(xyz, 99.0f, 25, bob, Side.SELL, OffsetDateTime.now()));
+        top = manager.getTopOfBook(xyz);
+        assertEquals(98.0f, top.getBidPrice(), 0.0f);
+        assertEquals(7, top.getBidAmount());
+        assertEquals(99.0f, top.getAskPrice(), 0.0f);
+        assertEquals(10, top.getAskAmount());
+
+        manager.cancelOrder(sell);
+        assertEquals(99.0f, manager.getTopOfBook(xyz).getAskPrice(), 0.0f);
+        assertEquals(6, manager.getTopOfBook(xyz).getVersion());
+    }
+
+    @Test
+    public void snapshotsAreImmutable() throws IllegalTradeException {
+        Product xyz = new Product("XYZ");
+        Account alice = new Account("Alice");
+        Account bob = new Account("Bob");
+        bob.updateBook(xyz, 100);
+        MarketManager manager = new MarketManager(Arrays.asList(xyz));
+        manager.placeOrder(new Order(xyz, 99.0f, 10, alice, Side.BUY, OffsetDateTime.now()));
+
+        BookSnapshot first = manager.getBookSnapshot(xyz);
+        assertEquals(1, first.getVersion());
+        assertEquals(1, first.getBids().size());
+        assertSame(first, manager.getBookSnapshot(xyz));
+
+        manager.placeOrder(new Order(xyz, 98.0f, 5, alice, Side.BUY, OffsetDateTime.now()));
+        manager.placeOrder(new Order(xyz, 99.0f, 4, bob, Side.SELL, OffsetDateTime.now()));
+
+        BookSnapshot latest = manager.getBookSnapshot(xyz);
+        assertEquals(3, latest.getVersion());
+        assertEquals(manager.getTopOfBook(xyz).getVersion(), latest.getVersion());
+        assertEquals(2, latest.getBids().size());
+        assertEquals(6, latest.getBids().get(0).getRemainingAmount());
+        assertEquals(0, latest.getAsks().size());
+        List<BookSnapshot.Level> levels = latest.getLevels(Side.BUY);
+        assertEquals(2, levels.size());
+        assertEquals(99.0f, levels.get(0).getPrice(), 0.0f);
+        assertEquals(6, levels.get(0).getAmount());
+
+        // The first snapshot still shows the book as it was
+        assertEquals(1, first.getBids().size());
+        assertEquals(10, first.getBids().get(0).getRemainingAmount());
+    }
+
+    @Test
+    public void concurrentReaders() throws Exception {
+        Product xyz = new Product("XYZ");
+        Account alice = new Account("Alice");
+        Account bob = new Account("Bob");
+        bob.updateBook(xyz, 1_000_000);
+        MarketManager manager = new MarketManager(Arrays.asList(xyz));
+        manager.getBookSnapshot(xyz);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            long lastVersion = 0;
+            while (running.get()) {
+                BookSnapshot snapshot = manager.getBookSnapshot(xyz);
+                TopOfBook top = manager.getTopOfBook(xyz);
+                if (snapshot.getVersion() < lastVersion) failure.set("Version went back");
+                lastVersion = snapshot.getVersion();
+                List<BookSnapshot.Level> bids = snapshot.getLevels(Side.BUY);
+                List<BookSnapshot.Level> asks = snapshot.getLevels(Side.SELL);
+                if (!bids.isEmpty() && !asks.isEmpty() &&
+                        bids.get(0).getPrice() >= asks.get(0).getPrice()) {
+                    failure.set("Crossed book in version " + snapshot.getVersion());
+                }
+                if (top.hasBid() && top.hasAsk() && top.getBidPrice() >= top.getAskPrice()) {
+                    failure.set("Crossed top of book in version " + top.getVersion());
+                }
+            }
+        });
+        reader.start();
+
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            Side side = random.nextBoolean()? Side.BUY : Side.SELL;
+            Account actor = (side == Side.BUY)? alice : bob;
+            float price = 90 + random.nextInt(20);
+            Order order = new Order(xyz, price, 1 + random.nextInt(10), actor, side,
+                    OffsetDateTime.now());
+            manager.placeOrder(order);
+            if (random.nextInt(4) == 0) manager.cancelOrder(order);
+        }
+        running.set(false);
+        reader.join();
+
+        assertNull(failure.get());
+        BookSnapshot snapshot = manager.getBookSnapshot(xyz);
+        synchronized (manager) {
+            assertEquals(manager.getBuyQueue(xyz).size(), snapshot.getBids().size());
+            assertEquals(manager.getSellQueue(xyz).size(), snapshot.getAsks().size());
+        }
+        assertTrue(snapshot.getVersion() >= 20_000);
+    }
+}
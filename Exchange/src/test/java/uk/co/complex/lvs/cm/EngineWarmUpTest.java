@@ -0,0 +1,39 @@
+package uk.co.complex.lvs.cm;
+
+import org.junit.Test;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EngineWarmUpTest {
+    @Test
+    public void leavesMarketUntouched() throws IllegalTradeException {
+        Product xyz = new Product("XYZ");
+        MarketManager manager = new MarketManager(Arrays.asList(xyz));
+        Account alice = new Account("Alice");
+        manager.placeOrder(new Order(xyz, 100.0f, 10, alice, Side.BUY, OffsetDateTime.now()));
+
+        EngineWarmUp warmUp = new EngineWarmUp(ProRataMatchingPolicy::new);
+        warmUp.setOrdersPerRound(500);
+        warmUp.setMaxRounds(3);
+        EngineWarmUp.Report report = warmUp.run();
+
+        assertTrue(report.getRounds() >= 1 && report.getRounds() <= 3);
+        assertTrue(report.getNanosPerCommand(0) > 0);
+        assertEquals(1, manager.getBuyQueue(xyz).size());
+        assertEquals(0, manager.getBook().size());
+        assertEquals(10, manager.getRiskEngine().getOpenBuyAmount(alice, xyz));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyRounds() {
+        new EngineWarmUp().setOrdersPerRound(0);
+    }
+}
@@ -0,0 +1,252 @@
+package uk.co.complex.lvs.cm;
+
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.CalendarSpread;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ImpliedMatchingTest {
+    private Product mar;
+    private Product jun;
+    private CalendarSpread spread;
+    private Account alice;
+    private Account bob;
+    private Account carol;
+    private Account dave;
+    private MarketManager manager;
+
+    @Before
+    public void setUp() {
+        mar = new Product("XYZ-MAR");
+        jun = new Product("XYZ-JUN");
+        spread = new CalendarSpread("XYZ-MAR/JUN", mar, jun);
+        alice = new Account("Alice");
+        bob = new Account("Bob");
+        carol = new Account("Carol");
+        dave = new Account("Dave");
+        for (Account a : Arrays.asList(alice, bob, carol, dave)) {
+            a.updateBook(mar, 100);
+            a.updateBook(jun, 100);
+        }
+        manager = new MarketManager(Arrays.asList(mar, jun, spread));
+    }
+
+    private Order place(Product p, Account actor, Side side, float price, int amount)
+            throws IllegalTradeException {
+        final Order order = new Order(p, price, amount, actor, side, OffsetDateTime.now());
+        manager.placeOrder(order);
+        return order;
+    }
+
+    private static void assertTrade(Trade trade, Product p, Account buyer, Account seller,
+                                    float price, int amount, long buyOrderId, long sellOrderId) {
+        assertEquals(p, trade.getProduct());
+        assertSame(buyer, trade.getBuyer());
+        assertSame(seller, trade.getSeller());
+        assertEquals(price, trade.getPrice(), 0.0f);
+        assertEquals(amount, trade.getAmount());
+        assertEquals(buyOrderId, trade.getBuyOrderId());
+        assertEquals(sellOrderId, trade.getSellOrderId());
+    }
+
+    @Test
+    public void impliedIn() throws IllegalTradeException {
+        final Order marSell = place(mar, bob, Side.SELL, 101.0f, 10);
+        final Order junBuy = place(jun, carol, Side.BUY, 99.0f, 5);
+        assertEquals(2.0f, manager.getImpliedTopOfBook(spread).getAskPrice(), 0.0f);
+        assertEquals(5, manager.getImpliedTopOfBook(spread).getAskAmount());
+        assertFalse(manager.getImpliedTopOfBook(spread).hasBid());
+
+        // As in a direct match, the spread trades at the average of 2.5 and 2.0; each leg gives
+        // half of the remaining 0.25 to its resting order
+        final Order order = new Order(spread, 2.5f, 8, alice, Side.BUY, OffsetDateTime.now());
+        final List<Trade> trades = manager.placeOrder(order);
+        assertEquals(2, trades.size());
+        assertTrade(trades.get(0), mar, alice, bob, 101.125f, 5, order.getId(), marSell.getId());
+        assertTrade(trades.get(1), jun, carol, alice, 98.875f, 5, junBuy.getId(), order.getId());
+
+        assertEquals(3, order.getRemainingAmount());
+        assertSame(order, manager.getBuyQueue(spread).first());
+        assertEquals(5, marSell.getRemainingAmount());
+        assertEquals(Status.COMPLETED, junBuy.getStatus());
+        assertTrue(manager.getBuyQueue(jun).isEmpty());
+        assertEquals(105, alice.getPosition(mar));
+        assertEquals(95, alice.getPosition(jun));
+        assertEquals(105, carol.getPosition(jun));
+
+        // The remaining spread bid and the offer of March imply an offer of June
+        final TopOfBook implied = manager.getImpliedTopOfBook(jun);
+        assertEquals(98.5f, implied.getAskPrice(), 0.0f);
+        assertEquals(3, implied.getAskAmount());
+        assertFalse(manager.getImpliedTopOfBook(spread).hasAsk());
+    }
+
+    @Test
+    public void impliedOut() throws IllegalTradeException {
+        final Order spreadSell = place(spread, dave, Side.SELL, 2.0f, 10);
+        final Order junSell = place(jun, carol, Side.SELL, 99.0f, 10);
+        assertEquals(101.0f, manager.getImpliedTopOfBook(mar).getAskPrice(), 0.0f);
+        assertEquals(10, manager.getImpliedTopOfBook(mar).getAskAmount());
+
+        final Order order = new Order(mar, 101.5f, 4, alice, Side.BUY, OffsetDateTime.now());
+        final List<Trade> trades = manager.placeOrder(order);
+        assertEquals(2, trades.size());
+        assertTrade(trades.get(0), mar, alice, dave, 101.25f, 4, order.getId(),
+                spreadSell.getId());
+        assertTrade(trades.get(1), jun, dave, carol, 99.125f, 4, spreadSell.getId(),
+                junSell.getId());
+        assertEquals(Status.COMPLETED, order.getStatus());
+        assertEquals(6, spreadSell.getRemainingAmount());
+        assertEquals(6, junSell.getRemainingAmount());
+        assertEquals(96, dave.getPosition(mar));
+        assertEquals(104, dave.getPosition(jun));
+        assertEquals(6, manager.getRiskEngine().getOpenSellAmount(dave, mar));
+        assertEquals(6, manager.getImpliedTopOfBook(mar).getAskAmount());
+    }
+
+    @Test
+    public void pricePriority() throws IllegalTradeException {
+        final Order worse = place(mar, bob, Side.SELL, 102.0f, 5);
+        final Order same = place(mar, bob, Side.SELL, 101.0f, 2);
+        final Order spreadSell = place(spread, dave, Side.SELL, 2.0f, 5);
+        final Order junSell = place(jun, carol, Side.SELL, 99.0f, 5);
+
+        // At 101, the direct offer goes before the implied offer; then the direct offer at 102
+        final List<Trade> trades = manager.placeOrder(new Order(mar, 103.0f, 10, alice, Side.BUY,
+                OffsetDateTime.now()));
+        assertEquals(4, trades.size());
+        assertEquals(same.getId(), trades.get(0).getSellOrderId());
+        assertEquals(2, trades.get(0).getAmount());
+        assertEquals(spreadSell.getId(), trades.get(1).getSellOrderId());
+        assertEquals(5, trades.get(1).getAmount());
+        assertEquals(junSell.getId(), trades.get(2).getSellOrderId());
+        assertEquals(worse.getId(), trades.get(3).getSellOrderId());
+        assertEquals(3, trades.get(3).getAmount());
+        assertEquals(2, worse.getRemainingAmount());
+        assertTrue(manager.getSellQueue(spread).isEmpty());
+        assertTrue(manager.getSellQueue(jun).isEmpty());
+    }
+
+    @Test
+    public void directSpreadTrade() throws IllegalTradeException {
+        place(spread, dave, Side.SELL, -1.5f, 3);
+        final List<Trade> trades = manager.placeOrder(new Order(spread, -1.5f, 3, alice,
+                Side.BUY, OffsetDateTime.now()));
+        assertEquals(1, trades.size());
+        assertEquals(spread, trades.get(0).getProduct());
+
+        // A spread is held as its legs
+        assertEquals(103, alice.getPosition(mar));
+        assertEquals(97, alice.getPosition(jun));
+        assertEquals(97, dave.getPosition(mar));
+        assertEquals(103, dave.getPosition(jun));
+    }
+
+    @Test
+    public void spreadSellIsCoveredByNearLeg() throws IllegalTradeException {
+        final Account erin = new Account("Erin");
+        erin.updateBook(mar, 5);
+        place(mar, erin, Side.SELL, 101.0f, 3);
+        try {
+            place(spread, erin, Side.SELL, 1.0f, 3);
+            fail("Erin has only 2 of the near leg left to sell");
+        } catch (IllegalTradeException e) {
+            // expected
+        }
+        place(spread, erin, Side.SELL, 1.0f, 2);
+        assertEquals(5, manager.getRiskEngine().getOpenSellAmount(erin, mar));
+    }
+
+    @Test
+    public void partialFillKeepsTopOrder() throws IllegalTradeException {
+        final FifoTopOrderMatchingPolicy policy = new FifoTopOrderMatchingPolicy();
+        final Map<Product, MatchingPolicy> policies = new LinkedHashMap<>();
+        policies.put(mar, policy);
+        policies.put(jun, new FifoMatchingPolicy());
+        policies.put(spread, new FifoMatchingPolicy());
+        manager = new MarketManager(policies);
+        final Order top = place(mar, bob, Side.SELL, 101.0f, 10);
+        place(mar, carol, Side.SELL, 101.0f, 10);
+        place(jun, carol, Side.BUY, 99.0f, 5);
+        assertSame(top, policy.getTopOrder(Side.SELL));
+
+        place(spread, alice, Side.BUY, 2.0f, 3);
+        assertEquals(7, top.getRemainingAmount());
+        assertSame(top, policy.getTopOrder(Side.SELL));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void legsMustBeListed() {
+        new MarketManager(Arrays.asList(mar, spread));
+    }
+
+    @Test
+    public void randomFlowStaysUncrossed() throws IllegalTradeException {
+        final Random random = new Random(7);
+        final List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            final Account a = new Account("Trader" + i);
+            a.updateBook(mar, 1_000_000);
+            a.updateBook(jun, 1_000_000);
+            accounts.add(a);
+        }
+        final Product[] products = {mar, jun, spread};
+        final float[] centres = {100.0f, 98.0f, 2.0f};
+        long implied = 0;
+        for (int i = 0; i < 20_000; i++) {
+            final int p = random.nextInt(3);
+            final Side side = random.nextBoolean()? Side.BUY : Side.SELL;
+            final float price = centres[p] + (random.nextInt(13) - 6) * 0.5f;
+            final Order order = new Order(products[p], price, 1 + random.nextInt(20),
+                    accounts.get(random.nextInt(accounts.size())), side, OffsetDateTime.now());
+            for (Trade t : manager.placeOrder(order)) {
+                if (!t.getProduct().equals(order.getProduct())) implied++;
+            }
+            if (random.nextInt(4) == 0) {
+                final List<Order> resting = manager.getOrders(order.getActor());
+                if (!resting.isEmpty()) manager.cancelOrder(resting.get(0));
+            }
+
+            for (Product q : products) {
+                final TopOfBook top = manager.getTopOfBook(q);
+                final TopOfBook impliedTop = manager.getImpliedTopOfBook(q);
+                if (top.hasBid() && top.hasAsk()) assertTrue(top.getBidPrice() < top.getAskPrice());
+                if (top.hasBid() && impliedTop.hasAsk()) {
+                    assertTrue(top.getBidPrice() < impliedTop.getAskPrice());
+                }
+                if (top.hasAsk() && impliedTop.hasBid()) {
+                    assertTrue(top.getAskPrice() > impliedTop.getBidPrice());
+                }
+            }
+        }
+        assertTrue(implied > 100);
+
+        long marTotal = 0;
+        long junTotal = 0;
+        for (Account a : accounts) {
+            marTotal += a.getPosition(mar);
+            junTotal += a.getPosition(jun);
+        }
+        assertEquals(6_000_000, marTotal);
+        assertEquals(6_000_000, junTotal);
+    }
+}
@@ -0,0 +1,120 @@
+package uk.co.complex.lvs.cm;
+
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MassCancelTest {
+    private Product xyz;
+    private Product abc;
+    private Account alice;
+    private Account bob;
+    private MarketManager manager;
+    private final List<Order> cancelled = new ArrayList<>();
+    private int updates;
+
+    @Before
+    public void setUp() throws IllegalTradeException {
+        xyz = new Product("XYZ");
+        abc = new Product("ABC");
+        alice = new Account("Alice");
+        bob = new Account("Bob");
+        alice.updateBook(xyz, 100);
+        alice.updateBook(abc, 100);
+        manager = new MarketManager(Arrays.asList(xyz, abc));
+        manager.addOrderListener(new OrderListener() {
+            @Override
+            public void orderCancelled(Order order) {
+                cancelled.add(order);
+            }
+        });
+        manager.addTradeListener(m -> updates++);
+
+        for (Product p : Arrays.asList(xyz, abc)) {
+            manager.placeOrder(order(p, alice, Side.BUY, 90.0f, 10));
+            manager.placeOrder(order(p, alice, Side.SELL, 110.0f, 10));
+            manager.placeOrder(order(p, bob, Side.BUY, 95.0f, 10));
+        }
+        updates = 0;
+    }
+
+    private Order order(Product p, Account actor, Side side, float price, int amount) {
+        return new Order(p, price, amount, actor, side, OffsetDateTime.now());
+    }
+
+    @Test
+    public void cancelAll() {
+        assertEquals(4, manager.getOrders(alice).size());
+        List<Order> orders = manager.cancelAllOrders(alice);
+        assertEquals(4, orders.size());
+        assertEquals(orders, cancelled);
+        for (Order o : orders) {
+            assertEquals(Status.CANCELLED, o.getStatus());
+        }
+        assertTrue(manager.getOrders(alice).isEmpty());
+        assertEquals(2, manager.getOrders(bob).size());
+        assertTrue(manager.getSellQueue(xyz).isEmpty());
+        assertEquals(1, manager.getBuyQueue(xyz).size());
+        assertEquals(95.0f, manager.getTopOfBook(abc).getBidPrice(), 0.0f);
+        assertEquals(0, manager.getRiskEngine().getOpenSellAmount(alice, xyz));
+        // The listeners are told once that the market changed
+        assertEquals(1, updates);
+        assertTrue(manager.cancelAllOrders(alice).isEmpty());
+        assertEquals(1, updates);
+    }
+
+    @Test
+    public void filters() {
+        List<Order> orders = manager.cancelAllOrders(alice, xyz, null);
+        assertEquals(2, orders.size());
+        orders = manager.cancelAllOrders(alice, null, Side.SELL);
+        assertEquals(1, orders.size());
+        assertEquals(abc, orders.get(0).getProduct());
+        List<Order> left = manager.getOrders(alice);
+        assertEquals(1, left.size());
+        assertEquals(Side.BUY, left.get(0).getSide());
+        assertEquals(abc, left.get(0).getProduct());
+    }
+
+    @Test
+    public void completedOrdersLeaveIndex() throws IllegalTradeException {
+        manager.placeOrder(order(xyz, bob, Side.BUY, 110.0f, 10));
+        manager.placeOrder(order(abc, bob, Side.BUY, 110.0f, 4));
+        assertEquals(3, manager.getOrders(alice).size());
+        assertEquals(2, manager.getOrders(bob).size());
+        manager.cancelOrder(manager.getOrders(alice).get(0));
+        assertEquals(2, manager.getOrders(alice).size());
+    }
+
+    @Test
+    public void killSwitch() throws IllegalTradeException {
+        assertEquals(4, manager.engageKillSwitch(alice).size());
+        assertTrue(manager.isKillSwitchEngaged(alice));
+        try {
+            manager.placeOrder(order(xyz, alice, Side.BUY, 90.0f, 10));
+            fail("The orders of a killed account should be rejected");
+        } catch (IllegalTradeException e) {
+            // expected
+        }
+        assertTrue(manager.getOrders(alice).isEmpty());
+
+        manager.releaseKillSwitch(alice);
+        assertFalse(manager.isKillSwitchEngaged(alice));
+        manager.placeOrder(order(xyz, alice, Side.BUY, 90.0f, 10));
+        assertEquals(1, manager.getOrders(alice).size());
+    }
+}
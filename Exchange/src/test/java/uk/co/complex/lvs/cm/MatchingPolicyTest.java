@@ -0,0 +1,113 @@
+package uk.co.complex.lvs.cm;
+
+import org.junit.Test;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MatchingPolicyTest {
+    private final Product xyz = new Product("XYZ");
+    private final Account alice = new Account("Alice");
+    private final Account bob = new Account("Bob");
+    private final Account carol = new Account("Carol");
+    private final Account dave = new Account("Dave");
+    private final OffsetDateTime start = OffsetDateTime.now();
+
+    private MarketManager createManager(MatchingPolicy policy) {
+        Map<Product, MatchingPolicy> policies = new LinkedHashMap<>();
+        policies.put(xyz, policy);
+        for (Account a : Arrays.asList(alice, bob, carol)) {
+            a.updateBook(xyz, 100);
+        }
+        return new MarketManager(policies);
+    }
+
+    @Test
+    public void proRata() throws IllegalTradeException {
+        MarketManager manager = createManager(new ProRataMatchingPolicy());
+        Order aliceSell = new Order(xyz, 100.00f, 10, alice, Side.SELL, start);
+        Order bobSell = new Order(xyz, 100.00f, 30, bob, Side.SELL, start.plusNanos(1));
+        Order carolSell = new Order(xyz, 101.00f, 20, carol, Side.SELL, start.plusNanos(2));
+        manager.placeOrder(aliceSell);
+        manager.placeOrder(bobSell);
+        manager.placeOrder(carolSell);
+
+        // 21 units at 100.00: alice gets floor(21 * 10/40) = 5, bob gets floor(21 * 30/40) = 15,
+        // and the unit left over goes to alice, who was first
+        Order daveBuy = new Order(xyz, 100.00f, 21, dave, Side.BUY, start.plusNanos(3));
+        List<Trade> trades = manager.placeOrder(daveBuy);
+        assertEquals(2, trades.size());
+        assertEquals(4, aliceSell.getRemainingAmount());
+        assertEquals(15, bobSell.getRemainingAmount());
+        assertEquals(Status.COMPLETED, daveBuy.getStatus());
+
+        // The level state is kept up to date on cancels: sweep both levels
+        manager.cancelOrder(aliceSell);
+        Order daveSweep = new Order(xyz, 101.00f, 30, dave, Side.BUY, start.plusNanos(4));
+        trades = manager.placeOrder(daveSweep);
+        assertEquals(2, trades.size());
+        assertEquals(0, bobSell.getRemainingAmount());
+        assertEquals(5, carolSell.getRemainingAmount());
+        assertEquals(Status.COMPLETED, daveSweep.getStatus());
+        assertEquals(1, manager.getSellQueue(xyz).size());
+    }
+
+    @Test
+    public void fifoTopOrder() throws IllegalTradeException {
+        FifoTopOrderMatchingPolicy policy = new FifoTopOrderMatchingPolicy();
+        MarketManager manager = createManager(policy);
+        Order aliceSell = new Order(xyz, 101.00f, 10, alice, Side.SELL, start);
+        Order bobSell = new Order(xyz, 100.00f, 10, bob, Side.SELL, start.plusNanos(1));
+        Order carolSell = new Order(xyz, 100.00f, 10, carol, Side.SELL, start.plusNanos(2));
+        manager.placeOrder(aliceSell);
+        assertSame(aliceSell, policy.getTopOrder(Side.SELL));
+        manager.placeOrder(bobSell);
+        assertSame(bobSell, policy.getTopOrder(Side.SELL));
+        manager.placeOrder(carolSell);
+        assertSame(bobSell, policy.getTopOrder(Side.SELL));
+
+        manager.cancelOrder(bobSell);
+        assertNull(policy.getTopOrder(Side.SELL));
+
+        Order daveBuy = new Order(xyz, 100.00f, 5, dave, Side.BUY, start.plusNanos(3));
+        manager.placeOrder(daveBuy);
+        assertEquals(5, carolSell.getRemainingAmount());
+    }
+
+    @Test
+    public void leadMarketMaker() throws IllegalTradeException {
+        FifoTopOrderMatchingPolicy policy = new FifoTopOrderMatchingPolicy(
+                Collections.singletonList(carol), 50);
+        MarketManager manager = createManager(policy);
+        Order aliceSell = new Order(xyz, 100.00f, 10, alice, Side.SELL, start);
+        Order bobSell = new Order(xyz, 100.00f, 10, bob, Side.SELL, start.plusNanos(1));
+        Order carolSell = new Order(xyz, 100.00f, 10, carol, Side.SELL, start.plusNanos(2));
+        manager.placeOrder(aliceSell);
+        manager.placeOrder(bobSell);
+        manager.placeOrder(carolSell);
+
+        // Alice is the top order and gets filled first, then carol (the LMM) gets half of the
+        // remaining 8 units, and the rest goes to bob in FIFO order
+        Order daveBuy = new Order(xyz, 100.00f, 18, dave, Side.BUY, start.plusNanos(3));
+        List<Trade> trades = manager.placeOrder(daveBuy);
+        assertEquals(3, trades.size());
+        assertEquals(Status.COMPLETED, aliceSell.getStatus());
+        assertEquals(6, bobSell.getRemainingAmount());
+        assertEquals(6, carolSell.getRemainingAmount());
+        assertNull(policy.getTopOrder(Side.SELL));
+    }
+}
@@ -0,0 +1,161 @@
+package uk.co.complex.lvs.cm;
+
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+import uk.co.complex.lvs.cm.datamodel.TimeInForce;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OrderExpiryTest {
+    private static final Instant START = Instant.parse("2018-01-02T09:00:00Z");
+
+    private Product xyz;
+    private Account alice;
+    private Account bob;
+    private MarketManager manager;
+    private final List<Order> expired = new ArrayList<>();
+    private final List<Order> cancelled = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        xyz = new Product("XYZ");
+        alice = new Account("Alice");
+        bob = new Account("Bob");
+        bob.updateBook(xyz, 1000);
+        manager = new MarketManager(Arrays.asList(xyz));
+        manager.addOrderListener(new OrderListener() {
+            @Override
+            public void orderCancelled(Order order) {
+                cancelled.add(order);
+            }
+
+            @Override
+            public void orderExpired(Order order) {
+                expired.add(order);
+            }
+        });
+        setTime(0);
+    }
+
+    private void setTime(long millis) {
+        manager.setClock(Clock.fixed(START.plusMillis(millis), ZoneOffset.UTC));
+    }
+
+    private OffsetDateTime now() {
+        return OffsetDateTime.now(manager.getClock());
+    }
+
+    private Order goodTill(Account actor, Side side, float price, int amount, long expiryMillis) {
+        return new Order(xyz, price, amount, actor, side, now(), TimeInForce.GOOD_TILL_TIME,
+                OffsetDateTime.ofInstant(START.plusMillis(expiryMillis), ZoneOffset.UTC));
+    }
+
+    @Test
+    public void goodTillTime() throws IllegalTradeException {
+        Order buy = goodTill(alice, Side.BUY, 100.0f, 10, 1000);
+        Order sell = goodTill(bob, Side.SELL, 105.0f, 10, 2000);
+        manager.placeOrder(buy);
+        manager.placeOrder(sell);
+
+        setTime(999);
+        assertTrue(manager.expireOrders().isEmpty());
+        setTime(1000);
+        assertEquals(Arrays.asList(buy), manager.expireOrders());
+        assertEquals(Status.EXPIRED, buy.getStatus());
+        assertTrue(manager.getBuyQueue(xyz).isEmpty());
+        assertFalse(manager.getTopOfBook(xyz).hasBid());
+        assertEquals(Arrays.asList(buy), expired);
+        assertTrue(cancelled.isEmpty());
+        assertEquals(0, manager.getRiskEngine().getOpenBuyAmount(alice, xyz));
+
+        // Expired orders are removed before the next order is matched
+        setTime(2500);
+        List<?> trades = manager.placeOrder(new Order(xyz, 105.0f, 10, alice, Side.BUY, now()));
+        assertTrue(trades.isEmpty());
+        assertEquals(Status.EXPIRED, sell.getStatus());
+        assertEquals(Arrays.asList(buy, sell), expired);
+    }
+
+    @Test
+    public void goodForDay() throws IllegalTradeException {
+        manager.setEndOfDay(LocalTime.of(17, 30));
+        Order sell = new Order(xyz, 100.0f, 10, bob, Side.SELL, now(), TimeInForce.GOOD_FOR_DAY,
+                null);
+        manager.placeOrder(sell);
+
+        setTime(8 * 3_600_000L + 29 * 60_000L);
+        assertTrue(manager.expireOrders().isEmpty());
+        setTime(8 * 3_600_000L + 30 * 60_000L);
+        assertEquals(Arrays.asList(sell), manager.expireOrders());
+        assertTrue(manager.getSellQueue(xyz).isEmpty());
+    }
+
+    @Test
+    public void filledAndCancelledOrdersDoNotExpire() throws IllegalTradeException {
+        Order filled = goodTill(bob, Side.SELL, 100.0f, 10, 1000);
+        Order cancel = goodTill(bob, Side.SELL, 101.0f, 10, 1000);
+        Order partial = goodTill(bob, Side.SELL, 102.0f, 10, 1000);
+        manager.placeOrder(filled);
+        manager.placeOrder(cancel);
+        manager.placeOrder(partial);
+        manager.placeOrder(new Order(xyz, 100.0f, 10, alice, Side.BUY, now()));
+        manager.cancelOrder(cancel);
+        manager.placeOrder(new Order(xyz, 102.0f, 4, alice, Side.BUY, now()));
+
+        setTime(5000);
+        assertEquals(Arrays.asList(partial), manager.expireOrders());
+        assertEquals(Status.COMPLETED, filled.getStatus());
+        assertEquals(Status.CANCELLED, cancel.getStatus());
+        assertEquals(6, partial.getRemainingAmount());
+        assertEquals(Arrays.asList(partial), expired);
+        assertEquals(Arrays.asList(cancel), cancelled);
+    }
+
+    @Test
+    public void rejectsExpiredOrders() {
+        setTime(1000);
+        try {
+            manager.placeOrder(goodTill(alice, Side.BUY, 100.0f, 10, 1000));
+            fail("An order which has expired already should be rejected");
+        } catch (IllegalTradeException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void goodTillTimeNeedsExpiry() {
+        new Order(xyz, 100.0f, 10, alice, Side.BUY, now(), TimeInForce.GOOD_TILL_TIME, null);
+    }
+
+    @Test
+    public void expiresInBatches() throws IllegalTradeException {
+        for (int i = 0; i < 1000; i++) {
+            manager.placeOrder(goodTill(alice, Side.BUY, 50.0f + i % 10, 1, 1000 + i % 100));
+        }
+        setTime(1049);
+        assertEquals(500, manager.expireOrders().size());
+        assertEquals(500, manager.getBuyQueue(xyz).size());
+        // Of the orders at the best price, those expiring at 1050 to 1099 are left
+        assertEquals(50, manager.getTopOfBook(xyz).getBidAmount());
+        setTime(1100);
+        assertEquals(500, manager.expireOrders().size());
+        assertTrue(manager.getBuyQueue(xyz).isEmpty());
+    }
+}
@@ -0,0 +1,197 @@
+package uk.co.complex.lvs.cm;
+
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RateLimiterTest {
+    private static final Instant START = Instant.parse("2018-01-02T09:00:00Z");
+
+    private Product xyz;
+    private Account alice;
+    private Account bob;
+    private MarketManager manager;
+    private RateLimiter limiter;
+    private final List<String> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        xyz = new Product("XYZ");
+        alice = new Account("Alice");
+        bob = new Account("Bob");
+        manager = new MarketManager(Arrays.asList(xyz));
+        limiter = manager.getRateLimiter();
+        limiter.addListener(new ThrottleListener() {
+            @Override
+            public void orderThrottled(Order order) {
+                events.add("order " + order.getActor().getName());
+            }
+
+            @Override
+            public void cancelThrottled(Order order) {
+                events.add("cancel " + order.getActor().getName());
+            }
+        });
+        setTime(0);
+    }
+
+    private void setTime(long millis) {
+        manager.setClock(Clock.fixed(START.plusMillis(millis), ZoneOffset.UTC));
+    }
+
+    private Order buy(Account actor, float price) {
+        return new Order(xyz, price, 1, actor, Side.BUY, OffsetDateTime.now(manager.getClock()));
+    }
+
+    private void assertThrottled(Order order) {
+        try {
+            manager.placeOrder(order);
+            fail("The order should have been throttled: " + order);
+        } catch (IllegalTradeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void burstThenRate() throws IllegalTradeException {
+        limiter.setDefaultLimits(new RateLimit(10, 3), RateLimit.UNLIMITED);
+        for (int i = 0; i < 3; i++) manager.placeOrder(buy(alice, 100.0f));
+        assertThrottled(buy(alice, 100.0f));
+        assertEquals(3, manager.getBuyQueue(xyz).size());
+        assertEquals(3, manager.getRiskEngine().getOpenBuyAmount(alice, xyz));
+
+        // Another account has a bucket of its own
+        manager.placeOrder(buy(bob, 99.0f));
+
+        // The bucket gains one order every 100 ms
+        setTime(99);
+        assertThrottled(buy(alice, 100.0f));
+        setTime(100);
+        manager.placeOrder(buy(alice, 100.0f));
+        assertThrottled(buy(alice, 100.0f));
+
+        assertEquals(3, limiter.getThrottledOrders(alice));
+        assertEquals(0, limiter.getThrottledOrders(bob));
+        assertEquals(3, limiter.getThrottledOrders());
+        assertEquals(Arrays.asList("order Alice", "order Alice", "order Alice"), events);
+    }
+
+    @Test
+    public void accountLimits() throws IllegalTradeException {
+        limiter.setDefaultLimits(new RateLimit(1, 1), RateLimit.UNLIMITED);
+        limiter.setLimits(alice, new RateLimit(1000, 5), null);
+        assertEquals(1000, limiter.getOrderLimit(alice).getRatePerSecond(), 0);
+        assertTrue(limiter.getCancelLimit(alice).isUnlimited());
+        assertEquals(1, limiter.getOrderLimit(bob).getBurst());
+
+        for (int i = 0; i < 5; i++) manager.placeOrder(buy(alice, 100.0f));
+        manager.placeOrder(buy(bob, 100.0f));
+        assertThrottled(buy(bob, 100.0f));
+
+        // Amendments are taken from the order bucket
+        final Order order = manager.getOrders(alice).get(0);
+        try {
+            manager.amendOrder(order, 101.0f, 1);
+            fail("The amendment should have been throttled");
+        } catch (IllegalTradeException e) {
+            // expected
+        }
+        assertEquals(100.0f, order.getPrice(), 0);
+
+        limiter.setLimits(alice, null, null);
+        assertEquals(1, limiter.getOrderLimit(alice).getBurst());
+        assertEquals(1, limiter.getThrottledOrders(alice));
+    }
+
+    @Test
+    public void cancels() throws IllegalTradeException {
+        limiter.setDefaultLimits(RateLimit.UNLIMITED, new RateLimit(1, 2));
+        final Order[] orders = new Order[3];
+        for (int i = 0; i < orders.length; i++) {
+            orders[i] = buy(alice, 100.0f);
+            manager.placeOrder(orders[i]);
+        }
+        assertTrue(manager.cancelOrder(orders[0]));
+        assertTrue(manager.cancelOrder(orders[1]));
+        assertFalse(manager.cancelOrder(orders[2]));
+        assertSame(orders[2], manager.getBuyQueue(xyz).first());
+        assertEquals(Arrays.asList("cancel Alice"), events);
+
+        // A mass cancellation is never throttled
+        assertEquals(1, manager.cancelAllOrders(alice).size());
+        assertEquals(1, limiter.getThrottledCancels());
+
+        setTime(1000);
+        final Order later = buy(alice, 100.0f);
+        manager.placeOrder(later);
+        assertTrue(manager.cancelOrder(later));
+    }
+
+    @Test
+    public void concurrentBurst() throws InterruptedException {
+        limiter.setDefaultLimits(new RateLimit(1, 100), RateLimit.UNLIMITED);
+        final AtomicInteger accepted = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < 100; i++) {
+                        try {
+                            manager.placeOrder(buy(alice, 100.0f));
+                            accepted.incrementAndGet();
+                        } catch (IllegalTradeException e) {
+                            // throttled
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread t : threads) t.join();
+
+        assertEquals(100, accepted.get());
+        assertEquals(300, limiter.getThrottledOrders(alice));
+        assertEquals(100, manager.getBuyQueue(xyz).size());
+    }
+
+    @Test
+    public void metrics() throws IllegalTradeException {
+        limiter.setDefaultLimits(new RateLimit(1, 1), new RateLimit(1, 1));
+        final Order order = buy(alice, 100.0f);
+        manager.placeOrder(order);
+        assertThrottled(buy(alice, 100.0f));
+        manager.cancelOrder(order);
+        manager.cancelOrder(order);
+        assertEquals(1, manager.enableMetrics("test").getThrottledOrders());
+        assertEquals(1, manager.getMetrics().getThrottledCancels());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroRate() {
+        new RateLimit(0, 1);
+    }
+}
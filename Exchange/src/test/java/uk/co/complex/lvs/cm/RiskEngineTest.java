@@ -0,0 +1,120 @@
+package uk.co.complex.lvs.cm;
+
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RiskEngineTest {
+    private Product xyz;
+    private Account alice;
+    private Account bob;
+    private MarketManager manager;
+    private RiskEngine risk;
+
+    @Before
+    public void setUp() {
+        xyz = new Product("XYZ");
+        alice = new Account("Alice");
+        bob = new Account("Bob");
+        bob.updateBook(xyz, 100);
+        manager = new MarketManager(Arrays.asList(xyz));
+        risk = manager.getRiskEngine();
+    }
+
+    private Order order(Account actor, Side side, float price, int amount) {
+        return new Order(xyz, price, amount, actor, side, OffsetDateTime.now());
+    }
+
+    private void assertRejected(Order order) {
+        try {
+            manager.placeOrder(order);
+            fail("The order should have been rejected: " + order);
+        } catch (IllegalTradeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void openSellsCannotOversell() throws IllegalTradeException {
+        manager.placeOrder(order(bob, Side.SELL, 100.0f, 60));
+        assertEquals(60, risk.getOpenSellAmount(bob, xyz));
+
+        // Bob holds 100, of which 60 are already offered
+        assertRejected(order(bob, Side.SELL, 101.0f, 50));
+        manager.placeOrder(order(bob, Side.SELL, 101.0f, 40));
+        assertEquals(100, risk.getOpenSellAmount(bob, xyz));
+        assertEquals(1, risk.getRejectedCount());
+    }
+
+    @Test
+    public void exposuresFollowFillsAndCancels() throws IllegalTradeException {
+        final Order sell = order(bob, Side.SELL, 100.0f, 30);
+        manager.placeOrder(sell);
+        manager.placeOrder(order(alice, Side.BUY, 100.0f, 10));
+
+        assertEquals(0, risk.getOpenBuyAmount(alice, xyz));
+        assertEquals(0, risk.getNotional(alice), 0.0);
+        assertEquals(20, risk.getOpenSellAmount(bob, xyz));
+        assertEquals(2000, risk.getNotional(bob), 0.0);
+
+        final Order buy = order(alice, Side.BUY, 90.0f, 5);
+        manager.placeOrder(buy);
+        assertEquals(5, risk.getOpenBuyAmount(alice, xyz));
+        assertEquals(450, risk.getNotional(alice), 0.0);
+
+        manager.cancelOrder(sell);
+        manager.cancelOrder(buy);
+        assertEquals(0, risk.getOpenSellAmount(bob, xyz));
+        assertEquals(0, risk.getNotional(bob), 0.0);
+        assertEquals(0, risk.getOpenBuyAmount(alice, xyz));
+        assertEquals(0, risk.getNotional(alice), 0.0);
+
+        // Bob sold 10, so he can offer the other 90 again
+        manager.placeOrder(order(bob, Side.SELL, 100.0f, 90));
+    }
+
+    @Test
+    public void limits() throws IllegalTradeException {
+        risk.setLimits(alice, new RiskLimits(20, 0, 1500, Integer.MAX_VALUE));
+        assertEquals(20, risk.getLimits(alice).getMaxOpenBuyAmount());
+        assertEquals(RiskLimits.UNLIMITED, risk.getLimits(bob));
+
+        manager.placeOrder(order(alice, Side.BUY, 50.0f, 15));
+        assertRejected(order(alice, Side.BUY, 50.0f, 6));
+        manager.placeOrder(order(alice, Side.BUY, 50.0f, 5));
+        assertEquals(20, risk.getOpenBuyAmount(alice, xyz));
+
+        risk.setLimits(alice, new RiskLimits(100, 0, 1500, Integer.MAX_VALUE));
+        manager.placeOrder(order(alice, Side.BUY, 100.0f, 5));
+        assertRejected(order(alice, Side.BUY, 100.0f, 1));
+        assertEquals(1500, risk.getNotional(alice), 0.0);
+    }
+
+    @Test
+    public void orderRate() throws IllegalTradeException {
+        risk.setDefaultLimits(new RiskLimits(Integer.MAX_VALUE, Integer.MAX_VALUE,
+                Double.POSITIVE_INFINITY, 3));
+        final Instant start = Instant.parse("2018-01-02T09:00:00Z");
+        manager.setClock(Clock.fixed(start, ZoneOffset.UTC));
+        for (int i = 0; i < 3; i++) {
+            manager.placeOrder(order(alice, Side.BUY, 50.0f, 1));
+        }
+        assertRejected(order(alice, Side.BUY, 50.0f, 1));
+        manager.placeOrder(order(bob, Side.SELL, 60.0f, 1));
+
+        manager.setClock(Clock.fixed(start.plusSeconds(1), ZoneOffset.UTC));
+        manager.placeOrder(order(alice, Side.BUY, 50.0f, 1));
+    }
+}
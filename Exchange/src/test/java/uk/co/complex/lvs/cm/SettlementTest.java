@@ -0,0 +1,87 @@
+package uk.co.complex.lvs.cm;
+
+import org.junit.Test;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SettlementTest {
+    @Test
+    public void netsFillsPerAccount() throws IllegalTradeException, InterruptedException {
+        Product xyz = new Product("XYZ");
+        Account alice = new Account("Alice");
+        Account bob = new Account("Bob");
+        bob.updateBook(xyz, 1000);
+        MarketManager manager = new MarketManager(Arrays.asList(xyz));
+        Settlement settlement = manager.enableSettlement(60_000, 1_000_000);
+
+        // Bob offers 100 orders of 1, which Alice sweeps in one order
+        for (int i = 0; i < 100; i++) {
+            manager.placeOrder(new Order(xyz, 100.0f + i, 1, bob, Side.SELL,
+                    OffsetDateTime.now()));
+        }
+        manager.placeOrder(new Order(xyz, 200.0f, 100, alice, Side.BUY, OffsetDateTime.now()));
+        assertEquals(100, settlement.getTradeSequence());
+
+        // The window is long, so nothing has been settled yet
+        assertEquals(0, alice.getPosition(xyz));
+        assertEquals(1000, bob.getPosition(xyz));
+
+        manager.disableSettlement();
+        assertEquals(100, settlement.getWatermark());
+        assertEquals(2, settlement.getUpdateCount());
+        assertEquals(100, alice.getPosition(xyz));
+        assertEquals(900, bob.getPosition(xyz));
+    }
+
+    @Test
+    public void settlesBatches() throws IllegalTradeException, InterruptedException {
+        Product xyz = new Product("XYZ");
+        Account alice = new Account("Alice");
+        Account bob = new Account("Bob");
+        bob.updateBook(xyz, 10);
+        MarketManager manager = new MarketManager(Arrays.asList(xyz));
+        Settlement settlement = manager.enableSettlement(60_000, 2);
+
+        manager.placeOrder(new Order(xyz, 100.0f, 10, bob, Side.SELL, OffsetDateTime.now()));
+        manager.placeOrder(new Order(xyz, 100.0f, 4, alice, Side.BUY, OffsetDateTime.now()));
+        manager.placeOrder(new Order(xyz, 100.0f, 6, alice, Side.BUY, OffsetDateTime.now()));
+        assertTrue(settlement.awaitWatermark(2, 5000));
+        assertEquals(10, alice.getPosition(xyz));
+        assertEquals(0, bob.getPosition(xyz));
+        manager.disableSettlement();
+    }
+
+    @Test
+    public void unsettledTradesCountForRisk() throws IllegalTradeException {
+        Product xyz = new Product("XYZ");
+        Account alice = new Account("Alice");
+        Account bob = new Account("Bob");
+        bob.updateBook(xyz, 10);
+        MarketManager manager = new MarketManager(Arrays.asList(xyz));
+        manager.enableSettlement(60_000, 1_000_000);
+
+        manager.placeOrder(new Order(xyz, 100.0f, 10, bob, Side.SELL, OffsetDateTime.now()));
+        manager.placeOrder(new Order(xyz, 100.0f, 10, alice, Side.BUY, OffsetDateTime.now()));
+
+        // Bob's sale is not settled yet, but he cannot sell the same units again
+        try {
+            manager.placeOrder(new Order(xyz, 100.0f, 1, bob, Side.SELL, OffsetDateTime.now()));
+            fail("Bob should not be able to sell units he has sold already");
+        } catch (IllegalTradeException e) {
+            // expected
+        }
+        // Alice can sell the units she bought before they are settled
+        manager.placeOrder(new Order(xyz, 101.0f, 10, alice, Side.SELL, OffsetDateTime.now()));
+        manager.disableSettlement();
+        assertEquals(10, alice.getPosition(xyz));
+    }
+}
@@ -0,0 +1,86 @@
+package uk.co.complex.lvs.cm;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+    private static final long START = 1_514_883_600_000L;
+
+    @Test
+    public void expiresAtDeadline() {
+        TimingWheel<String> wheel = new TimingWheel<>(1);
+        wheel.schedule("a", START + 10, START);
+        wheel.schedule("b", START + 5000, START);
+        wheel.schedule("c", START + 86_400_000L, START);
+        List<String> expired = new ArrayList<>();
+
+        wheel.advance(START + 9, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(START + 10, expired);
+        assertEquals(Collections.singletonList("a"), expired);
+        wheel.advance(START + 86_399_999L, expired);
+        assertEquals(2, expired.size());
+        assertEquals("b", expired.get(1));
+        wheel.advance(START + 86_400_000L, expired);
+        assertEquals("c", expired.get(2));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cancel() {
+        TimingWheel<String> wheel = new TimingWheel<>(1);
+        TimingWheel.Timer<String> a = wheel.schedule("a", START + 100, START);
+        wheel.schedule("b", START + 100, START);
+        assertTrue(wheel.cancel(a));
+        assertFalse(wheel.cancel(a));
+        List<String> expired = new ArrayList<>();
+        wheel.advance(START + 1000, expired);
+        assertEquals(Collections.singletonList("b"), expired);
+    }
+
+    @Test
+    public void overdue() {
+        TimingWheel<String> wheel = new TimingWheel<>(10);
+        wheel.schedule("a", START + 100, START + 100);
+        List<String> expired = new ArrayList<>();
+        wheel.advance(START + 100, expired);
+        assertEquals(Collections.singletonList("a"), expired);
+    }
+
+    @Test
+    public void randomDeadlines() {
+        Random random = new Random(41);
+        TimingWheel<Long> wheel = new TimingWheel<>(1);
+        List<Long> pending = new ArrayList<>();
+        long now = START;
+        for (int round = 0; round < 200; round++) {
+            for (int i = 0; i < 50; i++) {
+                // Deadlines from a millisecond to about a year ahead
+                long deadline = now + 1 + (long) Math.pow(2, random.nextDouble() * 35);
+                wheel.schedule(deadline, deadline, now);
+                pending.add(deadline);
+            }
+            now += (long) Math.pow(2, random.nextDouble() * 32);
+            List<Long> expired = new ArrayList<>();
+            wheel.advance(now, expired);
+
+            List<Long> expected = new ArrayList<>();
+            for (Long d : pending) {
+                if (d <= now) expected.add(d);
+            }
+            pending.removeAll(expected);
+            Collections.sort(expected);
+            Collections.sort(expired);
+            assertEquals(expected, expired);
+            assertEquals(pending.size(), wheel.size());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package uk.co.complex.lvs.cm;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Book;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+import uk.co.complex.lvs.cm.datamodel.TradeArchive;
+import uk.co.complex.lvs.cm.datamodel.TradeQuery;
+
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TradeArchiveTest {
+    private static final OffsetDateTime START =
+            OffsetDateTime.of(2018, 1, 2, 9, 0, 0, 0, ZoneOffset.UTC);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Product xyz = new Product("XYZ");
+    private final Product abc = new Product("ABC");
+    private final Account alice = new Account("Alice");
+    private final Account bob = new Account("Bob");
+    private final Account carol = new Account("Carol");
+
+    /**
+     * Adds 1000 trades to a book, rotating over the products and accounts. Every fifth trade has
+     * the same time as the trade before it.
+     */
+    private void fill(Book book) {
+        Account[] accounts = {alice, bob, carol};
+        OffsetDateTime time = START;
+        for (int i = 0; i < 1000; i++) {
+            if (i % 5 != 0) time = time.plusNanos(1_000_000L + i);
+            book.addRecord(new Trade((i % 2 == 0)? xyz : abc, accounts[i % 3],
+                    accounts[(i + 1) % 3], 100 + (i % 17) * 0.25f, 1 + i % 7, time, 2 * i,
+                    2 * i + 1));
+        }
+    }
+
+    private static List<Trade> toList(Iterator<Trade> it) {
+        List<Trade> trades = new ArrayList<>();
+        it.forEachRemaining(trades::add);
+        return trades;
+    }
+
+    private static List<Trade> allPages(Book book, TradeQuery query, int pageSize) {
+        List<Trade> trades = new ArrayList<>();
+        Book.Page page = book.getPage(query, pageSize);
+        trades.addAll(page.getTrades());
+        while (page.hasMore()) {
+            page = book.getPage(page.getNextQuery(), pageSize);
+            trades.addAll(page.getTrades());
+        }
+        return trades;
+    }
+
+    @Test
+    public void archivesOldRecords() throws IOException {
+        TradeArchive archive = new TradeArchive(folder.newFolder().toPath(), 128);
+        Book book = new Book();
+        book.setArchive(archive, 100);
+        fill(book);
+
+        // Between 100 and 100 + 127 records stay in memory: 1000 = 7 * 128 + 104
+        assertEquals(7, archive.getSegmentCount());
+        assertEquals(7 * 128, archive.getRecordCount());
+        assertEquals(1000, book.size());
+        assertTrue(archive.getByteCount() > 0);
+        assertTrue("Segments should be compressed: " + archive.getByteCount() + " bytes",
+                archive.getByteCount() < 7 * 128 * 16);
+    }
+
+    @Test
+    public void queriesIncludeArchive() throws IOException {
+        Book reference = new Book();
+        fill(reference);
+        Book book = new Book();
+        book.setArchive(new TradeArchive(folder.newFolder().toPath(), 64), 50);
+        fill(book);
+
+        assertEquals(reference.getAllRecords(), book.getAllRecords());
+        assertEquals(reference, book);
+
+        List<TradeQuery> queries = Arrays.asList(
+                TradeQuery.all(),
+                TradeQuery.all().forProduct(xyz),
+                TradeQuery.all().forAccount(alice),
+                TradeQuery.all().forAccount(bob).onSide(Side.SELL),
+                TradeQuery.all().forAccount(carol).forProduct(abc),
+                TradeQuery.all().forProduct(abc).between(START.plusNanos(100_000_000L),
+                        START.plusNanos(900_000_000L)),
+                TradeQuery.all().forAccount(new Account("Dave")));
+        for (TradeQuery q : queries) {
+            List<Trade> expected = toList(reference.query(q));
+            assertEquals(expected, toList(book.query(q)));
+            assertEquals(expected, allPages(book, q, 37));
+        }
+
+        // The archived records refer to the same accounts as the records in memory
+        Trade first = book.query(TradeQuery.all()).next();
+        assertSame(alice, first.getBuyer());
+        assertSame(bob, first.getSeller());
+        assertEquals(0, first.getBuyOrderId());
+        assertEquals(1, first.getSellOrderId());
+    }
+
+    @Test
+    public void copySharesArchive() throws IOException {
+        TradeArchive archive = new TradeArchive(folder.newFolder().toPath(), 64);
+        Book book = new Book();
+        book.setArchive(archive, 0);
+        fill(book);
+        Book copy = new Book(book);
+        int segments = archive.getSegmentCount();
+
+        copy.addRecord(new Trade(xyz, alice, bob, 1, 1, START.plusDays(1)));
+        assertEquals(segments, archive.getSegmentCount());
+        assertEquals(book.size() + 1, copy.size());
+        assertEquals(book.getAllRecords(), copy.getAllRecords().subList(1, copy.size()));
+    }
+
+    @Test
+    public void marketManager() throws IOException, IllegalTradeException {
+        MarketManager manager = new MarketManager(Arrays.asList(xyz));
+        TradeArchive archive = new TradeArchive(folder.newFolder().toPath(), 10);
+        manager.setTradeArchive(archive, 5);
+        bob.updateBook(xyz, 100);
+        for (int i = 0; i < 40; i++) {
+            OffsetDateTime time = START.plusSeconds(i);
+            manager.placeOrder(new Order(xyz, 100 + i, 1, bob, Side.SELL, time));
+            manager.placeOrder(new Order(xyz, 100 + i, 1, alice, Side.BUY, time));
+        }
+
+        assertEquals(3, archive.getSegmentCount());
+        Book.Page page = manager.getTrades(TradeQuery.all().forAccount(alice), 40);
+        assertEquals(40, page.getTrades().size());
+        assertFalse(page.hasMore());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(100 + i, page.getTrades().get(i).getPrice(), 0.0f);
+        }
+        assertEquals(40, manager.getBook().getAllRecords().size());
+    }
+}
@@ -0,0 +1,131 @@
+package uk.co.complex.lvs.cm;
+
+import org.junit.Test;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Book;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+import uk.co.complex.lvs.cm.datamodel.TradeQuery;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TradeHistoryTest {
+    private static final OffsetDateTime START =
+            OffsetDateTime.of(2018, 1, 2, 9, 0, 0, 0, ZoneOffset.UTC);
+
+    private final Product xyz = new Product("XYZ");
+    private final Product abc = new Product("ABC");
+    private final Account alice = new Account("Alice");
+    private final Account bob = new Account("Bob");
+    private final Account carol = new Account("Carol");
+
+    /**
+     * Fills a book with 100 trades, one per second, rotating over the products and accounts.
+     */
+    private Book book() {
+        Book book = new Book();
+        Account[] accounts = {alice, bob, carol};
+        for (int i = 0; i < 100; i++) {
+            book.addRecord(new Trade((i % 2 == 0)? xyz : abc, accounts[i % 3],
+                    accounts[(i + 1) % 3], 100 + i, 1, START.plusSeconds(i)));
+        }
+        return book;
+    }
+
+    private static List<Trade> toList(Iterator<Trade> it) {
+        List<Trade> trades = new ArrayList<>();
+        it.forEachRemaining(trades::add);
+        return trades;
+    }
+
+    @Test
+    public void allRecordsNewestFirst() {
+        Book book = new Book();
+        Trade t1 = new Trade(xyz, alice, bob, 1, 1, START);
+        Trade t2 = new Trade(xyz, alice, bob, 2, 1, START);
+        Trade t3 = new Trade(xyz, alice, bob, 3, 1, START.plusSeconds(1));
+        book.addRecord(t1);
+        book.addRecord(t3);
+        book.addRecord(t2);
+        List<Trade> records = book.getAllRecords();
+        assertEquals(t3, records.get(0));
+        assertEquals(t1, records.get(1));
+        assertEquals(t2, records.get(2));
+        assertEquals(book, new Book(book));
+    }
+
+    @Test
+    public void query() {
+        Book book = book();
+
+        List<Trade> xyzTrades = toList(book.query(TradeQuery.all().forProduct(xyz)));
+        assertEquals(50, xyzTrades.size());
+        for (int i = 1; i < xyzTrades.size(); i++) {
+            assertTrue(xyzTrades.get(i - 1).getTime().isBefore(xyzTrades.get(i).getTime()));
+        }
+
+        // Alice buys in trades 0, 3, 6, ... and sells in trades 2, 5, 8, ...
+        List<Trade> aliceBuys = toList(book.query(
+                TradeQuery.all().forAccount(alice).onSide(Side.BUY)));
+        assertEquals(34, aliceBuys.size());
+        for (Trade t : aliceBuys) assertEquals(alice, t.getBuyer());
+        assertEquals(67, toList(book.query(TradeQuery.all().forAccount(alice))).size());
+
+        // Trades 10 to 19 of alice on XYZ: 12, 14 and 18
+        List<Trade> range = toList(book.query(TradeQuery.all().forAccount(alice)
+                .forProduct(xyz).between(START.plusSeconds(10), START.plusSeconds(20))));
+        assertEquals(3, range.size());
+        assertEquals(112.0f, range.get(0).getPrice(), 0.0f);
+        assertEquals(118.0f, range.get(2).getPrice(), 0.0f);
+
+        assertFalse(book.query(TradeQuery.all().forAccount(new Account("Dave"))).hasNext());
+        assertFalse(book.query(TradeQuery.all()
+                .between(START.plusSeconds(5), START.plusSeconds(5))).hasNext());
+    }
+
+    @Test
+    public void paging() {
+        Book book = book();
+        TradeQuery query = TradeQuery.all().forProduct(abc).between(START.plusSeconds(20), null);
+        List<Trade> trades = new ArrayList<>();
+        int pages = 0;
+        while (query != null) {
+            Book.Page page = book.getPage(query, 7);
+            trades.addAll(page.getTrades());
+            query = page.getNextQuery();
+            pages++;
+        }
+        assertEquals(40, trades.size());
+        assertEquals(6, pages);
+        assertEquals(121.0f, trades.get(0).getPrice(), 0.0f);
+        assertEquals(199.0f, trades.get(39).getPrice(), 0.0f);
+    }
+
+    @Test
+    public void marketManager() throws IllegalTradeException {
+        MarketManager manager = new MarketManager(Arrays.asList(xyz));
+        bob.updateBook(xyz, 10);
+        for (int i = 0; i < 5; i++) {
+            manager.placeOrder(new Order(xyz, 100, 2, bob, Side.SELL, OffsetDateTime.now()));
+            manager.placeOrder(new Order(xyz, 100, 2, alice, Side.BUY, OffsetDateTime.now()));
+        }
+        Book.Page page = manager.getTrades(TradeQuery.all().forAccount(alice), 3);
+        assertEquals(3, page.getTrades().size());
+        assertTrue(page.hasMore());
+        page = manager.getTrades(page.getNextQuery(), 3);
+        assertEquals(2, page.getTrades().size());
+        assertNull(page.getNextQuery());
+    }
+}
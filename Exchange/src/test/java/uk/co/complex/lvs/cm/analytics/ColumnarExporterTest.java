@@ -0,0 +1,152 @@
+package uk.co.complex.lvs.cm.analytics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.co.complex.lvs.cm.BookSnapshot;
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarExporterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Product xyz = new Product("XYZ");
+    private final Product abc = new Product("ABC");
+    private final Account alice = new Account("Alice");
+    private final Account bob = new Account("Bob");
+
+    private MarketManager market() {
+        bob.updateBook(xyz, 1_000_000);
+        bob.updateBook(abc, 1_000_000);
+        return new MarketManager(Arrays.asList(xyz, abc));
+    }
+
+    private static Order order(Product p, Account actor, Side side, float price, int amount) {
+        return new Order(p, price, amount, actor, side, OffsetDateTime.now());
+    }
+
+    @Test
+    public void exportsTradesAndLevels() throws IOException, IllegalTradeException {
+        MarketManager manager = market();
+        Path directory = folder.getRoot().toPath();
+        ColumnarExporter exporter = new ColumnarExporter(manager, directory, 1000, 2);
+        // An order which was queued before the export started is in the image
+        manager.placeOrder(order(xyz, bob, Side.SELL, 103.0f, 5));
+        exporter.start();
+        manager.placeOrder(order(xyz, bob, Side.SELL, 101.0f, 10));
+        manager.placeOrder(order(xyz, bob, Side.SELL, 102.0f, 10));
+        manager.placeOrder(order(xyz, alice, Side.BUY, 101.5f, 4));
+        manager.placeOrder(order(abc, alice, Side.BUY, 50.0f, 7));
+        manager.placeOrder(order(abc, alice, Side.BUY, 50.0f, 3));
+        manager.placeOrder(order(abc, bob, Side.SELL, 49.0f, 2));
+        exporter.stop();
+        assertEquals(0, exporter.getDroppedCount());
+
+        try (ColumnarReader trades = new ColumnarReader(directory.resolve(
+                ColumnarExporter.TRADES_FILE))) {
+            assertTrue(trades.nextBlock());
+            assertEquals(2, trades.getRowCount());
+            assertArrayEquals(new String[] {"XYZ", "ABC"}, trades.getStrings("product"));
+            assertArrayEquals(new String[] {"Alice", "Alice"}, trades.getStrings("buyer"));
+            assertArrayEquals(new String[] {"Bob", "Bob"}, trades.getStrings("seller"));
+            assertArrayEquals(new float[] {101.25f, 49.5f}, trades.getFloats("price"), 0.0f);
+            assertArrayEquals(new int[] {4, 2}, trades.getInts("amount"));
+            assertTrue(trades.getLongs("time")[0] > 1_500_000_000_000_000_000L);
+            // Each name is stored once in the dictionary
+            assertEquals(4, trades.getDictionary().size());
+            assertFalse(trades.nextBlock());
+        }
+
+        try (ColumnarReader depth = new ColumnarReader(directory.resolve(
+                ColumnarExporter.DEPTH_FILE))) {
+            List<String> last = lastSnapshot(depth);
+            assertEquals(Arrays.asList("XYZ SELL 0 101.0 6 1", "XYZ SELL 1 102.0 10 1",
+                    "ABC BUY 0 50.0 8 2"), last);
+        }
+    }
+
+    @Test
+    public void dropsEventsInsteadOfBlocking() throws IOException, IllegalTradeException {
+        MarketManager manager = market();
+        Path directory = folder.getRoot().toPath();
+        ColumnarExporter exporter = new ColumnarExporter(manager, directory, 1, 1000, 4, 64);
+        exporter.start();
+        Random random = new Random(5);
+        int trades = 0;
+        for (int i = 0; i < 20000; i++) {
+            Product p = random.nextBoolean()? xyz : abc;
+            boolean buy = random.nextBoolean();
+            trades += manager.placeOrder(order(p, buy? alice : bob, buy? Side.BUY : Side.SELL,
+                    95 + random.nextInt(10), 1 + random.nextInt(20))).size();
+        }
+        exporter.stop();
+
+        long exported = 0;
+        try (ColumnarReader reader = new ColumnarReader(directory.resolve(
+                ColumnarExporter.TRADES_FILE))) {
+            while (reader.nextBlock()) exported += reader.getRowCount();
+        }
+        assertEquals(trades, exported + exporter.getDroppedTradeCount());
+
+        // Whatever was dropped, the last snapshot agrees with the queues
+        List<String> expected = new ArrayList<>();
+        for (Product p : Arrays.asList(xyz, abc)) {
+            BookSnapshot snapshot = manager.getBookSnapshot(p);
+            for (Side side : Side.values()) {
+                int level = 0;
+                for (BookSnapshot.Level l : snapshot.getLevels(side)) {
+                    expected.add(p.getName() + " " + side + " " + level++ + " " + l.getPrice() +
+                            " " + l.getAmount() + " " + l.getOrders());
+                }
+            }
+        }
+        try (ColumnarReader depth = new ColumnarReader(directory.resolve(
+                ColumnarExporter.DEPTH_FILE))) {
+            assertEquals(expected, lastSnapshot(depth));
+        }
+    }
+
+    /**
+     * Reads the rows of the last snapshot in a depth file.
+     */
+    private static List<String> lastSnapshot(ColumnarReader depth) throws IOException {
+        List<String> rows = new ArrayList<>();
+        long last = -1;
+        while (depth.nextBlock()) {
+            long[] times = depth.getLongs("time");
+            String[] products = depth.getStrings("product");
+            String[] sides = depth.getStrings("side");
+            int[] levels = depth.getInts("level");
+            float[] prices = depth.getFloats("price");
+            long[] amounts = depth.getLongs("amount");
+            int[] orders = depth.getInts("orders");
+            for (int r = 0; r < depth.getRowCount(); r++) {
+                if (times[r] != last) {
+                    rows.clear();
+                    last = times[r];
+                }
+                rows.add(products[r] + " " + sides[r] + " " + levels[r] + " " + prices[r] + " " +
+                        amounts[r] + " " + orders[r]);
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,167 @@
+package uk.co.complex.lvs.cm.analytics;
+
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.CalendarSpread;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TradeAnalyticsTest {
+    private static final Instant START = Instant.parse("2018-01-02T09:00:00Z");
+
+    private Product xyz;
+    private Account alice;
+    private Account bob;
+    private MarketManager manager;
+    private TradeAnalytics analytics;
+
+    @Before
+    public void setUp() throws IllegalTradeException {
+        xyz = new Product("XYZ");
+        alice = new Account("Alice");
+        bob = new Account("Bob");
+        bob.updateBook(xyz, 100);
+        manager = new MarketManager(Arrays.asList(xyz));
+        analytics = new TradeAnalytics(manager, 2500, 2);
+        analytics.start();
+
+        trade(0, 100.0f, 10);
+        trade(1000, 110.0f, 20);
+        trade(3000, 105.0f, 10);
+    }
+
+    private void setTime(long millis) {
+        manager.setClock(Clock.fixed(START.plusMillis(millis), ZoneOffset.UTC));
+    }
+
+    private void trade(long millis, float price, int amount) throws IllegalTradeException {
+        setTime(millis);
+        cross(xyz, price, amount);
+    }
+
+    private void cross(Product p, float price, int amount) throws IllegalTradeException {
+        OffsetDateTime now = OffsetDateTime.now(manager.getClock());
+        manager.placeOrder(new Order(p, price, amount, bob, Side.SELL, now));
+        manager.placeOrder(new Order(p, price, amount, alice, Side.BUY, now));
+    }
+
+    @Test
+    public void allTrades() {
+        TradeStats stats = analytics.getStats(xyz, TradeAnalytics.Window.ALL);
+        assertEquals(3, stats.getCount());
+        assertEquals(40, stats.getVolume());
+        assertEquals(4250.0 / 40, stats.getVwap(), 1e-9);
+        assertEquals((100.0 * 1000 + 110.0 * 2000) / 3000, stats.getTwap(), 1e-9);
+        assertEquals(105.0, stats.getLastPrice(), 0.0);
+        double r1 = Math.log(110.0 / 100.0);
+        double r2 = Math.log(105.0 / 110.0);
+        assertEquals(Math.sqrt(r1 * r1 + r2 * r2), stats.getRealizedVolatility(), 1e-9);
+
+        // Both accounts took part in every trade
+        assertEquals(40, analytics.getStats(alice, xyz, TradeAnalytics.Window.ALL).getVolume());
+        assertEquals(stats.getVwap(),
+                analytics.getStats(bob, xyz, TradeAnalytics.Window.ALL).getVwap(), 1e-9);
+    }
+
+    @Test
+    public void lastTrades() {
+        TradeStats stats = analytics.getStats(xyz, TradeAnalytics.Window.TRADES);
+        assertEquals(2, stats.getCount());
+        assertEquals(30, stats.getVolume());
+        assertEquals(3250.0 / 30, stats.getVwap(), 1e-9);
+        assertEquals(110.0, stats.getTwap(), 1e-9);
+    }
+
+    @Test
+    public void timeWindow() {
+        TradeStats stats = analytics.getStats(xyz, TradeAnalytics.Window.TIME);
+        assertEquals(2, stats.getCount());
+        assertEquals(3250.0 / 30, stats.getVwap(), 1e-9);
+
+        setTime(3600);
+        stats = analytics.getStats(xyz, TradeAnalytics.Window.TIME);
+        assertEquals(1, stats.getCount());
+        assertEquals(105.0, stats.getTwap(), 0.0);
+
+        setTime(10_000);
+        stats = analytics.getStats(xyz, TradeAnalytics.Window.TIME);
+        assertEquals(0, stats.getCount());
+        assertTrue(Double.isNaN(stats.getVwap()));
+        assertEquals(0.0, stats.getRealizedVolatility(), 0.0);
+
+        // The other windows are not affected by the time
+        assertEquals(3, analytics.getStats(xyz, TradeAnalytics.Window.ALL).getCount());
+    }
+
+    @Test
+    public void accountPerProduct() throws IllegalTradeException {
+        final Product abc = new Product("ABC");
+        bob.updateBook(abc, 100);
+        manager = new MarketManager(Arrays.asList(xyz, abc));
+        analytics = new TradeAnalytics(manager, 2500, 2);
+        analytics.start();
+
+        setTime(0);
+        cross(xyz, 100.0f, 10);
+        cross(abc, 5.0f, 10);
+        cross(xyz, 110.0f, 10);
+
+        // The trade in ABC does not count as a return of the trades in XYZ
+        final TradeStats stats = analytics.getStats(alice, xyz, TradeAnalytics.Window.ALL);
+        assertEquals(2, stats.getCount());
+        assertEquals(105.0, stats.getVwap(), 1e-9);
+        assertEquals(Math.log(110.0 / 100.0), stats.getRealizedVolatility(), 1e-9);
+        assertEquals(5.0, analytics.getStats(alice, abc, TradeAnalytics.Window.ALL).getVwap(),
+                0.0);
+    }
+
+    @Test
+    public void unknownSeries() {
+        TradeStats stats = analytics.getStats(new Account("Carol"), xyz,
+                TradeAnalytics.Window.ALL);
+        assertEquals(0, stats.getCount());
+        assertTrue(Double.isNaN(stats.getLastPrice()));
+    }
+
+    @Test
+    public void spreadThroughZero() throws IllegalTradeException {
+        final Product mar = new Product("XYZ-MAR");
+        final Product jun = new Product("XYZ-JUN");
+        final CalendarSpread spread = new CalendarSpread("XYZ-MAR/JUN", mar, jun);
+        for (Account a : Arrays.asList(alice, bob)) {
+            a.updateBook(mar, 100);
+            a.updateBook(jun, 100);
+        }
+        manager = new MarketManager(Arrays.asList(mar, jun, spread));
+        analytics = new TradeAnalytics(manager, 2500, 2);
+        analytics.start();
+
+        // The returns of a spread are price differences, also while its price is positive
+        final float[] prices = {2.0f, 1.0f, -0.5f, 0.0f, 0.5f};
+        for (int i = 0; i < prices.length; i++) {
+            setTime(1000 * i);
+            cross(spread, prices[i], 1);
+        }
+
+        final TradeStats stats = analytics.getStats(spread, TradeAnalytics.Window.ALL);
+        assertEquals(5, stats.getCount());
+        assertEquals(0.5, stats.getLastPrice(), 0.0);
+        assertEquals(Math.sqrt(1.0 * 1.0 + 1.5 * 1.5 + 0.5 * 0.5 + 0.5 * 0.5),
+                stats.getRealizedVolatility(), 1e-9);
+        assertEquals(Math.sqrt(0.5 * 0.5 + 0.5 * 0.5), analytics.getStats(alice,
+                spread, TradeAnalytics.Window.TRADES).getRealizedVolatility(), 1e-9);
+    }
+}
@@ -0,0 +1,42 @@
+package uk.co.complex.lvs.cm.bench;
+
+import org.junit.Test;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DifferentialHarnessTest {
+    @Test
+    public void marketAgreesWithReference() {
+        for (long seed = 1; seed <= 3; seed++) {
+            DifferentialHarness.Report report = new DifferentialHarness(seed).run(30000);
+            assertEquals(30000, report.getPlaced() + report.getCancels());
+            assertTrue(report.getTrades() > 1000);
+            assertTrue(report.getCancels() > 1000);
+        }
+    }
+
+    @Test
+    public void referenceMatchesInPriceTimeOrder() {
+        ReferenceMatcher reference = new ReferenceMatcher();
+        List<ReferenceMatcher.Fill> fills = new ArrayList<>();
+        reference.place(1, 0, Side.SELL, 101.0f, 10, fills);
+        reference.place(2, 0, Side.SELL, 100.0f, 10, fills);
+        reference.place(3, 0, Side.SELL, 100.0f, 10, fills);
+        reference.place(4, 0, Side.BUY, 101.0f, 25, fills);
+
+        assertEquals(3, fills.size());
+        assertEquals(2, fills.get(0).mSellOrderId);
+        assertEquals(3, fills.get(1).mSellOrderId);
+        assertEquals(1, fills.get(2).mSellOrderId);
+        assertEquals(5, fills.get(2).mAmount);
+        assertEquals(100.5f, fills.get(0).mPrice, 0.0f);
+        assertEquals(1, reference.book(0, Side.SELL).size());
+        assertEquals(5, reference.cancel(1));
+        assertEquals(0, reference.cancel(1));
+    }
+}
@@ -0,0 +1,148 @@
+package uk.co.complex.lvs.cm.gateway;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class OrderEntryGatewayTest {
+    private final Product xyz = new Product("XYZ");
+    private final Account alice = new Account("Alice");
+    private final Account bob = new Account("Bob");
+    private MarketManager manager;
+    private OrderEntryGateway gateway;
+
+    @Before
+    public void setUp() throws IOException {
+        bob.updateBook(xyz, 100);
+        manager = new MarketManager(Arrays.asList(xyz));
+        gateway = new OrderEntryGateway(manager, Arrays.asList(alice, bob), 2);
+        gateway.start(new InetSocketAddress("localhost", 0));
+    }
+
+    @After
+    public void tearDown() {
+        gateway.stop();
+    }
+
+    private SocketChannel connect() throws IOException {
+        return SocketChannel.open(new InetSocketAddress("localhost", gateway.getPort()));
+    }
+
+    private void send(SocketChannel channel, ByteBuffer message) throws IOException {
+        message.flip();
+        while (message.hasRemaining()) channel.write(message);
+    }
+
+    /**
+     * Reads a single message from the channel.
+     */
+    private ByteBuffer receive(SocketChannel channel) throws IOException {
+        ByteBuffer type = ByteBuffer.allocate(1);
+        while (type.hasRemaining()) channel.read(type);
+        ByteBuffer message = ByteBuffer.allocate(GatewayProtocol.messageLength(type.get(0)));
+        message.put(type.get(0));
+        while (message.hasRemaining()) channel.read(message);
+        return message;
+    }
+
+    private void logon(SocketChannel channel, String account) throws IOException {
+        ByteBuffer logon = ByteBuffer.allocate(GatewayProtocol.LOGON_LENGTH);
+        GatewayProtocol.putLogon(logon, account);
+        send(channel, logon);
+        ByteBuffer ack = receive(channel);
+        assertEquals(GatewayProtocol.ACK, ack.get(0));
+        assertEquals(0, ack.getLong(GatewayProtocol.ACK_CLIENT_ID));
+    }
+
+    private void newOrder(SocketChannel channel, long clientId, String symbol, Side side,
+                          float price, int amount) throws IOException {
+        ByteBuffer order = ByteBuffer.allocate(GatewayProtocol.NEW_ORDER_LENGTH);
+        GatewayProtocol.putNewOrder(order, clientId, GatewayProtocol.packSymbol(symbol), side,
+                price, amount);
+        send(channel, order);
+    }
+
+    @Test
+    public void placeAndFill() throws IOException {
+        try (SocketChannel aliceChannel = connect(); SocketChannel bobChannel = connect()) {
+            logon(aliceChannel, "Alice");
+            logon(bobChannel, "Bob");
+
+            newOrder(aliceChannel, 1, "XYZ", Side.BUY, 100.00f, 20);
+            ByteBuffer ack = receive(aliceChannel);
+            assertEquals(GatewayProtocol.ACK, ack.get(0));
+            assertEquals(1, ack.getLong(GatewayProtocol.ACK_CLIENT_ID));
+            assertEquals(Status.NEW, GatewayProtocol.readStatus(ack, GatewayProtocol.ACK_STATUS));
+            assertEquals(20, ack.getInt(GatewayProtocol.ACK_REMAINING));
+
+            // Bob's order trades immediately: the fill precedes the acknowledgement
+            newOrder(bobChannel, 7, "XYZ", Side.SELL, 100.00f, 15);
+            ByteBuffer bobFill = receive(bobChannel);
+            assertEquals(GatewayProtocol.FILL, bobFill.get(0));
+            assertEquals(7, bobFill.getLong(GatewayProtocol.FILL_CLIENT_ID));
+            assertEquals(15, bobFill.getInt(GatewayProtocol.FILL_AMOUNT));
+            assertEquals(0, bobFill.getInt(GatewayProtocol.FILL_REMAINING));
+            ByteBuffer bobAck = receive(bobChannel);
+            assertEquals(GatewayProtocol.ACK, bobAck.get(0));
+            assertEquals(Status.COMPLETED,
+                    GatewayProtocol.readStatus(bobAck, GatewayProtocol.ACK_STATUS));
+
+            ByteBuffer aliceFill = receive(aliceChannel);
+            assertEquals(GatewayProtocol.FILL, aliceFill.get(0));
+            assertEquals(1, aliceFill.getLong(GatewayProtocol.FILL_CLIENT_ID));
+            assertEquals(100.00f, aliceFill.getFloat(GatewayProtocol.FILL_PRICE), 0.0f);
+            assertEquals(5, aliceFill.getInt(GatewayProtocol.FILL_REMAINING));
+            assertEquals(15, alice.getPosition(xyz));
+
+            // Cancel the rest of Alice's order, and then fail to cancel it again
+            ByteBuffer cancel = ByteBuffer.allocate(GatewayProtocol.CANCEL_LENGTH);
+            GatewayProtocol.putCancel(cancel, 1);
+            send(aliceChannel, cancel);
+            ByteBuffer cancelAck = receive(aliceChannel);
+            assertEquals(GatewayProtocol.ACK, cancelAck.get(0));
+            assertEquals(Status.CANCELLED,
+                    GatewayProtocol.readStatus(cancelAck, GatewayProtocol.ACK_STATUS));
+            assertEquals(0, manager.getBuyQueue(xyz).size());
+
+            cancel.clear();
+            GatewayProtocol.putCancel(cancel, 1);
+            send(aliceChannel, cancel);
+            ByteBuffer reject = receive(aliceChannel);
+            assertEquals(GatewayProtocol.REJECT, reject.get(0));
+            assertEquals(GatewayProtocol.REASON_UNKNOWN_ORDER,
+                    reject.get(GatewayProtocol.REJECT_REASON));
+        }
+    }
+
+    @Test
+    public void reject() throws IOException {
+        try (SocketChannel channel = connect()) {
+            newOrder(channel, 1, "XYZ", Side.BUY, 100.00f, 20);
+            assertEquals(GatewayProtocol.REASON_NOT_LOGGED_ON,
+                    receive(channel).get(GatewayProtocol.REJECT_REASON));
+
+            logon(channel, "Alice");
+            newOrder(channel, 2, "ABC", Side.BUY, 100.00f, 20);
+            assertEquals(GatewayProtocol.REASON_UNKNOWN_PRODUCT,
+                    receive(channel).get(GatewayProtocol.REJECT_REASON));
+
+            // Alice has nothing to sell
+            newOrder(channel, 3, "XYZ", Side.SELL, 100.00f, 20);
+            assertEquals(GatewayProtocol.REASON_ILLEGAL_ORDER,
+                    receive(channel).get(GatewayProtocol.REJECT_REASON));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package uk.co.complex.lvs.cm.jfr;
+
+import org.junit.Test;
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.OrderListener;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlightRecorderEventsTest {
+    private final Product xyz = new Product("XYZ");
+    private final Account alice = new Account("Alice");
+    private final Account bob = new Account("Bob");
+
+    @Test
+    public void events() throws IOException, IllegalTradeException {
+        bob.updateBook(xyz, 100);
+        final MarketManager manager = new MarketManager(Arrays.asList(xyz));
+        manager.addOrderListener(new OrderListener() { });
+        final Order buy1 = new Order(xyz, 10f, 10, alice, Side.BUY, OffsetDateTime.now());
+        final Order buy2 = new Order(xyz, 11f, 10, alice, Side.BUY, OffsetDateTime.now());
+        final Order sell = new Order(xyz, 9f, 15, bob, Side.SELL, OffsetDateTime.now());
+
+        final Path file = Files.createTempFile("market", ".jfr");
+        try (Recording recording = new Recording(RecordingAnalyzer.getConfiguration())) {
+            recording.start();
+            manager.placeOrder(buy1);
+            manager.placeOrder(buy2);
+            manager.placeOrder(sell);
+            manager.cancelOrder(buy1);
+            recording.stop();
+            recording.dump(file);
+        }
+
+        try {
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                    .filter(e -> e.getEventType().getName().startsWith("uk.co.complex.lvs.cm."))
+                    .collect(Collectors.toList());
+
+            assertEquals(3, count(events, OrderReceivedEvent.NAME));
+            assertEquals(3, count(events, MatchCompletedEvent.NAME));
+            assertEquals(2, count(events, OrderRestedEvent.NAME));
+            assertEquals(1, count(events, OrderCancelledEvent.NAME));
+            // Two rested callbacks, two trades and a cancel
+            assertEquals(5, count(events, ListenerCallbackEvent.NAME));
+
+            final RecordedEvent match = events.stream()
+                    .filter(e -> e.getEventType().getName().equals(MatchCompletedEvent.NAME))
+                    .filter(e -> e.getLong("orderId") == sell.getId())
+                    .findFirst().get();
+            assertEquals("XYZ", match.getString("product"));
+            assertEquals(2, match.getInt("fills"));
+            assertEquals(2, match.getInt("levelsSwept"));
+
+            final String summary = RecordingAnalyzer.summarize(file);
+            assertTrue(summary.contains("placeOrder"));
+            assertTrue(summary.contains("XYZ matching"));
+            assertTrue(summary.contains(".tradeExecuted"));
+            assertTrue(summary.contains("3 matches with 0.67 fills and 0.67 levels swept"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static long count(List<RecordedEvent> events, String name) {
+        return events.stream().filter(e -> e.getEventType().getName().equals(name)).count();
+    }
+}
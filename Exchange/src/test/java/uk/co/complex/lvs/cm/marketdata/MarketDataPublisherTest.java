@@ -0,0 +1,159 @@
+package uk.co.complex.lvs.cm.marketdata;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MarketDataPublisherTest {
+    private final Product xyz = new Product("XYZ");
+    private final Account alice = new Account("Alice");
+    private final Account bob = new Account("Bob");
+    private MarketManager manager;
+    private MarketDataPublisher publisher;
+    private MarketDataSubscriber subscriber;
+    private int subscriberPort;
+
+    @Before
+    public void setUp() throws IOException {
+        bob.updateBook(xyz, 100);
+        manager = new MarketManager(Arrays.asList(xyz));
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            subscriberPort = socket.getLocalPort();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (subscriber != null) subscriber.stop();
+        publisher.stop();
+    }
+
+    private void start(int historySize) throws IOException {
+        publisher = new MarketDataPublisher(manager,
+                new InetSocketAddress("localhost", subscriberPort),
+                new InetSocketAddress("localhost", 0), null, 1024, historySize);
+        publisher.start();
+    }
+
+    /**
+     * Starts the subscriber after the publisher has sent some packets, so that it has missed them.
+     */
+    private void join() throws IOException {
+        subscriber = new MarketDataSubscriber(new InetSocketAddress("localhost", subscriberPort),
+                new InetSocketAddress("localhost", publisher.getRecoveryPort()));
+        subscriber.start();
+    }
+
+    private void place(Account actor, Side side, float price, int amount)
+            throws IllegalTradeException {
+        final long sequence = publisher.getLastSequence();
+        manager.placeOrder(new Order(xyz, price, amount, actor, side, OffsetDateTime.now()));
+        waitFor(() -> publisher.getLastSequence() > sequence);
+    }
+
+    private void waitFor(BooleanSupplier condition) {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    @Test
+    public void replay() throws IOException, IllegalTradeException {
+        start(MarketDataPublisher.DEFAULT_HISTORY_SIZE);
+        place(alice, Side.BUY, 9f, 10);
+        place(alice, Side.BUY, 9f, 5);
+        place(bob, Side.SELL, 11f, 20);
+
+        join();
+        place(bob, Side.SELL, 9f, 12);
+        waitFor(() -> subscriber.getLastSequence() == publisher.getLastSequence());
+
+        final NavigableMap<Float, Long> bids = subscriber.getImage().getLevels("XYZ", Side.BUY);
+        final NavigableMap<Float, Long> asks = subscriber.getImage().getLevels("XYZ", Side.SELL);
+        assertEquals(1, bids.size());
+        assertEquals(3L, (long) bids.get(9f));
+        assertEquals(1, asks.size());
+        assertEquals(20L, (long) asks.get(11f));
+        assertEquals(1, subscriber.getGapCount());
+        assertEquals(0, subscriber.getSnapshotCount());
+    }
+
+    @Test
+    public void snapshot() throws IOException, IllegalTradeException {
+        start(1);
+        place(alice, Side.BUY, 9f, 10);
+        place(alice, Side.BUY, 8f, 5);
+        place(bob, Side.SELL, 11f, 20);
+        place(bob, Side.SELL, 9f, 10);
+
+        join();
+        place(bob, Side.SELL, 12f, 1);
+        waitFor(() -> subscriber.getLastSequence() == publisher.getLastSequence());
+
+        final NavigableMap<Float, Long> bids = subscriber.getImage().getLevels("XYZ", Side.BUY);
+        final NavigableMap<Float, Long> asks = subscriber.getImage().getLevels("XYZ", Side.SELL);
+        assertEquals(1, bids.size());
+        assertEquals(5L, (long) bids.get(8f));
+        assertEquals(2, asks.size());
+        assertEquals(20L, (long) asks.get(11f));
+        assertEquals(1L, (long) asks.get(12f));
+        assertEquals(1, subscriber.getSnapshotCount());
+    }
+
+    @Test
+    public void overflow() throws IOException, IllegalTradeException {
+        publisher = new MarketDataPublisher(manager,
+                new InetSocketAddress("localhost", subscriberPort),
+                new InetSocketAddress("localhost", 0), null, 4,
+                MarketDataPublisher.DEFAULT_HISTORY_SIZE);
+
+        // The events arrive before the publisher thread runs, so the ring fills up
+        manager.addOrderListener(publisher);
+        for (int i = 0; i < 10; i++) {
+            manager.placeOrder(new Order(xyz, 9f - i, 1, alice, Side.BUY, OffsetDateTime.now()));
+        }
+        manager.cancelAllOrders(alice);
+        manager.removeOrderListener(publisher);
+        assertEquals(16, publisher.getDroppedCount());
+        publisher.start();
+        waitFor(() -> publisher.getLastSequence() == 2);
+
+        // The skipped packet cannot be replayed, so the subscriber recovers from a snapshot
+        join();
+        place(alice, Side.BUY, 8f, 3);
+        place(bob, Side.SELL, 11f, 20);
+        waitFor(() -> subscriber.getLastSequence() == publisher.getLastSequence());
+
+        final NavigableMap<Float, Long> bids = subscriber.getImage().getLevels("XYZ", Side.BUY);
+        final NavigableMap<Float, Long> asks = subscriber.getImage().getLevels("XYZ", Side.SELL);
+        assertEquals(1, bids.size());
+        assertEquals(3L, (long) bids.get(8f));
+        assertEquals(1, asks.size());
+        assertEquals(20L, (long) asks.get(11f));
+        assertEquals(1, subscriber.getSnapshotCount());
+        assertEquals(0, publisher.getBacklog());
+    }
+}
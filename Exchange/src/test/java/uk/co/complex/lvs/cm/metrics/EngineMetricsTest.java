@@ -0,0 +1,116 @@
+package uk.co.complex.lvs.cm.metrics;
+
+import org.junit.Test;
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EngineMetricsTest {
+    private final Product xyz = new Product("XYZ");
+    private final Account alice = new Account("Alice");
+    private final Account bob = new Account("Bob");
+
+    @Test
+    public void histogram() {
+        final LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) h.record(i * 1000L);
+
+        assertEquals(10000, h.getCount());
+        assertEquals(5000500, h.getMean(), 0.001);
+        assertEquals(10000000, h.getMax());
+        // Values are counted with a precision of about 3%
+        assertEquals(5000000, h.get50thPercentile(), 5000000 * 0.032);
+        assertEquals(9900000, h.get99thPercentile(), 9900000 * 0.032);
+        assertEquals(10000000, h.getValueAtPercentile(100));
+
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.get50thPercentile());
+    }
+
+    @Test
+    public void buckets() {
+        for (long v = 0; v < 100000; v++) {
+            final int index = LatencyHistogram.index(v);
+            assertTrue(LatencyHistogram.highestEquivalentValue(index) >= v);
+            assertTrue(index == 0 || LatencyHistogram.highestEquivalentValue(index - 1) < v);
+        }
+        LatencyHistogram.index(Long.MAX_VALUE);
+    }
+
+    private MarketManager trade() throws IllegalTradeException {
+        bob.updateBook(xyz, 100);
+        final MarketManager manager = new MarketManager(Arrays.asList(xyz));
+        manager.enableMetrics("test").setTimingInterval(1);
+        manager.placeOrder(new Order(xyz, 10f, 10, alice, Side.BUY, OffsetDateTime.now()));
+        manager.placeOrder(new Order(xyz, 9f, 10, alice, Side.BUY, OffsetDateTime.now()));
+        manager.placeOrder(new Order(xyz, 10f, 15, bob, Side.SELL, OffsetDateTime.now()));
+        final Order order = new Order(xyz, 8f, 1, alice, Side.BUY, OffsetDateTime.now());
+        manager.placeOrder(order);
+        manager.cancelOrder(order);
+        return manager;
+    }
+
+    @Test
+    public void placeOrder() throws IllegalTradeException {
+        final EngineMetrics metrics = trade().getMetrics();
+
+        for (EngineMetrics.Stage s : EngineMetrics.Stage.values()) {
+            assertEquals(4, metrics.getLatency(s).getCount());
+        }
+        assertEquals(4, metrics.getListenerLag().getCount());
+        final ProductMetrics product = metrics.getProductMetrics(xyz);
+        assertEquals(4, product.getOrders());
+        assertEquals(1, product.getCancels());
+        assertEquals(1, product.getTrades());
+        assertEquals(10, product.getVolume());
+        assertEquals(1, product.getBidOrders());
+        assertEquals(1, product.getAskOrders());
+        assertEquals(1, product.getBidLevels());
+    }
+
+    @Test
+    public void jmx() throws IllegalTradeException, JMException {
+        final EngineMetrics metrics = trade().getMetrics();
+        metrics.register();
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(new ObjectName(EngineMetrics.DOMAIN +
+                    ":type=Product,market=\"test\",product=\"XYZ\""), "Trades"));
+            assertEquals(4L, server.getAttribute(new ObjectName(EngineMetrics.DOMAIN +
+                    ":type=Latency,market=\"test\",stage=matching"), "Count"));
+        } finally {
+            metrics.unregister();
+        }
+    }
+
+    @Test
+    public void csv() throws IllegalTradeException {
+        final EngineMetrics metrics = trade().getMetrics();
+        metrics.addBacklogGauge("publisher", () -> 3);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new MetricsReporter(metrics, new PrintStream(out), MetricsReporter.Format.CSV).report();
+
+        final String[] lines = out.toString().split("\n");
+        assertEquals("time,metric,field,value", lines[0]);
+        assertTrue(Arrays.stream(lines).anyMatch(l -> l.endsWith(",latency.matching,count,4")));
+        assertTrue(Arrays.stream(lines).anyMatch(l -> l.endsWith(",product.XYZ,volume,10")));
+        assertTrue(Arrays.stream(lines).anyMatch(l -> l.endsWith(",backlog.publisher,events,3")));
+        assertTrue(Arrays.stream(lines).anyMatch(l -> l.endsWith(",throttle,orders,0")));
+    }
+}
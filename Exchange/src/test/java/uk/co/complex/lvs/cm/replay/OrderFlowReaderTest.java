@@ -0,0 +1,127 @@
+package uk.co.complex.lvs.cm.replay;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class OrderFlowReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Product xyz = new Product("XYZ");
+    private final Product abc = new Product("ABC");
+
+    private Path write(String content) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    @Test
+    public void readsCsv() throws IOException {
+        Path file = write("time,symbol,type,id,side,price,size\n" +
+                "34200.000012,XYZ,A,1001,B,100.25,50\n" +
+                "34200.5,QQQ,A,1002,S,10,5\n" +
+                "\r\n" +
+                "34201.123456789123,ABC,C,7,S,99.5,20\r\n" +
+                "34202,XYZ,E,1001,B,100.25,10");
+        FlowEvent event = new FlowEvent();
+        try (OrderFlowReader reader = new OrderFlowReader(file, FlowFormat.CSV,
+                Arrays.asList(xyz, abc))) {
+            assertTrue(reader.next(event));
+            assertEquals(FlowEvent.Type.ADD, event.getType());
+            assertEquals(34_200_000_012_000L, event.getTimeNanos());
+            assertSame(xyz, event.getProduct());
+            assertEquals(1001, event.getOrderId());
+            assertEquals(Side.BUY, event.getSide());
+            assertEquals(100.25f, event.getPrice(), 0.0f);
+            assertEquals(50, event.getSize());
+
+            assertTrue(reader.next(event));
+            assertEquals(FlowEvent.Type.CANCEL, event.getType());
+            assertEquals(34_201_123_456_789L, event.getTimeNanos());
+            assertSame(abc, event.getProduct());
+            assertEquals(Side.SELL, event.getSide());
+            assertEquals(99.5f, event.getPrice(), 0.0f);
+
+            assertTrue(reader.next(event));
+            assertEquals(FlowEvent.Type.EXECUTE, event.getType());
+            assertEquals(10, event.getSize());
+            assertFalse(reader.next(event));
+            assertEquals(6, reader.getLineCount());
+            // The header, the unknown product and the blank line
+            assertEquals(3, reader.getSkippedCount());
+        }
+    }
+
+    @Test
+    public void readsLobster() throws IOException {
+        Path file = write("34200.004241176,1,16113575,18,5853300,1\n" +
+                "34200.025551909,5,0,100,5853200,-1\n" +
+                "34200.201743184,3,16113575,18,5853300,1\n");
+        FlowEvent event = new FlowEvent();
+        try (OrderFlowReader reader = new OrderFlowReader(file, FlowFormat.LOBSTER,
+                Collections.singletonList(xyz))) {
+            assertTrue(reader.next(event));
+            assertEquals(FlowEvent.Type.ADD, event.getType());
+            assertEquals(34_200_004_241_176L, event.getTimeNanos());
+            assertEquals(16113575, event.getOrderId());
+            assertEquals(18, event.getSize());
+            assertEquals(585.33f, event.getPrice(), 0.0f);
+            assertEquals(Side.BUY, event.getSide());
+            assertSame(xyz, event.getProduct());
+
+            // The hidden execution is skipped
+            assertTrue(reader.next(event));
+            assertEquals(FlowEvent.Type.DELETE, event.getType());
+            assertFalse(reader.next(event));
+            assertEquals(1, reader.getSkippedCount());
+        }
+    }
+
+    @Test
+    public void readsAcrossWindows() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("34200.").append(i).append(",XYZ,A,").append(i).append(",S,")
+                    .append(100 + i % 7).append(".5,").append(1 + i).append('\n');
+        }
+        Path file = write(content.toString());
+        FlowEvent event = new FlowEvent();
+        // A window which ends in the middle of most lines
+        try (OrderFlowReader reader = new OrderFlowReader(file, FlowFormat.CSV,
+                Collections.singletonList(xyz), 61)) {
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(reader.next(event));
+                assertEquals(i, event.getOrderId());
+                assertEquals(100 + i % 7 + 0.5f, event.getPrice(), 0.0f);
+                assertEquals(1 + i, event.getSize());
+            }
+            assertFalse(reader.next(event));
+            assertEquals(Files.size(file), reader.getPosition());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMalformedLines() throws IOException {
+        Path file = write("34200.1,XYZ,A,12x,B,100.25,50\n");
+        try (OrderFlowReader reader = new OrderFlowReader(file, FlowFormat.CSV,
+                Collections.singletonList(xyz))) {
+            reader.next(new FlowEvent());
+        }
+    }
+}
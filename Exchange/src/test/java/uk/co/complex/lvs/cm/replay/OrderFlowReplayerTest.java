@@ -0,0 +1,55 @@
+package uk.co.complex.lvs.cm.replay;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OrderFlowReplayerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysFlow() throws IOException {
+        Product xyz = new Product("XYZ");
+        Path file = folder.newFile().toPath();
+        Files.write(file, ("34200.1,XYZ,A,1,B,99.50,100\n" +
+                "34200.2,XYZ,A,2,B,99.50,40\n" +
+                "34200.3,XYZ,A,3,S,100.50,30\n" +
+                "34200.4,XYZ,C,1,B,99.50,60\n" +
+                "34200.5,XYZ,E,1,B,99.50,25\n" +
+                "34200.6,XYZ,D,3,S,100.50,30\n" +
+                "34200.7,XYZ,D,99,S,100.50,30\n").getBytes(StandardCharsets.US_ASCII));
+        MarketManager manager = new MarketManager(Arrays.asList(xyz));
+        OrderFlowReplayer replayer = new OrderFlowReplayer(manager, LocalDate.of(2018, 1, 2));
+
+        try (OrderFlowReader reader = new OrderFlowReader(file, FlowFormat.CSV,
+                Arrays.asList(xyz))) {
+            assertEquals(7, replayer.replay(reader));
+        }
+        assertEquals(1, replayer.getTradeCount());
+        assertEquals(1, replayer.getIgnoredCount());
+        assertEquals(0, replayer.getRejectedCount());
+        assertTrue(manager.getSellQueue(xyz).isEmpty());
+
+        // The first order was reduced to 40 in place, and then 25 of it was executed
+        assertEquals(2, manager.getBuyQueue(xyz).size());
+        Order first = manager.getBuyQueue(xyz).first();
+        assertEquals(15, first.getRemainingAmount());
+        assertEquals(55, manager.getTopOfBook(xyz).getBidAmount());
+        assertEquals(25, manager.getBook().getAllRecords().get(0).getAmount());
+        assertEquals("2018-01-02T09:30:00.100Z", first.getTime().toString());
+    }
+}
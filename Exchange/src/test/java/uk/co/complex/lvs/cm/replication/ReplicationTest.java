@@ -0,0 +1,173 @@
+package uk.co.complex.lvs.cm.replication;
+
+import org.junit.After;
+import org.junit.Test;
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+import uk.co.complex.lvs.cm.datamodel.Trade;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicationTest {
+    private final Product xyz = new Product("XYZ");
+    private final List<ReplicatedMarket> primaries = new ArrayList<>();
+    private final List<BackupReplica> backups = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (BackupReplica b : backups) b.disconnect();
+        for (ReplicatedMarket p : primaries) p.stop();
+    }
+
+    /**
+     * Returns fresh accounts, as every engine instance needs its own.
+     */
+    private static List<Account> accounts() {
+        return Arrays.asList(new Account("Alice"), new Account("Bob"));
+    }
+
+    private ReplicatedMarket primary(CommandLog log, ReplicatedMarket.AckMode mode)
+            throws IOException {
+        final ReplicatedMarket primary = new ReplicatedMarket(
+                new MarketManager(Arrays.asList(xyz)), accounts(), log, mode);
+        primary.start(new InetSocketAddress("localhost", 0));
+        primaries.add(primary);
+        return primary;
+    }
+
+    private BackupReplica backup(ReplicatedMarket primary) throws IOException {
+        final BackupReplica backup = new BackupReplica(new MarketManager(Arrays.asList(xyz)),
+                accounts(), new CommandLog());
+        backup.connect(new InetSocketAddress("localhost", primary.getPort()));
+        backups.add(backup);
+        return backup;
+    }
+
+    private void trade(ReplicatedMarket primary) throws IllegalTradeException {
+        primary.deposit("Bob", xyz, 100);
+        primary.placeOrder("Alice", xyz, Side.BUY, 10f, 10);
+        primary.placeOrder("Alice", xyz, Side.BUY, 11f, 10);
+        final Order cancelled = primary.placeOrder("Alice", xyz, Side.BUY, 8f, 5);
+        primary.placeOrder("Bob", xyz, Side.SELL, 10f, 15);
+        primary.placeOrder("Bob", xyz, Side.SELL, 12f, 20);
+        assertTrue(primary.cancelOrder(cancelled.getId()));
+    }
+
+    private void waitFor(BackupReplica backup, long sequence) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (backup.getLastSequence() < sequence) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Describes the book and the queues of a market, by value (every engine instance has its own
+     * accounts, which are only equal by name).
+     */
+    private String describe(MarketManager manager) {
+        synchronized (manager) {
+            final StringBuilder description = new StringBuilder();
+            for (Trade t : manager.getBook().getAllRecords()) {
+                description.append(t).append(" #").append(t.getBuyOrderId()).append("/")
+                        .append(t.getSellOrderId()).append("\n");
+            }
+            for (Order o : manager.getBuyQueue(xyz)) {
+                description.append(o).append(" #").append(o.getId()).append("\n");
+            }
+            for (Order o : manager.getSellQueue(xyz)) {
+                description.append(o).append(" #").append(o.getId()).append("\n");
+            }
+            return description.toString();
+        }
+    }
+
+    private void assertSameMarket(MarketManager expected, MarketManager actual) {
+        assertEquals(describe(expected), describe(actual));
+    }
+
+    @Test
+    public void replicate() throws IOException, IllegalTradeException, InterruptedException {
+        final ReplicatedMarket primary = primary(new CommandLog(),
+                ReplicatedMarket.AckMode.REPLICATED);
+        final BackupReplica first = backup(primary);
+        trade(primary);
+        // A backup which joins late catches up from the log of the primary
+        final BackupReplica second = backup(primary);
+        waitFor(first, primary.getLastSequence());
+        waitFor(second, primary.getLastSequence());
+
+        assertEquals(7, primary.getLastSequence());
+        assertEquals(2, primary.getManager().getBook().getAllRecords().size());
+        assertSameMarket(primary.getManager(), first.getManager());
+        assertSameMarket(primary.getManager(), second.getManager());
+    }
+
+    @Test
+    public void failover() throws IOException, IllegalTradeException, InterruptedException {
+        final ReplicatedMarket primary = primary(new CommandLog(),
+                ReplicatedMarket.AckMode.REPLICATED);
+        final BackupReplica first = backup(primary);
+        final BackupReplica second = backup(primary);
+        final CountDownLatch lost = new CountDownLatch(1);
+        first.setFailoverHandler(lost::countDown);
+        trade(primary);
+        waitFor(first, primary.getLastSequence());
+
+        primary.stop();
+        assertTrue(lost.await(1, TimeUnit.SECONDS));
+        assertTrue(first.isPrimaryLost());
+
+        final ReplicatedMarket promoted = first.promote(ReplicatedMarket.AckMode.REPLICATED);
+        promoted.start(new InetSocketAddress("localhost", 0));
+        primaries.add(promoted);
+        second.disconnect();
+        second.connect(new InetSocketAddress("localhost", promoted.getPort()));
+        assertFalse(second.isPrimaryLost());
+
+        // The new primary continues the sequence, with the book of the old primary
+        final Order buy = promoted.placeOrder("Alice", xyz, Side.BUY, 12f, 20);
+        assertEquals(8, buy.getId());
+        assertEquals(Status.COMPLETED, buy.getStatus());
+        waitFor(second, 8);
+        assertSameMarket(promoted.getManager(), second.getManager());
+    }
+
+    @Test
+    public void restart() throws IOException, IllegalTradeException {
+        final Path journal = Files.createTempFile("market", ".log");
+        try {
+            final CommandLog log = new CommandLog(journal);
+            final ReplicatedMarket primary = primary(log, ReplicatedMarket.AckMode.PERSISTED);
+            trade(primary);
+            primary.stop();
+            log.close();
+
+            try (CommandLog restored = new CommandLog(journal)) {
+                final ReplicatedMarket restarted = primary(restored,
+                        ReplicatedMarket.AckMode.PERSISTED);
+                assertEquals(7, restarted.getLastSequence());
+                assertSameMarket(primary.getManager(), restarted.getManager());
+            }
+        } finally {
+            Files.delete(journal);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package uk.co.complex.lvs.cm.router;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.complex.lvs.cm.IllegalTradeException;
+import uk.co.complex.lvs.cm.MarketManager;
+import uk.co.complex.lvs.cm.datamodel.Account;
+import uk.co.complex.lvs.cm.datamodel.Order;
+import uk.co.complex.lvs.cm.datamodel.Product;
+import uk.co.complex.lvs.cm.datamodel.Side;
+import uk.co.complex.lvs.cm.datamodel.Status;
+
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SmartOrderRouterTest {
+    private final Product xyz = new Product("XYZ");
+    private final Product abc = new Product("ABC");
+    private final Account alice = new Account("Alice");
+    private final Account bob = new Account("Bob");
+    private final MarketManager first = new MarketManager(Arrays.asList(xyz, abc));
+    private final MarketManager second = new MarketManager(Arrays.asList(xyz));
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private SmartOrderRouter router;
+
+    @Before
+    public void setUp() throws IllegalTradeException {
+        bob.updateBook(xyz, 1000);
+        alice.updateBook(xyz, 1000);
+        // Orders which are queued before the router starts are included in its book
+        first.placeOrder(new Order(xyz, 10.0f, 10, bob, Side.SELL, OffsetDateTime.now()));
+        router = new SmartOrderRouter(Arrays.asList(first, second), executor);
+        router.start();
+        first.placeOrder(new Order(xyz, 10.2f, 10, bob, Side.SELL, OffsetDateTime.now()));
+        second.placeOrder(new Order(xyz, 10.1f, 15, bob, Side.SELL, OffsetDateTime.now()));
+        second.placeOrder(new Order(xyz, 10.0f, 5, bob, Side.SELL, OffsetDateTime.now()));
+    }
+
+    @After
+    public void tearDown() {
+        router.stop();
+        executor.shutdown();
+    }
+
+    @Test
+    public void consolidatedBook() throws IllegalTradeException {
+        final ConsolidatedBook book = router.getBook();
+        final List<ConsolidatedBook.Level> asks = book.getDepth(xyz, Side.SELL, 10);
+        assertEquals(3, asks.size());
+        assertEquals(10.0f, asks.get(0).getPrice(), 0);
+        assertEquals(15, asks.get(0).getQuantity());
+        assertEquals(10, asks.get(0).getQuantity(0));
+        assertEquals(5, asks.get(0).getQuantity(1));
+        assertEquals(10.1f, asks.get(1).getPrice(), 0);
+        assertEquals(10.2f, asks.get(2).getPrice(), 0);
+        assertNull(book.getBest(xyz, Side.BUY));
+
+        // A trade and a cancel on a venue update the book
+        second.placeOrder(new Order(xyz, 10.0f, 3, alice, Side.BUY, OffsetDateTime.now()));
+        final Order bid = new Order(xyz, 9.0f, 7, alice, Side.BUY, OffsetDateTime.now());
+        first.placeOrder(bid);
+        assertEquals(12, book.getBest(xyz, Side.SELL).getQuantity());
+        assertEquals(7, book.getBest(xyz, Side.BUY).getQuantity());
+        first.cancelOrder(bid);
+        assertNull(book.getBest(xyz, Side.BUY));
+    }
+
+    @Test
+    public void sweep() throws IllegalTradeException {
+        final ParentOrder parent = router.route(alice, xyz, Side.BUY, 10.1f, 25);
+
+        assertEquals(Status.COMPLETED, parent.getStatus());
+        assertEquals(25, parent.getFilledAmount());
+        assertEquals(2, parent.getChildren().size());
+        // Trades are made at the midpoint of the prices of the two orders
+        assertEquals((15 * 10.05 + 10 * 10.1) / 25, parent.getAveragePrice(), 1e-4);
+        assertEquals(5, router.getBook().getBest(xyz, Side.SELL).getQuantity());
+        assertEquals(10.1f, router.getBook().getBest(xyz, Side.SELL).getPrice(), 0);
+    }
+
+    @Test
+    public void remainderIsQueued() throws IllegalTradeException {
+        final ParentOrder parent = router.route(alice, xyz, Side.BUY, 10.0f, 20);
+
+        assertEquals(Status.PARTIAL, parent.getStatus());
+        assertEquals(15, parent.getFilledAmount());
+        assertEquals(5, parent.getRemainingAmount());
+        assertEquals(5, router.getBook().getBest(xyz, Side.BUY).getQuantity());
+
+        // The queued remainder is filled later, which completes the parent order
+        first.placeOrder(new Order(xyz, 10.0f, 5, bob, Side.SELL, OffsetDateTime.now()));
+        assertEquals(Status.COMPLETED, parent.getStatus());
+        assertEquals(20, parent.getFilledAmount());
+    }
+
+    @Test
+    public void cancel() throws IllegalTradeException {
+        final ParentOrder parent = router.route(bob, xyz, Side.SELL, 11.0f, 30);
+        assertEquals(Status.NEW, parent.getStatus());
+
+        parent.cancel();
+        assertEquals(Status.CANCELLED, parent.getStatus());
+        assertEquals(0, parent.getRemainingAmount());
+        // Only the first venue lists ABC
+        assertEquals(1, router.route(alice, abc, Side.BUY, 1.0f, 5).getChildren().size());
+    }
+}
@@ -0,0 +1,71 @@
+package uk.co.complex.lvs.cm.simulation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MonteCarloRunnerTest {
+    private static SimulationConfig config() {
+        List<TraderParameters> traders = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            traders.add(new TraderParameters(95.0f, 105.0f, 1, 20, 100, 1000, 200));
+        }
+        return new SimulationConfig(traders, 60_000L, 5_000L);
+    }
+
+    @Test
+    public void sessionIsRepeatable() {
+        SimulationResult a = new Simulation(config(), 7).run();
+        SimulationResult b = new Simulation(config(), 7).run();
+        assertEquals(12, a.getPricePath().length);
+        assertArrayEquals(a.getPricePath(), b.getPricePath(), 0.0f);
+        assertEquals(a.getVolume(), b.getVolume());
+        assertEquals(a.getMeanSpread(), b.getMeanSpread(), 0.0);
+
+        // Five traders each place an order every 100 to 1000 ms over a minute
+        assertTrue(a.getOrderCount() > 300);
+        assertTrue(a.getTradeCount() > 0);
+        assertTrue(a.getFillRate() > 0 && a.getFillRate() <= 1);
+        for (float price : a.getPricePath()) {
+            assertTrue(Float.isNaN(price) || (price >= 95.0f && price <= 105.0f));
+        }
+    }
+
+    @Test
+    public void resultDoesNotDependOnParallelism() {
+        MonteCarloRunner serial = new MonteCarloRunner(1);
+        MonteCarloRunner parallel = new MonteCarloRunner(4);
+        List<SimulationResult> streamed = Collections.synchronizedList(new ArrayList<>());
+        parallel.setListener(streamed::add);
+        AggregateResult a = serial.run(config(), 20, 42);
+        AggregateResult b = parallel.run(config(), 20, 42);
+        serial.shutdown();
+        parallel.shutdown();
+
+        assertEquals(20, a.getRuns());
+        assertEquals(20, streamed.size());
+        assertEquals(a.getTradeCount(), b.getTradeCount());
+        assertEquals(a.getMeanVolume(), b.getMeanVolume(), 0.0);
+        assertEquals(a.getVolumeStdDev(), b.getVolumeStdDev(), 0.0);
+        assertEquals(a.getMeanSpread(), b.getMeanSpread(), 0.0);
+        assertEquals(a.getMeanFillRate(), b.getMeanFillRate(), 0.0);
+        assertArrayEquals(a.getMeanPricePath(), b.getMeanPricePath(), 0.0);
+
+        long trades = 0;
+        for (SimulationResult r : streamed) trades += r.getTradeCount();
+        assertEquals(a.getTradeCount(), trades);
+        assertTrue(a.getVolumeStdDev() > 0);
+        assertTrue(a.getMeanSpread() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyWaitRange() {
+        new TraderParameters(95.0f, 105.0f, 1, 20, 100, 100, 200);
+    }
+}